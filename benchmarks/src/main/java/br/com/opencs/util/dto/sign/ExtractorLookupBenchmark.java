@@ -0,0 +1,94 @@
+/*
+ * BSD 3-Clause License
+ * 
+ * Copyright (c) 2019, Open Communications Security
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package br.com.opencs.util.dto.sign;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of the extractor lookup. The cold lookup includes the
+ * creation of the extractor while the warm lookup only hits the cache.
+ * 
+ * @author Fabio Jun Takada Chino
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExtractorLookupBenchmark {
+
+	@Param({"small", "wide", "largeString"})
+	public String dtoType;
+
+	private Class<?> dtoClass;
+
+	private SignedPropertyExtractorRegistry registry;
+
+	@Setup
+	public void setup() throws DTOSignerException {
+		this.dtoClass = BenchmarkDTOs.create(this.dtoType).getClass();
+		this.registry = new SignedPropertyExtractorRegistry();
+		this.registry.getExtractor(this.dtoClass);
+	}
+
+	@Benchmark
+	@Threads(1)
+	public SignedPropertyExtractor coldLookup() throws DTOSignerException {
+		return new SignedPropertyExtractorRegistry().getExtractor(this.dtoClass);
+	}
+
+	@Benchmark
+	@Threads(1)
+	public SignedPropertyExtractor warmLookup() throws DTOSignerException {
+		return this.registry.getExtractor(this.dtoClass);
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public SignedPropertyExtractor warmLookupMultiThreaded() throws DTOSignerException {
+		return this.registry.getExtractor(this.dtoClass);
+	}
+}
@@ -0,0 +1,765 @@
+/*
+ * BSD 3-Clause License
+ * 
+ * Copyright (c) 2019, Open Communications Security
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package br.com.opencs.util.dto.sign;
+
+/**
+ * Wide DTO with 60 signed properties.
+ * 
+ * @author Fabio Jun Takada Chino
+ */
+public class WideDTO {
+
+	private int p00;
+
+	private long p01;
+
+	private String p02;
+
+	private int p03;
+
+	private long p04;
+
+	private String p05;
+
+	private int p06;
+
+	private long p07;
+
+	private String p08;
+
+	private int p09;
+
+	private long p10;
+
+	private String p11;
+
+	private int p12;
+
+	private long p13;
+
+	private String p14;
+
+	private int p15;
+
+	private long p16;
+
+	private String p17;
+
+	private int p18;
+
+	private long p19;
+
+	private String p20;
+
+	private int p21;
+
+	private long p22;
+
+	private String p23;
+
+	private int p24;
+
+	private long p25;
+
+	private String p26;
+
+	private int p27;
+
+	private long p28;
+
+	private String p29;
+
+	private int p30;
+
+	private long p31;
+
+	private String p32;
+
+	private int p33;
+
+	private long p34;
+
+	private String p35;
+
+	private int p36;
+
+	private long p37;
+
+	private String p38;
+
+	private int p39;
+
+	private long p40;
+
+	private String p41;
+
+	private int p42;
+
+	private long p43;
+
+	private String p44;
+
+	private int p45;
+
+	private long p46;
+
+	private String p47;
+
+	private int p48;
+
+	private long p49;
+
+	private String p50;
+
+	private int p51;
+
+	private long p52;
+
+	private String p53;
+
+	private int p54;
+
+	private long p55;
+
+	private String p56;
+
+	private int p57;
+
+	private long p58;
+
+	private String p59;
+
+	@SignedProperty
+	public int getP00() {
+		return p00;
+	}
+
+	public void setP00(int p00) {
+		this.p00 = p00;
+	}
+
+	@SignedProperty
+	public long getP01() {
+		return p01;
+	}
+
+	public void setP01(long p01) {
+		this.p01 = p01;
+	}
+
+	@SignedProperty
+	public String getP02() {
+		return p02;
+	}
+
+	public void setP02(String p02) {
+		this.p02 = p02;
+	}
+
+	@SignedProperty
+	public int getP03() {
+		return p03;
+	}
+
+	public void setP03(int p03) {
+		this.p03 = p03;
+	}
+
+	@SignedProperty
+	public long getP04() {
+		return p04;
+	}
+
+	public void setP04(long p04) {
+		this.p04 = p04;
+	}
+
+	@SignedProperty
+	public String getP05() {
+		return p05;
+	}
+
+	public void setP05(String p05) {
+		this.p05 = p05;
+	}
+
+	@SignedProperty
+	public int getP06() {
+		return p06;
+	}
+
+	public void setP06(int p06) {
+		this.p06 = p06;
+	}
+
+	@SignedProperty
+	public long getP07() {
+		return p07;
+	}
+
+	public void setP07(long p07) {
+		this.p07 = p07;
+	}
+
+	@SignedProperty
+	public String getP08() {
+		return p08;
+	}
+
+	public void setP08(String p08) {
+		this.p08 = p08;
+	}
+
+	@SignedProperty
+	public int getP09() {
+		return p09;
+	}
+
+	public void setP09(int p09) {
+		this.p09 = p09;
+	}
+
+	@SignedProperty
+	public long getP10() {
+		return p10;
+	}
+
+	public void setP10(long p10) {
+		this.p10 = p10;
+	}
+
+	@SignedProperty
+	public String getP11() {
+		return p11;
+	}
+
+	public void setP11(String p11) {
+		this.p11 = p11;
+	}
+
+	@SignedProperty
+	public int getP12() {
+		return p12;
+	}
+
+	public void setP12(int p12) {
+		this.p12 = p12;
+	}
+
+	@SignedProperty
+	public long getP13() {
+		return p13;
+	}
+
+	public void setP13(long p13) {
+		this.p13 = p13;
+	}
+
+	@SignedProperty
+	public String getP14() {
+		return p14;
+	}
+
+	public void setP14(String p14) {
+		this.p14 = p14;
+	}
+
+	@SignedProperty
+	public int getP15() {
+		return p15;
+	}
+
+	public void setP15(int p15) {
+		this.p15 = p15;
+	}
+
+	@SignedProperty
+	public long getP16() {
+		return p16;
+	}
+
+	public void setP16(long p16) {
+		this.p16 = p16;
+	}
+
+	@SignedProperty
+	public String getP17() {
+		return p17;
+	}
+
+	public void setP17(String p17) {
+		this.p17 = p17;
+	}
+
+	@SignedProperty
+	public int getP18() {
+		return p18;
+	}
+
+	public void setP18(int p18) {
+		this.p18 = p18;
+	}
+
+	@SignedProperty
+	public long getP19() {
+		return p19;
+	}
+
+	public void setP19(long p19) {
+		this.p19 = p19;
+	}
+
+	@SignedProperty
+	public String getP20() {
+		return p20;
+	}
+
+	public void setP20(String p20) {
+		this.p20 = p20;
+	}
+
+	@SignedProperty
+	public int getP21() {
+		return p21;
+	}
+
+	public void setP21(int p21) {
+		this.p21 = p21;
+	}
+
+	@SignedProperty
+	public long getP22() {
+		return p22;
+	}
+
+	public void setP22(long p22) {
+		this.p22 = p22;
+	}
+
+	@SignedProperty
+	public String getP23() {
+		return p23;
+	}
+
+	public void setP23(String p23) {
+		this.p23 = p23;
+	}
+
+	@SignedProperty
+	public int getP24() {
+		return p24;
+	}
+
+	public void setP24(int p24) {
+		this.p24 = p24;
+	}
+
+	@SignedProperty
+	public long getP25() {
+		return p25;
+	}
+
+	public void setP25(long p25) {
+		this.p25 = p25;
+	}
+
+	@SignedProperty
+	public String getP26() {
+		return p26;
+	}
+
+	public void setP26(String p26) {
+		this.p26 = p26;
+	}
+
+	@SignedProperty
+	public int getP27() {
+		return p27;
+	}
+
+	public void setP27(int p27) {
+		this.p27 = p27;
+	}
+
+	@SignedProperty
+	public long getP28() {
+		return p28;
+	}
+
+	public void setP28(long p28) {
+		this.p28 = p28;
+	}
+
+	@SignedProperty
+	public String getP29() {
+		return p29;
+	}
+
+	public void setP29(String p29) {
+		this.p29 = p29;
+	}
+
+	@SignedProperty
+	public int getP30() {
+		return p30;
+	}
+
+	public void setP30(int p30) {
+		this.p30 = p30;
+	}
+
+	@SignedProperty
+	public long getP31() {
+		return p31;
+	}
+
+	public void setP31(long p31) {
+		this.p31 = p31;
+	}
+
+	@SignedProperty
+	public String getP32() {
+		return p32;
+	}
+
+	public void setP32(String p32) {
+		this.p32 = p32;
+	}
+
+	@SignedProperty
+	public int getP33() {
+		return p33;
+	}
+
+	public void setP33(int p33) {
+		this.p33 = p33;
+	}
+
+	@SignedProperty
+	public long getP34() {
+		return p34;
+	}
+
+	public void setP34(long p34) {
+		this.p34 = p34;
+	}
+
+	@SignedProperty
+	public String getP35() {
+		return p35;
+	}
+
+	public void setP35(String p35) {
+		this.p35 = p35;
+	}
+
+	@SignedProperty
+	public int getP36() {
+		return p36;
+	}
+
+	public void setP36(int p36) {
+		this.p36 = p36;
+	}
+
+	@SignedProperty
+	public long getP37() {
+		return p37;
+	}
+
+	public void setP37(long p37) {
+		this.p37 = p37;
+	}
+
+	@SignedProperty
+	public String getP38() {
+		return p38;
+	}
+
+	public void setP38(String p38) {
+		this.p38 = p38;
+	}
+
+	@SignedProperty
+	public int getP39() {
+		return p39;
+	}
+
+	public void setP39(int p39) {
+		this.p39 = p39;
+	}
+
+	@SignedProperty
+	public long getP40() {
+		return p40;
+	}
+
+	public void setP40(long p40) {
+		this.p40 = p40;
+	}
+
+	@SignedProperty
+	public String getP41() {
+		return p41;
+	}
+
+	public void setP41(String p41) {
+		this.p41 = p41;
+	}
+
+	@SignedProperty
+	public int getP42() {
+		return p42;
+	}
+
+	public void setP42(int p42) {
+		this.p42 = p42;
+	}
+
+	@SignedProperty
+	public long getP43() {
+		return p43;
+	}
+
+	public void setP43(long p43) {
+		this.p43 = p43;
+	}
+
+	@SignedProperty
+	public String getP44() {
+		return p44;
+	}
+
+	public void setP44(String p44) {
+		this.p44 = p44;
+	}
+
+	@SignedProperty
+	public int getP45() {
+		return p45;
+	}
+
+	public void setP45(int p45) {
+		this.p45 = p45;
+	}
+
+	@SignedProperty
+	public long getP46() {
+		return p46;
+	}
+
+	public void setP46(long p46) {
+		this.p46 = p46;
+	}
+
+	@SignedProperty
+	public String getP47() {
+		return p47;
+	}
+
+	public void setP47(String p47) {
+		this.p47 = p47;
+	}
+
+	@SignedProperty
+	public int getP48() {
+		return p48;
+	}
+
+	public void setP48(int p48) {
+		this.p48 = p48;
+	}
+
+	@SignedProperty
+	public long getP49() {
+		return p49;
+	}
+
+	public void setP49(long p49) {
+		this.p49 = p49;
+	}
+
+	@SignedProperty
+	public String getP50() {
+		return p50;
+	}
+
+	public void setP50(String p50) {
+		this.p50 = p50;
+	}
+
+	@SignedProperty
+	public int getP51() {
+		return p51;
+	}
+
+	public void setP51(int p51) {
+		this.p51 = p51;
+	}
+
+	@SignedProperty
+	public long getP52() {
+		return p52;
+	}
+
+	public void setP52(long p52) {
+		this.p52 = p52;
+	}
+
+	@SignedProperty
+	public String getP53() {
+		return p53;
+	}
+
+	public void setP53(String p53) {
+		this.p53 = p53;
+	}
+
+	@SignedProperty
+	public int getP54() {
+		return p54;
+	}
+
+	public void setP54(int p54) {
+		this.p54 = p54;
+	}
+
+	@SignedProperty
+	public long getP55() {
+		return p55;
+	}
+
+	public void setP55(long p55) {
+		this.p55 = p55;
+	}
+
+	@SignedProperty
+	public String getP56() {
+		return p56;
+	}
+
+	public void setP56(String p56) {
+		this.p56 = p56;
+	}
+
+	@SignedProperty
+	public int getP57() {
+		return p57;
+	}
+
+	public void setP57(int p57) {
+		this.p57 = p57;
+	}
+
+	@SignedProperty
+	public long getP58() {
+		return p58;
+	}
+
+	public void setP58(long p58) {
+		this.p58 = p58;
+	}
+
+	@SignedProperty
+	public String getP59() {
+		return p59;
+	}
+
+	public void setP59(String p59) {
+		this.p59 = p59;
+	}
+
+	public static WideDTO create() {
+		WideDTO dto = new WideDTO();
+		dto.setP00(7);
+		dto.setP01(100000007L);
+		dto.setP02("value-2");
+		dto.setP03(3007);
+		dto.setP04(400000028L);
+		dto.setP05("value-5");
+		dto.setP06(6007);
+		dto.setP07(700000049L);
+		dto.setP08("value-8");
+		dto.setP09(9007);
+		dto.setP10(1000000070L);
+		dto.setP11("value-11");
+		dto.setP12(12007);
+		dto.setP13(1300000091L);
+		dto.setP14("value-14");
+		dto.setP15(15007);
+		dto.setP16(1600000112L);
+		dto.setP17("value-17");
+		dto.setP18(18007);
+		dto.setP19(1900000133L);
+		dto.setP20("value-20");
+		dto.setP21(21007);
+		dto.setP22(2200000154L);
+		dto.setP23("value-23");
+		dto.setP24(24007);
+		dto.setP25(2500000175L);
+		dto.setP26("value-26");
+		dto.setP27(27007);
+		dto.setP28(2800000196L);
+		dto.setP29("value-29");
+		dto.setP30(30007);
+		dto.setP31(3100000217L);
+		dto.setP32("value-32");
+		dto.setP33(33007);
+		dto.setP34(3400000238L);
+		dto.setP35("value-35");
+		dto.setP36(36007);
+		dto.setP37(3700000259L);
+		dto.setP38("value-38");
+		dto.setP39(39007);
+		dto.setP40(4000000280L);
+		dto.setP41("value-41");
+		dto.setP42(42007);
+		dto.setP43(4300000301L);
+		dto.setP44("value-44");
+		dto.setP45(45007);
+		dto.setP46(4600000322L);
+		dto.setP47("value-47");
+		dto.setP48(48007);
+		dto.setP49(4900000343L);
+		dto.setP50("value-50");
+		dto.setP51(51007);
+		dto.setP52(5200000364L);
+		dto.setP53("value-53");
+		dto.setP54(54007);
+		dto.setP55(5500000385L);
+		dto.setP56("value-56");
+		dto.setP57(57007);
+		dto.setP58(5800000406L);
+		dto.setP59("value-59");
+		return dto;
+	}
+}
@@ -0,0 +1,414 @@
+/*
+ * BSD 3-Clause License
+ * 
+ * Copyright (c) 2019, Open Communications Security
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package br.com.opencs.util.dto.sign;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class implements an asynchronous facade for the DTOSigner. All 
+ * operations return immediately and are executed by the given Executor.
+ * 
+ * <p>The single DTO operations are queued and processed by a limited number
+ * of drain tasks. Each drain task takes up to maxBatchSize requests before 
+ * it is rescheduled, thus small requests are coalesced into micro batches 
+ * when the load is high while isolated requests are processed immediately.
+ * The consecutive sign and verify requests of a micro batch are processed
+ * together by the BatchSigner, sharing a single Mac and the lookups of the 
+ * extractors, but each request still fails on its own. The results are the
+ * same as the ones returned by the DTOSigner itself.</p>
+ * 
+ * <p>The Mac instances are acquired and released by the thread that processes
+ * each micro batch, thus they are never shared between threads, including the
+ * virtual threads that migrate between carrier threads. When the executor
+ * creates a new thread for each task, as the virtual thread executor does,
+ * the signer should use the MacPoolStrategy.STRIPED, since the Mac instances
+ * held by MacPoolStrategy.THREAD_LOCAL would never be reused.</p>
+ * 
+ * <p>All instances of this class are expected to be thread safe.</p>
+ * 
+ * @author Fabio Jun Takada Chino
+ */
+public final class AsyncDTOSigner {
+	
+	public static final int DEFAULT_MAX_BATCH_SIZE = 64;
+	
+	private final DTOSigner signer;
+	
+	private final Executor executor;
+	
+	private final int maxBatchSize;
+	
+	private final int maxConcurrency;
+	
+	private final ConcurrentLinkedQueue<Request<?>> queue = new ConcurrentLinkedQueue<Request<?>>();
+	
+	private final AtomicInteger drainers = new AtomicInteger();
+	
+	/**
+	 * Creates a new instance of this class that uses the common ForkJoinPool.
+	 * 
+	 * @param signer The signer.
+	 */
+	public AsyncDTOSigner(DTOSigner signer) {
+		this(signer, ForkJoinPool.commonPool());
+	}
+	
+	/**
+	 * Creates a new instance of this class. The number of concurrent drain 
+	 * tasks is limited to the number of available processors.
+	 * 
+	 * @param signer The signer.
+	 * @param executor The executor of the operations.
+	 */
+	public AsyncDTOSigner(DTOSigner signer, Executor executor) {
+		this(signer, executor, DEFAULT_MAX_BATCH_SIZE, Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * Creates a new instance of this class.
+	 * 
+	 * @param signer The signer.
+	 * @param executor The executor of the operations.
+	 * @param maxBatchSize The maximum number of requests processed by each drain task.
+	 * @param maxConcurrency The maximum number of concurrent drain tasks.
+	 */
+	public AsyncDTOSigner(DTOSigner signer, Executor executor, int maxBatchSize, int maxConcurrency) {
+		if ((maxBatchSize <= 0) || (maxConcurrency <= 0)) {
+			throw new IllegalArgumentException("The batch size and the concurrency must be positive.");
+		}
+		this.signer = signer;
+		this.executor = executor;
+		this.maxBatchSize = maxBatchSize;
+		this.maxConcurrency = maxConcurrency;
+	}
+	
+	/**
+	 * Verifies if the current JVM supports virtual threads.
+	 * 
+	 * @return true if they are supported or false otherwise.
+	 */
+	public static boolean isVirtualThreadSupported() {
+		try {
+			Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return true;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Creates an executor that runs each task in a new virtual thread. It
+	 * requires Java 21 or later.
+	 * 
+	 * @return The new executor.
+	 * @throws UnsupportedOperationException If the JVM does not support virtual threads.
+	 */
+	public static ExecutorService newVirtualThreadExecutor() {
+		try {
+			Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService)method.invoke(null);
+		} catch (NoSuchMethodException e) {
+			throw new UnsupportedOperationException("Virtual threads require Java 21 or later.", e);
+		} catch (ReflectiveOperationException e) {
+			throw new UnsupportedOperationException(e.getMessage(), e);
+		}
+	}
+	
+	/**
+	 * Returns the signer used by this instance.
+	 * 
+	 * @return The signer.
+	 */
+	public DTOSigner getSigner() {
+		return this.signer;
+	}
+	
+	/**
+	 * Computes the signature of the DTO asynchronously.
+	 * 
+	 * @param dto The DTO.
+	 * @return The future signature.
+	 */
+	public CompletableFuture<byte[]> createSignature(Object dto) {
+		return submit(new Request<byte[]>() {
+			@Override
+			byte[] execute(DTOSigner signer) throws DTOSignerException {
+				return signer.createSignature(dto);
+			}
+		});
+	}
+	
+	/**
+	 * Signs the DTO asynchronously.
+	 * 
+	 * @param <T> The type of the DTO.
+	 * @param signed The DTO to be signed.
+	 * @return The future signed DTO. It is the same instance given as argument.
+	 */
+	public <T> CompletableFuture<SignedDTO<T>> sign(SignedDTO<T> signed) {
+		return submit(new DTORequest<SignedDTO<T>>(signed, false) {
+			@Override
+			SignedDTO<T> execute(DTOSigner signer) throws DTOSignerException {
+				signer.sign(signed);
+				return signed;
+			}
+
+			@Override
+			void complete(boolean valid) {
+				this.future.complete(signed);
+			}
+		});
+	}
+	
+	/**
+	 * Checks the signature of the DTO asynchronously.
+	 * 
+	 * @param signed The DTO to be checked.
+	 * @return The future result of the verification.
+	 */
+	public CompletableFuture<Boolean> checkSignature(SignedDTO<?> signed) {
+		return submit(new DTORequest<Boolean>(signed, true) {
+			@Override
+			Boolean execute(DTOSigner signer) throws DTOSignerException {
+				return signer.checkSignature(signed);
+			}
+
+			@Override
+			void complete(boolean valid) {
+				this.future.complete(valid);
+			}
+		});
+	}
+	
+	/**
+	 * Signs all DTOs of the collection asynchronously. The collection is 
+	 * processed by DTOSigner.signAll() using the executor of this instance if 
+	 * it is a ForkJoinPool or the common ForkJoinPool otherwise.
+	 * 
+	 * @param signed The DTOs to be signed.
+	 * @return The future completion of the batch.
+	 */
+	public CompletableFuture<Void> signAll(Collection<? extends SignedDTO<?>> signed) {
+		return execute(new Request<Void>() {
+			@Override
+			Void execute(DTOSigner signer) throws DTOSignerException {
+				signer.signAll(signed, getForkJoinPool());
+				return null;
+			}
+		});
+	}
+	
+	/**
+	 * Checks the signatures of all DTOs of the collection asynchronously. The
+	 * collection is processed by DTOSigner.verifyAll() using the executor of
+	 * this instance if it is a ForkJoinPool or the common ForkJoinPool otherwise.
+	 * 
+	 * @param signed The DTOs to be checked.
+	 * @param failFast Enables the fail fast mode.
+	 * @return The future results, as returned by DTOSigner.verifyAll().
+	 */
+	public CompletableFuture<BitSet> verifyAll(Collection<? extends SignedDTO<?>> signed, boolean failFast) {
+		return execute(new Request<BitSet>() {
+			@Override
+			BitSet execute(DTOSigner signer) throws DTOSignerException {
+				return signer.verifyAll(signed, getForkJoinPool(), failFast);
+			}
+		});
+	}
+	
+	private ForkJoinPool getForkJoinPool() {
+		if (this.executor instanceof ForkJoinPool) {
+			return (ForkJoinPool)this.executor;
+		} else {
+			return ForkJoinPool.commonPool();
+		}
+	}
+	
+	/**
+	 * Executes the request in its own task.
+	 */
+	private <T> CompletableFuture<T> execute(Request<T> request) {
+		try {
+			this.executor.execute(() -> request.run(this.signer));
+		} catch (RejectedExecutionException e) {
+			request.future.completeExceptionally(e);
+		}
+		return request.future;
+	}
+	
+	/**
+	 * Queues the request and schedules a drain task if the concurrency allows it.
+	 */
+	private <T> CompletableFuture<T> submit(Request<T> request) {
+		this.queue.add(request);
+		tryDrain();
+		return request.future;
+	}
+	
+	private void tryDrain() {
+		int current;
+		while (!this.queue.isEmpty() && ((current = this.drainers.get()) < this.maxConcurrency)) {
+			if (this.drainers.compareAndSet(current, current + 1)) {
+				try {
+					this.executor.execute(this::drain);
+				} catch (RejectedExecutionException e) {
+					// The running drain tasks, if any, will handle the queued requests
+					if (this.drainers.decrementAndGet() == 0) {
+						failAll(e);
+					}
+				}
+				return;
+			}
+		}
+	}
+	
+	private void failAll(Throwable e) {
+		Request<?> request;
+		while ((request = this.queue.poll()) != null) {
+			request.future.completeExceptionally(e);
+		}
+	}
+	
+	private void drain() {
+		try {
+			List<DTORequest<?>> batch = new ArrayList<DTORequest<?>>();
+			Request<?> request;
+			for (int i = 0; (i < this.maxBatchSize) && ((request = this.queue.poll()) != null); i++) {
+				if (request instanceof DTORequest) {
+					DTORequest<?> dtoRequest = (DTORequest<?>)request;
+					// Only consecutive requests of the same kind are grouped, thus
+					// the requests are still processed in their order
+					if (!batch.isEmpty() && (batch.get(0).verify != dtoRequest.verify)) {
+						runBatch(batch);
+					}
+					batch.add(dtoRequest);
+				} else {
+					runBatch(batch);
+					request.run(this.signer);
+				}
+			}
+			runBatch(batch);
+		} finally {
+			this.drainers.decrementAndGet();
+		}
+		// Requests queued while this task was finishing
+		tryDrain();
+	}
+	
+	/**
+	 * Processes the grouped requests through the BatchSigner and clears the list.
+	 */
+	private void runBatch(List<DTORequest<?>> batch) {
+		if (batch.isEmpty()) {
+			return;
+		} else if (batch.size() == 1) {
+			batch.get(0).run(this.signer);
+		} else {
+			SignedDTO<?> [] signed = new SignedDTO<?>[batch.size()];
+			for (int i = 0; i < signed.length; i++) {
+				signed[i] = batch.get(i).target;
+			}
+			boolean [] results = batch.get(0).verify ? new boolean[signed.length] : null;
+			Exception [] errors;
+			try {
+				errors = BatchSigner.processEach(this.signer, signed, results);
+			} catch (Exception e) {
+				for (DTORequest<?> request: batch) {
+					request.future.completeExceptionally(e);
+				}
+				batch.clear();
+				return;
+			}
+			for (int i = 0; i < signed.length; i++) {
+				if ((errors != null) && (errors[i] != null)) {
+					batch.get(i).future.completeExceptionally(errors[i]);
+				} else {
+					batch.get(i).complete((results != null) && results[i]);
+				}
+			}
+		}
+		batch.clear();
+	}
+	
+	/**
+	 * A request and its future result.
+	 */
+	private abstract static class Request<T> {
+		
+		final CompletableFuture<T> future = new CompletableFuture<T>();
+		
+		abstract T execute(DTOSigner signer) throws DTOSignerException;
+		
+		void run(DTOSigner signer) {
+			try {
+				this.future.complete(execute(signer));
+			} catch (Exception e) {
+				this.future.completeExceptionally(e);
+			}
+		}
+	}
+	
+	/**
+	 * A request that signs or verifies a single SignedDTO. These requests may
+	 * be processed together by the BatchSigner.
+	 */
+	private abstract static class DTORequest<T> extends Request<T> {
+		
+		final SignedDTO<?> target;
+		
+		final boolean verify;
+		
+		DTORequest(SignedDTO<?> signed, boolean verify) {
+			this.target = signed;
+			this.verify = verify;
+		}
+		
+		/**
+		 * Completes the request processed by the BatchSigner.
+		 * 
+		 * @param valid The result of the verification.
+		 */
+		abstract void complete(boolean valid);
+	}
+}
@@ -0,0 +1,272 @@
+/*
+ * BSD 3-Clause License
+ * 
+ * Copyright (c) 2019, Open Communications Security
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package br.com.opencs.util.dto.sign;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import javax.crypto.Mac;
+
+/**
+ * This class implements the batch operations of the DTOSigner. 
+ * 
+ * <p>The extractors of all DTO classes in the batch are resolved once before
+ * the processing starts. Large batches are split into ranges processed in 
+ * parallel by a ForkJoinPool, each range using a single Mac instance taken
+ * from the MacPool of the signer. Each DTO is signed or verified by the same
+ * code of DTOSigner.sign() and DTOSigner.checkSignature(), thus the caches, 
+ * the metrics and the trees of property digests of the signer are used as 
+ * well.</p>
+ * 
+ * @author Fabio Jun Takada Chino
+ */
+final class BatchSigner {
+	
+	/**
+	 * Minimum number of items of each parallel range.
+	 */
+	static final int MIN_RANGE_SIZE = 64;
+	
+	private final DTOSigner signer;
+	
+	private final MacPool macPool;
+	
+	private final SignedDTO<?> [] items;
+	
+	private final SignedPropertyExtractor [] extractors;
+	
+	private final boolean [] results;
+	
+	private final boolean verify;
+	
+	private final boolean failFast;
+	
+	private final int rangeSize;
+	
+	private volatile boolean failed;
+	
+	private BatchSigner(DTOSigner signer, Collection<? extends SignedDTO<?>> signed, boolean verify, 
+			boolean failFast, int parallelism) throws DTOSignerException {
+		this.signer = signer;
+		this.macPool = signer.getMacPool();
+		this.items = signed.toArray(new SignedDTO<?>[signed.size()]);
+		this.extractors = resolveExtractors(signer.getExtractorRegistry(), this.items);
+		this.results = verify ? new boolean[this.items.length] : null;
+		this.verify = verify;
+		this.failFast = failFast;
+		this.rangeSize = Math.max(MIN_RANGE_SIZE, this.items.length / (parallelism * 4));
+	}
+	
+	/**
+	 * Signs all DTOs in the collection.
+	 * 
+	 * @param signer The signer.
+	 * @param signed The DTOs to be signed.
+	 * @param pool The pool used to process the batch in parallel.
+	 * @throws DTOSignerException In case of error.
+	 */
+	public static void signAll(DTOSigner signer, Collection<? extends SignedDTO<?>> signed, 
+			ForkJoinPool pool) throws DTOSignerException {
+		new BatchSigner(signer, signed, false, false, pool.getParallelism()).run(pool);
+	}
+
+	/**
+	 * Verifies all DTOs in the collection.
+	 * 
+	 * @param signer The signer.
+	 * @param signed The DTOs to be verified.
+	 * @param pool The pool used to process the batch in parallel.
+	 * @param failFast If true, the verification stops at the first invalid signature.
+	 * @return The results. The bit of each valid DTO is set.
+	 * @throws DTOSignerException In case of error.
+	 */
+	public static BitSet verifyAll(DTOSigner signer, Collection<? extends SignedDTO<?>> signed, 
+			ForkJoinPool pool, boolean failFast) throws DTOSignerException {
+		BatchSigner batch = new BatchSigner(signer, signed, true, failFast, pool.getParallelism());
+		batch.run(pool);
+		BitSet ret = new BitSet(batch.results.length);
+		for (int i = 0; i < batch.results.length; i++) {
+			if (batch.results[i]) {
+				ret.set(i);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Signs or verifies the DTOs in the current thread using a single Mac. 
+	 * Unlike signAll() and verifyAll(), the failure of a DTO does not stop 
+	 * the processing of the others. It is used by the AsyncDTOSigner to 
+	 * process its micro batches.
+	 * 
+	 * @param signer The signer.
+	 * @param signed The DTOs.
+	 * @param results The results of the verifications or null to sign the DTOs.
+	 * @return The exception thrown by each DTO, indexed as the DTOs, or null
+	 * if all DTOs were processed.
+	 */
+	static Exception [] processEach(DTOSigner signer, SignedDTO<?> [] signed, boolean [] results) {
+		SignedPropertyExtractorRegistry registry = signer.getExtractorRegistry();
+		MacPool macPool = signer.getMacPool();
+		Exception [] errors = null;
+		Class<?> lastClass = null;
+		SignedPropertyExtractor extractor = null;
+		Mac mac = null;
+		for (int i = 0; i < signed.length; i++) {
+			SignedDTO<?> item = signed[i];
+			try {
+				Class<?> dtoClass = item.get().getClass();
+				if (dtoClass != lastClass) {
+					extractor = registry.getExtractor(dtoClass);
+					lastClass = dtoClass;
+				}
+				if (mac == null) {
+					mac = macPool.acquire();
+				}
+				if (results != null) {
+					results[i] = signer.checkSignature(item, extractor, mac);
+				} else {
+					item.setSignature(signer.createSignature(item, null, extractor, mac));
+				}
+			} catch (Exception e) {
+				if (errors == null) {
+					errors = new Exception[signed.length];
+				}
+				errors[i] = e;
+				// The state of the Mac is unknown, thus it is discarded
+				mac = null;
+			}
+		}
+		if (mac != null) {
+			macPool.release(mac);
+		}
+		return errors;
+	}
+
+	/**
+	 * Resolves the extractors of all items. Each distinct class is resolved only once.
+	 */
+	private static SignedPropertyExtractor [] resolveExtractors(SignedPropertyExtractorRegistry registry, 
+			SignedDTO<?> [] items) throws DTOSignerException {
+		IdentityHashMap<Class<?>, SignedPropertyExtractor> map = new IdentityHashMap<Class<?>, SignedPropertyExtractor>();
+		SignedPropertyExtractor [] extractors = new SignedPropertyExtractor[items.length];
+		for (int i = 0; i < items.length; i++) {
+			Class<?> dtoClass = items[i].get().getClass();
+			SignedPropertyExtractor extractor = map.get(dtoClass);
+			if (extractor == null) {
+				extractor = registry.getExtractor(dtoClass);
+				map.put(dtoClass, extractor);
+			}
+			extractors[i] = extractor;
+		}
+		return extractors;
+	}
+	
+	private void run(ForkJoinPool pool) throws DTOSignerException {
+		if (this.items.length <= this.rangeSize) {
+			process(0, this.items.length);
+		} else {
+			try {
+				pool.invoke(new RangeTask(0, this.items.length));
+			} catch (BatchException e) {
+				throw e.getCause();
+			}
+		}
+	}
+	
+	private void process(int start, int end) throws DTOSignerException {
+		Mac mac = this.macPool.acquire();
+		for (int i = start; (i < end) && !(this.failFast && this.failed); i++) {
+			SignedDTO<?> item = this.items[i];
+			if (this.verify) {
+				this.results[i] = this.signer.checkSignature(item, this.extractors[i], mac);
+				if (!this.results[i]) {
+					this.failed = true;
+				}
+			} else {
+				item.setSignature(this.signer.createSignature(item, null, this.extractors[i], mac));
+			}
+		}
+		this.macPool.release(mac);
+	}
+	
+	/**
+	 * Carries a DTOSignerException out of the ForkJoinPool.
+	 */
+	private static final class BatchException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		public BatchException(DTOSignerException cause) {
+			super(cause);
+		}
+
+		@Override
+		public synchronized DTOSignerException getCause() {
+			return (DTOSignerException)super.getCause();
+		}
+	}
+	
+	private final class RangeTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int start;
+
+		private final int end;
+
+		public RangeTask(int start, int end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute() {
+			if (BatchSigner.this.failFast && BatchSigner.this.failed) {
+				return;
+			}
+			if (this.end - this.start <= BatchSigner.this.rangeSize) {
+				try {
+					process(this.start, this.end);
+				} catch (DTOSignerException e) {
+					throw new BatchException(e);
+				}
+			} else {
+				int middle = (this.start + this.end) >>> 1;
+				invokeAll(new RangeTask(this.start, middle), new RangeTask(middle, this.end));
+			}
+		}
+	}
+}
@@ -0,0 +1,248 @@
+/*
+ * BSD 3-Clause License
+ * 
+ * Copyright (c) 2019, Open Communications Security
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package br.com.opencs.util.dto.sign;
+
+import java.nio.ByteBuffer;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.spec.AlgorithmParameterSpec;
+
+import javax.crypto.MacSpi;
+
+/**
+ * This class implements the keyed mode of BLAKE2b, as defined by RFC 7693. It
+ * accepts keys from 1 to 64 bytes.
+ * 
+ * <p>All working buffers are allocated by the constructor, thus no memory
+ * is allocated, even for direct buffers, except for the result returned by
+ * engineDoFinal().</p>
+ * 
+ * @author Fabio Jun Takada Chino
+ */
+final class Blake2bMacSpi extends MacSpi implements Cloneable {
+	
+	public static final int MAX_KEY_LENGTH = 64;
+	
+	private static final int BLOCK_SIZE = 128;
+	
+	private static final long [] IV = {
+			0x6a09e667f3bcc908L, 0xbb67ae8584caa73bL, 0x3c6ef372fe94f82bL, 0xa54ff53a5f1d36f1L,
+			0x510e527fade682d1L, 0x9b05688c2b3e6c1fL, 0x1f83d9abfb41bd6bL, 0x5be0cd19137e2179L};
+	
+	private static final byte [][] SIGMA = {
+			{0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15},
+			{14, 10, 4, 8, 9, 15, 13, 6, 1, 12, 0, 2, 11, 7, 5, 3},
+			{11, 8, 12, 0, 5, 2, 15, 13, 10, 14, 3, 6, 7, 1, 9, 4},
+			{7, 9, 3, 1, 13, 12, 11, 14, 2, 6, 5, 10, 4, 0, 15, 8},
+			{9, 0, 5, 7, 2, 4, 10, 15, 14, 1, 11, 12, 6, 8, 3, 13},
+			{2, 12, 6, 10, 0, 11, 8, 3, 4, 13, 7, 5, 15, 14, 1, 9},
+			{12, 5, 1, 15, 14, 13, 4, 10, 0, 7, 6, 3, 9, 2, 8, 11},
+			{13, 11, 7, 14, 12, 1, 3, 9, 5, 0, 15, 4, 8, 6, 2, 10},
+			{6, 15, 14, 9, 11, 3, 0, 8, 12, 2, 13, 7, 1, 4, 10, 5},
+			{10, 2, 8, 4, 7, 6, 1, 5, 15, 11, 9, 14, 3, 12, 13, 0},
+			{0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15},
+			{14, 10, 4, 8, 9, 15, 13, 6, 1, 12, 0, 2, 11, 7, 5, 3}};
+	
+	private final int macLength;
+	
+	private byte [] key;
+	
+	private long [] h = new long[8];
+	
+	private long [] m = new long[16];
+	
+	private long [] v = new long[16];
+	
+	private byte [] buffer = new byte[BLOCK_SIZE];
+	
+	private int bufferLength;
+	
+	private long t0;
+	
+	private long t1;
+	
+	/**
+	 * Creates a new instance of this class.
+	 * 
+	 * @param macLength The length of the MAC, from 1 to 64 bytes.
+	 */
+	Blake2bMacSpi(int macLength) {
+		if ((macLength < 1) || (macLength > 64)) {
+			throw new IllegalArgumentException("Invalid BLAKE2b output length " + macLength + ".");
+		}
+		this.macLength = macLength;
+	}
+
+	@Override
+	protected int engineGetMacLength() {
+		return this.macLength;
+	}
+
+	@Override
+	protected void engineInit(Key key, AlgorithmParameterSpec params)
+			throws InvalidKeyException, InvalidAlgorithmParameterException {
+		if (params != null) {
+			throw new InvalidAlgorithmParameterException("BLAKE2b has no parameters.");
+		}
+		byte [] encoded = key.getEncoded();
+		if ((encoded == null) || (encoded.length == 0) || (encoded.length > MAX_KEY_LENGTH)) {
+			throw new InvalidKeyException("BLAKE2b requires a key from 1 to " + MAX_KEY_LENGTH + " bytes.");
+		}
+		this.key = encoded;
+		engineReset();
+	}
+
+	@Override
+	protected void engineUpdate(byte input) {
+		if (this.bufferLength == BLOCK_SIZE) {
+			compress(false);
+		}
+		this.buffer[this.bufferLength++] = input;
+	}
+
+	@Override
+	protected void engineUpdate(byte[] input, int offset, int len) {
+		while (len > 0) {
+			// The last block is kept until engineDoFinal() as it must be flagged.
+			if (this.bufferLength == BLOCK_SIZE) {
+				compress(false);
+			}
+			int n = Math.min(len, BLOCK_SIZE - this.bufferLength);
+			System.arraycopy(input, offset, this.buffer, this.bufferLength, n);
+			this.bufferLength += n;
+			offset += n;
+			len -= n;
+		}
+	}
+	
+	@Override
+	protected void engineUpdate(ByteBuffer input) {
+		while (input.hasRemaining()) {
+			if (this.bufferLength == BLOCK_SIZE) {
+				compress(false);
+			}
+			int n = Math.min(input.remaining(), BLOCK_SIZE - this.bufferLength);
+			input.get(this.buffer, this.bufferLength, n);
+			this.bufferLength += n;
+		}
+	}
+	
+	private void compress(boolean last) {
+		this.t0 += this.bufferLength;
+		if (Long.compareUnsigned(this.t0, this.bufferLength) < 0) {
+			this.t1++;
+		}
+		for (int i = this.bufferLength; i < BLOCK_SIZE; i++) {
+			this.buffer[i] = 0;
+		}
+		this.bufferLength = 0;
+		
+		long [] m = this.m;
+		long [] v = this.v;
+		long [] h = this.h;
+		for (int i = 0; i < 16; i++) {
+			long w = 0;
+			for (int j = 7; j >= 0; j--) {
+				w = (w << 8) | (this.buffer[(i << 3) + j] & 0xFF);
+			}
+			m[i] = w;
+		}
+		System.arraycopy(h, 0, v, 0, 8);
+		System.arraycopy(IV, 0, v, 8, 8);
+		v[12] ^= this.t0;
+		v[13] ^= this.t1;
+		if (last) {
+			v[14] = ~v[14];
+		}
+		for (int r = 0; r < 12; r++) {
+			byte [] s = SIGMA[r];
+			g(v, 0, 4, 8, 12, m[s[0]], m[s[1]]);
+			g(v, 1, 5, 9, 13, m[s[2]], m[s[3]]);
+			g(v, 2, 6, 10, 14, m[s[4]], m[s[5]]);
+			g(v, 3, 7, 11, 15, m[s[6]], m[s[7]]);
+			g(v, 0, 5, 10, 15, m[s[8]], m[s[9]]);
+			g(v, 1, 6, 11, 12, m[s[10]], m[s[11]]);
+			g(v, 2, 7, 8, 13, m[s[12]], m[s[13]]);
+			g(v, 3, 4, 9, 14, m[s[14]], m[s[15]]);
+		}
+		for (int i = 0; i < 8; i++) {
+			h[i] ^= v[i] ^ v[i + 8];
+		}
+	}
+	
+	private static void g(long [] v, int a, int b, int c, int d, long x, long y) {
+		v[a] += v[b] + x;
+		v[d] = Long.rotateRight(v[d] ^ v[a], 32);
+		v[c] += v[d];
+		v[b] = Long.rotateRight(v[b] ^ v[c], 24);
+		v[a] += v[b] + y;
+		v[d] = Long.rotateRight(v[d] ^ v[a], 16);
+		v[c] += v[d];
+		v[b] = Long.rotateRight(v[b] ^ v[c], 63);
+	}
+
+	@Override
+	protected byte[] engineDoFinal() {
+		compress(true);
+		byte [] mac = new byte[this.macLength];
+		for (int i = 0; i < this.macLength; i++) {
+			mac[i] = (byte)(this.h[i >> 3] >>> ((i & 7) << 3));
+		}
+		engineReset();
+		return mac;
+	}
+
+	@Override
+	protected void engineReset() {
+		System.arraycopy(IV, 0, this.h, 0, 8);
+		this.h[0] ^= 0x01010000L ^ (this.key.length << 8) ^ this.macLength;
+		this.t0 = 0;
+		this.t1 = 0;
+		// The key is processed as the first block, padded with zeros
+		System.arraycopy(this.key, 0, this.buffer, 0, this.key.length);
+		this.bufferLength = BLOCK_SIZE;
+		for (int i = this.key.length; i < BLOCK_SIZE; i++) {
+			this.buffer[i] = 0;
+		}
+	}
+
+	@Override
+	public Object clone() throws CloneNotSupportedException {
+		Blake2bMacSpi clone = (Blake2bMacSpi)super.clone();
+		clone.h = this.h.clone();
+		clone.m = new long[16];
+		clone.v = new long[16];
+		clone.buffer = this.buffer.clone();
+		return clone;
+	}
+}
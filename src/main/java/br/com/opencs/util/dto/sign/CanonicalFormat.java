@@ -0,0 +1,101 @@
+/*
+ * BSD 3-Clause License
+ * 
+ * Copyright (c) 2019, Open Communications Security
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package br.com.opencs.util.dto.sign;
+
+/**
+ * This enumeration defines the canonical formats used to encode the signed 
+ * properties before the computation of the MAC.
+ * 
+ * <p>The format TEXT is the original format of this library. It concatenates
+ * the values returned by Object.toString() and it is still the default one, 
+ * thus all existing signatures remain valid.</p>
+ * 
+ * <p>The format BINARY starts with its version byte followed by the typed
+ * encoding of each property in the canonical order. Primitive values are 
+ * encoded as fixed width big endian values while the other values are 
+ * preceded by a presence byte (0x00 for null, 0x01 otherwise) and encoded by
+ * the ValueEncoder associated with the declared type of the property. Arrays
+ * and collections are streamed into a Merkle tree and only its root is 
+ * encoded, thus their elements are never materialized together.</p>
+ * 
+ * <p>The format DIGEST_TREE starts with its version byte followed by the root
+ * of a Merkle tree whose leaves are the binary encodings of each property. It
+ * allows DTOSigner.sign() to sign a DTO again by hashing only the properties
+ * that changed since its last signature.</p>
+ * 
+ * <p>The format STREAMING is the format BINARY with its own version byte, 
+ * except for the properties of the types byte[], ByteBuffer, CharSequence,
+ * InputStream and Supplier. Their values are streamed into the MAC in chunks
+ * of fixed size, each one preceded by its length, thus the memory used by a
+ * signature does not depend on the size of the values. Input streams are read 
+ * until their end and closed. Suppliers are called and their results must be
+ * one of the other streamed types.</p>
+ * 
+ * @author Fabio Jun Takada Chino
+ */
+public enum CanonicalFormat {
+	
+	/**
+	 * The original text format. It has no version byte.
+	 */
+	TEXT(1),
+	
+	/**
+	 * The typed binary format.
+	 */
+	BINARY(2),
+	
+	/**
+	 * The root of the tree of property digests.
+	 */
+	DIGEST_TREE(3),
+	
+	/**
+	 * The typed binary format with streamed values.
+	 */
+	STREAMING(4);
+	
+	private final int version;
+	
+	private CanonicalFormat(int version) {
+		this.version = version;
+	}
+	
+	/**
+	 * Returns the version of this format.
+	 * 
+	 * @return The version.
+	 */
+	public int getVersion() {
+		return this.version;
+	}
+}
@@ -0,0 +1,85 @@
+/*
+ * BSD 3-Clause License
+ * 
+ * Copyright (c) 2019, Open Communications Security
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package br.com.opencs.util.dto.sign;
+
+/**
+ * This interface defines the output used by the ValueEncoder instances to
+ * write the binary canonical representation of the values. All multibyte
+ * values are written in big endian order.
+ * 
+ * @author Fabio Jun Takada Chino
+ */
+public interface CanonicalOutput {
+
+	/**
+	 * Writes a single byte.
+	 * 
+	 * @param value The value. Only the 8 lower bits are used.
+	 */
+	void writeByte(int value);
+
+	/**
+	 * Writes a 16-bit value.
+	 * 
+	 * @param value The value. Only the 16 lower bits are used.
+	 */
+	void writeShort(int value);
+
+	/**
+	 * Writes a 32-bit value.
+	 * 
+	 * @param value The value.
+	 */
+	void writeInt(int value);
+
+	/**
+	 * Writes a 64-bit value.
+	 * 
+	 * @param value The value.
+	 */
+	void writeLong(long value);
+
+	/**
+	 * Writes a byte array preceded by its length as a 32-bit value.
+	 * 
+	 * @param value The value.
+	 */
+	void writeBytes(byte [] value);
+
+	/**
+	 * Writes a string encoded in UTF-8 preceded by the length of the encoded
+	 * value in bytes as a 32-bit value. Malformed surrogates are replaced by '?'.
+	 * 
+	 * @param value The value.
+	 */
+	void writeString(String value);
+}
@@ -0,0 +1,595 @@
+/*
+ * BSD 3-Clause License
+ * 
+ * Copyright (c) 2019, Open Communications Security
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package br.com.opencs.util.dto.sign;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import javax.crypto.Mac;
+
+/**
+ * This class implements the writer used to produce the canonical binary
+ * representation of the signed properties. It encodes the values directly
+ * into an internal buffer that is either flushed into a Mac instance, flushed
+ * into a MessageDigest or returned as a byte array.
+ * 
+ * <p>The output is always identical to the one produced by the encoding of
+ * the whole string with Charset.encode(), including the replacement of
+ * malformed surrogates.</p>
+ * 
+ * <p>It also implements the CanonicalOutput used by the binary canonical
+ * format and the chunked encoding of the streamed values of the format
+ * STREAMING. Each streamed value is split into chunks of STREAM_CHUNK_SIZE
+ * bytes, each one preceded by its length as a 32-bit value. The last chunk 
+ * is always shorter than STREAM_CHUNK_SIZE, possibly empty, and ends the 
+ * value. The chunks are staged in a buffer of fixed size, thus the length of
+ * the value is never required in advance.</p>
+ * 
+ * <p>Instances of this class are not thread safe. Each thread should use
+ * its own instance, obtained by acquire() and returned by release().</p>
+ * 
+ * @author Fabio Jun Takada Chino
+ */
+final class CanonicalWriter implements CanonicalOutput {
+	
+	static final Charset DEFAULT_CHARSET = Charset.forName("utf8");
+
+	/**
+	 * Minimum size of the output buffer.
+	 */
+	static final int MIN_BUFFER_SIZE = 256;
+	
+	/**
+	 * Maximum size of the output buffer retained by a thread. It is also the
+	 * maximum size of each chunk sent to the Mac.
+	 */
+	static final int MAX_BUFFER_SIZE = 64 * 1024;
+	
+	/**
+	 * Size of the chunks of the streamed values.
+	 */
+	static final int STREAM_CHUNK_SIZE = 8 * 1024;
+	
+	private static final int CHAR_BUFFER_SIZE = 1024;
+	
+	private static final ThreadLocal<CanonicalWriter> LOCAL = new ThreadLocal<CanonicalWriter>() {
+		@Override
+		protected CanonicalWriter initialValue() {
+			return new CanonicalWriter();
+		}
+	};
+	
+	private final CharsetEncoder encoder = DEFAULT_CHARSET.newEncoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	
+	private final CharBuffer chars = CharBuffer.allocate(CHAR_BUFFER_SIZE);
+	
+	private byte [] buffer;
+	
+	private ByteBuffer bytes;
+	
+	private int position;
+	
+	private long size;
+	
+	private Mac mac;
+	
+	private MessageDigest digest;
+	
+	private boolean inUse;
+	
+	private boolean timed;
+	
+	private long macNanos;
+	
+	/**
+	 * Current chunk of the streamed value, allocated on demand.
+	 */
+	private byte [] chunk;
+	
+	/**
+	 * Output of the encoder for the streamed character sequences, allocated on 
+	 * demand.
+	 */
+	private ByteBuffer encoded;
+	
+	private int chunkLength;
+	
+	CanonicalWriter() {
+		setBuffer(new byte[MIN_BUFFER_SIZE]);
+	}
+
+	/**
+	 * Acquires the writer of the current thread. If it is already in use by
+	 * the current thread, a new instance is returned instead.
+	 * 
+	 * @param mac The Mac that will receive the output or null to collect it
+	 * in memory.
+	 * @param sizeHint The expected size of the output.
+	 * @return The writer ready to be used.
+	 */
+	static CanonicalWriter acquire(Mac mac, int sizeHint) {
+		CanonicalWriter writer = acquire();
+		writer.begin(mac, null, sizeHint);
+		return writer;
+	}
+	
+	/**
+	 * Acquires the writer of the current thread to feed the given digest. If 
+	 * it is already in use by the current thread, a new instance is returned
+	 * instead.
+	 * 
+	 * @param digest The MessageDigest that will receive the output.
+	 * @return The writer ready to be used.
+	 */
+	static CanonicalWriter acquire(MessageDigest digest) {
+		CanonicalWriter writer = acquire();
+		writer.begin(null, digest, 0);
+		return writer;
+	}
+	
+	private static CanonicalWriter acquire() {
+		CanonicalWriter writer = LOCAL.get();
+		if (writer.inUse) {
+			writer = new CanonicalWriter();
+		}
+		return writer;
+	}
+	
+	/**
+	 * Releases this writer.
+	 */
+	void release() {
+		this.mac = null;
+		this.digest = null;
+		this.inUse = false;
+		if (this.buffer.length > MAX_BUFFER_SIZE) {
+			setBuffer(new byte[MIN_BUFFER_SIZE]);
+		}
+	}
+	
+	private void begin(Mac mac, MessageDigest digest, int sizeHint) {
+		this.inUse = true;
+		this.timed = false;
+		this.macNanos = 0;
+		this.mac = mac;
+		this.digest = digest;
+		this.position = 0;
+		this.size = 0;
+		int required = Math.min(Math.max(sizeHint, MIN_BUFFER_SIZE), MAX_BUFFER_SIZE);
+		if (this.buffer.length < required) {
+			setBuffer(new byte[required]);
+		}
+	}
+	
+	private void setBuffer(byte [] buffer) {
+		this.buffer = buffer;
+		this.bytes = ByteBuffer.wrap(buffer);
+	}
+	
+	/**
+	 * Makes room in the buffer. It sends the contents to the Mac or the digest
+	 * or grows the buffer if the output is being collected in memory.
+	 */
+	private void drain() {
+		if (this.mac != null) {
+			if (this.timed) {
+				long start = System.nanoTime();
+				this.mac.update(this.buffer, 0, this.position);
+				this.macNanos += System.nanoTime() - start;
+			} else {
+				this.mac.update(this.buffer, 0, this.position);
+			}
+			this.size += this.position;
+			this.position = 0;
+		} else if (this.digest != null) {
+			this.digest.update(this.buffer, 0, this.position);
+			this.size += this.position;
+			this.position = 0;
+		} else {
+			setBuffer(Arrays.copyOf(this.buffer, this.buffer.length * 2));
+		}
+	}
+	
+	/**
+	 * Writes a single ASCII character.
+	 * 
+	 * @param c The character. It must be in the range 0x00 to 0x7F.
+	 */
+	void writeASCII(char c) {
+		if (this.position == this.buffer.length) {
+			drain();
+		}
+		this.buffer[this.position++] = (byte)c;
+	}
+	
+	/**
+	 * Ensures that the buffer has room for the given number of bytes. It must
+	 * not be larger than MIN_BUFFER_SIZE.
+	 */
+	private void ensure(int count) {
+		if (this.position + count > this.buffer.length) {
+			drain();
+		}
+	}
+	
+	@Override
+	public void writeByte(int value) {
+		ensure(1);
+		this.buffer[this.position++] = (byte)value;
+	}
+
+	@Override
+	public void writeShort(int value) {
+		ensure(2);
+		this.buffer[this.position++] = (byte)(value >>> 8);
+		this.buffer[this.position++] = (byte)value;
+	}
+
+	@Override
+	public void writeInt(int value) {
+		ensure(4);
+		this.buffer[this.position++] = (byte)(value >>> 24);
+		this.buffer[this.position++] = (byte)(value >>> 16);
+		this.buffer[this.position++] = (byte)(value >>> 8);
+		this.buffer[this.position++] = (byte)value;
+	}
+
+	@Override
+	public void writeLong(long value) {
+		writeInt((int)(value >>> 32));
+		writeInt((int)value);
+	}
+
+	@Override
+	public void writeBytes(byte [] value) {
+		writeInt(value.length);
+		writeRaw(value, 0, value.length);
+	}
+	
+	private void writeRaw(byte [] value, int offset, int length) {
+		int end = offset + length;
+		while (offset < end) {
+			if (this.position == this.buffer.length) {
+				drain();
+			}
+			int count = Math.min(end - offset, this.buffer.length - this.position);
+			System.arraycopy(value, offset, this.buffer, this.position, count);
+			this.position += count;
+			offset += count;
+		}
+	}
+	
+	private void beginStream() {
+		if (this.chunk == null) {
+			this.chunk = new byte[STREAM_CHUNK_SIZE];
+		}
+		this.chunkLength = 0;
+	}
+	
+	/**
+	 * Writes the current chunk. It is called when the chunk is full and once
+	 * more at the end of the value.
+	 */
+	private void writeChunk() {
+		writeInt(this.chunkLength);
+		writeRaw(this.chunk, 0, this.chunkLength);
+		this.chunkLength = 0;
+	}
+	
+	private void appendStream(byte [] value, int offset, int length) {
+		int end = offset + length;
+		while (offset < end) {
+			int count = Math.min(end - offset, STREAM_CHUNK_SIZE - this.chunkLength);
+			System.arraycopy(value, offset, this.chunk, this.chunkLength, count);
+			this.chunkLength += count;
+			offset += count;
+			if (this.chunkLength == STREAM_CHUNK_SIZE) {
+				writeChunk();
+			}
+		}
+	}
+	
+	/**
+	 * Writes a byte array as a streamed value.
+	 * 
+	 * @param value The value.
+	 */
+	void writeStream(byte [] value) {
+		beginStream();
+		appendStream(value, 0, value.length);
+		writeChunk();
+	}
+	
+	/**
+	 * Writes the remaining bytes of a buffer as a streamed value. The position 
+	 * of the buffer is not changed.
+	 * 
+	 * @param value The value. It may be a direct buffer.
+	 */
+	void writeStream(ByteBuffer value) {
+		if (value.hasArray()) {
+			beginStream();
+			appendStream(value.array(), value.arrayOffset() + value.position(), value.remaining());
+			writeChunk();
+			return;
+		}
+		ByteBuffer src = value.duplicate();
+		beginStream();
+		while (src.hasRemaining()) {
+			int count = Math.min(src.remaining(), STREAM_CHUNK_SIZE - this.chunkLength);
+			src.get(this.chunk, this.chunkLength, count);
+			this.chunkLength += count;
+			if (this.chunkLength == STREAM_CHUNK_SIZE) {
+				writeChunk();
+			}
+		}
+		writeChunk();
+	}
+	
+	/**
+	 * Writes a character sequence encoded in UTF-8 as a streamed value. The 
+	 * characters are encoded directly from the sequence, without copying it.
+	 * 
+	 * @param value The value.
+	 */
+	void writeStream(CharSequence value) {
+		beginStream();
+		int length = value.length();
+		int i = 0;
+		for (; i < length; i++) {
+			char c = value.charAt(i);
+			if (c >= 0x80) {
+				break;
+			}
+			this.chunk[this.chunkLength++] = (byte)c;
+			if (this.chunkLength == STREAM_CHUNK_SIZE) {
+				writeChunk();
+			}
+		}
+		if (i < length) {
+			// The characters are encoded into a separate buffer because an encoded
+			// character may not fit into the remaining space of the chunk.
+			CharBuffer in = CharBuffer.wrap(value, i, length);
+			if (this.encoded == null) {
+				this.encoded = ByteBuffer.allocate(CHAR_BUFFER_SIZE);
+			}
+			ByteBuffer out = this.encoded;
+			this.encoder.reset();
+			CoderResult result;
+			do {
+				((Buffer)out).clear();
+				result = this.encoder.encode(in, out, true);
+				appendStream(out.array(), 0, out.position());
+			} while (result.isOverflow());
+			do {
+				((Buffer)out).clear();
+				result = this.encoder.flush(out);
+				appendStream(out.array(), 0, out.position());
+			} while (result.isOverflow());
+		}
+		writeChunk();
+	}
+	
+	/**
+	 * Writes the contents of a stream as a streamed value. The stream is read
+	 * until its end. This method does not close it, since the stream belongs 
+	 * to the caller. The streams returned by the getters of the DTOs are 
+	 * closed by PropertyEncoder once they are written.
+	 * 
+	 * @param value The value.
+	 * @throws IOException If the stream cannot be read.
+	 */
+	void writeStream(InputStream value) throws IOException {
+		beginStream();
+		int read;
+		while ((read = value.read(this.chunk, this.chunkLength, STREAM_CHUNK_SIZE - this.chunkLength)) >= 0) {
+			this.chunkLength += read;
+			if (this.chunkLength == STREAM_CHUNK_SIZE) {
+				writeChunk();
+			}
+		}
+		writeChunk();
+	}
+
+	@Override
+	public void writeString(String value) {
+		writeInt(encodedLength(value));
+		write(value);
+	}
+	
+	/**
+	 * Computes the length of the string encoded by write(String). Malformed 
+	 * surrogates are replaced by a single byte.
+	 * 
+	 * @param s The string.
+	 * @return The number of bytes.
+	 */
+	static int encodedLength(String s) {
+		int length = s.length();
+		int ret = 0;
+		for (int i = 0; i < length; i++) {
+			char c = s.charAt(i);
+			if (c < 0x80) {
+				ret++;
+			} else if (c < 0x800) {
+				ret += 2;
+			} else if (Character.isHighSurrogate(c) && (i + 1 < length) && Character.isLowSurrogate(s.charAt(i + 1))) {
+				ret += 4;
+				i++;
+			} else if (Character.isSurrogate(c)) {
+				ret++;
+			} else {
+				ret += 3;
+			}
+		}
+		return ret;
+	}
+	
+	/**
+	 * Writes a string using UTF-8. ASCII characters are copied directly to the
+	 * buffer while the remaining characters are encoded with the CharsetEncoder.
+	 * 
+	 * @param s The string to be written.
+	 */
+	void write(String s) {
+		int length = s.length();
+		for (int i = 0; i < length; i++) {
+			char c = s.charAt(i);
+			if (c >= 0x80) {
+				encode(s, i, length);
+				return;
+			}
+			if (this.position == this.buffer.length) {
+				drain();
+			}
+			this.buffer[this.position++] = (byte)c;
+		}
+	}
+
+	private void encode(String s, int start, int end) {
+		CharBuffer in = this.chars;
+		((Buffer)in).clear();
+		this.encoder.reset();
+		int i = start;
+		boolean endOfInput;
+		do {
+			int count = Math.min(in.remaining(), end - i);
+			in.put(s, i, i + count);
+			i += count;
+			endOfInput = (i == end);
+			((Buffer)in).flip();
+			CoderResult result;
+			do {
+				((Buffer)this.bytes).position(this.position);
+				result = this.encoder.encode(in, this.bytes, endOfInput);
+				this.position = this.bytes.position();
+				if (result.isOverflow()) {
+					drain();
+				}
+			} while (result.isOverflow());
+			// Keeps an incomplete surrogate pair for the next round.
+			in.compact();
+		} while (!endOfInput);
+		CoderResult result;
+		do {
+			((Buffer)this.bytes).position(this.position);
+			result = this.encoder.flush(this.bytes);
+			this.position = this.bytes.position();
+			if (result.isOverflow()) {
+				drain();
+			}
+		} while (result.isOverflow());
+	}
+	
+	/**
+	 * Sends all pending bytes to the Mac or the digest.
+	 */
+	void flush() {
+		if (((this.mac != null) || (this.digest != null)) && (this.position > 0)) {
+			drain();
+		}
+	}
+	
+	/**
+	 * Enables the measurement of the time spent by the Mac.
+	 */
+	void setTimed() {
+		this.timed = true;
+	}
+	
+	/**
+	 * Returns true if the time spent by the Mac is being measured.
+	 * 
+	 * @return true if it is measured or false otherwise.
+	 */
+	boolean isTimed() {
+		return this.timed;
+	}
+	
+	/**
+	 * Adds the time spent by an operation of the Mac performed outside this writer.
+	 * 
+	 * @param nanos The time in nanoseconds.
+	 */
+	void addMacNanos(long nanos) {
+		this.macNanos += nanos;
+	}
+	
+	/**
+	 * Returns the time spent by the Mac since the acquisition of this writer.
+	 * It is measured only after a call to setTimed().
+	 * 
+	 * @return The time in nanoseconds.
+	 */
+	long getMacNanos() {
+		return this.macNanos;
+	}
+	
+	/**
+	 * Returns the number of bytes written so far.
+	 * 
+	 * @return The number of bytes.
+	 */
+	long size() {
+		return this.size + this.position;
+	}
+	
+	/**
+	 * Returns the internal buffer. After a flush(), it can be used as a scratch
+	 * area until the writer is released. It is never smaller than MIN_BUFFER_SIZE.
+	 * 
+	 * @return The internal buffer.
+	 */
+	byte [] getBuffer() {
+		return this.buffer;
+	}
+	
+	/**
+	 * Returns the bytes collected in memory.
+	 * 
+	 * @return The collected bytes.
+	 */
+	byte [] toByteArray() {
+		return Arrays.copyOf(this.buffer, this.position);
+	}
+}
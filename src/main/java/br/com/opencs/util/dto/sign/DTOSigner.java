@@ -31,9 +31,14 @@
  */
 package br.com.opencs.util.dto.sign;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.concurrent.ForkJoinPool;
 
 import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.SecretKeySpec;
 
 /**
@@ -49,15 +54,56 @@ import javax.crypto.spec.SecretKeySpec;
  * the component that knows the MAC key will be able to modify the DTO
  * and regenerate it again.</p>
  * 
+ * <p>The Mac instances used to compute the signatures are supplied by a
+ * MacPool. The strategy used by the pool can be selected when the signer is
+ * created. By default, it uses MacPoolStrategy.STRIPED.</p>
+ * 
+ * <p>The canonical format of the properties can also be selected. The default
+ * format is CanonicalFormat.TEXT, which is compatible with the signatures
+ * created by the previous versions of this library. With the format
+ * CanonicalFormat.DIGEST_TREE, the signer keeps the digests of the properties
+ * of each SignedDTO, thus signing it again costs only the hashing of the 
+ * properties that changed.</p>
+ * 
+ * <p>The signatures of the DTOs marked with ImmutableDTO are memoized by a
+ * SignatureCache, thus signing or verifying the same instance again costs
+ * only a lookup. By default, each signer has its own cache with the default
+ * limits.</p>
+ * 
+ * <p>Applications that verify the same DTOs and signatures many times may 
+ * set a VerifiedSignatureCache. It remembers the valid pairs of canonical 
+ * forms and signatures, thus the DTO is still extracted but the MAC is not 
+ * computed again. It is disabled by default.</p>
+ * 
+ * <p>The method detach() returns the canonical form of a DTO together with its
+ * signature. Such detached signed DTOs are verified without the DTO itself, 
+ * thus services that only forward or store them need no reflection at all.</p>
+ * 
+ * <p>The operations of the signer may be instrumented by a DTOSignerMetrics,
+ * such as the JMXDTOSignerMetrics. The instrumentation is disabled by 
+ * default.</p>
+ * 
  * @author Fabio Jun Takada Chino
  */
 public class DTOSigner {
 	
 	public static final String DEFAULT_ALGORITHM = "HmacSHA256";
 	
-	private final String algorithm;
+	public static final MacPoolStrategy DEFAULT_MAC_POOL_STRATEGY = MacPoolStrategy.STRIPED;
+	
+	public static final CanonicalFormat DEFAULT_FORMAT = CanonicalFormat.TEXT;
+	
+	private final MacPool macPool;
+	
+	private final SignedPropertyExtractorRegistry registry;
+	
+	private final CanonicalFormat format;
 	
-	private final SecretKeySpec macKey;
+	private final SignatureCache cache;
+	
+	private volatile DTOSignerMetrics metrics;
+	
+	private volatile VerifiedSignatureCache verifiedCache;
 	
 	/**
 	 * Creates a new signer.
@@ -73,28 +119,152 @@ public class DTOSigner {
 	 * Creates a new signer.
 	 * 
 	 * @param key The key to be used to sign the DTOs.
-	 * @param algorithm The MAC algorithm to be used (JCE).
+	 * @param algorithm The MAC algorithm to be used (JCE or MacEngines).
 	 * @throws DTOSignerException In case of error.
 	 */
 	public DTOSigner(byte [] key, String algorithm) throws DTOSignerException {
+		this(key, algorithm, DEFAULT_MAC_POOL_STRATEGY);
+	}
+
+	/**
+	 * Creates a new signer.
+	 * 
+	 * @param key The key to be used to sign the DTOs.
+	 * @param algorithm The MAC algorithm to be used (JCE or MacEngines).
+	 * @param strategy The strategy used to supply the Mac instances.
+	 * @throws DTOSignerException In case of error.
+	 */
+	public DTOSigner(byte [] key, String algorithm, MacPoolStrategy strategy) throws DTOSignerException {
+		this(key, algorithm, strategy, SignedPropertyExtractorManager.getDefaultRegistry());
+	}
+
+	/**
+	 * Creates a new signer.
+	 * 
+	 * @param key The key to be used to sign the DTOs.
+	 * @param algorithm The MAC algorithm to be used (JCE or MacEngines).
+	 * @param strategy The strategy used to supply the Mac instances.
+	 * @param registry The registry of extractors used by this signer.
+	 * @throws DTOSignerException In case of error.
+	 */
+	public DTOSigner(byte [] key, String algorithm, MacPoolStrategy strategy, 
+			SignedPropertyExtractorRegistry registry) throws DTOSignerException {
+		this(key, algorithm, strategy, registry, DEFAULT_FORMAT);
+	}
+
+	/**
+	 * Creates a new signer.
+	 * 
+	 * @param key The key to be used to sign the DTOs.
+	 * @param algorithm The MAC algorithm to be used (JCE or MacEngines).
+	 * @param strategy The strategy used to supply the Mac instances.
+	 * @param registry The registry of extractors used by this signer.
+	 * @param format The canonical format of the signed properties.
+	 * @throws DTOSignerException In case of error.
+	 */
+	public DTOSigner(byte [] key, String algorithm, MacPoolStrategy strategy, 
+			SignedPropertyExtractorRegistry registry, CanonicalFormat format) throws DTOSignerException {
+		this(key, algorithm, strategy, registry, format, new SignatureCache());
+	}
+
+	/**
+	 * Creates a new signer.
+	 * 
+	 * @param key The key to be used to sign the DTOs.
+	 * @param algorithm The MAC algorithm to be used (JCE or MacEngines).
+	 * @param strategy The strategy used to supply the Mac instances.
+	 * @param registry The registry of extractors used by this signer.
+	 * @param format The canonical format of the signed properties.
+	 * @param cache The cache of the signatures of the immutable DTOs or null to
+	 * disable it. It must not be shared with signers that use other keys,
+	 * algorithms or formats.
+	 * @throws DTOSignerException In case of error.
+	 */
+	public DTOSigner(byte [] key, String algorithm, MacPoolStrategy strategy, 
+			SignedPropertyExtractorRegistry registry, CanonicalFormat format, 
+			SignatureCache cache) throws DTOSignerException {
 	
-		this.algorithm = algorithm;
-		this.macKey = new SecretKeySpec(key, algorithm);
+		this.registry = registry;
+		this.format = format;
+		this.cache = cache;
+		// The pool creates its prototype MAC instance here, so an invalid algorithm or
+		// key is reported now instead of during the execution later.
+		this.macPool = MacPool.create(strategy, algorithm, new SecretKeySpec(key, algorithm));
+	}
 
-		// Create a MAC instance just to check if the algorithm is valid. It should
-		// help to prevent errors during the execution later.
-		createMac();
+	/**
+	 * Returns the MacPool used by this signer. It can be used to monitor the
+	 * reuse of the Mac instances.
+	 * 
+	 * @return The MacPool.
+	 */
+	public MacPool getMacPool() {
+		return this.macPool;
 	}
 
-	private Mac createMac()  throws DTOSignerException {
-		try {
-			Mac mac = Mac.getInstance(algorithm);
-			mac.init(this.macKey);
-			return mac;
-		} catch (Exception e) {
-			throw new DTOSignerException(e.getMessage(), e);
-		}
+	/**
+	 * Returns the registry of extractors used by this signer.
+	 * 
+	 * @return The registry.
+	 */
+	public SignedPropertyExtractorRegistry getExtractorRegistry() {
+		return this.registry;
+	}
+	
+	/**
+	 * Returns the cache of the signatures of the immutable DTOs.
+	 * 
+	 * @return The cache or null if it is disabled.
+	 */
+	public SignatureCache getSignatureCache() {
+		return this.cache;
+	}
+
+	/**
+	 * Sets the cache of verified signatures. It must not be shared with signers
+	 * that use other keys, algorithms or formats.
+	 * 
+	 * @param verifiedCache The cache or null to disable it.
+	 */
+	public void setVerifiedSignatureCache(VerifiedSignatureCache verifiedCache) {
+		this.verifiedCache = verifiedCache;
+	}
+
+	/**
+	 * Returns the cache of verified signatures.
+	 * 
+	 * @return The cache or null if it is disabled.
+	 */
+	public VerifiedSignatureCache getVerifiedSignatureCache() {
+		return this.verifiedCache;
+	}
+
+	/**
+	 * Sets the metrics that will receive the timings and results of the 
+	 * operations of this signer.
+	 * 
+	 * @param metrics The metrics or null to disable them.
+	 */
+	public void setMetrics(DTOSignerMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Returns the metrics of this signer.
+	 * 
+	 * @return The metrics or null if they are disabled.
+	 */
+	public DTOSignerMetrics getMetrics() {
+		return this.metrics;
+	}
 
+	/**
+	 * Returns the canonical format used by this signer.
+	 * 
+	 * @return The canonical format.
+	 */
+	public CanonicalFormat getFormat() {
+		return this.format;
 	}
 	
 	/**
@@ -105,11 +275,71 @@ public class DTOSigner {
 	 * @throws DTOSignerException In case of error.
 	 */
 	public byte[] createSignature(Object dto) throws DTOSignerException {
-		
-		SignedPropertyExtractor extractor = SignedPropertyExtractorManager.getExtractor(dto.getClass());
-
-		Mac mac = this.createMac();
-		return mac.doFinal(extractor.extract(dto));
+		return createSignature(this.registry.getExtractor(dto.getClass()), dto, null);
+	}
+	
+	/**
+	 * Computes the signature of the DTO using the given extractor. It is the
+	 * implementation of createSignature() shared with the batch operations.
+	 * 
+	 * @param extractor The extractor of the DTO.
+	 * @param dto The DTO.
+	 * @param mac The Mac to be used or null to take one from the pool.
+	 * @return The signature of the DTO.
+	 * @throws DTOSignerException In case of error.
+	 */
+	byte[] createSignature(SignedPropertyExtractor extractor, Object dto, Mac mac) throws DTOSignerException {
+		if (isCacheable(extractor, dto)) {
+			byte [] signature = this.cache.get(dto);
+			if (signature == null) {
+				signature = computeSignature(extractor, dto, mac);
+				this.cache.put(dto, signature);
+			} else {
+				DTOSignerMetrics metrics = this.metrics;
+				if (metrics != null) {
+					metrics.signed(dto.getClass(), 0, 0, 0);
+				}
+			}
+			return signature.clone();
+		} else {
+			return computeSignature(extractor, dto, mac);
+		}
+	}
+	
+	private boolean isCacheable(SignedPropertyExtractor extractor, Object dto) {
+		return (this.cache != null) && extractor.isImmutable(dto);
+	}
+	
+	private byte [] computeSignature(SignedPropertyExtractor extractor, Object dto, Mac mac) 
+			throws DTOSignerException {
+		Mac m = (mac != null) ? mac : this.macPool.acquire();
+		DTOSignerMetrics metrics = this.metrics;
+		byte [] signature;
+		if (metrics == null) {
+			extractor.extract(dto, m, this.format);
+			signature = m.doFinal();
+		} else {
+			long start = System.nanoTime();
+			CanonicalWriter writer = extractor.acquireWriter(m);
+			try {
+				writer.setTimed();
+				extractor.extract(dto, writer, this.format);
+				writer.flush();
+				long macStart = System.nanoTime();
+				signature = m.doFinal();
+				long end = System.nanoTime();
+				long macNanos = writer.getMacNanos() + (end - macStart);
+				metrics.signed(dto.getClass(), writer.size(), end - start - macNanos, macNanos);
+			} finally {
+				writer.release();
+			}
+		}
+		// The Mac is returned to the pool only on success. If the extraction fails,
+		// its state is unknown and it is simply discarded.
+		if (mac == null) {
+			this.macPool.release(m);
+		}
+		return signature;
 	}
 
 	/**
@@ -119,7 +349,104 @@ public class DTOSigner {
 	 * @throws DTOSignerException In case of error.
 	 */
 	public void sign(SignedDTO<?> signed) throws DTOSignerException {
-		signed.setSignature(createSignature(signed.get()));
+		signed.setSignature(createSignature(signed, null));
+	}
+
+	/**
+	 * Computes the signature of the DTO after a change in the given properties
+	 * and stores it in the property DTOSignature.
+	 * 
+	 * <p>If the format of this signer is CanonicalFormat.DIGEST_TREE and the 
+	 * DTO was signed before by this method or by sign(), only the given
+	 * properties are hashed again. The caller is responsible to ensure that no
+	 * other property changed since the last signature. In all other cases, the
+	 * whole DTO is signed again.</p>
+	 * 
+	 * @param signed The DTO to be signed.
+	 * @param changedProperties The names of the getters of the changed properties.
+	 * @throws DTOSignerException In case of error.
+	 */
+	public void sign(SignedDTO<?> signed, String... changedProperties) throws DTOSignerException {
+		signed.setSignature(createSignature(signed, changedProperties));
+	}
+	
+	/**
+	 * Computes the signature of the DTO as sign() does, without storing it in
+	 * the SignedDTO.
+	 * 
+	 * @param signed The DTO to be signed.
+	 * @param changedProperties The properties that changed or null to detect them.
+	 * @return The signature of the DTO.
+	 * @throws DTOSignerException In case of error.
+	 */
+	byte[] createSignature(SignedDTO<?> signed, String [] changedProperties) throws DTOSignerException {
+		Object dto = signed.get();
+		return createSignature(signed, changedProperties, this.registry.getExtractor(dto.getClass()), null);
+	}
+	
+	/**
+	 * Computes the signature of the DTO as sign() does, without storing it in
+	 * the SignedDTO. It is the implementation shared with the batch operations.
+	 * 
+	 * @param signed The DTO to be signed.
+	 * @param changedProperties The properties that changed or null to detect them.
+	 * @param extractor The extractor of the DTO.
+	 * @param mac The Mac to be used or null to take one from the pool.
+	 * @return The signature of the DTO.
+	 * @throws DTOSignerException In case of error.
+	 */
+	byte[] createSignature(SignedDTO<?> signed, String [] changedProperties, SignedPropertyExtractor extractor, 
+			Mac mac) throws DTOSignerException {
+		if (this.format == CanonicalFormat.DIGEST_TREE) {
+			return signIncremental(signed, changedProperties, extractor, mac);
+		} else {
+			return createSignature(extractor, signed.get(), mac);
+		}
+	}
+	
+	/**
+	 * Signs the DTO using the tree of property digests attached to it. The
+	 * tree is created if the DTO has none.
+	 * 
+	 * @param signed The DTO.
+	 * @param changedProperties The properties that changed or null to detect them.
+	 * @param extractor The extractor of the DTO.
+	 * @param mac The Mac to be used or null to take one from the pool.
+	 * @return The signature.
+	 */
+	private byte [] signIncremental(SignedDTO<?> signed, String [] changedProperties, 
+			SignedPropertyExtractor extractor, Mac mac) throws DTOSignerException {
+		Object dto = signed.get();
+		DTOSignerMetrics metrics = this.metrics;
+		long start = (metrics != null) ? System.nanoTime() : 0;
+		PropertyDigestTree tree = signed.getDigestTree();
+		if ((tree == null) || !tree.isCompatible(extractor)) {
+			tree = new PropertyDigestTree(extractor, dto);
+		} else if (changedProperties == null) {
+			tree = tree.update(dto);
+		} else {
+			tree = tree.update(dto, changedProperties);
+		}
+		
+		Mac m = (mac != null) ? mac : this.macPool.acquire();
+		byte [] signature;
+		CanonicalWriter writer = extractor.acquireWriter(m);
+		try {
+			SignedPropertyExtractor.writeDigestTree(tree.getRoot(), writer);
+			writer.flush();
+			long macStart = (metrics != null) ? System.nanoTime() : 0;
+			signature = m.doFinal();
+			if (metrics != null) {
+				metrics.signed(dto.getClass(), writer.size(), macStart - start, System.nanoTime() - macStart);
+			}
+		} finally {
+			writer.release();
+		}
+		if (mac == null) {
+			this.macPool.release(m);
+		}
+		signed.setDigestTree(tree);
+		return signature;
 	}
 	
 	/**
@@ -131,15 +458,482 @@ public class DTOSigner {
 	 */
 	public boolean checkSignature(SignedDTO<?> signed) throws DTOSignerException {
 
-		if (signed.getSignature() != null) {
-			byte [] sig  = createSignature(signed.get());
-			if (sig != null) {
-				return Arrays.equals(sig, signed.getSignature());
-			} else {
-				throw new DTOSignerException("The DTO is not signed.");
+		byte [] signature = signed.getSignature();
+		if (signature != null) {
+			return checkSignature(signed.get(), signature, 0, signature.length);
+		} else {
+			report(signed.get(), VerificationFailure.MISSING_SIGNATURE);
+			return false;
+		}
+	}
+
+	/**
+	 * Checks if the signature of the DTO matches the given one.
+	 * 
+	 * <p>The MAC is computed into a scratch buffer owned by the current thread and
+	 * compared in constant time, thus this method does not allocate memory. Signatures
+	 * with the wrong length are rejected before the extraction of the DTO.</p>
+	 * 
+	 * @param dto The DTO to be checked.
+	 * @param signature The buffer that contains the expected signature.
+	 * @param offset The offset of the signature in the buffer.
+	 * @param length The length of the signature.
+	 * @return true if the signature is valid or false otherwise.
+	 * @throws DTOSignerException In case of error.
+	 */
+	public boolean checkSignature(Object dto, byte [] signature, int offset, int length) throws DTOSignerException {
+		
+		if (length != this.macPool.getMacLength()) {
+			report(dto, VerificationFailure.WRONG_LENGTH);
+			return false;
+		}
+		return checkSignature(this.registry.getExtractor(dto.getClass()), dto, signature, offset, length, null);
+	}
+	
+	/**
+	 * Checks the signature of the SignedDTO as checkSignature() does, using the
+	 * given extractor. It is the implementation shared with the batch 
+	 * operations.
+	 * 
+	 * @param signed The DTO to be checked.
+	 * @param extractor The extractor of the DTO.
+	 * @param mac The Mac to be used or null to take one from the pool.
+	 * @return true if the signature is valid or false otherwise.
+	 * @throws DTOSignerException In case of error.
+	 */
+	boolean checkSignature(SignedDTO<?> signed, SignedPropertyExtractor extractor, Mac mac) 
+			throws DTOSignerException {
+		byte [] signature = signed.getSignature();
+		if (signature == null) {
+			return report(signed.get(), VerificationFailure.MISSING_SIGNATURE);
+		} else if (signature.length != this.macPool.getMacLength()) {
+			return report(signed.get(), VerificationFailure.WRONG_LENGTH);
+		} else {
+			return checkSignature(extractor, signed.get(), signature, 0, signature.length, mac);
+		}
+	}
+	
+	/**
+	 * Checks the signature of the DTO. The length of the signature must match
+	 * the length of the MAC.
+	 * 
+	 * @param mac The Mac to be used or null to take one from the pool.
+	 */
+	private boolean checkSignature(SignedPropertyExtractor extractor, Object dto, byte [] signature, 
+			int offset, int length, Mac mac) throws DTOSignerException {
+		boolean cacheable = isCacheable(extractor, dto);
+		if (cacheable) {
+			byte [] cached = this.cache.get(dto);
+			if (cached != null) {
+				return report(dto, isEqual(cached, 0, signature, offset, length));
 			}
+		}
+		VerifiedSignatureCache verified = this.verifiedCache;
+		if (verified != null) {
+			boolean ret = checkVerified(verified, extractor, dto, signature, offset, length, null, mac);
+			if (ret && cacheable) {
+				this.cache.put(dto, Arrays.copyOfRange(signature, offset, offset + length));
+			}
+			return ret;
+		}
+		Mac m = (mac != null) ? mac : this.macPool.acquire();
+		CanonicalWriter writer = extractor.acquireWriter(m);
+		boolean ret;
+		try {
+			DTOSignerMetrics metrics = this.metrics;
+			long start = (metrics != null) ? startTimer(writer) : 0;
+			ret = isEqual(computeInto(extractor, this.format, dto, m, writer), 0, signature, offset, length);
+			if (metrics != null) {
+				report(metrics, dto, start, writer, ret);
+			}
+		} finally {
+			writer.release();
+		}
+		if (mac == null) {
+			this.macPool.release(m);
+		}
+		if (ret && cacheable) {
+			this.cache.put(dto, Arrays.copyOfRange(signature, offset, offset + length));
+		}
+		return ret;
+	}
+
+	/**
+	 * Checks if the signature of the DTO matches the remaining bytes of the given
+	 * buffer. The position of the buffer is not changed.
+	 * 
+	 * <p>The MAC is computed into a scratch buffer owned by the current thread and
+	 * compared in constant time, thus this method does not allocate memory. Signatures
+	 * with the wrong length are rejected before the extraction of the DTO.</p>
+	 * 
+	 * @param dto The DTO to be checked.
+	 * @param signature The buffer that contains the expected signature.
+	 * @return true if the signature is valid or false otherwise.
+	 * @throws DTOSignerException In case of error.
+	 */
+	public boolean checkSignature(Object dto, ByteBuffer signature) throws DTOSignerException {
+		
+		if (signature.hasArray()) {
+			return checkSignature(dto, signature.array(), signature.arrayOffset() + signature.position(), 
+					signature.remaining());
+		}
+		int length = signature.remaining();
+		if (length != this.macPool.getMacLength()) {
+			report(dto, VerificationFailure.WRONG_LENGTH);
+			return false;
+		}
+		SignedPropertyExtractor extractor = this.registry.getExtractor(dto.getClass());
+		boolean cacheable = isCacheable(extractor, dto);
+		if (cacheable) {
+			byte [] cached = this.cache.get(dto);
+			if (cached != null) {
+				return report(dto, isEqual(cached, signature));
+			}
+		}
+		VerifiedSignatureCache verified = this.verifiedCache;
+		boolean ret;
+		if (verified != null) {
+			ret = checkVerified(verified, extractor, dto, null, 0, length, signature, null);
 		} else {
+			Mac mac = this.macPool.acquire();
+			CanonicalWriter writer = extractor.acquireWriter(mac);
+			try {
+				DTOSignerMetrics metrics = this.metrics;
+				long start = (metrics != null) ? startTimer(writer) : 0;
+				ret = isEqual(computeInto(extractor, this.format, dto, mac, writer), signature);
+				if (metrics != null) {
+					report(metrics, dto, start, writer, ret);
+				}
+			} finally {
+				writer.release();
+			}
+			this.macPool.release(mac);
+		}
+		if (ret && cacheable) {
+			byte [] copy = new byte[length];
+			signature.duplicate().get(copy);
+			this.cache.put(dto, copy);
+		}
+		return ret;
+	}
+
+	/**
+	 * Signs the DTO and returns its canonical form together with its signature.
+	 * The result can be stored or forwarded and then verified by 
+	 * checkSignature(DetachedSignedDTO) without the DTO.
+	 * 
+	 * @param dto The DTO to be signed.
+	 * @return The detached signed DTO.
+	 * @throws DTOSignerException In case of error.
+	 */
+	public DetachedSignedDTO detach(Object dto) throws DTOSignerException {
+		
+		SignedPropertyExtractor extractor = this.registry.getExtractor(dto.getClass());
+		DTOSignerMetrics metrics = this.metrics;
+		long start = (metrics != null) ? System.nanoTime() : 0;
+		byte [] canonical = extractor.extract(dto, this.format);
+		long macStart = (metrics != null) ? System.nanoTime() : 0;
+		Mac mac = this.macPool.acquire();
+		byte [] signature = mac.doFinal(canonical);
+		this.macPool.release(mac);
+		if (metrics != null) {
+			metrics.signed(dto.getClass(), canonical.length, macStart - start, System.nanoTime() - macStart);
+		}
+		return new DetachedSignedDTO(this.format, canonical, signature);
+	}
+	
+	/**
+	 * Checks the signature of a detached signed DTO. Only the MAC of its 
+	 * canonical form is computed, thus the DTO is neither created nor 
+	 * extracted and its class is not loaded. The VerifiedSignatureCache, if 
+	 * any, is used. The verifications are reported to the metrics as the ones 
+	 * of the class DetachedSignedDTO.
+	 * 
+	 * <p>A DTO rebuilt from the same data is known to be authentic only if
+	 * matches() also holds for it.</p>
+	 * 
+	 * @param detached The detached signed DTO.
+	 * @return true if the signature is valid or false otherwise. It is always
+	 * false if the canonical format is not the format of this signer.
+	 * @throws DTOSignerException In case of error.
+	 */
+	public boolean checkSignature(DetachedSignedDTO detached) throws DTOSignerException {
+		
+		if (detached.getFormat() != this.format) {
+			return report(detached, VerificationFailure.MISMATCH);
+		}
+		byte [] signature = detached.getSignature();
+		if (signature.length != this.macPool.getMacLength()) {
+			return report(detached, VerificationFailure.WRONG_LENGTH);
+		}
+		byte [] canonical = detached.getCanonicalForm();
+		VerifiedSignatureCache verified = this.verifiedCache;
+		long [] tag = null;
+		if (verified != null) {
+			tag = verified.tag(canonical, canonical.length, signature, 0, signature.length);
+			if (verified.contains(tag)) {
+				return report(detached, true);
+			}
+		}
+		DTOSignerMetrics metrics = this.metrics;
+		long start = (metrics != null) ? System.nanoTime() : 0;
+		Mac mac = this.macPool.acquire();
+		boolean ret = isEqual(mac.doFinal(canonical), 0, signature, 0, signature.length);
+		this.macPool.release(mac);
+		if (ret && (tag != null)) {
+			verified.put(tag);
+		}
+		if (metrics != null) {
+			metrics.verified(DetachedSignedDTO.class, canonical.length, 0, System.nanoTime() - start, 
+					ret ? null : VerificationFailure.MISMATCH);
+		}
+		return ret;
+	}
+	
+	/**
+	 * Checks if the canonical form of the DTO is the one of the detached signed
+	 * DTO. The DTO is extracted into memory and compared in constant time, 
+	 * without the computation of the MAC, thus it is a cheap way to confirm 
+	 * that a DTO materialized from a detached signed DTO already verified by
+	 * checkSignature(DetachedSignedDTO) holds the signed values.
+	 * 
+	 * @param detached The detached signed DTO.
+	 * @param dto The DTO.
+	 * @return true if the DTO matches the canonical form or false otherwise. It 
+	 * is always false if the canonical format is not the format of this signer.
+	 * @throws DTOSignerException In case of error.
+	 */
+	public boolean matches(DetachedSignedDTO detached, Object dto) throws DTOSignerException {
+		
+		if (detached.getFormat() != this.format) {
 			return false;
 		}
+		byte [] canonical = detached.getCanonicalForm();
+		SignedPropertyExtractor extractor = this.registry.getExtractor(dto.getClass());
+		CanonicalWriter writer = extractor.acquireWriter(null);
+		try {
+			extractor.extract(dto, writer, this.format);
+			return (writer.size() == canonical.length) && 
+					isEqual(writer.getBuffer(), 0, canonical, 0, canonical.length);
+		} finally {
+			writer.release();
+		}
+	}
+
+	/**
+	 * Checks the signature of the DTO using the cache of verified signatures. The
+	 * DTO is always extracted into memory, thus a DTO changed since its last
+	 * verification produces another tag. The MAC is computed only on a miss. The 
+	 * signature is given either as an array or as a direct buffer.
+	 * 
+	 * @param mac The Mac to be used or null to take one from the pool.
+	 * @return true if the signature is valid or false otherwise.
+	 */
+	private boolean checkVerified(VerifiedSignatureCache verified, SignedPropertyExtractor extractor, 
+			Object dto, byte [] signature, int offset, int length, ByteBuffer signatureBuffer, Mac mac) 
+			throws DTOSignerException {
+		
+		DTOSignerMetrics metrics = this.metrics;
+		long start = (metrics != null) ? System.nanoTime() : 0;
+		long macNanos = 0;
+		int canonicalLength;
+		boolean ret;
+		CanonicalWriter writer = extractor.acquireWriter(null);
+		try {
+			extractor.extract(dto, writer, this.format);
+			byte [] canonical = writer.getBuffer();
+			canonicalLength = (int)writer.size();
+			long [] tag = (signatureBuffer == null) ?
+					verified.tag(canonical, canonicalLength, signature, offset, length) :
+					verified.tag(canonical, canonicalLength, signatureBuffer);
+			ret = verified.contains(tag);
+			if (!ret) {
+				Mac m = (mac != null) ? mac : this.macPool.acquire();
+				long macStart = (metrics != null) ? System.nanoTime() : 0;
+				try {
+					m.update(canonical, 0, canonicalLength);
+					// The canonical form is no longer needed, thus the buffer is reused.
+					m.doFinal(canonical, 0);
+				} catch (ShortBufferException e) {
+					throw new DTOSignerException(e.getMessage(), e);
+				}
+				if (metrics != null) {
+					macNanos = System.nanoTime() - macStart;
+				}
+				if (mac == null) {
+					this.macPool.release(m);
+				}
+				ret = (signatureBuffer == null) ? isEqual(canonical, 0, signature, offset, length) :
+						isEqual(canonical, signatureBuffer);
+				if (ret) {
+					verified.put(tag);
+				}
+			}
+		} finally {
+			writer.release();
+		}
+		if (metrics != null) {
+			metrics.verified(dto.getClass(), canonicalLength, System.nanoTime() - start - macNanos, macNanos, 
+					ret ? null : VerificationFailure.MISMATCH);
+		}
+		return ret;
+	}
+
+	/**
+	 * Computes the MAC of the DTO into the buffer of the writer.
+	 * 
+	 * @return The buffer of the writer, with the MAC at its beginning.
+	 */
+	private static byte [] computeInto(SignedPropertyExtractor extractor, CanonicalFormat format, 
+			Object dto, Mac mac, CanonicalWriter writer) throws DTOSignerException {
+		extractor.extract(dto, writer, format);
+		writer.flush();
+		byte [] scratch = writer.getBuffer();
+		long start = writer.isTimed() ? System.nanoTime() : 0;
+		try {
+			mac.doFinal(scratch, 0);
+		} catch (ShortBufferException e) {
+			throw new DTOSignerException(e.getMessage(), e);
+		}
+		if (writer.isTimed()) {
+			writer.addMacNanos(System.nanoTime() - start);
+		}
+		return scratch;
+	}
+	
+	/**
+	 * Enables the timing of the writer and returns the start time of the operation.
+	 */
+	private static long startTimer(CanonicalWriter writer) {
+		writer.setTimed();
+		return System.nanoTime();
+	}
+	
+	/**
+	 * Reports a timed verification to the metrics.
+	 */
+	private static void report(DTOSignerMetrics metrics, Object dto, long start, CanonicalWriter writer, 
+			boolean valid) {
+		long macNanos = writer.getMacNanos();
+		metrics.verified(dto.getClass(), writer.size(), System.nanoTime() - start - macNanos, macNanos, 
+				valid ? null : VerificationFailure.MISMATCH);
+	}
+	
+	/**
+	 * Reports a verification that was not timed to the metrics, if they are enabled.
+	 * 
+	 * @return The value of valid.
+	 */
+	private boolean report(Object dto, boolean valid) {
+		return report(dto, valid ? null : VerificationFailure.MISMATCH);
+	}
+	
+	/**
+	 * Reports a verification that was not timed to the metrics, if they are enabled.
+	 * 
+	 * @return true if failure is null or false otherwise.
+	 */
+	private boolean report(Object dto, VerificationFailure failure) {
+		DTOSignerMetrics metrics = this.metrics;
+		if (metrics != null) {
+			metrics.verified(dto.getClass(), 0, 0, 0, failure);
+		}
+		return failure == null;
+	}
+	
+	/**
+	 * Signs all DTOs in the collection. Large collections are processed in
+	 * parallel using the common ForkJoinPool.
+	 * 
+	 * @param signed The DTOs to be signed.
+	 * @throws DTOSignerException In case of error.
+	 */
+	public void signAll(Collection<? extends SignedDTO<?>> signed) throws DTOSignerException {
+		signAll(signed, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Signs all DTOs in the collection. Large collections are processed in
+	 * parallel using the given ForkJoinPool.
+	 * 
+	 * <p>Each DTO is signed as by sign(SignedDTO), thus the SignatureCache, the
+	 * metrics and the trees of property digests are used as well. Only the 
+	 * extractors and the Mac instances are shared by the DTOs.</p>
+	 * 
+	 * @param signed The DTOs to be signed.
+	 * @param pool The pool used to process the collection.
+	 * @throws DTOSignerException In case of error.
+	 */
+	public void signAll(Collection<? extends SignedDTO<?>> signed, ForkJoinPool pool) throws DTOSignerException {
+		BatchSigner.signAll(this, signed, pool);
+	}
+
+	/**
+	 * Checks the signatures of all DTOs in the collection. Large collections are
+	 * processed in parallel using the common ForkJoinPool.
+	 * 
+	 * @param signed The DTOs to be checked.
+	 * @return A BitSet with the results in the iteration order of the collection.
+	 * The bit of each valid DTO is set.
+	 * @throws DTOSignerException In case of error.
+	 */
+	public BitSet verifyAll(Collection<? extends SignedDTO<?>> signed) throws DTOSignerException {
+		return verifyAll(signed, ForkJoinPool.commonPool(), false);
+	}
+
+	/**
+	 * Checks the signatures of all DTOs in the collection. Large collections are
+	 * processed in parallel using the given ForkJoinPool.
+	 * 
+	 * <p>Each DTO is verified as by checkSignature(SignedDTO), thus the 
+	 * SignatureCache, the VerifiedSignatureCache and the metrics are used as
+	 * well. Only the extractors and the Mac instances are shared by the 
+	 * DTOs.</p>
+	 * 
+	 * <p>In the fail fast mode, the verification stops as soon as an invalid 
+	 * signature is found. The DTOs that were not verified are reported as 
+	 * invalid, thus the whole collection is valid only if all bits are set.</p>
+	 * 
+	 * @param signed The DTOs to be checked.
+	 * @param pool The pool used to process the collection.
+	 * @param failFast Enables the fail fast mode.
+	 * @return A BitSet with the results in the iteration order of the collection.
+	 * The bit of each valid DTO is set.
+	 * @throws DTOSignerException In case of error.
+	 */
+	public BitSet verifyAll(Collection<? extends SignedDTO<?>> signed, ForkJoinPool pool, 
+			boolean failFast) throws DTOSignerException {
+		return BatchSigner.verifyAll(this, signed, pool, failFast);
+	}
+	
+	/**
+	 * Compares the beginning of the array with the remaining bytes of the buffer
+	 * in constant time. The position of the buffer is not changed.
+	 */
+	private static boolean isEqual(byte [] a, ByteBuffer b) {
+		int diff = 0;
+		int position = b.position();
+		for (int i = 0; i < b.remaining(); i++) {
+			diff |= a[i] ^ b.get(position + i);
+		}
+		return diff == 0;
+	}
+	
+	/**
+	 * Compares two byte sequences in constant time.
+	 * 
+	 * @param a The first buffer.
+	 * @param aOffset The offset of the first sequence.
+	 * @param b The second buffer.
+	 * @param bOffset The offset of the second sequence.
+	 * @param length The length of the sequences.
+	 * @return true if they are equal or false otherwise.
+	 */
+	static boolean isEqual(byte [] a, int aOffset, byte [] b, int bOffset, int length) {
+		int diff = 0;
+		for (int i = 0; i < length; i++) {
+			diff |= a[aOffset + i] ^ b[bOffset + i];
+		}
+		return diff == 0;
 	}
 }
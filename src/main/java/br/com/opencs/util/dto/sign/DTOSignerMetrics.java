@@ -0,0 +1,126 @@
+/*
+ * BSD 3-Clause License
+ * 
+ * Copyright (c) 2019, Open Communications Security
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package br.com.opencs.util.dto.sign;
+
+/**
+ * This interface defines the hooks used to instrument the DTOSigner and the
+ * SignedPropertyExtractorRegistry.
+ * 
+ * <p>The instrumentation is disabled unless an instance of this interface is
+ * set, in which case the hot paths perform only a null check. The methods of 
+ * this interface are called by the threads that perform the operations, thus
+ * they must be fast, thread safe and should not allocate memory.</p>
+ * 
+ * <p>The time spent by the MAC is measured around each call to the Mac, thus
+ * the extraction time includes the serialization of the properties. The 
+ * operations served by the SignatureCache are reported with zero times and
+ * the batch operations are not reported.</p>
+ * 
+ * <p>The signer reports each operation through the methods that also carry
+ * the length of the canonical form. Their default implementations discard it
+ * and call the shorter methods, thus implementations that do not need it may
+ * ignore them.</p>
+ * 
+ * @author Fabio Jun Takada Chino
+ * @see JMXDTOSignerMetrics
+ * @see JFRDTOSignerMetrics
+ */
+public interface DTOSignerMetrics {
+	
+	/**
+	 * Reports a signature.
+	 * 
+	 * @param dtoClass The class of the DTO.
+	 * @param extractionNanos The time spent in the extraction of the properties.
+	 * @param macNanos The time spent in the computation of the MAC.
+	 */
+	void signed(Class<?> dtoClass, long extractionNanos, long macNanos);
+	
+	/**
+	 * Reports a verification.
+	 * 
+	 * @param dtoClass The class of the DTO.
+	 * @param extractionNanos The time spent in the extraction of the properties.
+	 * @param macNanos The time spent in the computation of the MAC.
+	 * @param failure The reason of the failure or null if the signature is valid.
+	 */
+	void verified(Class<?> dtoClass, long extractionNanos, long macNanos, VerificationFailure failure);
+	
+	/**
+	 * Reports a signature together with the length of the canonical form.
+	 * 
+	 * @param dtoClass The class of the DTO.
+	 * @param canonicalLength The length of the canonical form in bytes or 0 if
+	 * the DTO was not extracted.
+	 * @param extractionNanos The time spent in the extraction of the properties.
+	 * @param macNanos The time spent in the computation of the MAC.
+	 */
+	default void signed(Class<?> dtoClass, long canonicalLength, long extractionNanos, long macNanos) {
+		signed(dtoClass, extractionNanos, macNanos);
+	}
+	
+	/**
+	 * Reports a verification together with the length of the canonical form.
+	 * 
+	 * @param dtoClass The class of the DTO.
+	 * @param canonicalLength The length of the canonical form in bytes or 0 if
+	 * the DTO was not extracted.
+	 * @param extractionNanos The time spent in the extraction of the properties.
+	 * @param macNanos The time spent in the computation of the MAC.
+	 * @param failure The reason of the failure or null if the signature is valid.
+	 */
+	default void verified(Class<?> dtoClass, long canonicalLength, long extractionNanos, long macNanos, 
+			VerificationFailure failure) {
+		verified(dtoClass, extractionNanos, macNanos, failure);
+	}
+	
+	/**
+	 * Reports a lookup in the SignedPropertyExtractorRegistry.
+	 * 
+	 * @param dtoClass The class of the DTO.
+	 * @param hit true if the extractor was already registered or false if it
+	 * had to be created.
+	 */
+	void extractorLookup(Class<?> dtoClass, boolean hit);
+	
+	/**
+	 * Reports the creation of an extractor by the SignedPropertyExtractorRegistry.
+	 * Subclasses that share the extractor of their DTO class are not reported.
+	 * 
+	 * @param dtoClass The class of the DTO.
+	 * @param nanos The time spent in the creation of the extractor.
+	 * @param success true if the extractor was created or false if the class
+	 * cannot be extracted.
+	 */
+	default void extractorCreated(Class<?> dtoClass, long nanos, boolean success) {
+	}
+}
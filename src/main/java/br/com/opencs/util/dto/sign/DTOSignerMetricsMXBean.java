@@ -0,0 +1,121 @@
+/*
+ * BSD 3-Clause License
+ * 
+ * Copyright (c) 2019, Open Communications Security
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package br.com.opencs.util.dto.sign;
+
+import java.util.Map;
+
+/**
+ * This interface defines the management interface of the JMXDTOSignerMetrics.
+ * 
+ * <p>The latency histograms have one bucket for each power of 2. The bucket 
+ * i counts the operations that took from 2^(i - 1) to 2^i - 1 nanoseconds
+ * and the last bucket also counts all slower operations.</p>
+ * 
+ * @author Fabio Jun Takada Chino
+ */
+public interface DTOSignerMetricsMXBean {
+
+	/**
+	 * Returns the number of signatures.
+	 * 
+	 * @return The number of signatures.
+	 */
+	long getSignCount();
+
+	/**
+	 * Returns the number of verifications, including the failed ones.
+	 * 
+	 * @return The number of verifications.
+	 */
+	long getVerifyCount();
+
+	/**
+	 * Returns the latency histogram of the signatures.
+	 * 
+	 * @return The histogram.
+	 */
+	long [] getSignLatencyHistogram();
+
+	/**
+	 * Returns the latency histogram of the verifications.
+	 * 
+	 * @return The histogram.
+	 */
+	long [] getVerifyLatencyHistogram();
+
+	/**
+	 * Returns the number of verification failures by reason.
+	 * 
+	 * @return The failures indexed by the name of the VerificationFailure.
+	 */
+	Map<String, Long> getVerificationFailures();
+
+	/**
+	 * Returns the total time spent in the extraction of each DTO class.
+	 * 
+	 * @return The time in nanoseconds indexed by the name of the class.
+	 */
+	Map<String, Long> getExtractionNanosByClass();
+
+	/**
+	 * Returns the total time spent in the MAC computation of each DTO class.
+	 * 
+	 * @return The time in nanoseconds indexed by the name of the class.
+	 */
+	Map<String, Long> getMacNanosByClass();
+
+	/**
+	 * Returns the number of lookups that found the extractor in the registry.
+	 * 
+	 * @return The number of hits.
+	 */
+	long getExtractorLookupHits();
+
+	/**
+	 * Returns the number of lookups that had to create the extractor.
+	 * 
+	 * @return The number of misses.
+	 */
+	long getExtractorLookupMisses();
+
+	/**
+	 * Returns the number of extractors in the registry.
+	 * 
+	 * @return The number of extractors or -1 if the registry is unknown.
+	 */
+	int getExtractorCacheSize();
+
+	/**
+	 * Resets all counters.
+	 */
+	void reset();
+}
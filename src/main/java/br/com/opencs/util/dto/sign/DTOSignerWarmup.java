@@ -0,0 +1,386 @@
+/*
+ * BSD 3-Clause License
+ * 
+ * Copyright (c) 2019, Open Communications Security
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package br.com.opencs.util.dto.sign;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.crypto.Mac;
+
+/**
+ * This class implements the warm-up of a DTOSigner. It is intended to be
+ * executed at startup in order to move the one time costs out of the first
+ * requests. For each DTO class, in parallel, it:
+ * 
+ * <ul>
+ * <li>builds the extractor and its property encoders;</li>
+ * <li>if the class has a public constructor without parameters, signs and
+ * verifies a new instance repeatedly, allowing the JIT to compile the 
+ * signature paths.</li>
+ * </ul>
+ * 
+ * <p>It also fills the MacPool of the signer with initialized instances. The
+ * DTO classes may be given explicitly or read from the index written by the
+ * SignedPropertyProcessor at the resource INDEX_RESOURCE, which lists the 
+ * binary names of the DTO classes, one per line.</p>
+ * 
+ * <p>The instances of this class are not thread safe.</p>
+ * 
+ * @author Fabio Jun Takada Chino
+ */
+public final class DTOSignerWarmup {
+	
+	/**
+	 * Name of the resource that lists the DTO classes.
+	 */
+	public static final String INDEX_RESOURCE = "META-INF/br.com.opencs.util.dto.sign/signed-dtos";
+	
+	public static final int DEFAULT_ITERATIONS = 10000;
+	
+	private final DTOSigner signer;
+	
+	private final Set<Class<?>> classes = new LinkedHashSet<Class<?>>();
+	
+	private final Map<String, Throwable> failures = new LinkedHashMap<String, Throwable>();
+	
+	private int iterations = DEFAULT_ITERATIONS;
+	
+	private ExecutorService executor = ForkJoinPool.commonPool();
+	
+	private long indexNanos;
+	
+	/**
+	 * Creates a new instance of this class.
+	 * 
+	 * @param signer The signer to be warmed up.
+	 */
+	public DTOSignerWarmup(DTOSigner signer) {
+		this.signer = signer;
+	}
+	
+	/**
+	 * Adds DTO classes to be warmed up.
+	 * 
+	 * @param dtoClasses The DTO classes.
+	 * @return This instance.
+	 */
+	public DTOSignerWarmup addClasses(Class<?>... dtoClasses) {
+		Collections.addAll(this.classes, dtoClasses);
+		return this;
+	}
+	
+	/**
+	 * Adds all DTO classes listed by the index resources visible from the given
+	 * class loader. Classes that cannot be loaded are reported as failures.
+	 * 
+	 * @param loader The class loader.
+	 * @return This instance.
+	 * @throws DTOSignerException If the index resources cannot be read.
+	 */
+	public DTOSignerWarmup addIndex(ClassLoader loader) throws DTOSignerException {
+		long start = System.nanoTime();
+		try {
+			Enumeration<URL> resources = loader.getResources(INDEX_RESOURCE);
+			while (resources.hasMoreElements()) {
+				for (String name: readIndex(resources.nextElement())) {
+					try {
+						this.classes.add(Class.forName(name, false, loader));
+					} catch (ClassNotFoundException | LinkageError e) {
+						this.failures.put(name, e);
+					}
+				}
+			}
+		} catch (IOException e) {
+			throw new DTOSignerException(e.getMessage(), e);
+		} finally {
+			this.indexNanos += System.nanoTime() - start;
+		}
+		return this;
+	}
+	
+	private static List<String> readIndex(URL url) throws IOException {
+		List<String> names = new ArrayList<String>();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(url.openStream(), 
+				StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (!line.isEmpty() && !line.startsWith("#")) {
+					names.add(line);
+				}
+			}
+		}
+		return names;
+	}
+	
+	/**
+	 * Sets the number of signatures and verifications of each DTO class.
+	 * 
+	 * @param iterations The number of iterations. 0 disables the JIT warm-up.
+	 * @return This instance.
+	 */
+	public DTOSignerWarmup setIterations(int iterations) {
+		if (iterations < 0) {
+			throw new IllegalArgumentException("The number of iterations cannot be negative.");
+		}
+		this.iterations = iterations;
+		return this;
+	}
+	
+	/**
+	 * Sets the executor of the warm-up tasks. The default is the common ForkJoinPool.
+	 * 
+	 * @param executor The executor.
+	 * @return This instance.
+	 */
+	public DTOSignerWarmup setExecutor(ExecutorService executor) {
+		this.executor = executor;
+		return this;
+	}
+	
+	/**
+	 * Executes the warm-up and waits for its completion. Failures of individual
+	 * classes do not stop the warm-up and are listed in the report.
+	 * 
+	 * @return The report.
+	 * @throws InterruptedException If the current thread is interrupted.
+	 */
+	public Report run() throws InterruptedException {
+		long start = System.nanoTime();
+		
+		final Map<String, Throwable> failures = new ConcurrentHashMap<String, Throwable>(this.failures);
+		final AtomicInteger exercised = new AtomicInteger();
+		final LongAdder extractorNanos = new LongAdder();
+		final LongAdder jitNanos = new LongAdder();
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (final Class<?> dtoClass: this.classes) {
+			tasks.add(() -> {
+				try {
+					long t0 = System.nanoTime();
+					SignedPropertyExtractor extractor = this.signer.getExtractorRegistry().getExtractor(dtoClass);
+					extractor.getEncoders();
+					long t1 = System.nanoTime();
+					extractorNanos.add(t1 - t0);
+					if (exercise(dtoClass)) {
+						exercised.incrementAndGet();
+					}
+					jitNanos.add(System.nanoTime() - t1);
+				} catch (Exception | LinkageError e) {
+					failures.put(dtoClass.getName(), e);
+				}
+				return null;
+			});
+		}
+		long macStart = System.nanoTime();
+		try {
+			fillMacPool();
+		} catch (DTOSignerException e) {
+			failures.put(this.signer.getMacPool().getAlgorithm(), e);
+		}
+		long macNanos = System.nanoTime() - macStart;
+		this.executor.invokeAll(tasks);
+		
+		return new Report(this.classes.size(), exercised.get(), failures, this.indexNanos, 
+				extractorNanos.sum(), macNanos, jitNanos.sum(), System.nanoTime() - start);
+	}
+	
+	/**
+	 * Signs and verifies a new instance of the DTO class repeatedly.
+	 * 
+	 * @return true if the class was exercised or false if it cannot be instantiated.
+	 */
+	private boolean exercise(Class<?> dtoClass) throws Exception {
+		if ((this.iterations == 0) || Modifier.isAbstract(dtoClass.getModifiers())) {
+			return false;
+		}
+		Constructor<?> constructor;
+		try {
+			constructor = dtoClass.getConstructor();
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+		Object dto = constructor.newInstance();
+		byte [] signature = this.signer.createSignature(dto);
+		for (int i = 0; i < this.iterations; i++) {
+			this.signer.createSignature(dto);
+			this.signer.checkSignature(dto, signature, 0, signature.length);
+		}
+		return true;
+	}
+	
+	/**
+	 * Fills the MacPool with one initialized instance per processor.
+	 */
+	private void fillMacPool() throws DTOSignerException {
+		MacPool pool = this.signer.getMacPool();
+		Mac [] macs = new Mac[Runtime.getRuntime().availableProcessors()];
+		for (int i = 0; i < macs.length; i++) {
+			macs[i] = pool.acquire();
+		}
+		for (Mac mac: macs) {
+			pool.release(mac);
+		}
+	}
+	
+	/**
+	 * This class implements the summary of a warm-up.
+	 */
+	public static final class Report {
+		
+		private final int classCount;
+		
+		private final int exercisedCount;
+		
+		private final Map<String, Throwable> failures;
+		
+		private final long indexNanos;
+		
+		private final long extractorNanos;
+		
+		private final long macPoolNanos;
+		
+		private final long jitNanos;
+		
+		private final long totalNanos;
+
+		Report(int classCount, int exercisedCount, Map<String, Throwable> failures, long indexNanos, 
+				long extractorNanos, long macPoolNanos, long jitNanos, long totalNanos) {
+			this.classCount = classCount;
+			this.exercisedCount = exercisedCount;
+			this.failures = Collections.unmodifiableMap(new LinkedHashMap<String, Throwable>(failures));
+			this.indexNanos = indexNanos;
+			this.extractorNanos = extractorNanos;
+			this.macPoolNanos = macPoolNanos;
+			this.jitNanos = jitNanos;
+			this.totalNanos = totalNanos;
+		}
+
+		/**
+		 * Returns the number of DTO classes loaded.
+		 * 
+		 * @return The number of classes.
+		 */
+		public int getClassCount() {
+			return classCount;
+		}
+
+		/**
+		 * Returns the number of DTO classes signed and verified repeatedly.
+		 * 
+		 * @return The number of classes.
+		 */
+		public int getExercisedCount() {
+			return exercisedCount;
+		}
+
+		/**
+		 * Returns the failures indexed by the name of the class.
+		 * 
+		 * @return The failures.
+		 */
+		public Map<String, Throwable> getFailures() {
+			return failures;
+		}
+
+		/**
+		 * Returns the time spent reading the indexes.
+		 * 
+		 * @return The time in nanoseconds.
+		 */
+		public long getIndexNanos() {
+			return indexNanos;
+		}
+
+		/**
+		 * Returns the time spent building the extractors, summed over all threads.
+		 * 
+		 * @return The time in nanoseconds.
+		 */
+		public long getExtractorNanos() {
+			return extractorNanos;
+		}
+
+		/**
+		 * Returns the time spent filling the MacPool.
+		 * 
+		 * @return The time in nanoseconds.
+		 */
+		public long getMacPoolNanos() {
+			return macPoolNanos;
+		}
+
+		/**
+		 * Returns the time spent signing and verifying, summed over all threads.
+		 * 
+		 * @return The time in nanoseconds.
+		 */
+		public long getJitNanos() {
+			return jitNanos;
+		}
+
+		/**
+		 * Returns the elapsed time of the warm-up, excluding the indexes.
+		 * 
+		 * @return The time in nanoseconds.
+		 */
+		public long getTotalNanos() {
+			return totalNanos;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("DTOSigner warm-up: %1$d classes (%2$d exercised, %3$d failed) in %4$.1f ms "
+					+ "[index %5$.1f ms, extractors %6$.1f ms, MAC pool %7$.1f ms, JIT %8$.1f ms]", 
+					classCount, exercisedCount, failures.size(), totalNanos / 1e6, indexNanos / 1e6, 
+					extractorNanos / 1e6, macPoolNanos / 1e6, jitNanos / 1e6);
+		}
+	}
+}
@@ -0,0 +1,223 @@
+/*
+ * BSD 3-Clause License
+ * 
+ * Copyright (c) 2019, Open Communications Security
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package br.com.opencs.util.dto.sign;
+
+import java.nio.Buffer;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * This class implements a detached signed DTO. It holds the canonical form 
+ * of a DTO, as produced by the format of the signer, and its signature, thus
+ * it can be verified by DTOSigner.checkSignature(DetachedSignedDTO) without 
+ * the DTO instance, its class or any reflection.
+ * 
+ * <p>Each encoded instance has the following layout, all integers being big 
+ * endian:</p>
+ * 
+ * <ul>
+ * <li>version (1 byte);</li>
+ * <li>version of the canonical format (1 byte);</li>
+ * <li>signature length (1 byte);</li>
+ * <li>signature;</li>
+ * <li>canonical form length (4 bytes);</li>
+ * <li>canonical form.</li>
+ * </ul>
+ * 
+ * <p>The arrays held by the instances of this class are not copied, thus 
+ * they must not be modified.</p>
+ * 
+ * @author Fabio Jun Takada Chino
+ */
+public final class DetachedSignedDTO {
+	
+	public static final int VERSION = 1;
+	
+	static final int FIXED_HEADER_LENGTH = 7;
+	
+	private static final int MAX_SIGNATURE_LENGTH = 0xFF;
+	
+	private final CanonicalFormat format;
+	
+	private final byte [] canonicalForm;
+	
+	private final byte [] signature;
+	
+	/**
+	 * Creates a new instance of this class.
+	 * 
+	 * @param format The canonical format.
+	 * @param canonicalForm The canonical form of the DTO.
+	 * @param signature The signature of the canonical form.
+	 */
+	public DetachedSignedDTO(CanonicalFormat format, byte [] canonicalForm, byte [] signature) {
+		if ((format == null) || (canonicalForm == null) || (signature == null)) {
+			throw new NullPointerException("The format, the canonical form and the signature are required.");
+		}
+		if (signature.length > MAX_SIGNATURE_LENGTH) {
+			throw new IllegalArgumentException("The signature is too long.");
+		}
+		this.format = format;
+		this.canonicalForm = canonicalForm;
+		this.signature = signature;
+	}
+
+	/**
+	 * Returns the canonical format.
+	 * 
+	 * @return The format.
+	 */
+	public CanonicalFormat getFormat() {
+		return format;
+	}
+
+	/**
+	 * Returns the canonical form of the DTO.
+	 * 
+	 * @return The canonical form.
+	 */
+	public byte[] getCanonicalForm() {
+		return canonicalForm;
+	}
+
+	/**
+	 * Returns the signature.
+	 * 
+	 * @return The signature.
+	 */
+	public byte[] getSignature() {
+		return signature;
+	}
+	
+	/**
+	 * Returns the length of the encoded instance.
+	 * 
+	 * @return The length in bytes.
+	 */
+	public int getEncodedLength() {
+		return FIXED_HEADER_LENGTH + signature.length + canonicalForm.length;
+	}
+	
+	/**
+	 * Encodes this instance.
+	 * 
+	 * @return The encoded instance.
+	 */
+	public byte[] encode() {
+		ByteBuffer dst = ByteBuffer.allocate(getEncodedLength());
+		write(dst);
+		return dst.array();
+	}
+	
+	/**
+	 * Encodes this instance into the given buffer. The position of the buffer
+	 * is advanced by the length of the encoded instance.
+	 * 
+	 * @param dst The destination buffer.
+	 * @throws BufferOverflowException If the buffer is too small. The buffer is 
+	 * not modified in this case.
+	 */
+	public void encode(ByteBuffer dst) {
+		if (dst.remaining() < getEncodedLength()) {
+			throw new BufferOverflowException();
+		}
+		write(dst);
+	}
+	
+	private void write(ByteBuffer dst) {
+		dst.put((byte)VERSION);
+		dst.put((byte)this.format.getVersion());
+		dst.put((byte)this.signature.length);
+		dst.put(this.signature);
+		dst.putInt(this.canonicalForm.length);
+		dst.put(this.canonicalForm);
+	}
+	
+	/**
+	 * Decodes a detached signed DTO.
+	 * 
+	 * @param encoded The encoded instance.
+	 * @return The decoded instance.
+	 * @throws DTOSignerException If the encoded instance is not valid.
+	 */
+	public static DetachedSignedDTO decode(byte [] encoded) throws DTOSignerException {
+		return decode(ByteBuffer.wrap(encoded));
+	}
+	
+	/**
+	 * Decodes the detached signed DTO that starts at the position of the buffer.
+	 * The position of the buffer is advanced to the end of the encoded instance
+	 * only if it succeeds.
+	 * 
+	 * @param src The source buffer.
+	 * @return The decoded instance.
+	 * @throws DTOSignerException If the encoded instance is not valid.
+	 */
+	public static DetachedSignedDTO decode(ByteBuffer src) throws DTOSignerException {
+		int offset = src.position();
+		if (src.remaining() < FIXED_HEADER_LENGTH) {
+			throw new DTOSignerException("Truncated detached signed DTO.");
+		}
+		int version = src.get(offset) & 0xFF;
+		if (version != VERSION) {
+			throw new DTOSignerException("Unsupported detached signed DTO version " + version + ".");
+		}
+		CanonicalFormat format = getFormat(src.get(offset + 1) & 0xFF);
+		int signatureLength = src.get(offset + 2) & 0xFF;
+		if (src.remaining() < FIXED_HEADER_LENGTH + signatureLength) {
+			throw new DTOSignerException("Truncated detached signed DTO.");
+		}
+		int canonicalLength = src.getInt(offset + 3 + signatureLength);
+		if ((canonicalLength < 0) || 
+				(src.remaining() - FIXED_HEADER_LENGTH - signatureLength < canonicalLength)) {
+			throw new DTOSignerException("Truncated detached signed DTO.");
+		}
+		byte [] signature = new byte[signatureLength];
+		byte [] canonicalForm = new byte[canonicalLength];
+		ByteBuffer in = src.duplicate();
+		((Buffer)in).position(offset + 3);
+		in.get(signature);
+		((Buffer)in).position(in.position() + 4);
+		in.get(canonicalForm);
+		((Buffer)src).position(in.position());
+		return new DetachedSignedDTO(format, canonicalForm, signature);
+	}
+	
+	private static CanonicalFormat getFormat(int version) throws DTOSignerException {
+		for (CanonicalFormat format: CanonicalFormat.values()) {
+			if (format.getVersion() == version) {
+				return format;
+			}
+		}
+		throw new DTOSignerException("Unknown canonical format " + version + ".");
+	}
+}
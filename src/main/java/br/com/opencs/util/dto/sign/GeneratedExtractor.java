@@ -0,0 +1,162 @@
+/*
+ * BSD 3-Clause License
+ * 
+ * Copyright (c) 2019, Open Communications Security
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package br.com.opencs.util.dto.sign;
+
+/**
+ * This class is the base of all extractors generated at build time by the
+ * annotation processor br.com.opencs.util.dto.sign.processor.SignedPropertyProcessor.
+ * 
+ * <p>The generated extractor of a DTO class is placed in the same package of
+ * the DTO and its name is the binary name of the DTO class followed by 
+ * GeneratedExtractor.SUFFIX. It is located by name when the extractor of the
+ * DTO class is first requested, thus it is not necessary to register it.</p>
+ * 
+ * <p>Generated extractors list the signed properties in the canonical order,
+ * thus the output produced with them is identical to the one produced by the
+ * reflective extractor. This class is not expected to be extended by hand.</p>
+ * 
+ * <p>All instances of this class are expected to be thread safe.</p>
+ * 
+ * @author Fabio Jun Takada Chino
+ */
+public abstract class GeneratedExtractor {
+	
+	/**
+	 * Suffix appended to the binary name of the DTO class to form the name 
+	 * of the generated extractor.
+	 */
+	public static final String SUFFIX = "_SignedProperties";
+	
+	private final Class<?> dtoClass;
+	
+	private final String [] propertyNames;
+	
+	private final Class<?> [] propertyTypes;
+	
+	/**
+	 * Creates a new instance of this class.
+	 * 
+	 * @param dtoClass The DTO class.
+	 * @param propertyNames The names of the getter methods in the canonical order.
+	 * @param propertyTypes The return types of the getter methods in the canonical order.
+	 */
+	protected GeneratedExtractor(Class<?> dtoClass, String [] propertyNames, Class<?> [] propertyTypes) {
+		if (propertyNames.length != propertyTypes.length) {
+			throw new IllegalArgumentException("The number of names and types does not match.");
+		}
+		this.dtoClass = dtoClass;
+		this.propertyNames = propertyNames.clone();
+		this.propertyTypes = propertyTypes.clone();
+	}
+	
+	/**
+	 * Locates the generated extractor of the given class.
+	 * 
+	 * @param dtoClass The DTO class.
+	 * @return The generated extractor or null if it is not available.
+	 * @throws DTOSignerException If the generated extractor exists but cannot be used.
+	 */
+	static GeneratedExtractor find(Class<?> dtoClass) throws DTOSignerException {
+		
+		ClassLoader loader = dtoClass.getClassLoader();
+		if (loader == null) {
+			return null;
+		}
+		Class<?> generatedClass;
+		try {
+			generatedClass = Class.forName(dtoClass.getName() + SUFFIX, true, loader);
+		} catch (ClassNotFoundException e) {
+			return null;
+		}
+		if (!GeneratedExtractor.class.isAssignableFrom(generatedClass)) {
+			return null;
+		}
+		GeneratedExtractor generated;
+		try {
+			generated = (GeneratedExtractor)generatedClass.getConstructor().newInstance();
+		} catch (Exception e) {
+			throw new DTOSignerException(String.format(
+					"Unable to create the generated extractor %1$s.", generatedClass.getName()), e);
+		}
+		if (generated.getDTOClass() != dtoClass) {
+			return null;
+		}
+		return generated;
+	}
+	
+	/**
+	 * Returns the DTO class handled by this extractor.
+	 * 
+	 * @return The DTO class.
+	 */
+	public Class<?> getDTOClass() {
+		return this.dtoClass;
+	}
+	
+	/**
+	 * Returns the number of signed properties.
+	 * 
+	 * @return The number of signed properties.
+	 */
+	public int getPropertyCount() {
+		return this.propertyNames.length;
+	}
+	
+	/**
+	 * Returns the name of the getter of a given property.
+	 * 
+	 * @param index The index of the property in the canonical order.
+	 * @return The name of the getter.
+	 */
+	public String getPropertyName(int index) {
+		return this.propertyNames[index];
+	}
+	
+	/**
+	 * Returns the return type of the getter of a given property.
+	 * 
+	 * @param index The index of the property in the canonical order.
+	 * @return The type of the property.
+	 */
+	public Class<?> getPropertyType(int index) {
+		return this.propertyTypes[index];
+	}
+	
+	/**
+	 * Reads the value of a given property.
+	 * 
+	 * @param dto The DTO.
+	 * @param index The index of the property in the canonical order.
+	 * @return The value of the property.
+	 */
+	public abstract Object get(Object dto, int index);
+}
@@ -0,0 +1,360 @@
+/*
+ * BSD 3-Clause License
+ * 
+ * Copyright (c) 2019, Open Communications Security
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package br.com.opencs.util.dto.sign;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import jdk.jfr.Category;
+import jdk.jfr.Configuration;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.SettingControl;
+import jdk.jfr.SettingDefinition;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * This class implements a DTOSignerMetrics that emits Java Flight Recorder
+ * events for each signature, each verification and each extractor created by 
+ * the registry. The events carry the DTO class, the length of the canonical 
+ * form, the extraction and MAC times and the outcome of the verification.
+ * 
+ * <p>The operations are timed by the signer itself, thus the events have no
+ * duration of their own. Their setting latencyThreshold filters them by the 
+ * sum of the extraction and MAC times instead. The profile returned by
+ * getConfiguration() enables all events with the thresholds recommended for
+ * continuous recordings.</p>
+ * 
+ * <p>When the events are not being recorded, each operation costs only a 
+ * check of the state of the event type. It requires the jdk.jfr module.</p>
+ * 
+ * <p>All instances of this class are expected to be thread safe.</p>
+ * 
+ * @author Fabio Jun Takada Chino
+ */
+public final class JFRDTOSignerMetrics implements DTOSignerMetrics {
+	
+	public static final String SIGN_EVENT = "br.com.opencs.util.dto.sign.Sign";
+	
+	public static final String VERIFY_EVENT = "br.com.opencs.util.dto.sign.Verify";
+	
+	public static final String EXTRACTOR_EVENT = "br.com.opencs.util.dto.sign.ExtractorCreated";
+	
+	/**
+	 * Name of the resource that contains the recording profile.
+	 */
+	public static final String CONFIGURATION_RESOURCE = "dto-signer.jfc";
+	
+	/**
+	 * Outcome reported by the verification events of valid signatures.
+	 */
+	public static final String VALID = "VALID";
+	
+	/**
+	 * Creates a new instance of this class and sets it as the metrics of the
+	 * given signer and its registry.
+	 * 
+	 * @param signer The signer.
+	 * @return The new instance.
+	 */
+	public static JFRDTOSignerMetrics install(DTOSigner signer) {
+		JFRDTOSignerMetrics metrics = new JFRDTOSignerMetrics();
+		signer.setMetrics(metrics);
+		signer.getExtractorRegistry().setMetrics(metrics);
+		return metrics;
+	}
+	
+	/**
+	 * Returns the recording profile bundled with this library. It contains only
+	 * the events of this class, thus it is usually combined with one of the
+	 * profiles of the JDK.
+	 * 
+	 * @return The configuration.
+	 * @throws DTOSignerException If the profile cannot be loaded.
+	 */
+	public static Configuration getConfiguration() throws DTOSignerException {
+		try (InputStream in = JFRDTOSignerMetrics.class.getResourceAsStream(CONFIGURATION_RESOURCE)) {
+			if (in == null) {
+				throw new DTOSignerException("Unable to find the resource " + CONFIGURATION_RESOURCE + ".");
+			}
+			try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+				return Configuration.create(reader);
+			}
+		} catch (IOException | ParseException e) {
+			throw new DTOSignerException(e.getMessage(), e);
+		}
+	}
+
+	@Override
+	public void signed(Class<?> dtoClass, long extractionNanos, long macNanos) {
+		signed(dtoClass, 0, extractionNanos, macNanos);
+	}
+
+	@Override
+	public void signed(Class<?> dtoClass, long canonicalLength, long extractionNanos, long macNanos) {
+		SignEvent event = new SignEvent();
+		if (event.isEnabled()) {
+			event.dtoClass = dtoClass;
+			event.canonicalLength = canonicalLength;
+			event.extractionTime = extractionNanos;
+			event.macTime = macNanos;
+			if (event.shouldCommit()) {
+				event.commit();
+			}
+		}
+	}
+
+	@Override
+	public void verified(Class<?> dtoClass, long extractionNanos, long macNanos, VerificationFailure failure) {
+		verified(dtoClass, 0, extractionNanos, macNanos, failure);
+	}
+
+	@Override
+	public void verified(Class<?> dtoClass, long canonicalLength, long extractionNanos, long macNanos,
+			VerificationFailure failure) {
+		VerifyEvent event = new VerifyEvent();
+		if (event.isEnabled()) {
+			event.dtoClass = dtoClass;
+			event.canonicalLength = canonicalLength;
+			event.extractionTime = extractionNanos;
+			event.macTime = macNanos;
+			event.outcome = (failure == null) ? VALID : failure.name();
+			if (event.shouldCommit()) {
+				event.commit();
+			}
+		}
+	}
+
+	@Override
+	public void extractorLookup(Class<?> dtoClass, boolean hit) {
+	}
+
+	@Override
+	public void extractorCreated(Class<?> dtoClass, long nanos, boolean success) {
+		ExtractorEvent event = new ExtractorEvent();
+		if (event.isEnabled()) {
+			event.dtoClass = dtoClass;
+			event.creationTime = nanos;
+			event.success = success;
+			if (event.shouldCommit()) {
+				event.commit();
+			}
+		}
+	}
+	
+	/**
+	 * Setting that holds the minimum time of the events to be recorded. Its
+	 * values use the format of the JFR thresholds, such as "0 ns" or "10 ms".
+	 * When combined, the smallest threshold is used.
+	 */
+	public static final class ThresholdSetting extends SettingControl {
+		
+		private static final String [] UNITS = {"ns", "us", "ms", "s", "m", "h", "d"};
+		
+		private static final TimeUnit [] TIME_UNITS = {TimeUnit.NANOSECONDS, TimeUnit.MICROSECONDS, 
+				TimeUnit.MILLISECONDS, TimeUnit.SECONDS, TimeUnit.MINUTES, TimeUnit.HOURS, TimeUnit.DAYS};
+		
+		private volatile String value = "0 ns";
+		
+		private volatile long nanos;
+		
+		/**
+		 * Parses a threshold.
+		 * 
+		 * @param value The threshold.
+		 * @return The threshold in nanoseconds or -1 if it is invalid.
+		 */
+		static long parse(String value) {
+			String s = value.trim();
+			int digits = 0;
+			while ((digits < s.length()) && Character.isDigit(s.charAt(digits))) {
+				digits++;
+			}
+			if ((digits == 0) || (digits > 18)) {
+				return -1;
+			}
+			long amount = Long.parseLong(s.substring(0, digits));
+			String unit = s.substring(digits).trim();
+			if (unit.isEmpty()) {
+				return (amount == 0) ? 0 : -1;
+			}
+			for (int i = 0; i < UNITS.length; i++) {
+				if (UNITS[i].equals(unit)) {
+					return TIME_UNITS[i].toNanos(amount);
+				}
+			}
+			return -1;
+		}
+
+		@Override
+		public String combine(Set<String> values) {
+			String ret = null;
+			long min = Long.MAX_VALUE;
+			for (String v: values) {
+				long n = parse(v);
+				if ((n >= 0) && (n < min)) {
+					min = n;
+					ret = v;
+				}
+			}
+			return (ret != null) ? ret : "0 ns";
+		}
+
+		@Override
+		public void setValue(String value) {
+			long n = parse(value);
+			if (n >= 0) {
+				this.nanos = n;
+				this.value = value;
+			}
+		}
+
+		@Override
+		public String getValue() {
+			return this.value;
+		}
+		
+		/**
+		 * Verifies if the given time reaches the threshold.
+		 * 
+		 * @param nanos The time in nanoseconds.
+		 * @return true if the event should be recorded.
+		 */
+		boolean accept(long nanos) {
+			return nanos >= this.nanos;
+		}
+	}
+	
+	@Name(SIGN_EVENT)
+	@Label("DTO Signature")
+	@Category({"OpenCS", "DTO Signer"})
+	@Description("Signature of a DTO by a DTOSigner")
+	@StackTrace(false)
+	static final class SignEvent extends Event {
+		
+		@Label("DTO Class")
+		Class<?> dtoClass;
+		
+		@Label("Canonical Length")
+		@Description("Length of the canonical form or 0 if it was served by the signature cache")
+		@DataAmount
+		long canonicalLength;
+		
+		@Label("Extraction Time")
+		@Timespan
+		long extractionTime;
+		
+		@Label("MAC Time")
+		@Timespan
+		long macTime;
+		
+		@Label("Latency Threshold")
+		@Description("Minimum extraction and MAC time of the recorded events")
+		@Name("latencyThreshold")
+		@SettingDefinition
+		protected boolean latencyThreshold(ThresholdSetting setting) {
+			return setting.accept(this.extractionTime + this.macTime);
+		}
+	}
+	
+	@Name(VERIFY_EVENT)
+	@Label("DTO Verification")
+	@Category({"OpenCS", "DTO Signer"})
+	@Description("Verification of the signature of a DTO by a DTOSigner")
+	@StackTrace(false)
+	static final class VerifyEvent extends Event {
+		
+		@Label("DTO Class")
+		Class<?> dtoClass;
+		
+		@Label("Canonical Length")
+		@Description("Length of the canonical form or 0 if the DTO was not extracted")
+		@DataAmount
+		long canonicalLength;
+		
+		@Label("Extraction Time")
+		@Timespan
+		long extractionTime;
+		
+		@Label("MAC Time")
+		@Timespan
+		long macTime;
+		
+		@Label("Outcome")
+		@Description("VALID or the reason of the failure")
+		String outcome;
+		
+		@Label("Latency Threshold")
+		@Description("Minimum extraction and MAC time of the recorded events")
+		@Name("latencyThreshold")
+		@SettingDefinition
+		protected boolean latencyThreshold(ThresholdSetting setting) {
+			return setting.accept(this.extractionTime + this.macTime);
+		}
+	}
+	
+	@Name(EXTRACTOR_EVENT)
+	@Label("DTO Extractor Creation")
+	@Category({"OpenCS", "DTO Signer"})
+	@Description("Creation of the extractor of a DTO class")
+	@StackTrace(false)
+	static final class ExtractorEvent extends Event {
+		
+		@Label("DTO Class")
+		Class<?> dtoClass;
+		
+		@Label("Creation Time")
+		@Timespan
+		long creationTime;
+		
+		@Label("Success")
+		boolean success;
+		
+		@Label("Latency Threshold")
+		@Description("Minimum creation time of the recorded events")
+		@Name("latencyThreshold")
+		@SettingDefinition
+		protected boolean latencyThreshold(ThresholdSetting setting) {
+			return setting.accept(this.creationTime);
+		}
+	}
+}
@@ -0,0 +1,331 @@
+/*
+ * BSD 3-Clause License
+ * 
+ * Copyright (c) 2019, Open Communications Security
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package br.com.opencs.util.dto.sign;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * This class implements the default DTOSignerMetrics. It collects the metrics
+ * into lock free counters and exposes them as a JMX MXBean.
+ * 
+ * <p>The timings by class are kept by the name of the DTO class, thus the 
+ * classes and their class loaders are not retained. Proxies and subclasses 
+ * without signed properties of their own are reported as their DTO class.
+ * At most MAXIMUM_CLASSES names are kept, the timings of any other class 
+ * being reported under OTHER_CLASSES.</p>
+ * 
+ * <p>All instances of this class are expected to be thread safe.</p>
+ * 
+ * @author Fabio Jun Takada Chino
+ */
+public class JMXDTOSignerMetrics implements DTOSignerMetrics, DTOSignerMetricsMXBean {
+	
+	public static final String DOMAIN = "br.com.opencs.util.dto.sign";
+	
+	/**
+	 * Number of buckets of the latency histograms.
+	 */
+	public static final int HISTOGRAM_SIZE = 40;
+	
+	/**
+	 * Maximum number of class names in the timings by class.
+	 */
+	public static final int MAXIMUM_CLASSES = 1024;
+	
+	/**
+	 * Name used by the timings of the classes beyond MAXIMUM_CLASSES.
+	 */
+	public static final String OTHER_CLASSES = "<other>";
+	
+	private final SignedPropertyExtractorRegistry registry;
+	
+	private final LongAdder [] signLatency = createHistogram();
+	
+	private final LongAdder [] verifyLatency = createHistogram();
+	
+	private final LongAdder [] failures = new LongAdder[VerificationFailure.values().length];
+	
+	private final LongAdder lookupHits = new LongAdder();
+	
+	private final LongAdder lookupMisses = new LongAdder();
+	
+	private final ConcurrentHashMap<String, ClassMetrics> classes = 
+			new ConcurrentHashMap<String, ClassMetrics>();
+	
+	private final int maximumClasses;
+	
+	private ObjectName objectName;
+	
+	/**
+	 * Creates a new instance of this class.
+	 * 
+	 * @param registry The registry whose size will be reported or null.
+	 */
+	public JMXDTOSignerMetrics(SignedPropertyExtractorRegistry registry) {
+		this(registry, MAXIMUM_CLASSES);
+	}
+	
+	/**
+	 * Creates a new instance of this class with another bound of the timings
+	 * by class. It is used by the tests.
+	 * 
+	 * @param registry The registry whose size will be reported or null.
+	 * @param maximumClasses The maximum number of class names.
+	 */
+	JMXDTOSignerMetrics(SignedPropertyExtractorRegistry registry, int maximumClasses) {
+		this.registry = registry;
+		this.maximumClasses = maximumClasses;
+		for (int i = 0; i < this.failures.length; i++) {
+			this.failures[i] = new LongAdder();
+		}
+	}
+	
+	/**
+	 * Creates a new instance of this class, sets it as the metrics of the
+	 * given signer and its registry and registers it in the platform MBeanServer.
+	 * 
+	 * @param signer The signer.
+	 * @param name The name of the MBean.
+	 * @return The new instance.
+	 * @throws DTOSignerException If the MBean cannot be registered.
+	 */
+	public static JMXDTOSignerMetrics install(DTOSigner signer, String name) throws DTOSignerException {
+		JMXDTOSignerMetrics metrics = new JMXDTOSignerMetrics(signer.getExtractorRegistry());
+		metrics.register(name);
+		signer.setMetrics(metrics);
+		signer.getExtractorRegistry().setMetrics(metrics);
+		return metrics;
+	}
+	
+	private static LongAdder [] createHistogram() {
+		LongAdder [] histogram = new LongAdder[HISTOGRAM_SIZE];
+		for (int i = 0; i < histogram.length; i++) {
+			histogram[i] = new LongAdder();
+		}
+		return histogram;
+	}
+	
+	private static void record(LongAdder [] histogram, long nanos) {
+		int bucket = 64 - Long.numberOfLeadingZeros(Math.max(nanos, 0));
+		histogram[Math.min(bucket, HISTOGRAM_SIZE - 1)].increment();
+	}
+	
+	private static long count(LongAdder [] histogram) {
+		long ret = 0;
+		for (LongAdder bucket: histogram) {
+			ret += bucket.sum();
+		}
+		return ret;
+	}
+	
+	private static long [] toArray(LongAdder [] histogram) {
+		long [] ret = new long[histogram.length];
+		for (int i = 0; i < ret.length; i++) {
+			ret[i] = histogram[i].sum();
+		}
+		return ret;
+	}
+	
+	private ClassMetrics getClassMetrics(Class<?> dtoClass) {
+		String name = SignedPropertyExtractor.resolveDTOClass(dtoClass).getName();
+		ClassMetrics ret = this.classes.get(name);
+		if (ret == null) {
+			// The bound is approximate under contention
+			if (this.classes.size() >= this.maximumClasses) {
+				name = OTHER_CLASSES;
+			}
+			ret = this.classes.computeIfAbsent(name, k -> new ClassMetrics());
+		}
+		return ret;
+	}
+	
+	/**
+	 * Registers this instance in the platform MBeanServer.
+	 * 
+	 * @param name The value of the property name of the ObjectName.
+	 * @return The ObjectName of the MBean.
+	 * @throws DTOSignerException If the MBean cannot be registered.
+	 */
+	public synchronized ObjectName register(String name) throws DTOSignerException {
+		try {
+			ObjectName objectName = new ObjectName(DOMAIN + ":type=DTOSignerMetrics,name=" + ObjectName.quote(name));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+			this.objectName = objectName;
+			return objectName;
+		} catch (JMException e) {
+			throw new DTOSignerException(e.getMessage(), e);
+		}
+	}
+	
+	/**
+	 * Removes this instance from the platform MBeanServer. It does nothing if
+	 * it is not registered.
+	 * 
+	 * @throws DTOSignerException If the MBean cannot be removed.
+	 */
+	public synchronized void unregister() throws DTOSignerException {
+		if (this.objectName != null) {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			try {
+				server.unregisterMBean(this.objectName);
+			} catch (JMException e) {
+				throw new DTOSignerException(e.getMessage(), e);
+			}
+			this.objectName = null;
+		}
+	}
+
+	@Override
+	public void signed(Class<?> dtoClass, long extractionNanos, long macNanos) {
+		record(this.signLatency, extractionNanos + macNanos);
+		getClassMetrics(dtoClass).add(extractionNanos, macNanos);
+	}
+
+	@Override
+	public void verified(Class<?> dtoClass, long extractionNanos, long macNanos, VerificationFailure failure) {
+		record(this.verifyLatency, extractionNanos + macNanos);
+		getClassMetrics(dtoClass).add(extractionNanos, macNanos);
+		if (failure != null) {
+			this.failures[failure.ordinal()].increment();
+		}
+	}
+
+	@Override
+	public void extractorLookup(Class<?> dtoClass, boolean hit) {
+		if (hit) {
+			this.lookupHits.increment();
+		} else {
+			this.lookupMisses.increment();
+		}
+	}
+
+	@Override
+	public long getSignCount() {
+		return count(this.signLatency);
+	}
+
+	@Override
+	public long getVerifyCount() {
+		return count(this.verifyLatency);
+	}
+
+	@Override
+	public long[] getSignLatencyHistogram() {
+		return toArray(this.signLatency);
+	}
+
+	@Override
+	public long[] getVerifyLatencyHistogram() {
+		return toArray(this.verifyLatency);
+	}
+
+	@Override
+	public Map<String, Long> getVerificationFailures() {
+		TreeMap<String, Long> ret = new TreeMap<String, Long>();
+		for (VerificationFailure failure: VerificationFailure.values()) {
+			ret.put(failure.name(), this.failures[failure.ordinal()].sum());
+		}
+		return ret;
+	}
+
+	@Override
+	public Map<String, Long> getExtractionNanosByClass() {
+		TreeMap<String, Long> ret = new TreeMap<String, Long>();
+		for (Map.Entry<String, ClassMetrics> e: this.classes.entrySet()) {
+			ret.put(e.getKey(), e.getValue().extractionNanos.sum());
+		}
+		return ret;
+	}
+
+	@Override
+	public Map<String, Long> getMacNanosByClass() {
+		TreeMap<String, Long> ret = new TreeMap<String, Long>();
+		for (Map.Entry<String, ClassMetrics> e: this.classes.entrySet()) {
+			ret.put(e.getKey(), e.getValue().macNanos.sum());
+		}
+		return ret;
+	}
+
+	@Override
+	public long getExtractorLookupHits() {
+		return this.lookupHits.sum();
+	}
+
+	@Override
+	public long getExtractorLookupMisses() {
+		return this.lookupMisses.sum();
+	}
+
+	@Override
+	public int getExtractorCacheSize() {
+		return (this.registry != null) ? this.registry.size() : -1;
+	}
+
+	@Override
+	public void reset() {
+		for (LongAdder a: this.signLatency) {
+			a.reset();
+		}
+		for (LongAdder a: this.verifyLatency) {
+			a.reset();
+		}
+		for (LongAdder a: this.failures) {
+			a.reset();
+		}
+		this.lookupHits.reset();
+		this.lookupMisses.reset();
+		this.classes.clear();
+	}
+	
+	/**
+	 * Metrics of a single DTO class.
+	 */
+	private static final class ClassMetrics {
+		
+		private final LongAdder extractionNanos = new LongAdder();
+		
+		private final LongAdder macNanos = new LongAdder();
+		
+		public void add(long extractionNanos, long macNanos) {
+			this.extractionNanos.add(extractionNanos);
+			this.macNanos.add(macNanos);
+		}
+	}
+}
@@ -0,0 +1,395 @@
+/*
+ * BSD 3-Clause License
+ * 
+ * Copyright (c) 2019, Open Communications Security
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package br.com.opencs.util.dto.sign;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+/**
+ * This class implements a DTO signer that holds multiple keys. Each signature
+ * starts with the identifier of the key used to compute it, followed by the
+ * MAC itself, thus the verification selects the correct key in constant time
+ * and signatures issued with retired keys are still accepted until their keys 
+ * are removed from the ring.
+ * 
+ * <p>Each key is handled by its own DTOSigner, with its own pool of 
+ * initialized Mac instances. The keys may be added, activated or retired at
+ * any time. Those changes replace the ring atomically and do not block the 
+ * operations in progress, which complete with the ring they started with.</p>
+ * 
+ * <p>All instances of this class are expected to be thread safe.</p>
+ * 
+ * @author Fabio Jun Takada Chino
+ */
+public class KeyRingDTOSigner {
+	
+	/**
+	 * Number of key identifiers.
+	 */
+	public static final int MAX_KEYS = 256;
+	
+	private final String algorithm;
+	
+	private final MacPoolStrategy strategy;
+	
+	private final SignedPropertyExtractorRegistry registry;
+	
+	private final CanonicalFormat format;
+	
+	private volatile KeyRing ring = new KeyRing(new DTOSigner[MAX_KEYS], -1);
+	
+	private volatile DTOSignerMetrics metrics;
+	
+	/**
+	 * Creates a new empty key ring with the default parameters.
+	 */
+	public KeyRingDTOSigner() {
+		this(DTOSigner.DEFAULT_ALGORITHM, DTOSigner.DEFAULT_MAC_POOL_STRATEGY, 
+				SignedPropertyExtractorManager.getDefaultRegistry(), DTOSigner.DEFAULT_FORMAT);
+	}
+	
+	/**
+	 * Creates a new empty key ring.
+	 * 
+	 * @param algorithm The MAC algorithm to be used (JCE or MacEngines).
+	 * @param strategy The strategy used to supply the Mac instances.
+	 * @param registry The registry of extractors used by this signer.
+	 * @param format The canonical format of the signed properties.
+	 */
+	public KeyRingDTOSigner(String algorithm, MacPoolStrategy strategy, 
+			SignedPropertyExtractorRegistry registry, CanonicalFormat format) {
+		this.algorithm = algorithm;
+		this.strategy = strategy;
+		this.registry = registry;
+		this.format = format;
+	}
+	
+	/**
+	 * Returns the identifier of the key used to compute the given signature.
+	 * 
+	 * @param signature The signature.
+	 * @return The key identifier.
+	 */
+	public static int getKeyId(byte [] signature) {
+		return signature[0] & 0xFF;
+	}
+	
+	/**
+	 * Adds a new key to the ring. The key is not activated.
+	 * 
+	 * @param keyId The key identifier, from 0 to 255.
+	 * @param key The key.
+	 * @throws DTOSignerException If the key is not valid for the algorithm.
+	 * @throws IllegalArgumentException If the identifier is invalid or already in use.
+	 */
+	public void addKey(int keyId, byte [] key) throws DTOSignerException {
+		addKey(keyId, key, false);
+	}
+	
+	/**
+	 * Adds a new key to the ring.
+	 * 
+	 * @param keyId The key identifier, from 0 to 255.
+	 * @param key The key.
+	 * @param activate If true, the new key is used by all new signatures.
+	 * @throws DTOSignerException If the key is not valid for the algorithm.
+	 * @throws IllegalArgumentException If the identifier is invalid or already in use.
+	 */
+	public void addKey(int keyId, byte [] key, boolean activate) throws DTOSignerException {
+		checkKeyId(keyId);
+		// The signer, its pool and its prototype Mac are created outside of the lock.
+		DTOSigner signer = new DTOSigner(key, this.algorithm, this.strategy, this.registry, this.format);
+		synchronized (this) {
+			KeyRing current = this.ring;
+			if (current.signers[keyId] != null) {
+				throw new IllegalArgumentException("The key " + keyId + " is already in use.");
+			}
+			signer.setMetrics(this.metrics);
+			DTOSigner [] signers = current.signers.clone();
+			signers[keyId] = signer;
+			this.ring = new KeyRing(signers, activate ? keyId : current.activeKeyId);
+		}
+	}
+	
+	/**
+	 * Sets the key used by all new signatures.
+	 * 
+	 * @param keyId The key identifier.
+	 * @throws IllegalArgumentException If the key is not in the ring.
+	 */
+	public synchronized void setActiveKey(int keyId) {
+		checkKeyId(keyId);
+		KeyRing current = this.ring;
+		if (current.signers[keyId] == null) {
+			throw new IllegalArgumentException("Unknown key " + keyId + ".");
+		}
+		this.ring = new KeyRing(current.signers, keyId);
+	}
+	
+	/**
+	 * Removes a key from the ring. Signatures issued with it will no longer be
+	 * accepted.
+	 * 
+	 * @param keyId The key identifier.
+	 * @return true if the key was removed or false if it was not in the ring.
+	 * @throws IllegalStateException If the key is the active key.
+	 */
+	public synchronized boolean retireKey(int keyId) {
+		checkKeyId(keyId);
+		KeyRing current = this.ring;
+		if (current.signers[keyId] == null) {
+			return false;
+		}
+		if (current.activeKeyId == keyId) {
+			throw new IllegalStateException("The active key cannot be retired.");
+		}
+		DTOSigner [] signers = current.signers.clone();
+		signers[keyId] = null;
+		this.ring = new KeyRing(signers, current.activeKeyId);
+		return true;
+	}
+	
+	private static void checkKeyId(int keyId) {
+		if ((keyId < 0) || (keyId >= MAX_KEYS)) {
+			throw new IllegalArgumentException("Invalid key identifier " + keyId + ".");
+		}
+	}
+	
+	/**
+	 * Returns the identifier of the active key.
+	 * 
+	 * @return The key identifier or -1 if there is no active key.
+	 */
+	public int getActiveKeyId() {
+		return this.ring.activeKeyId;
+	}
+	
+	/**
+	 * Returns the identifiers of all keys in the ring.
+	 * 
+	 * @return The key identifiers in ascending order.
+	 */
+	public int[] getKeyIds() {
+		DTOSigner [] signers = this.ring.signers;
+		int count = 0;
+		for (DTOSigner signer: signers) {
+			if (signer != null) {
+				count++;
+			}
+		}
+		int [] ids = new int[count];
+		count = 0;
+		for (int i = 0; i < signers.length; i++) {
+			if (signers[i] != null) {
+				ids[count++] = i;
+			}
+		}
+		return ids;
+	}
+	
+	/**
+	 * Returns the signer that handles the given key. 
+	 * 
+	 * @param keyId The key identifier.
+	 * @return The signer or null if the key is not in the ring.
+	 */
+	public DTOSigner getSigner(int keyId) {
+		checkKeyId(keyId);
+		return this.ring.signers[keyId];
+	}
+	
+	/**
+	 * Sets the metrics of all keys.
+	 * 
+	 * @param metrics The metrics or null to disable them.
+	 */
+	public synchronized void setMetrics(DTOSignerMetrics metrics) {
+		this.metrics = metrics;
+		for (DTOSigner signer: this.ring.signers) {
+			if (signer != null) {
+				signer.setMetrics(metrics);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the metrics of this signer.
+	 * 
+	 * @return The metrics or null if they are disabled.
+	 */
+	public DTOSignerMetrics getMetrics() {
+		return this.metrics;
+	}
+	
+	private static DTOSigner getActiveSigner(KeyRing ring) throws DTOSignerException {
+		if (ring.activeKeyId < 0) {
+			throw new DTOSignerException("The key ring has no active key.");
+		}
+		return ring.signers[ring.activeKeyId];
+	}
+	
+	private static byte[] addKeyId(int keyId, byte [] mac) {
+		byte [] signature = new byte[mac.length + 1];
+		signature[0] = (byte)keyId;
+		System.arraycopy(mac, 0, signature, 1, mac.length);
+		return signature;
+	}
+	
+	/**
+	 * Computes the signature of the DTO with the active key.
+	 * 
+	 * @param dto The DTO.
+	 * @return The signature of the DTO, prefixed by the key identifier.
+	 * @throws DTOSignerException In case of error or if there is no active key.
+	 */
+	public byte[] createSignature(Object dto) throws DTOSignerException {
+		KeyRing ring = this.ring;
+		return addKeyId(ring.activeKeyId, getActiveSigner(ring).createSignature(dto));
+	}
+	
+	/**
+	 * Computes the signature of the DTO with the active key and stores it in
+	 * the property DTOSignature.
+	 * 
+	 * @param signed The DTO to be signed.
+	 * @throws DTOSignerException In case of error or if there is no active key.
+	 */
+	public void sign(SignedDTO<?> signed) throws DTOSignerException {
+		KeyRing ring = this.ring;
+		signed.setSignature(addKeyId(ring.activeKeyId, getActiveSigner(ring).createSignature(signed, null)));
+	}
+	
+	/**
+	 * Computes the signature of the DTO with the active key after a change in
+	 * the given properties. See DTOSigner.sign(SignedDTO, String...).
+	 * 
+	 * @param signed The DTO to be signed.
+	 * @param changedProperties The names of the getters of the changed properties.
+	 * @throws DTOSignerException In case of error or if there is no active key.
+	 */
+	public void sign(SignedDTO<?> signed, String... changedProperties) throws DTOSignerException {
+		KeyRing ring = this.ring;
+		signed.setSignature(addKeyId(ring.activeKeyId, 
+				getActiveSigner(ring).createSignature(signed, changedProperties)));
+	}
+	
+	/**
+	 * Checks if the DTO signature still holds.
+	 * 
+	 * @param signed The DTO to be checked.
+	 * @return true if the signature is valid and its key is in the ring or false otherwise.
+	 * @throws DTOSignerException In case of error.
+	 */
+	public boolean checkSignature(SignedDTO<?> signed) throws DTOSignerException {
+		byte [] signature = signed.getSignature();
+		if (signature != null) {
+			return checkSignature(signed.get(), signature, 0, signature.length);
+		} else {
+			return report(signed.get(), VerificationFailure.MISSING_SIGNATURE);
+		}
+	}
+	
+	/**
+	 * Checks if the signature of the DTO matches the given one. 
+	 * 
+	 * @param dto The DTO to be checked.
+	 * @param signature The buffer that contains the expected signature.
+	 * @param offset The offset of the signature in the buffer.
+	 * @param length The length of the signature.
+	 * @return true if the signature is valid and its key is in the ring or false otherwise.
+	 * @throws DTOSignerException In case of error.
+	 */
+	public boolean checkSignature(Object dto, byte [] signature, int offset, int length) throws DTOSignerException {
+		if (length < 1) {
+			return report(dto, VerificationFailure.WRONG_LENGTH);
+		}
+		DTOSigner signer = this.ring.signers[signature[offset] & 0xFF];
+		if (signer == null) {
+			return report(dto, VerificationFailure.UNKNOWN_KEY);
+		}
+		return signer.checkSignature(dto, signature, offset + 1, length - 1);
+	}
+	
+	/**
+	 * Checks if the signature of the DTO matches the remaining bytes of the given
+	 * buffer. The position of the buffer is not changed.
+	 * 
+	 * @param dto The DTO to be checked.
+	 * @param signature The buffer that contains the expected signature.
+	 * @return true if the signature is valid and its key is in the ring or false otherwise.
+	 * @throws DTOSignerException In case of error.
+	 */
+	public boolean checkSignature(Object dto, ByteBuffer signature) throws DTOSignerException {
+		if (signature.hasArray()) {
+			return checkSignature(dto, signature.array(), signature.arrayOffset() + signature.position(), 
+					signature.remaining());
+		}
+		if (!signature.hasRemaining()) {
+			return report(dto, VerificationFailure.WRONG_LENGTH);
+		}
+		DTOSigner signer = this.ring.signers[signature.get(signature.position()) & 0xFF];
+		if (signer == null) {
+			return report(dto, VerificationFailure.UNKNOWN_KEY);
+		}
+		ByteBuffer mac = signature.duplicate();
+		((Buffer)mac).position(mac.position() + 1);
+		return signer.checkSignature(dto, mac);
+	}
+	
+	/**
+	 * Reports a verification failure to the metrics, if they are enabled.
+	 * 
+	 * @return Always false.
+	 */
+	private boolean report(Object dto, VerificationFailure failure) {
+		DTOSignerMetrics metrics = this.metrics;
+		if (metrics != null) {
+			metrics.verified(dto.getClass(), 0, 0, 0, failure);
+		}
+		return false;
+	}
+	
+	/**
+	 * Immutable snapshot of the keys.
+	 */
+	private static final class KeyRing {
+		
+		final DTOSigner [] signers;
+		
+		final int activeKeyId;
+		
+		KeyRing(DTOSigner [] signers, int activeKeyId) {
+			this.signers = signers;
+			this.activeKeyId = activeKeyId;
+		}
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ * BSD 3-Clause License
+ * 
+ * Copyright (c) 2019, Open Communications Security
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package br.com.opencs.util.dto.sign;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import javax.crypto.Mac;
+import javax.crypto.MacSpi;
+
+/**
+ * This class implements the registry of MAC engines used by the DTOSigner. 
+ * An engine is a MacSpi exposed as a regular Mac instance, thus it can be 
+ * used by all signers and pools exactly as the JCE implementations.
+ * 
+ * <p>The algorithms not registered here are resolved by Mac.getInstance().
+ * The following pure Java engines are registered by default:</p>
+ * 
+ * <ul>
+ * <li>SipHash-2-4-128: SipHash-2-4 with a 128 bit output and a 16 byte key;</li>
+ * <li>BLAKE2b-256 and BLAKE2b-512: keyed BLAKE2b with a key from 1 to 64 bytes.</li>
+ * </ul>
+ * 
+ * <p>Since those engines are not provided by a JCE provider, their Mac
+ * instances are created directly and never require a signed provider.</p>
+ * 
+ * @author Fabio Jun Takada Chino
+ */
+public final class MacEngines {
+	
+	public static final String SIPHASH_2_4_128 = "SipHash-2-4-128";
+	
+	public static final String BLAKE2B_256 = "BLAKE2b-256";
+	
+	public static final String BLAKE2B_512 = "BLAKE2b-512";
+	
+	private static final ConcurrentHashMap<String, Supplier<? extends MacSpi>> ENGINES = 
+			new ConcurrentHashMap<String, Supplier<? extends MacSpi>>();
+	
+	private static final Provider PROVIDER = new EngineProvider();
+	
+	static {
+		register(SIPHASH_2_4_128, SipHashMacSpi::new);
+		register(BLAKE2B_256, () -> new Blake2bMacSpi(32));
+		register(BLAKE2B_512, () -> new Blake2bMacSpi(64));
+	}
+	
+	private MacEngines() {
+	}
+	
+	/**
+	 * Registers a new engine. The engine replaces any JCE implementation with
+	 * the same name in all signers created after this call. The MacSpi must 
+	 * implement Cloneable in order to be reused efficiently by the MacPool.
+	 * 
+	 * @param algorithm The name of the algorithm. It is case insensitive.
+	 * @param factory The factory of the MacSpi instances.
+	 */
+	public static void register(String algorithm, Supplier<? extends MacSpi> factory) {
+		ENGINES.put(normalize(algorithm), factory);
+	}
+	
+	/**
+	 * Verifies if the given algorithm is implemented by a registered engine.
+	 * 
+	 * @param algorithm The name of the algorithm.
+	 * @return true if it is registered or false if it is left to the JCE.
+	 */
+	public static boolean isRegistered(String algorithm) {
+		return ENGINES.containsKey(normalize(algorithm));
+	}
+	
+	private static String normalize(String algorithm) {
+		return algorithm.toUpperCase(Locale.ROOT);
+	}
+	
+	/**
+	 * Creates a new uninitialized Mac instance for the given algorithm.
+	 * 
+	 * @param algorithm The name of the algorithm.
+	 * @return The Mac instance.
+	 * @throws NoSuchAlgorithmException If the algorithm is neither registered
+	 * nor supported by the JCE.
+	 */
+	public static Mac getInstance(String algorithm) throws NoSuchAlgorithmException {
+		Supplier<? extends MacSpi> factory = ENGINES.get(normalize(algorithm));
+		if (factory != null) {
+			return new EngineMac(factory.get(), PROVIDER, algorithm);
+		} else {
+			return Mac.getInstance(algorithm);
+		}
+	}
+	
+	/**
+	 * Mac that wraps a registered engine.
+	 */
+	private static final class EngineMac extends Mac {
+		
+		EngineMac(MacSpi spi, Provider provider, String algorithm) {
+			super(spi, provider, algorithm);
+		}
+	}
+	
+	/**
+	 * Provider reported by the Mac instances of the registered engines. It is
+	 * never installed in the JCE.
+	 */
+	private static final class EngineProvider extends Provider {
+		
+		private static final long serialVersionUID = 1L;
+
+		@SuppressWarnings("deprecation")
+		EngineProvider() {
+			super("OpenCS-DTO", 1.0, "OpenCS java-dto-utils MAC engines");
+		}
+	}
+}
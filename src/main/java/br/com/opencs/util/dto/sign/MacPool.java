@@ -0,0 +1,219 @@
+/*
+ * BSD 3-Clause License
+ * 
+ * Copyright (c) 2019, Open Communications Security
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package br.com.opencs.util.dto.sign;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * This class is the base of all MAC pools used by the DTOSigner. A pool is
+ * responsible for supplying ready to use Mac instances, avoiding the JCE
+ * provider lookup and the key schedule on each signature.
+ *
+ * <p>All new instances are created by cloning an initialized prototype
+ * whenever the JCE provider supports it. This preserves the already computed
+ * key dependent state (e.g. the HMAC inner and outer pads) of the prototype.
+ * If cloning is not supported, the pool falls back to MacEngines.getInstance() and
+ * Mac.init().</p>
+ *
+ * <p>All instances returned by acquire() are in their initial state and
+ * must be returned to the pool in the same state. Since Mac.doFinal() resets
+ * the instance, this is usually achieved for free.</p>
+ *
+ * <p>All instances of this class are expected to be thread safe.</p>
+ *
+ * @author Fabio Jun Takada Chino
+ */
+public abstract class MacPool {
+
+	private final String algorithm;
+
+	private final SecretKeySpec macKey;
+
+	private final Mac prototype;
+
+	private final boolean cloneable;
+	
+	private final int macLength;
+
+	private final LongAdder hits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * Creates a new instance of this class.
+	 *
+	 * @param algorithm The MAC algorithm (JCE).
+	 * @param macKey The MAC key.
+	 * @throws DTOSignerException If the algorithm or the key are not valid.
+	 */
+	MacPool(String algorithm, SecretKeySpec macKey) throws DTOSignerException {
+		this.algorithm = algorithm;
+		this.macKey = macKey;
+		this.prototype = createMac();
+		this.cloneable = isCloneable(this.prototype);
+		this.macLength = this.prototype.getMacLength();
+	}
+
+	/**
+	 * Creates a new MacPool that uses the given strategy.
+	 *
+	 * @param strategy The strategy.
+	 * @param algorithm The MAC algorithm (JCE).
+	 * @param macKey The MAC key.
+	 * @return The new pool.
+	 * @throws DTOSignerException If the algorithm or the key are not valid.
+	 */
+	static MacPool create(MacPoolStrategy strategy, String algorithm, SecretKeySpec macKey) throws DTOSignerException {
+		switch (strategy) {
+		case THREAD_LOCAL:
+			return new ThreadLocalMacPool(algorithm, macKey);
+		case STRIPED:
+			return new StripedMacPool(algorithm, macKey);
+		case PROTOTYPE:
+			return new PrototypeMacPool(algorithm, macKey);
+		default:
+			throw new IllegalArgumentException("Unknown strategy " + strategy + ".");
+		}
+	}
+
+	private static boolean isCloneable(Mac mac) {
+		try {
+			mac.clone();
+			return true;
+		} catch (CloneNotSupportedException e) {
+			return false;
+		}
+	}
+
+	private Mac createMac() throws DTOSignerException {
+		try {
+			Mac mac = MacEngines.getInstance(this.algorithm);
+			mac.init(this.macKey);
+			return mac;
+		} catch (Exception e) {
+			throw new DTOSignerException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Creates a new Mac instance. It will clone the prototype if possible.
+	 *
+	 * @return The new instance, already initialized.
+	 * @throws DTOSignerException In case of error.
+	 */
+	Mac newMac() throws DTOSignerException {
+		if (this.cloneable) {
+			try {
+				return (Mac)this.prototype.clone();
+			} catch (CloneNotSupportedException e) {
+				// Not expected as it was tested before.
+			}
+		}
+		return createMac();
+	}
+
+	/**
+	 * Registers a hit, i.e. an acquisition served by a reused instance.
+	 */
+	void hit() {
+		this.hits.increment();
+	}
+
+	/**
+	 * Registers a miss, i.e. an acquisition that required a new instance.
+	 */
+	void miss() {
+		this.misses.increment();
+	}
+
+	/**
+	 * Acquires a Mac instance from this pool.
+	 *
+	 * @return The Mac instance, ready to be used.
+	 * @throws DTOSignerException In case of error.
+	 */
+	public abstract Mac acquire() throws DTOSignerException;
+
+	/**
+	 * Returns a Mac instance to the pool. The instance must be in its initial state.
+	 *
+	 * @param mac The Mac instance acquired by acquire().
+	 */
+	public abstract void release(Mac mac);
+
+	/**
+	 * Returns the strategy implemented by this pool.
+	 *
+	 * @return The strategy.
+	 */
+	public abstract MacPoolStrategy getStrategy();
+
+	/**
+	 * Returns the MAC algorithm.
+	 *
+	 * @return The algorithm name.
+	 */
+	public String getAlgorithm() {
+		return this.algorithm;
+	}
+
+	/**
+	 * Returns the length of the MAC produced by the instances of this pool.
+	 *
+	 * @return The length in bytes.
+	 */
+	public int getMacLength() {
+		return this.macLength;
+	}
+
+	/**
+	 * Returns the number of acquisitions served by reused instances.
+	 *
+	 * @return The number of hits.
+	 */
+	public long getHits() {
+		return this.hits.sum();
+	}
+
+	/**
+	 * Returns the number of acquisitions that required the creation of a new
+	 * instance.
+	 *
+	 * @return The number of misses.
+	 */
+	public long getMisses() {
+		return this.misses.sum();
+	}
+}
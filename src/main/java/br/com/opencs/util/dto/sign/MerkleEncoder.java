@@ -0,0 +1,337 @@
+/*
+ * BSD 3-Clause License
+ * 
+ * Copyright (c) 2019, Open Communications Security
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package br.com.opencs.util.dto.sign;
+
+import java.lang.reflect.Array;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * This class implements the ValueEncoder of arrays and Iterable values used
+ * by the binary canonical format. Instead of encoding all elements into the
+ * output, it streams them into a Merkle tree and writes only the number of 
+ * elements followed by the root of the tree.
+ * 
+ * <p>The tree follows the structure defined by RFC 6962 using SHA-256. Each
+ * leaf is the hash of the byte 0x00 followed by the encoding of the element,
+ * each node is the hash of the byte 0x01 followed by its children and the
+ * left subtree of each node is the largest perfect tree with fewer elements
+ * than the node. The root of an empty tree is the hash of an empty input.</p>
+ * 
+ * <p>Elements of primitive arrays are encoded as fixed width big endian 
+ * values. All other elements are preceded by a presence byte and encoded
+ * by the ValueEncoder resolved for their actual classes.</p>
+ * 
+ * <p>The memory required by the computation is proportional to the logarithm
+ * of the number of elements. Arrays and random access lists with at least
+ * PARALLEL_THRESHOLD elements are hashed in parallel chunks by the common
+ * ForkJoinPool. Such values must not be modified during the computation.</p>
+ * 
+ * <p>All instances of this class are expected to be thread safe.</p>
+ * 
+ * @author Fabio Jun Takada Chino
+ */
+final class MerkleEncoder implements ValueEncoder<Object> {
+	
+	static final String DIGEST_ALGORITHM = "SHA-256";
+	
+	/**
+	 * Number of elements of each parallel chunk. It must be a power of 2.
+	 */
+	static final int CHUNK_SIZE = 4096;
+	
+	/**
+	 * Minimum number of elements hashed in parallel.
+	 */
+	static final int PARALLEL_THRESHOLD = 4 * CHUNK_SIZE;
+	
+	private static final int CHUNK_HEIGHT = Integer.numberOfTrailingZeros(CHUNK_SIZE);
+	
+	static final byte LEAF_PREFIX = 0;
+	
+	static final byte NODE_PREFIX = 1;
+	
+	/**
+	 * Writes the element of a random access container.
+	 */
+	private interface ElementWriter {
+		void write(Object container, int index, CanonicalOutput out);
+	}
+	
+	private final ValueEncoderRegistry registry;
+	
+	private final ElementWriter elementWriter;
+	
+	/**
+	 * Creates a new instance of this class.
+	 * 
+	 * @param type The declared type. It must be an array or an Iterable.
+	 * @param registry The registry used to resolve the encoders of the elements.
+	 */
+	MerkleEncoder(Class<?> type, ValueEncoderRegistry registry) {
+		this.registry = registry;
+		this.elementWriter = createElementWriter(type);
+	}
+	
+	/**
+	 * Verifies if the values of the given type are encoded by this class.
+	 * 
+	 * @param type The type.
+	 * @return true if it is an array or an Iterable.
+	 */
+	static boolean supports(Class<?> type) {
+		return type.isArray() || Iterable.class.isAssignableFrom(type);
+	}
+	
+	private ElementWriter createElementWriter(Class<?> type) {
+		Class<?> component = type.getComponentType();
+		if (component == null) {
+			return (c, i, out) -> writeObject(((List<?>)c).get(i), out);
+		} else if (component == Boolean.TYPE) {
+			return (c, i, out) -> out.writeByte(((boolean[])c)[i] ? 1 : 0);
+		} else if (component == Byte.TYPE) {
+			return (c, i, out) -> out.writeByte(((byte[])c)[i]);
+		} else if (component == Short.TYPE) {
+			return (c, i, out) -> out.writeShort(((short[])c)[i]);
+		} else if (component == Character.TYPE) {
+			return (c, i, out) -> out.writeShort(((char[])c)[i]);
+		} else if (component == Integer.TYPE) {
+			return (c, i, out) -> out.writeInt(((int[])c)[i]);
+		} else if (component == Long.TYPE) {
+			return (c, i, out) -> out.writeLong(((long[])c)[i]);
+		} else if (component == Float.TYPE) {
+			return (c, i, out) -> out.writeInt(Float.floatToIntBits(((float[])c)[i]));
+		} else if (component == Double.TYPE) {
+			return (c, i, out) -> out.writeLong(Double.doubleToLongBits(((double[])c)[i]));
+		} else {
+			return (c, i, out) -> writeObject(((Object[])c)[i], out);
+		}
+	}
+
+	private void writeObject(Object value, CanonicalOutput out) {
+		if (value != null) {
+			out.writeByte(1);
+			this.registry.getEncoder(value.getClass()).encode(value, out);
+		} else {
+			out.writeByte(0);
+		}
+	}
+	
+	@Override
+	public void encode(Object value, CanonicalOutput out) {
+		long size;
+		byte [] root;
+		if (value.getClass().isArray()) {
+			size = Array.getLength(value);
+			root = hash(value, (int)size);
+		} else if ((value instanceof List) && (value instanceof RandomAccess)) {
+			size = ((List<?>)value).size();
+			root = hash(value, (int)size);
+		} else {
+			TreeBuilder builder = new TreeBuilder();
+			CanonicalWriter writer = CanonicalWriter.acquire(builder.digest);
+			try {
+				Iterator<?> i = ((Iterable<?>)value).iterator();
+				while (i.hasNext()) {
+					builder.beginLeaf();
+					writeObject(i.next(), writer);
+					builder.add(builder.endLeaf(writer), 0);
+				}
+			} finally {
+				writer.release();
+			}
+			size = builder.count;
+			root = builder.root();
+		}
+		out.writeLong(size);
+		out.writeBytes(root);
+	}
+	
+	/**
+	 * Computes the root of a random access container.
+	 */
+	private byte [] hash(Object container, int size) {
+		TreeBuilder builder = new TreeBuilder();
+		int start = 0;
+		if (size >= PARALLEL_THRESHOLD) {
+			byte [][] chunks = new byte[size / CHUNK_SIZE][];
+			ForkJoinPool.commonPool().invoke(new ChunkTask(container, chunks, 0, chunks.length));
+			for (byte [] chunk: chunks) {
+				builder.add(chunk, CHUNK_HEIGHT);
+			}
+			start = chunks.length * CHUNK_SIZE;
+		}
+		addRange(builder, container, start, size);
+		return builder.root();
+	}
+	
+	private void addRange(TreeBuilder builder, Object container, int start, int end) {
+		CanonicalWriter writer = CanonicalWriter.acquire(builder.digest);
+		try {
+			for (int i = start; i < end; i++) {
+				builder.beginLeaf();
+				this.elementWriter.write(container, i, writer);
+				builder.add(builder.endLeaf(writer), 0);
+			}
+		} finally {
+			writer.release();
+		}
+	}
+	
+	/**
+	 * Creates a new instance of the digest used by the trees.
+	 * 
+	 * @return The digest.
+	 */
+	static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance(DIGEST_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			// All Java platforms are required to support SHA-256.
+			throw new IllegalStateException(e.getMessage(), e);
+		}
+	}
+	
+	/**
+	 * Computes the hash of a node of the tree.
+	 * 
+	 * @param digest The digest.
+	 * @param left The hash of the left child.
+	 * @param right The hash of the right child.
+	 * @return The hash of the node.
+	 */
+	static byte [] node(MessageDigest digest, byte [] left, byte [] right) {
+		digest.update(NODE_PREFIX);
+		digest.update(left);
+		digest.update(right);
+		return digest.digest();
+	}
+	
+	/**
+	 * Builds the tree incrementally. It keeps only the roots of the perfect
+	 * subtrees that were not merged yet, thus it never holds more than one 
+	 * hash for each level of the tree.
+	 */
+	private static final class TreeBuilder {
+		
+		private final MessageDigest digest = createDigest();
+		
+		private final byte [][] hashes = new byte[64][];
+		
+		private final int [] heights = new int[64];
+		
+		private int top;
+		
+		private long count;
+		
+		void beginLeaf() {
+			this.digest.update(LEAF_PREFIX);
+		}
+		
+		/**
+		 * Finishes the leaf whose element was written into the given writer.
+		 */
+		byte [] endLeaf(CanonicalWriter writer) {
+			writer.flush();
+			return this.digest.digest();
+		}
+		
+		/**
+		 * Adds the root of a perfect subtree with the given height. The subtrees
+		 * must be added from left to right, with non increasing heights.
+		 */
+		void add(byte [] hash, int height) {
+			this.count += 1L << height;
+			while ((this.top > 0) && (this.heights[this.top - 1] == height)) {
+				this.top--;
+				hash = MerkleEncoder.node(this.digest, this.hashes[this.top], hash);
+				height++;
+			}
+			this.hashes[this.top] = hash;
+			this.heights[this.top] = height;
+			this.top++;
+		}
+		
+		byte [] root() {
+			if (this.top == 0) {
+				return this.digest.digest();
+			}
+			byte [] hash = this.hashes[this.top - 1];
+			for (int i = this.top - 2; i >= 0; i--) {
+				hash = MerkleEncoder.node(this.digest, this.hashes[i], hash);
+			}
+			return hash;
+		}
+	}
+	
+	/**
+	 * Computes the roots of a range of chunks in parallel.
+	 */
+	private final class ChunkTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Object container;
+		
+		private final byte [][] chunks;
+		
+		private final int start;
+		
+		private final int end;
+		
+		public ChunkTask(Object container, byte [][] chunks, int start, int end) {
+			this.container = container;
+			this.chunks = chunks;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute() {
+			if (this.end - this.start == 1) {
+				TreeBuilder builder = new TreeBuilder();
+				int first = this.start * CHUNK_SIZE;
+				addRange(builder, this.container, first, first + CHUNK_SIZE);
+				this.chunks[this.start] = builder.root();
+			} else {
+				int middle = (this.start + this.end) >>> 1;
+				invokeAll(new ChunkTask(this.container, this.chunks, this.start, middle), 
+						new ChunkTask(this.container, this.chunks, middle, this.end));
+			}
+		}
+	}
+}
@@ -37,6 +37,12 @@ import java.util.Comparator;
 /**
  * This comparator is used to order a collection of methods by their names.
  * 
+ * <p>Getters with the same name are bridge methods generated by the compiler
+ * for overrides with a distinct erased return type. They are placed after 
+ * the overriding method and ordered by the canonical name of their return 
+ * types, thus the order does not depend on the order of Class.getMethods()
+ * and matches the one used by the annotation processor.</p>
+ * 
  * @author Fabio Jun Takada Chino
  */
 class MethodNameComparator implements Comparator<Method> {
@@ -45,6 +51,18 @@ class MethodNameComparator implements Comparator<Method> {
 	
 	@Override
 	public int compare(Method m1, Method m2) {
-		return m1.getName().compareTo(m2.getName());
+		int ret = m1.getName().compareTo(m2.getName());
+		if ((ret == 0) && (m1.getParameterCount() == 0) && (m2.getParameterCount() == 0)) {
+			ret = Boolean.compare(m1.isBridge(), m2.isBridge());
+			if (ret == 0) {
+				ret = getTypeName(m1.getReturnType()).compareTo(getTypeName(m2.getReturnType()));
+			}
+		}
+		return ret;
+	}
+	
+	private static String getTypeName(Class<?> type) {
+		String name = type.getCanonicalName();
+		return (name != null) ? name : type.getName();
 	}
 }
@@ -0,0 +1,332 @@
+/*
+ * BSD 3-Clause License
+ * 
+ * Copyright (c) 2019, Open Communications Security
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package br.com.opencs.util.dto.sign;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * This class implements the accessor used to read the value of a signed
+ * property. 
+ * 
+ * <p>Whenever possible, the accessor is compiled into a Function by the
+ * LambdaMetafactory, allowing the JIT to inline the getter as it would do
+ * with a direct call. If the getter is not accessible from this package or
+ * the DTO class is not visible from the class loader of this library, it
+ * falls back to reflection.</p>
+ * 
+ * <p>Getters that return primitive values are also compiled into the 
+ * corresponding primitive functions, allowing them to be read without boxing
+ * by the methods getBoolean(), getInt(), getLong() and getDouble().</p>
+ * 
+ * <p>All instances of this class are expected to be thread safe.</p>
+ * 
+ * @author Fabio Jun Takada Chino
+ */
+abstract class PropertyAccessor {
+	
+	/**
+	 * Functional interface used to read boolean properties without boxing.
+	 */
+	interface BooleanGetter {
+		boolean getBoolean(Object dto);
+	}
+	
+	private final String name;
+	
+	private final Class<?> type;
+	
+	protected PropertyAccessor(String name, Class<?> type) {
+		this.name = name;
+		this.type = type;
+	}
+	
+	/**
+	 * Creates the best accessor available for the given method.
+	 * 
+	 * @param method The getter method.
+	 * @return The accessor.
+	 */
+	public static PropertyAccessor create(Method method) {
+		if (isVisible(method.getDeclaringClass())) {
+			try {
+				return new LambdaAccessor(method);
+			} catch (Throwable e) {
+				// Not accessible. Falls back to reflection.
+			}
+		}
+		return new ReflectionAccessor(method);
+	}
+	
+	/**
+	 * Creates an accessor for a property of a generated extractor.
+	 * 
+	 * @param generated The generated extractor.
+	 * @param index The index of the property.
+	 * @return The accessor.
+	 */
+	public static PropertyAccessor create(GeneratedExtractor generated, int index) {
+		return new GeneratedAccessor(generated, index);
+	}
+	
+	/**
+	 * Verifies if the given class can be resolved by the class loader of this
+	 * library. It is required by the classes spun by the LambdaMetafactory.
+	 * 
+	 * @param c The class.
+	 * @return true if it is visible or false otherwise.
+	 */
+	private static boolean isVisible(Class<?> c) {
+		try {
+			return Class.forName(c.getName(), false, PropertyAccessor.class.getClassLoader()) == c;
+		} catch (ClassNotFoundException e) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Returns the name of the getter method.
+	 * 
+	 * @return The name of the method.
+	 */
+	public String getName() {
+		return this.name;
+	}
+
+	/**
+	 * Returns the declared type of the property.
+	 * 
+	 * @return The type of the property.
+	 */
+	public Class<?> getType() {
+		return this.type;
+	}
+
+	/**
+	 * Returns true if this accessor uses reflection.
+	 * 
+	 * @return true if this accessor uses reflection or false otherwise.
+	 */
+	public abstract boolean isReflective();
+	
+	/**
+	 * Reads the value of the property.
+	 * 
+	 * @param dto The DTO.
+	 * @return The value of the property.
+	 * @throws Exception If the getter fails.
+	 */
+	public abstract Object get(Object dto) throws Exception;
+	
+	/**
+	 * Reads the value of a boolean property.
+	 * 
+	 * @param dto The DTO.
+	 * @return The value of the property.
+	 * @throws Exception If the getter fails.
+	 */
+	public boolean getBoolean(Object dto) throws Exception {
+		return (Boolean)get(dto);
+	}
+	
+	/**
+	 * Reads the value of a byte, short, char or int property.
+	 * 
+	 * @param dto The DTO.
+	 * @return The value of the property.
+	 * @throws Exception If the getter fails.
+	 */
+	public int getInt(Object dto) throws Exception {
+		Object value = get(dto);
+		if (value instanceof Character) {
+			return (Character)value;
+		} else {
+			return ((Number)value).intValue();
+		}
+	}
+	
+	/**
+	 * Reads the value of a long property.
+	 * 
+	 * @param dto The DTO.
+	 * @return The value of the property.
+	 * @throws Exception If the getter fails.
+	 */
+	public long getLong(Object dto) throws Exception {
+		return ((Number)get(dto)).longValue();
+	}
+	
+	/**
+	 * Reads the value of a float or double property.
+	 * 
+	 * @param dto The DTO.
+	 * @return The value of the property.
+	 * @throws Exception If the getter fails.
+	 */
+	public double getDouble(Object dto) throws Exception {
+		return ((Number)get(dto)).doubleValue();
+	}
+	
+	/**
+	 * Accessor based on a Function created by the LambdaMetafactory.
+	 */
+	private static final class LambdaAccessor extends PropertyAccessor {
+
+		private final Function<Object, Object> function;
+
+		private final BooleanGetter booleanGetter;
+
+		private final ToIntFunction<Object> intGetter;
+
+		private final ToLongFunction<Object> longGetter;
+
+		private final ToDoubleFunction<Object> doubleGetter;
+
+		@SuppressWarnings("unchecked")
+		public LambdaAccessor(Method method) throws Throwable {
+			super(method.getName(), method.getReturnType());
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			MethodHandle handle = lookup.unreflect(method);
+			this.function = (Function<Object, Object>)spin(lookup, handle, Function.class, "apply", 
+					Object.class, handle.type().wrap().returnType());
+			
+			Class<?> type = method.getReturnType();
+			this.booleanGetter = (type == Boolean.TYPE) ? (BooleanGetter)spin(lookup, handle, 
+					BooleanGetter.class, "getBoolean", Boolean.TYPE, Boolean.TYPE) : null;
+			this.intGetter = ((type == Byte.TYPE) || (type == Short.TYPE) || (type == Character.TYPE) || (type == Integer.TYPE)) ? 
+					(ToIntFunction<Object>)spin(lookup, handle, ToIntFunction.class, "applyAsInt", Integer.TYPE, Integer.TYPE) : null;
+			this.longGetter = (type == Long.TYPE) ? (ToLongFunction<Object>)spin(lookup, handle, 
+					ToLongFunction.class, "applyAsLong", Long.TYPE, Long.TYPE) : null;
+			this.doubleGetter = ((type == Float.TYPE) || (type == Double.TYPE)) ? (ToDoubleFunction<Object>)spin(lookup, handle, 
+					ToDoubleFunction.class, "applyAsDouble", Double.TYPE, Double.TYPE) : null;
+		}
+
+		/**
+		 * Creates an instance of the functional interface that calls the given handle.
+		 */
+		private static Object spin(MethodHandles.Lookup lookup, MethodHandle handle, Class<?> functionalInterface,
+				String name, Class<?> samReturn, Class<?> instantiatedReturn) throws Throwable {
+			CallSite site = LambdaMetafactory.metafactory(lookup, name, 
+					MethodType.methodType(functionalInterface), 
+					MethodType.methodType(samReturn, Object.class), 
+					handle, MethodType.methodType(instantiatedReturn, handle.type().parameterType(0)));
+			return site.getTarget().invoke();
+		}
+
+		@Override
+		public boolean isReflective() {
+			return false;
+		}
+
+		@Override
+		public Object get(Object dto) {
+			return this.function.apply(dto);
+		}
+
+		@Override
+		public boolean getBoolean(Object dto) throws Exception {
+			return (this.booleanGetter != null) ? this.booleanGetter.getBoolean(dto) : super.getBoolean(dto);
+		}
+
+		@Override
+		public int getInt(Object dto) throws Exception {
+			return (this.intGetter != null) ? this.intGetter.applyAsInt(dto) : super.getInt(dto);
+		}
+
+		@Override
+		public long getLong(Object dto) throws Exception {
+			return (this.longGetter != null) ? this.longGetter.applyAsLong(dto) : super.getLong(dto);
+		}
+
+		@Override
+		public double getDouble(Object dto) throws Exception {
+			return (this.doubleGetter != null) ? this.doubleGetter.applyAsDouble(dto) : super.getDouble(dto);
+		}
+	}
+
+	/**
+	 * Accessor based on reflection.
+	 */
+	private static final class ReflectionAccessor extends PropertyAccessor {
+
+		private final Method method;
+
+		public ReflectionAccessor(Method method) {
+			super(method.getName(), method.getReturnType());
+			this.method = method;
+		}
+
+		@Override
+		public boolean isReflective() {
+			return true;
+		}
+
+		@Override
+		public Object get(Object dto) throws Exception {
+			return this.method.invoke(dto);
+		}
+	}
+
+	/**
+	 * Accessor that delegates to an extractor generated by the annotation processor.
+	 */
+	private static final class GeneratedAccessor extends PropertyAccessor {
+
+		private final GeneratedExtractor generated;
+
+		private final int index;
+
+		public GeneratedAccessor(GeneratedExtractor generated, int index) {
+			super(generated.getPropertyName(index), generated.getPropertyType(index));
+			this.generated = generated;
+			this.index = index;
+		}
+
+		@Override
+		public boolean isReflective() {
+			return false;
+		}
+
+		@Override
+		public Object get(Object dto) {
+			return this.generated.get(dto, this.index);
+		}
+	}
+}
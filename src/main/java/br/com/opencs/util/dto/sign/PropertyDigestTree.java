@@ -0,0 +1,292 @@
+/*
+ * BSD 3-Clause License
+ * 
+ * Copyright (c) 2019, Open Communications Security
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package br.com.opencs.util.dto.sign;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * This class implements the tree of property digests used by the format
+ * CanonicalFormat.DIGEST_TREE. It keeps the digest of each signed property
+ * and all internal nodes of the tree, thus the root can be updated after a
+ * change in a few properties by hashing only the changed leaves and their 
+ * paths to the root.
+ * 
+ * <p>The tree follows the same structure of the Merkle trees computed by the
+ * MerkleEncoder (RFC 6962 using SHA-256). Each leaf is the hash of the byte 
+ * 0x00 followed by the binary encoding of the property, in the canonical order
+ * of the properties. The nodes are stored in pre-order, thus the left child
+ * of a node is always the next node and the right child of a node with k
+ * leaves on its left subtree is 2 * k nodes after it.</p>
+ * 
+ * <p>In order to detect the changes without the encoding of all properties,
+ * the tree keeps the last value of each property whose value is immutable 
+ * (wrappers, String, BigDecimal, BigInteger, Instant, LocalDate, UUID and
+ * enumerations). Properties with other values are always hashed again.</p>
+ * 
+ * <p>Instances of this class are immutable, thus they can be shared by many
+ * threads. The updates return a new tree that shares the unchanged nodes with
+ * the original one.</p>
+ * 
+ * @author Fabio Jun Takada Chino
+ */
+final class PropertyDigestTree {
+	
+	private static final Set<Class<?>> IMMUTABLE_TYPES = new HashSet<Class<?>>(Arrays.asList(
+			Boolean.class, Byte.class, Short.class, Character.class, Integer.class, Long.class,
+			Float.class, Double.class, String.class, BigDecimal.class, BigInteger.class,
+			Instant.class, LocalDate.class, UUID.class));
+	
+	private static final Object UNKNOWN = new Object();
+	
+	private final SignedPropertyExtractor extractor;
+	
+	private final PropertyEncoder [] encoders;
+	
+	private final byte [][] nodes;
+	
+	private final Object [] values;
+	
+	private final int hashedCount;
+	
+	/**
+	 * Creates the tree of the given DTO.
+	 * 
+	 * @param extractor The extractor of the DTO.
+	 * @param dto The DTO.
+	 * @throws DTOSignerException In case of error.
+	 */
+	PropertyDigestTree(SignedPropertyExtractor extractor, Object dto) throws DTOSignerException {
+		this.extractor = extractor;
+		this.encoders = extractor.getEncoders();
+		this.nodes = new byte[this.encoders.length * 2 - 1][];
+		this.values = new Object[this.encoders.length];
+		this.hashedCount = this.encoders.length;
+		MessageDigest digest = MerkleEncoder.createDigest();
+		byte [][] leaves = new byte[this.encoders.length][];
+		CanonicalWriter writer = CanonicalWriter.acquire(digest);
+		try {
+			for (int i = 0; i < leaves.length; i++) {
+				Object value = get(dto, i);
+				this.values[i] = isImmutable(value) ? value : UNKNOWN;
+				leaves[i] = hashLeaf(dto, i, value, digest, writer);
+			}
+		} finally {
+			writer.release();
+		}
+		build(0, 0, leaves.length, leaves, digest);
+	}
+	
+	/**
+	 * Creates a copy of the given tree with the given properties hashed again.
+	 * 
+	 * @param base The tree.
+	 * @param dto The DTO.
+	 * @param changed The indexes of the properties to be hashed again, or null 
+	 * to hash again all properties that may have changed.
+	 * @throws DTOSignerException In case of error.
+	 */
+	private PropertyDigestTree(PropertyDigestTree base, Object dto, int [] changed) throws DTOSignerException {
+		this.extractor = base.extractor;
+		this.encoders = base.encoders;
+		this.nodes = base.nodes.clone();
+		this.values = base.values.clone();
+		MessageDigest digest = MerkleEncoder.createDigest();
+		int count = 0;
+		CanonicalWriter writer = CanonicalWriter.acquire(digest);
+		try {
+			int n = (changed != null) ? changed.length : this.values.length;
+			for (int j = 0; j < n; j++) {
+				int i = (changed != null) ? changed[j] : j;
+				Object value = get(dto, i);
+				Object last = this.values[i];
+				if ((changed != null) || (last == UNKNOWN) || !Objects.equals(last, value) || 
+						!isImmutable(value)) {
+					this.values[i] = isImmutable(value) ? value : UNKNOWN;
+					updateLeaf(dto, i, value, digest, writer);
+					count++;
+				}
+			}
+		} finally {
+			writer.release();
+		}
+		this.hashedCount = count;
+	}
+	
+	private static boolean isImmutable(Object value) {
+		return (value == null) || IMMUTABLE_TYPES.contains(value.getClass()) || (value instanceof Enum);
+	}
+	
+	private Object get(Object dto, int index) throws DTOSignerException {
+		PropertyAccessor accessor = this.encoders[index].getAccessor();
+		try {
+			return accessor.get(dto);
+		} catch (Exception e) {
+			throw SignedPropertyExtractor.invocationFailed(dto, accessor, e);
+		}
+	}
+	
+	private byte [] hashLeaf(Object dto, int index, Object value, MessageDigest digest, 
+			CanonicalWriter writer) throws DTOSignerException {
+		digest.update(MerkleEncoder.LEAF_PREFIX);
+		try {
+			this.encoders[index].encodeValue(value, writer);
+		} catch (Exception e) {
+			throw SignedPropertyExtractor.invocationFailed(dto, this.encoders[index].getAccessor(), e);
+		}
+		writer.flush();
+		return digest.digest();
+	}
+	
+	private void build(int id, int start, int end, byte [][] leaves, MessageDigest digest) {
+		if (end - start == 1) {
+			this.nodes[id] = leaves[start];
+		} else {
+			int k = Integer.highestOneBit(end - start - 1);
+			build(id + 1, start, start + k, leaves, digest);
+			build(id + 2 * k, start + k, end, leaves, digest);
+			this.nodes[id] = MerkleEncoder.node(digest, this.nodes[id + 1], this.nodes[id + 2 * k]);
+		}
+	}
+	
+	private void update(int id, int start, int end, int leaf, byte [] hash, MessageDigest digest) {
+		if (end - start == 1) {
+			this.nodes[id] = hash;
+		} else {
+			int k = Integer.highestOneBit(end - start - 1);
+			if (leaf < start + k) {
+				update(id + 1, start, start + k, leaf, hash, digest);
+			} else {
+				update(id + 2 * k, start + k, end, leaf, hash, digest);
+			}
+			this.nodes[id] = MerkleEncoder.node(digest, this.nodes[id + 1], this.nodes[id + 2 * k]);
+		}
+	}
+	
+	private void updateLeaf(Object dto, int index, Object value, MessageDigest digest, 
+			CanonicalWriter writer) throws DTOSignerException {
+		byte [] hash = hashLeaf(dto, index, value, digest, writer);
+		if (!Arrays.equals(hash, leaf(0, 0, this.encoders.length, index))) {
+			update(0, 0, this.encoders.length, index, hash, digest);
+		}
+	}
+	
+	private byte [] leaf(int id, int start, int end, int leaf) {
+		while (end - start > 1) {
+			int k = Integer.highestOneBit(end - start - 1);
+			if (leaf < start + k) {
+				id = id + 1;
+				end = start + k;
+			} else {
+				id = id + 2 * k;
+				start = start + k;
+			}
+		}
+		return this.nodes[id];
+	}
+	
+	/**
+	 * Verifies if this tree was created by the given extractor.
+	 * 
+	 * @param extractor The extractor.
+	 * @return true if the tree can be updated using the extractor.
+	 */
+	boolean isCompatible(SignedPropertyExtractor extractor) {
+		return this.extractor == extractor;
+	}
+	
+	/**
+	 * Returns the tree updated with all properties that may have changed since
+	 * this tree was computed. This tree is not changed.
+	 * 
+	 * @param dto The DTO.
+	 * @return The updated tree.
+	 * @throws DTOSignerException In case of error.
+	 */
+	PropertyDigestTree update(Object dto) throws DTOSignerException {
+		return new PropertyDigestTree(this, dto, null);
+	}
+
+	/**
+	 * Returns the tree updated with the given properties only. The caller is 
+	 * responsible to ensure that all other properties did not change since 
+	 * this tree was computed. This tree is not changed.
+	 * 
+	 * @param dto The DTO.
+	 * @param properties The names of the getters of the changed properties.
+	 * @return The updated tree.
+	 * @throws DTOSignerException In case of error.
+	 */
+	PropertyDigestTree update(Object dto, String... properties) throws DTOSignerException {
+		int [] changed = new int[properties.length];
+		for (int i = 0; i < properties.length; i++) {
+			changed[i] = indexOf(properties[i]);
+		}
+		return new PropertyDigestTree(this, dto, changed);
+	}
+	
+	private int indexOf(String property) {
+		for (int i = 0; i < this.encoders.length; i++) {
+			if (this.encoders[i].getAccessor().getName().equals(property)) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException(String.format("The class %1$s has no signed property %2$s.", 
+				this.extractor.getDTOClass().getName(), property));
+	}
+	
+	/**
+	 * Returns the number of properties hashed when this tree was computed.
+	 * 
+	 * @return The number of properties.
+	 */
+	int getHashedCount() {
+		return this.hashedCount;
+	}
+	
+	/**
+	 * Returns the root of the tree.
+	 * 
+	 * @return The root.
+	 */
+	byte [] getRoot() {
+		return this.nodes[0];
+	}
+}
@@ -0,0 +1,384 @@
+/*
+ * BSD 3-Clause License
+ * 
+ * Copyright (c) 2019, Open Communications Security
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package br.com.opencs.util.dto.sign;
+
+import java.io.InputStream;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.util.function.Supplier;
+
+/**
+ * This class implements the encoder of a single signed property in the binary
+ * canonical format. Primitive properties are read and written without boxing
+ * while the other properties are written by the ValueEncoder resolved for
+ * their declared types.
+ * 
+ * <p>Non null values are preceded by the byte 1 and null values are written
+ * as the byte 0. If the declared type is not final, a value of another class
+ * is written by the encoder of its own class instead, preceded by the byte 2
+ * and the name of its class, thus the state held by subclasses, such as the
+ * nanos of a java.sql.Timestamp returned as a Date, is not lost. For 
+ * interfaces, only the encoders registered for the class of the value are
+ * used this way.</p>
+ * 
+ * <p>In the format STREAMING, the properties whose values may be large, 
+ * byte[], ByteBuffer, CharSequence, InputStream and Supplier, are written as 
+ * streamed values instead.</p>
+ * 
+ * <p>All instances of this class are expected to be thread safe.</p>
+ * 
+ * @author Fabio Jun Takada Chino
+ */
+abstract class PropertyEncoder {
+	
+	protected final PropertyAccessor accessor;
+	
+	protected PropertyEncoder(PropertyAccessor accessor) {
+		this.accessor = accessor;
+	}
+	
+	/**
+	 * Creates the encoder of the given property.
+	 * 
+	 * @param accessor The accessor of the property.
+	 * @param registry The registry used to resolve the non primitive types.
+	 * @return The encoder.
+	 */
+	public static PropertyEncoder create(PropertyAccessor accessor, ValueEncoderRegistry registry) {
+		return create(accessor, registry, false);
+	}
+	
+	/**
+	 * Creates the encoder of the given property.
+	 * 
+	 * @param accessor The accessor of the property.
+	 * @param registry The registry used to resolve the non primitive types.
+	 * @param streaming If true, the large values are written as streamed values.
+	 * @return The encoder.
+	 */
+	public static PropertyEncoder create(PropertyAccessor accessor, ValueEncoderRegistry registry, 
+			boolean streaming) {
+		Class<?> type = accessor.getType();
+		if (streaming && StreamEncoder.supports(type)) {
+			return new StreamEncoder(accessor);
+		}
+		if (type == Boolean.TYPE) {
+			return new BooleanEncoder(accessor);
+		} else if (type == Byte.TYPE) {
+			return new ByteEncoder(accessor);
+		} else if ((type == Short.TYPE) || (type == Character.TYPE)) {
+			return new ShortEncoder(accessor);
+		} else if (type == Integer.TYPE) {
+			return new IntEncoder(accessor);
+		} else if (type == Long.TYPE) {
+			return new LongEncoder(accessor);
+		} else if (type == Float.TYPE) {
+			return new FloatEncoder(accessor);
+		} else if (type == Double.TYPE) {
+			return new DoubleEncoder(accessor);
+		} else {
+			return new ObjectEncoder(accessor, registry);
+		}
+	}
+	
+	/**
+	 * Returns the accessor of the property.
+	 * 
+	 * @return The accessor.
+	 */
+	public PropertyAccessor getAccessor() {
+		return this.accessor;
+	}
+	
+	/**
+	 * Reads the property and writes its value.
+	 * 
+	 * @param dto The DTO.
+	 * @param out The output.
+	 * @throws Exception If the getter fails.
+	 */
+	public abstract void encode(Object dto, CanonicalWriter out) throws Exception;
+	
+	/**
+	 * Writes a value already read from the property, as encode() would have
+	 * written it.
+	 * 
+	 * @param value The value of the property, boxed if it is a primitive.
+	 * @param out The output.
+	 * @throws Exception If the value cannot be written.
+	 */
+	public abstract void encodeValue(Object value, CanonicalWriter out) throws Exception;
+	
+	private static final class BooleanEncoder extends PropertyEncoder {
+		
+		public BooleanEncoder(PropertyAccessor accessor) {
+			super(accessor);
+		}
+
+		@Override
+		public void encode(Object dto, CanonicalWriter out) throws Exception {
+			out.writeByte(this.accessor.getBoolean(dto) ? 1 : 0);
+		}
+
+		@Override
+		public void encodeValue(Object value, CanonicalWriter out) throws Exception {
+			out.writeByte(((Boolean)value) ? 1 : 0);
+		}
+	}
+	
+	private static final class ByteEncoder extends PropertyEncoder {
+		
+		public ByteEncoder(PropertyAccessor accessor) {
+			super(accessor);
+		}
+
+		@Override
+		public void encode(Object dto, CanonicalWriter out) throws Exception {
+			out.writeByte(this.accessor.getInt(dto));
+		}
+
+		@Override
+		public void encodeValue(Object value, CanonicalWriter out) throws Exception {
+			out.writeByte(((Number)value).intValue());
+		}
+	}
+	
+	private static final class ShortEncoder extends PropertyEncoder {
+		
+		public ShortEncoder(PropertyAccessor accessor) {
+			super(accessor);
+		}
+
+		@Override
+		public void encode(Object dto, CanonicalWriter out) throws Exception {
+			out.writeShort(this.accessor.getInt(dto));
+		}
+
+		@Override
+		public void encodeValue(Object value, CanonicalWriter out) throws Exception {
+			out.writeShort((value instanceof Character) ? (Character)value : ((Number)value).intValue());
+		}
+	}
+	
+	private static final class IntEncoder extends PropertyEncoder {
+		
+		public IntEncoder(PropertyAccessor accessor) {
+			super(accessor);
+		}
+
+		@Override
+		public void encode(Object dto, CanonicalWriter out) throws Exception {
+			out.writeInt(this.accessor.getInt(dto));
+		}
+
+		@Override
+		public void encodeValue(Object value, CanonicalWriter out) throws Exception {
+			out.writeInt(((Number)value).intValue());
+		}
+	}
+	
+	private static final class LongEncoder extends PropertyEncoder {
+		
+		public LongEncoder(PropertyAccessor accessor) {
+			super(accessor);
+		}
+
+		@Override
+		public void encode(Object dto, CanonicalWriter out) throws Exception {
+			out.writeLong(this.accessor.getLong(dto));
+		}
+
+		@Override
+		public void encodeValue(Object value, CanonicalWriter out) throws Exception {
+			out.writeLong(((Number)value).longValue());
+		}
+	}
+	
+	private static final class FloatEncoder extends PropertyEncoder {
+		
+		public FloatEncoder(PropertyAccessor accessor) {
+			super(accessor);
+		}
+
+		@Override
+		public void encode(Object dto, CanonicalWriter out) throws Exception {
+			out.writeInt(Float.floatToIntBits((float)this.accessor.getDouble(dto)));
+		}
+
+		@Override
+		public void encodeValue(Object value, CanonicalWriter out) throws Exception {
+			out.writeInt(Float.floatToIntBits(((Number)value).floatValue()));
+		}
+	}
+	
+	private static final class DoubleEncoder extends PropertyEncoder {
+		
+		public DoubleEncoder(PropertyAccessor accessor) {
+			super(accessor);
+		}
+
+		@Override
+		public void encode(Object dto, CanonicalWriter out) throws Exception {
+			out.writeLong(Double.doubleToLongBits(this.accessor.getDouble(dto)));
+		}
+
+		@Override
+		public void encodeValue(Object value, CanonicalWriter out) throws Exception {
+			out.writeLong(Double.doubleToLongBits(((Number)value).doubleValue()));
+		}
+	}
+	
+	private static final class ObjectEncoder extends PropertyEncoder {
+		
+		private final ValueEncoderRegistry registry;
+		
+		private final ValueEncoder<Object> encoder;
+		
+		private final boolean polymorphic;
+		
+		/**
+		 * Encoder of the last class of value that is not the declared type.
+		 */
+		private volatile ResolvedEncoder last;
+		
+		public ObjectEncoder(PropertyAccessor accessor, ValueEncoderRegistry registry) {
+			super(accessor);
+			this.registry = registry;
+			this.encoder = registry.getEncoder(accessor.getType());
+			this.polymorphic = !Modifier.isFinal(accessor.getType().getModifiers());
+		}
+
+		@Override
+		public void encode(Object dto, CanonicalWriter out) throws Exception {
+			encodeValue(this.accessor.get(dto), out);
+		}
+
+		@Override
+		public void encodeValue(Object value, CanonicalWriter out) throws Exception {
+			if (value == null) {
+				out.writeByte(0);
+				return;
+			}
+			Class<?> type = value.getClass();
+			if (this.polymorphic && (type != this.accessor.getType())) {
+				ValueEncoder<Object> encoder = resolve(type);
+				if (encoder != null) {
+					out.writeByte(2);
+					out.writeString(type.getName());
+					encoder.encode(value, out);
+					return;
+				}
+			}
+			out.writeByte(1);
+			this.encoder.encode(value, out);
+		}
+		
+		/**
+		 * Resolves the encoder of a class of value that is not the declared type.
+		 * 
+		 * @return The encoder or null if the encoder of the declared type must be used.
+		 */
+		private ValueEncoder<Object> resolve(Class<?> type) {
+			ResolvedEncoder last = this.last;
+			if ((last == null) || (last.type != type)) {
+				ValueEncoder<Object> encoder = this.registry.getRegisteredEncoder(type);
+				if ((encoder == null) && !this.accessor.getType().isInterface()) {
+					encoder = this.registry.getEncoder(type);
+				}
+				last = new ResolvedEncoder(type, encoder);
+				this.last = last;
+			}
+			return last.encoder;
+		}
+	}
+	
+	private static final class ResolvedEncoder {
+		
+		final Class<?> type;
+		
+		final ValueEncoder<Object> encoder;
+		
+		ResolvedEncoder(Class<?> type, ValueEncoder<Object> encoder) {
+			this.type = type;
+			this.encoder = encoder;
+		}
+	}
+	
+	/**
+	 * Encoder of the values written as streamed values. Suppliers are called
+	 * and their results are written instead. Input streams are read until 
+	 * their end and closed.
+	 */
+	private static final class StreamEncoder extends PropertyEncoder {
+		
+		public StreamEncoder(PropertyAccessor accessor) {
+			super(accessor);
+		}
+		
+		public static boolean supports(Class<?> type) {
+			return (type == byte[].class) || ByteBuffer.class.isAssignableFrom(type) || 
+					CharSequence.class.isAssignableFrom(type) || InputStream.class.isAssignableFrom(type) ||
+					Supplier.class.isAssignableFrom(type);
+		}
+
+		@Override
+		public void encode(Object dto, CanonicalWriter out) throws Exception {
+			encodeValue(this.accessor.get(dto), out);
+		}
+
+		@Override
+		public void encodeValue(Object value, CanonicalWriter out) throws Exception {
+			if (value instanceof Supplier) {
+				value = ((Supplier<?>)value).get();
+			}
+			if (value == null) {
+				out.writeByte(0);
+				return;
+			}
+			out.writeByte(1);
+			if (value instanceof byte[]) {
+				out.writeStream((byte[])value);
+			} else if (value instanceof ByteBuffer) {
+				out.writeStream((ByteBuffer)value);
+			} else if (value instanceof CharSequence) {
+				out.writeStream((CharSequence)value);
+			} else if (value instanceof InputStream) {
+				try (InputStream in = (InputStream)value) {
+					out.writeStream(in);
+				}
+			} else {
+				throw new IllegalArgumentException(String.format("The value of type %1$s cannot be streamed.", 
+						value.getClass().getName()));
+			}
+		}
+	}
+}
@@ -0,0 +1,311 @@
+/*
+ * BSD 3-Clause License
+ * 
+ * Copyright (c) 2019, Open Communications Security
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package br.com.opencs.util.dto.sign;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class implements the cache of signatures used by the DTOSigner to
+ * memoize the signatures of the DTOs marked with ImmutableDTO.
+ * 
+ * <p>The DTOs are compared by identity and weakly referenced, thus the cache
+ * never prevents their collection. Each entry expires after a fixed time to
+ * live and the least recently used entries are evicted once the maximum size
+ * is reached. The entries are distributed among independent segments in order
+ * to reduce the contention, thus the size limit is enforced per segment.</p>
+ * 
+ * <p>All instances of this class are expected to be thread safe.</p>
+ * 
+ * @author Fabio Jun Takada Chino
+ */
+public final class SignatureCache {
+	
+	public static final int DEFAULT_MAXIMUM_SIZE = 1024;
+	
+	public static final long DEFAULT_TIME_TO_LIVE_MINUTES = 5;
+	
+	private static final int MAX_SEGMENTS = 16;
+	
+	private final Segment [] segments;
+	
+	private final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+	
+	private final long timeToLive;
+	
+	private final LongAdder hits = new LongAdder();
+	
+	private final LongAdder misses = new LongAdder();
+	
+	private final LongAdder evictions = new LongAdder();
+	
+	/**
+	 * Creates a new cache with the default limits.
+	 */
+	public SignatureCache() {
+		this(DEFAULT_MAXIMUM_SIZE, DEFAULT_TIME_TO_LIVE_MINUTES, TimeUnit.MINUTES);
+	}
+	
+	/**
+	 * Creates a new cache.
+	 * 
+	 * @param maximumSize The maximum number of entries.
+	 * @param timeToLive The time to live of each entry.
+	 * @param unit The unit of the time to live.
+	 */
+	public SignatureCache(int maximumSize, long timeToLive, TimeUnit unit) {
+		if (maximumSize <= 0) {
+			throw new IllegalArgumentException("The maximum size must be positive.");
+		}
+		int count = Math.min(MAX_SEGMENTS, Integer.highestOneBit(maximumSize));
+		this.segments = new Segment[count];
+		for (int i = 0; i < count; i++) {
+			this.segments[i] = new Segment((maximumSize + count - 1) / count);
+		}
+		this.timeToLive = unit.toNanos(timeToLive);
+	}
+	
+	private Segment segmentFor(int hash) {
+		return this.segments[(hash ^ (hash >>> 16)) & (this.segments.length - 1)];
+	}
+	
+	/**
+	 * Returns the signature of the given DTO.
+	 * 
+	 * @param dto The DTO.
+	 * @return The signature or null if it is not in the cache. It must not be
+	 * modified by the caller.
+	 */
+	byte [] get(Object dto) {
+		int hash = System.identityHashCode(dto);
+		byte [] ret = segmentFor(hash).get(new Lookup(dto, hash), System.nanoTime());
+		if (ret != null) {
+			this.hits.increment();
+		} else {
+			this.misses.increment();
+		}
+		return ret;
+	}
+	
+	/**
+	 * Adds the signature of the given DTO.
+	 * 
+	 * @param dto The DTO.
+	 * @param signature The signature. It must not be modified after this call.
+	 */
+	void put(Object dto, byte [] signature) {
+		purge();
+		int hash = System.identityHashCode(dto);
+		segmentFor(hash).put(dto, hash, signature, System.nanoTime() + this.timeToLive);
+	}
+	
+	/**
+	 * Removes the entries whose DTOs were collected.
+	 */
+	private void purge() {
+		Reference<?> ref;
+		while ((ref = this.queue.poll()) != null) {
+			segmentFor(ref.hashCode()).remove(ref);
+		}
+	}
+	
+	/**
+	 * Returns the number of lookups that found a signature.
+	 * 
+	 * @return The number of hits.
+	 */
+	public long getHits() {
+		return this.hits.sum();
+	}
+
+	/**
+	 * Returns the number of lookups that did not find a signature.
+	 * 
+	 * @return The number of misses.
+	 */
+	public long getMisses() {
+		return this.misses.sum();
+	}
+
+	/**
+	 * Returns the number of entries removed because they expired, exceeded the
+	 * maximum size or had their DTOs collected.
+	 * 
+	 * @return The number of evictions.
+	 */
+	public long getEvictions() {
+		return this.evictions.sum();
+	}
+	
+	/**
+	 * Returns the current number of entries. It may include entries that
+	 * expired or whose DTOs were collected but were not evicted yet.
+	 * 
+	 * @return The number of entries.
+	 */
+	public int size() {
+		int ret = 0;
+		for (Segment segment: this.segments) {
+			ret += segment.size();
+		}
+		return ret;
+	}
+	
+	/**
+	 * Removes all entries. The removed entries are not counted as evictions.
+	 */
+	public void clear() {
+		for (Segment segment: this.segments) {
+			segment.clear();
+		}
+	}
+	
+	/**
+	 * Weak reference to a DTO that is compared by identity.
+	 */
+	private static final class Key extends WeakReference<Object> {
+		
+		private final int hash;
+		
+		public Key(Object dto, int hash, ReferenceQueue<Object> queue) {
+			super(dto, queue);
+			this.hash = hash;
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return this == obj;
+		}
+	}
+	
+	/**
+	 * Key used to search the entries without the creation of a weak reference.
+	 */
+	private static final class Lookup {
+		
+		private final Object dto;
+		
+		private final int hash;
+		
+		public Lookup(Object dto, int hash) {
+			this.dto = dto;
+			this.hash = hash;
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return (obj instanceof Key) && (((Key)obj).get() == this.dto);
+		}
+	}
+	
+	private static final class CachedSignature {
+		
+		private final byte [] signature;
+		
+		private final long expiration;
+		
+		public CachedSignature(byte [] signature, long expiration) {
+			this.signature = signature;
+			this.expiration = expiration;
+		}
+	}
+	
+	private final class Segment {
+		
+		private final LinkedHashMap<Object, CachedSignature> map;
+		
+		public Segment(int maximumSize) {
+			this.map = new LinkedHashMap<Object, CachedSignature>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<Object, CachedSignature> eldest) {
+					if (size() > maximumSize) {
+						SignatureCache.this.evictions.increment();
+						return true;
+					} else {
+						return false;
+					}
+				}
+			};
+		}
+		
+		public synchronized byte [] get(Lookup lookup, long now) {
+			CachedSignature entry = this.map.get(lookup);
+			if (entry == null) {
+				return null;
+			} else if (now - entry.expiration >= 0) {
+				this.map.remove(lookup);
+				SignatureCache.this.evictions.increment();
+				return null;
+			} else {
+				return entry.signature;
+			}
+		}
+		
+		public synchronized void put(Object dto, int hash, byte [] signature, long expiration) {
+			CachedSignature entry = new CachedSignature(signature, expiration);
+			if (this.map.replace(new Lookup(dto, hash), entry) == null) {
+				this.map.put(new Key(dto, hash, SignatureCache.this.queue), entry);
+			}
+		}
+		
+		public synchronized void remove(Reference<?> key) {
+			if (this.map.remove(key) != null) {
+				SignatureCache.this.evictions.increment();
+			}
+		}
+		
+		public synchronized int size() {
+			return this.map.size();
+		}
+		
+		public synchronized void clear() {
+			this.map.clear();
+		}
+	}
+}
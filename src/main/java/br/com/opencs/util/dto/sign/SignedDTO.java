@@ -31,11 +31,17 @@
  */
 package br.com.opencs.util.dto.sign;
 
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 
 /**
  * This class implements a placeholder for signed DTOs.
  * 
+ * <p>Its serialized form is the default one. Applications that need a compact
+ * encoding should use the SignedDTOCodec instead.</p>
+ * 
  * @author Fabio Jun Takada Chino
  */
 public final class SignedDTO<T> implements Serializable {
@@ -45,6 +51,8 @@ public final class SignedDTO<T> implements Serializable {
 	private byte [] signature;
 	
 	private T dto;
+	
+	private transient volatile PropertyDigestTree digestTree;
 
 	public SignedDTO(T dto) {
 		this.dto = dto;
@@ -71,4 +79,31 @@ public final class SignedDTO<T> implements Serializable {
 	public T get() {
 		return dto;
 	}
+	
+	/**
+	 * Returns the tree of property digests computed by the last signature.
+	 * 
+	 * @return The tree or null if it is not available.
+	 */
+	PropertyDigestTree getDigestTree() {
+		return digestTree;
+	}
+
+	/**
+	 * Sets the tree of property digests. The trees are immutable, thus a tree
+	 * set by a thread is safely seen by the others.
+	 * 
+	 * @param digestTree The tree.
+	 */
+	void setDigestTree(PropertyDigestTree digestTree) {
+		this.digestTree = digestTree;
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		if ((signature != null) && (signature.length > SignedDTOCodec.MAX_SIGNATURE_LENGTH)) {
+			throw new InvalidObjectException("The signature cannot be longer than " + 
+					SignedDTOCodec.MAX_SIGNATURE_LENGTH + " bytes.");
+		}
+	}
 }
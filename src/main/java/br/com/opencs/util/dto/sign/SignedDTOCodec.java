@@ -0,0 +1,336 @@
+/*
+ * BSD 3-Clause License
+ * 
+ * Copyright (c) 2019, Open Communications Security
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package br.com.opencs.util.dto.sign;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.Buffer;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * This class implements a compact binary codec for SignedDTO instances. Each
+ * encoded instance has the following layout, all integers being big endian:
+ * 
+ * <ul>
+ * <li>version (1 byte);</li>
+ * <li>algorithm identifier (1 byte, 0 if unknown);</li>
+ * <li>key identifier (1 byte);</li>
+ * <li>signature length (1 byte, 0 if the DTO is not signed);</li>
+ * <li>signature;</li>
+ * <li>payload length (4 bytes);</li>
+ * <li>payload, as produced by the PayloadSerializer.</li>
+ * </ul>
+ * 
+ * <p>The header can be read by readHeader() without the deserialization of
+ * the payload, thus the signatures can be checked or the records skipped
+ * before the DTO is rebuilt.</p>
+ * 
+ * <p>All instances of this class are expected to be thread safe if the 
+ * serializer is thread safe.</p>
+ * 
+ * @author Fabio Jun Takada Chino
+ * @param <T> The type of the DTO.
+ */
+public final class SignedDTOCodec<T> {
+	
+	public static final int VERSION = 1;
+	
+	static final int FIXED_HEADER_LENGTH = 8;
+	
+	static final int MAX_SIGNATURE_LENGTH = 0xFF;
+	
+	/**
+	 * Known algorithms. The index is the algorithm identifier.
+	 */
+	private static final String [] ALGORITHMS = {
+			null,
+			"HmacSHA1",
+			"HmacSHA224",
+			"HmacSHA256",
+			"HmacSHA384",
+			"HmacSHA512",
+			"HmacMD5",
+			MacEngines.SIPHASH_2_4_128,
+			MacEngines.BLAKE2B_256,
+			MacEngines.BLAKE2B_512};
+	
+	private final int algorithmId;
+	
+	private final int keyId;
+	
+	private final PayloadSerializer<T> serializer;
+	
+	/**
+	 * Creates a new instance of this class for the signatures of the given signer.
+	 * The key identifier is 0.
+	 * 
+	 * @param signer The signer.
+	 * @param serializer The payload serializer.
+	 */
+	public SignedDTOCodec(DTOSigner signer, PayloadSerializer<T> serializer) {
+		this(signer.getMacPool().getAlgorithm(), 0, serializer);
+	}
+	
+	/**
+	 * Creates a new instance of this class.
+	 * 
+	 * @param algorithm The MAC algorithm written in the header.
+	 * @param keyId The key identifier written in the header, from 0 to 255.
+	 * @param serializer The payload serializer.
+	 */
+	public SignedDTOCodec(String algorithm, int keyId, PayloadSerializer<T> serializer) {
+		if ((keyId < 0) || (keyId > 0xFF)) {
+			throw new IllegalArgumentException("Invalid key identifier " + keyId + ".");
+		}
+		this.algorithmId = getAlgorithmId(algorithm);
+		this.keyId = keyId;
+		this.serializer = serializer;
+	}
+	
+	/**
+	 * Returns the identifier of the given algorithm.
+	 * 
+	 * @param algorithm The name of the algorithm.
+	 * @return The identifier or 0 if the algorithm is not known.
+	 */
+	public static int getAlgorithmId(String algorithm) {
+		for (int i = 1; i < ALGORITHMS.length; i++) {
+			if (ALGORITHMS[i].equalsIgnoreCase(algorithm)) {
+				return i;
+			}
+		}
+		return 0;
+	}
+	
+	/**
+	 * Returns the name of the algorithm with the given identifier.
+	 * 
+	 * @param algorithmId The identifier.
+	 * @return The name of the algorithm or null if it is not known.
+	 */
+	public static String getAlgorithm(int algorithmId) {
+		if ((algorithmId > 0) && (algorithmId < ALGORITHMS.length)) {
+			return ALGORITHMS[algorithmId];
+		} else {
+			return null;
+		}
+	}
+	
+	/**
+	 * Returns a serializer based on the Java serialization.
+	 * 
+	 * @param <T> The type of the DTO.
+	 * @return The serializer.
+	 */
+	public static <T> PayloadSerializer<T> javaSerializer() {
+		return new JavaPayloadSerializer<T>();
+	}
+	
+	/**
+	 * Encodes the SignedDTO.
+	 * 
+	 * @param signed The SignedDTO.
+	 * @return The encoded SignedDTO.
+	 * @throws DTOSignerException If the DTO cannot be serialized.
+	 */
+	public byte[] encode(SignedDTO<T> signed) throws DTOSignerException {
+		byte [] payload = serialize(signed);
+		ByteBuffer dst = ByteBuffer.allocate(FIXED_HEADER_LENGTH + signatureLength(signed) + payload.length);
+		write(signed, payload, dst);
+		return dst.array();
+	}
+	
+	/**
+	 * Encodes the SignedDTO into the given buffer. The position of the buffer
+	 * is advanced by the length of the encoded SignedDTO. 
+	 * 
+	 * @param signed The SignedDTO.
+	 * @param dst The destination buffer.
+	 * @throws DTOSignerException If the DTO cannot be serialized.
+	 * @throws BufferOverflowException If the buffer is too small. The buffer is 
+	 * not modified in this case.
+	 */
+	public void encode(SignedDTO<T> signed, ByteBuffer dst) throws DTOSignerException {
+		byte [] payload = serialize(signed);
+		if (dst.remaining() < FIXED_HEADER_LENGTH + signatureLength(signed) + payload.length) {
+			throw new BufferOverflowException();
+		}
+		write(signed, payload, dst);
+	}
+	
+	private byte[] serialize(SignedDTO<T> signed) throws DTOSignerException {
+		if (signatureLength(signed) > MAX_SIGNATURE_LENGTH) {
+			throw new DTOSignerException("The signature is too long.");
+		}
+		try {
+			return this.serializer.serialize(signed.get());
+		} catch (IOException e) {
+			throw new DTOSignerException(e.getMessage(), e);
+		}
+	}
+	
+	private static int signatureLength(SignedDTO<?> signed) {
+		return (signed.getSignature() != null) ? signed.getSignature().length : 0;
+	}
+	
+	private void write(SignedDTO<T> signed, byte [] payload, ByteBuffer dst) {
+		byte [] signature = signed.getSignature();
+		dst.put((byte)VERSION);
+		dst.put((byte)this.algorithmId);
+		dst.put((byte)this.keyId);
+		if (signature != null) {
+			dst.put((byte)signature.length);
+			dst.put(signature);
+		} else {
+			dst.put((byte)0);
+		}
+		dst.put((byte)(payload.length >>> 24));
+		dst.put((byte)(payload.length >>> 16));
+		dst.put((byte)(payload.length >>> 8));
+		dst.put((byte)payload.length);
+		dst.put(payload);
+	}
+	
+	/**
+	 * Reads the header of the encoded SignedDTO that starts at the position of 
+	 * the buffer. The position of the buffer is not changed.
+	 * 
+	 * @param src The source buffer.
+	 * @return The header.
+	 * @throws DTOSignerException If the header is not valid or the buffer does
+	 * not contain the whole encoded SignedDTO.
+	 */
+	public static SignedDTOHeader readHeader(ByteBuffer src) throws DTOSignerException {
+		int offset = src.position();
+		if (src.remaining() < FIXED_HEADER_LENGTH) {
+			throw new DTOSignerException("Truncated SignedDTO header.");
+		}
+		int version = src.get(offset) & 0xFF;
+		if (version != VERSION) {
+			throw new DTOSignerException("Unsupported SignedDTO encoding version " + version + ".");
+		}
+		int algorithmId = src.get(offset + 1) & 0xFF;
+		int keyId = src.get(offset + 2) & 0xFF;
+		int signatureLength = src.get(offset + 3) & 0xFF;
+		if (src.remaining() < FIXED_HEADER_LENGTH + signatureLength) {
+			throw new DTOSignerException("Truncated SignedDTO header.");
+		}
+		byte [] signature = null;
+		if (signatureLength > 0) {
+			signature = new byte[signatureLength];
+			for (int i = 0; i < signatureLength; i++) {
+				signature[i] = src.get(offset + 4 + i);
+			}
+		}
+		offset += 4 + signatureLength;
+		int payloadLength = ((src.get(offset) & 0xFF) << 24) | ((src.get(offset + 1) & 0xFF) << 16) | 
+				((src.get(offset + 2) & 0xFF) << 8) | (src.get(offset + 3) & 0xFF);
+		if ((payloadLength < 0) || (src.remaining() - FIXED_HEADER_LENGTH - signatureLength < payloadLength)) {
+			throw new DTOSignerException("Truncated SignedDTO payload.");
+		}
+		return new SignedDTOHeader(version, algorithmId, keyId, signature, payloadLength);
+	}
+	
+	/**
+	 * Decodes the SignedDTO.
+	 * 
+	 * @param encoded The encoded SignedDTO.
+	 * @return The SignedDTO.
+	 * @throws DTOSignerException If the encoded SignedDTO is not valid.
+	 */
+	public SignedDTO<T> decode(byte [] encoded) throws DTOSignerException {
+		return decode(ByteBuffer.wrap(encoded));
+	}
+	
+	/**
+	 * Decodes the SignedDTO that starts at the position of the buffer. The 
+	 * position of the buffer is advanced to the end of the encoded SignedDTO
+	 * only if it succeeds.
+	 * 
+	 * @param src The source buffer.
+	 * @return The SignedDTO.
+	 * @throws DTOSignerException If the encoded SignedDTO is not valid.
+	 */
+	public SignedDTO<T> decode(ByteBuffer src) throws DTOSignerException {
+		SignedDTOHeader header = readHeader(src);
+		ByteBuffer payload = src.duplicate();
+		((Buffer)payload).position(src.position() + header.getHeaderLength());
+		((Buffer)payload).limit(payload.position() + header.getPayloadLength());
+		SignedDTO<T> signed;
+		try {
+			signed = new SignedDTO<T>(this.serializer.deserialize(payload.slice()));
+		} catch (IOException e) {
+			throw new DTOSignerException(e.getMessage(), e);
+		}
+		signed.setSignature(header.getSignature());
+		((Buffer)src).position(src.position() + header.getLength());
+		return signed;
+	}
+	
+	/**
+	 * Payload serializer based on the Java serialization.
+	 */
+	private static final class JavaPayloadSerializer<T> implements PayloadSerializer<T> {
+
+		@Override
+		public byte[] serialize(T dto) throws IOException {
+			ByteArrayOutputStream bOut = new ByteArrayOutputStream();
+			try (ObjectOutputStream out = new ObjectOutputStream(bOut)) {
+				out.writeObject(dto);
+			}
+			return bOut.toByteArray();
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public T deserialize(ByteBuffer payload) throws IOException {
+			ByteArrayInputStream bIn;
+			if (payload.hasArray()) {
+				bIn = new ByteArrayInputStream(payload.array(), payload.arrayOffset() + payload.position(), 
+						payload.remaining());
+			} else {
+				byte [] tmp = new byte[payload.remaining()];
+				payload.get(tmp);
+				bIn = new ByteArrayInputStream(tmp);
+			}
+			try (ObjectInputStream in = new ObjectInputStream(bIn)) {
+				return (T)in.readObject();
+			} catch (ClassNotFoundException e) {
+				throw new IOException(e.getMessage(), e);
+			}
+		}
+	}
+}
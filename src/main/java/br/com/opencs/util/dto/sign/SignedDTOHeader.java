@@ -0,0 +1,131 @@
+/*
+ * BSD 3-Clause License
+ * 
+ * Copyright (c) 2019, Open Communications Security
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package br.com.opencs.util.dto.sign;
+
+/**
+ * This class implements the header of a SignedDTO encoded by the 
+ * SignedDTOCodec. It can be read without the deserialization of the payload.
+ * 
+ * @author Fabio Jun Takada Chino
+ */
+public final class SignedDTOHeader {
+	
+	private final int version;
+	
+	private final int algorithmId;
+	
+	private final int keyId;
+	
+	private final byte [] signature;
+	
+	private final int payloadLength;
+	
+	SignedDTOHeader(int version, int algorithmId, int keyId, byte [] signature, int payloadLength) {
+		this.version = version;
+		this.algorithmId = algorithmId;
+		this.keyId = keyId;
+		this.signature = signature;
+		this.payloadLength = payloadLength;
+	}
+
+	/**
+	 * Returns the version of the encoding.
+	 * 
+	 * @return The version.
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * Returns the identifier of the MAC algorithm.
+	 * 
+	 * @return The identifier or 0 if the algorithm is not known by the codec.
+	 */
+	public int getAlgorithmId() {
+		return algorithmId;
+	}
+
+	/**
+	 * Returns the name of the MAC algorithm.
+	 * 
+	 * @return The name of the algorithm or null if it is not known by the codec.
+	 */
+	public String getAlgorithm() {
+		return SignedDTOCodec.getAlgorithm(algorithmId);
+	}
+
+	/**
+	 * Returns the identifier of the key.
+	 * 
+	 * @return The key identifier, from 0 to 255.
+	 */
+	public int getKeyId() {
+		return keyId;
+	}
+
+	/**
+	 * Returns the signature.
+	 * 
+	 * @return The signature or null if the DTO was not signed.
+	 */
+	public byte[] getSignature() {
+		return signature;
+	}
+
+	/**
+	 * Returns the length of the payload.
+	 * 
+	 * @return The length in bytes.
+	 */
+	public int getPayloadLength() {
+		return payloadLength;
+	}
+	
+	/**
+	 * Returns the length of the header.
+	 * 
+	 * @return The length in bytes.
+	 */
+	public int getHeaderLength() {
+		return SignedDTOCodec.FIXED_HEADER_LENGTH + ((signature != null) ? signature.length : 0);
+	}
+	
+	/**
+	 * Returns the total length of the encoded SignedDTO.
+	 * 
+	 * @return The length in bytes.
+	 */
+	public int getLength() {
+		return getHeaderLength() + payloadLength;
+	}
+}
@@ -0,0 +1,466 @@
+/*
+ * BSD 3-Clause License
+ * 
+ * Copyright (c) 2019, Open Communications Security
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package br.com.opencs.util.dto.sign;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * This class implements a Flow.Processor that signs or verifies a stream of
+ * SignedDTO instances. The elements are published downstream in the order
+ * they were received.
+ * 
+ * <p>The elements are processed by a limited number of drain tasks of the 
+ * given Executor, each one processing up to maxBatchSize elements before it
+ * is rescheduled, as the AsyncDTOSigner does. The number of elements 
+ * requested from the upstream publisher and not yet published is limited to
+ * twice the number of elements processed by all drain tasks at once, thus 
+ * the upstream is slowed down to the rate of the downstream demand.</p>
+ * 
+ * <p>In the verification mode, only the elements with valid signatures are
+ * published downstream. The other ones, including the ones that cannot be 
+ * verified at all, are sent to the consumer of invalid elements without 
+ * stopping the stream. In the signing mode, an element that cannot be 
+ * signed cancels the upstream and terminates the stream with its error.</p>
+ * 
+ * <p>Each instance accepts a single upstream subscription and a single 
+ * subscriber.</p>
+ * 
+ * @param <T> The type of the DTOs.
+ * @author Fabio Jun Takada Chino
+ */
+public final class SignedDTOProcessor<T> implements Flow.Processor<SignedDTO<T>, SignedDTO<T>> {
+	
+	private final DTOSigner signer;
+	
+	private final Consumer<? super SignedDTO<T>> invalid;
+	
+	private final Executor executor;
+	
+	private final int maxBatchSize;
+	
+	private final int maxConcurrency;
+	
+	private final int capacity;
+	
+	private final int replenishLimit;
+	
+	private final ConcurrentLinkedQueue<Slot<T>> queue = new ConcurrentLinkedQueue<Slot<T>>();
+	
+	private final AtomicInteger drainers = new AtomicInteger();
+	
+	/**
+	 * Elements in the order they were received. It is guarded by itself.
+	 */
+	private final ArrayDeque<Slot<T>> output = new ArrayDeque<Slot<T>>();
+	
+	private final AtomicInteger emitters = new AtomicInteger();
+	
+	private final AtomicLong demand = new AtomicLong();
+	
+	private final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+	
+	private final AtomicReference<Flow.Subscriber<? super SignedDTO<T>>> downstream = 
+			new AtomicReference<Flow.Subscriber<? super SignedDTO<T>>>();
+	
+	private final AtomicBoolean started = new AtomicBoolean();
+	
+	private volatile Flow.Subscription upstream;
+	
+	private volatile boolean done;
+	
+	private volatile boolean cancelled;
+	
+	/**
+	 * Fields used only by the emitter.
+	 */
+	private boolean terminated;
+	
+	private int consumed;
+	
+	private SignedDTOProcessor(DTOSigner signer, Consumer<? super SignedDTO<T>> invalid, Executor executor, 
+			int maxBatchSize, int maxConcurrency) {
+		if ((maxBatchSize <= 0) || (maxConcurrency <= 0)) {
+			throw new IllegalArgumentException("The batch size and the concurrency must be positive.");
+		}
+		this.signer = signer;
+		this.invalid = invalid;
+		this.executor = executor;
+		this.maxBatchSize = maxBatchSize;
+		this.maxConcurrency = maxConcurrency;
+		this.capacity = (int)Math.min(Integer.MAX_VALUE / 2, (long)maxBatchSize * maxConcurrency) * 2;
+		this.replenishLimit = this.capacity / 2;
+	}
+	
+	/**
+	 * Creates a processor that signs the elements using the common ForkJoinPool.
+	 * 
+	 * @param <T> The type of the DTOs.
+	 * @param signer The signer.
+	 * @return The new processor.
+	 */
+	public static <T> SignedDTOProcessor<T> signing(DTOSigner signer) {
+		return signing(signer, ForkJoinPool.commonPool(), AsyncDTOSigner.DEFAULT_MAX_BATCH_SIZE, 
+				Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * Creates a processor that signs the elements.
+	 * 
+	 * @param <T> The type of the DTOs.
+	 * @param signer The signer.
+	 * @param executor The executor of the drain tasks.
+	 * @param maxBatchSize The maximum number of elements processed by each drain task.
+	 * @param maxConcurrency The maximum number of concurrent drain tasks.
+	 * @return The new processor.
+	 */
+	public static <T> SignedDTOProcessor<T> signing(DTOSigner signer, Executor executor, int maxBatchSize, 
+			int maxConcurrency) {
+		return new SignedDTOProcessor<T>(signer, null, executor, maxBatchSize, maxConcurrency);
+	}
+	
+	/**
+	 * Creates a processor that verifies the elements using the common ForkJoinPool.
+	 * 
+	 * @param <T> The type of the DTOs.
+	 * @param signer The signer.
+	 * @param invalid The consumer of the elements with invalid signatures. It is
+	 * called by the thread that publishes the elements, in the order of the stream.
+	 * @return The new processor.
+	 */
+	public static <T> SignedDTOProcessor<T> verifying(DTOSigner signer, Consumer<? super SignedDTO<T>> invalid) {
+		return verifying(signer, invalid, ForkJoinPool.commonPool(), AsyncDTOSigner.DEFAULT_MAX_BATCH_SIZE, 
+				Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * Creates a processor that verifies the elements.
+	 * 
+	 * @param <T> The type of the DTOs.
+	 * @param signer The signer.
+	 * @param invalid The consumer of the elements with invalid signatures. It is
+	 * called by the thread that publishes the elements, in the order of the stream.
+	 * @param executor The executor of the drain tasks.
+	 * @param maxBatchSize The maximum number of elements processed by each drain task.
+	 * @param maxConcurrency The maximum number of concurrent drain tasks.
+	 * @return The new processor.
+	 */
+	public static <T> SignedDTOProcessor<T> verifying(DTOSigner signer, Consumer<? super SignedDTO<T>> invalid, 
+			Executor executor, int maxBatchSize, int maxConcurrency) {
+		if (invalid == null) {
+			throw new NullPointerException("The consumer of invalid elements is required.");
+		}
+		return new SignedDTOProcessor<T>(signer, invalid, executor, maxBatchSize, maxConcurrency);
+	}
+	
+	/**
+	 * Returns the maximum number of elements requested from the upstream and 
+	 * not yet published.
+	 * 
+	 * @return The capacity.
+	 */
+	public int getCapacity() {
+		return this.capacity;
+	}
+	
+	private boolean isVerifying() {
+		return this.invalid != null;
+	}
+
+	@Override
+	public void subscribe(Flow.Subscriber<? super SignedDTO<T>> subscriber) {
+		if (!this.downstream.compareAndSet(null, subscriber)) {
+			subscriber.onSubscribe(new Flow.Subscription() {
+				@Override
+				public void request(long n) {
+				}
+
+				@Override
+				public void cancel() {
+				}
+			});
+			subscriber.onError(new IllegalStateException("This processor accepts a single subscriber."));
+			return;
+		}
+		subscriber.onSubscribe(new Flow.Subscription() {
+			@Override
+			public void request(long n) {
+				if (n <= 0) {
+					fail(new IllegalArgumentException("The number of requested elements must be positive."));
+				} else {
+					long current;
+					long next;
+					do {
+						current = demand.get();
+						next = (current + n < 0) ? Long.MAX_VALUE : current + n;
+					} while (!demand.compareAndSet(current, next));
+					emit();
+				}
+			}
+
+			@Override
+			public void cancel() {
+				cancelled = true;
+				Flow.Subscription s = upstream;
+				if (s != null) {
+					s.cancel();
+				}
+				emit();
+			}
+		});
+		start();
+	}
+
+	@Override
+	public void onSubscribe(Flow.Subscription subscription) {
+		if ((this.upstream != null) || this.cancelled) {
+			subscription.cancel();
+			return;
+		}
+		this.upstream = subscription;
+		start();
+	}
+	
+	/**
+	 * Requests the first elements once both subscriptions are in place.
+	 */
+	private void start() {
+		if ((this.upstream != null) && (this.downstream.get() != null) && this.started.compareAndSet(false, true)) {
+			this.upstream.request(this.capacity);
+		}
+	}
+
+	@Override
+	public void onNext(SignedDTO<T> item) {
+		if (this.cancelled || (this.error.get() != null)) {
+			return;
+		}
+		Slot<T> slot = new Slot<T>(item);
+		synchronized (this.output) {
+			this.output.add(slot);
+		}
+		this.queue.add(slot);
+		tryDrain();
+	}
+
+	@Override
+	public void onError(Throwable throwable) {
+		fail(throwable);
+	}
+
+	@Override
+	public void onComplete() {
+		this.done = true;
+		emit();
+	}
+	
+	/**
+	 * Terminates the stream with the given error, unless it has already failed.
+	 */
+	private void fail(Throwable e) {
+		if (this.error.compareAndSet(null, e)) {
+			Flow.Subscription s = this.upstream;
+			if (s != null) {
+				s.cancel();
+			}
+		}
+		emit();
+	}
+	
+	private void tryDrain() {
+		int current;
+		while (!this.queue.isEmpty() && ((current = this.drainers.get()) < this.maxConcurrency)) {
+			if (this.drainers.compareAndSet(current, current + 1)) {
+				try {
+					this.executor.execute(this::drain);
+				} catch (RejectedExecutionException e) {
+					// The running drain tasks, if any, will handle the queued elements
+					if (this.drainers.decrementAndGet() == 0) {
+						fail(e);
+					}
+				}
+				return;
+			}
+		}
+	}
+	
+	private void drain() {
+		try {
+			Slot<T> slot;
+			for (int i = 0; (i < this.maxBatchSize) && ((slot = this.queue.poll()) != null); i++) {
+				process(slot);
+			}
+		} finally {
+			this.drainers.decrementAndGet();
+		}
+		emit();
+		// Elements received while this task was finishing
+		tryDrain();
+	}
+	
+	private void process(Slot<T> slot) {
+		boolean valid = false;
+		if (!this.cancelled && (this.error.get() == null)) {
+			try {
+				if (isVerifying()) {
+					valid = this.signer.checkSignature(slot.item);
+				} else {
+					this.signer.sign(slot.item);
+					valid = true;
+				}
+			} catch (DTOSignerException | RuntimeException e) {
+				if (!isVerifying()) {
+					fail(e);
+				}
+			}
+		}
+		slot.valid = valid;
+		slot.processed = true;
+	}
+	
+	/**
+	 * Publishes the processed elements in order as allowed by the demand. Only
+	 * one thread publishes at a time, the other ones just signal it to loop 
+	 * again.
+	 */
+	private void emit() {
+		if (this.emitters.getAndIncrement() != 0) {
+			return;
+		}
+		int missed = 1;
+		do {
+			Flow.Subscriber<? super SignedDTO<T>> subscriber = this.downstream.get();
+			if ((subscriber != null) && !this.terminated) {
+				emit(subscriber);
+			}
+			missed = this.emitters.addAndGet(-missed);
+		} while (missed != 0);
+	}
+	
+	private void emit(Flow.Subscriber<? super SignedDTO<T>> subscriber) {
+		if (this.cancelled) {
+			terminate();
+			return;
+		}
+		Throwable e = this.error.get();
+		if (e != null) {
+			terminate();
+			subscriber.onError(e);
+			return;
+		}
+		boolean completed = this.done;
+		long requested = this.demand.get();
+		long emitted = 0;
+		int count = 0;
+		Slot<T> slot;
+		while (true) {
+			synchronized (this.output) {
+				slot = this.output.peek();
+				if ((slot == null) || !slot.processed || (slot.valid && (emitted == requested))) {
+					break;
+				}
+				this.output.poll();
+			}
+			if (slot.valid) {
+				subscriber.onNext(slot.item);
+				emitted++;
+			} else if (this.error.get() == null) {
+				try {
+					this.invalid.accept(slot.item);
+				} catch (RuntimeException ex) {
+					fail(ex);
+				}
+			}
+			count++;
+		}
+		if ((emitted > 0) && (requested != Long.MAX_VALUE)) {
+			this.demand.addAndGet(-emitted);
+		}
+		if (count > 0) {
+			replenish(count);
+		}
+		if ((e = this.error.get()) != null) {
+			terminate();
+			subscriber.onError(e);
+		} else if (completed && (slot == null)) {
+			terminate();
+			subscriber.onComplete();
+		}
+	}
+	
+	/**
+	 * Requests more elements once enough of them were consumed.
+	 */
+	private void replenish(int count) {
+		this.consumed += count;
+		if (this.consumed >= this.replenishLimit) {
+			int n = this.consumed;
+			this.consumed = 0;
+			if (!this.done) {
+				this.upstream.request(n);
+			}
+		}
+	}
+	
+	private void terminate() {
+		this.terminated = true;
+		this.queue.clear();
+		synchronized (this.output) {
+			this.output.clear();
+		}
+	}
+	
+	/**
+	 * An element and the result of its processing.
+	 */
+	private static final class Slot<T> {
+		
+		final SignedDTO<T> item;
+		
+		boolean valid;
+		
+		volatile boolean processed;
+		
+		Slot(SignedDTO<T> item) {
+			this.item = item;
+		}
+	}
+}
@@ -32,31 +32,70 @@
 package br.com.opencs.util.dto.sign;
 
 import java.lang.reflect.Method;
-import java.nio.ByteBuffer;
-import java.nio.CharBuffer;
-import java.nio.charset.Charset;
+import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+
+import javax.crypto.Mac;
 
 /**
  * This class implements the signed property extractor for a given class.
  * 
+ * <p>The extractor supports all formats defined by CanonicalFormat. The
+ * encoders used by the binary format are resolved only once, when the format
+ * is used for the first time.</p>
+ * 
+ * <p>The extractor of a class also handles its subclasses that do not declare
+ * signed properties of their own, such as the proxies created by Hibernate or
+ * CGLIB. Those subclasses are resolved to the nearest superclass that declares
+ * signed properties by resolveDTOClass().</p>
+ * 
  * <p>All instances of this class are expected to be thread safe.</p>
  * 
  * @author Fabio Jun Takada Chino
  */
 class SignedPropertyExtractor {
 	
-	private static final Charset DEFAULT_CHARSET = Charset.forName("utf8");
-	
 	private static final char PROPERTY_SEPARATOR = (char)1;
 
 	private static final char NULL_MARKER = (char)2;
 	
+	/**
+	 * DTO class of each class, computed once per class. The values are held by
+	 * the classes themselves, thus they never prevent their unloading.
+	 */
+	private static final ClassValue<Class<?>> DTO_CLASSES = new ClassValue<Class<?>>() {
+		@Override
+		protected Class<?> computeValue(Class<?> type) {
+			return findDTOClass(type);
+		}
+	};
+	
 	private Class<?> dtoClass;
 	
-	private List<Method> methodList;
+	private PropertyAccessor [] accessors;
+	
+	private final ValueEncoderRegistry valueEncoders;
+	
+	private final boolean immutable;
+	
+	/**
+	 * Encoders of the binary format, created on demand.
+	 */
+	private volatile PropertyEncoder [] encoders;
+	
+	/**
+	 * Encoders of the streaming format, created on demand.
+	 */
+	private volatile PropertyEncoder [] streamEncoders;
+	
+	/**
+	 * Largest output observed so far, used to presize the output buffers.
+	 */
+	private volatile int sizeHint;
 	
 	/**
 	 * Creates a new instance of this class.
@@ -66,14 +105,157 @@ class SignedPropertyExtractor {
 	 * @throws DTOSignerException In case of error.
 	 */
 	public SignedPropertyExtractor(Class<?> dtoClass) throws DTOSignerException {
+		this(dtoClass, ValueEncoderRegistry.getDefault());
+	}
+	
+	/**
+	 * Creates a new instance of this class.
+	 * 
+	 * @param dtoClass The class to be extracted. At least one method should be annotated with
+	 * SignedProperty otherwise it will lead to an error.
+	 * @param valueEncoders The registry of the encoders used by the binary format.
+	 * @throws DTOSignerException In case of error.
+	 */
+	public SignedPropertyExtractor(Class<?> dtoClass, ValueEncoderRegistry valueEncoders) throws DTOSignerException {
 		
 		this.dtoClass = dtoClass;
-		this.methodList = findSignedProperties(dtoClass);
-		if (this.methodList.size() == 0) {
+		this.valueEncoders = valueEncoders;
+		this.immutable = dtoClass.isAnnotationPresent(ImmutableDTO.class);
+		List<Method> methodList = findSignedProperties(dtoClass);
+		if (methodList.size() == 0) {
 			throw new DTOSignerException(String.format(
 					"The class %1$s has no properties to sign.", dtoClass.getName()));
 		}
 		Collections.sort(methodList, MethodNameComparator.INSTANCE);
+		this.accessors = new PropertyAccessor[methodList.size()];
+		for (int i = 0; i < this.accessors.length; i++) {
+			this.accessors[i] = PropertyAccessor.create(methodList.get(i));
+		}
+	}
+	
+	/**
+	 * Creates a new instance of this class based on an extractor generated by
+	 * the annotation processor. No reflection is used in this case.
+	 * 
+	 * @param generated The generated extractor.
+	 */
+	public SignedPropertyExtractor(GeneratedExtractor generated) {
+		this(generated, ValueEncoderRegistry.getDefault());
+	}
+	
+	/**
+	 * Creates a new instance of this class based on an extractor generated by
+	 * the annotation processor. No reflection is used in this case.
+	 * 
+	 * @param generated The generated extractor.
+	 * @param valueEncoders The registry of the encoders used by the binary format.
+	 */
+	public SignedPropertyExtractor(GeneratedExtractor generated, ValueEncoderRegistry valueEncoders) {
+		
+		this.dtoClass = generated.getDTOClass();
+		this.valueEncoders = valueEncoders;
+		this.immutable = this.dtoClass.isAnnotationPresent(ImmutableDTO.class);
+		this.accessors = new PropertyAccessor[generated.getPropertyCount()];
+		for (int i = 0; i < this.accessors.length; i++) {
+			this.accessors[i] = PropertyAccessor.create(generated, i);
+		}
+	}
+	
+	/**
+	 * Creates the extractor for the given class. It uses the extractor generated
+	 * by the annotation processor if it is available or falls back to the 
+	 * reflection otherwise.
+	 * 
+	 * @param dtoClass The class to be extracted.
+	 * @return The new extractor.
+	 * @throws DTOSignerException In case of error.
+	 */
+	public static SignedPropertyExtractor create(Class<?> dtoClass) throws DTOSignerException {
+		return create(dtoClass, ValueEncoderRegistry.getDefault());
+	}
+
+	/**
+	 * Creates the extractor for the given class. It uses the extractor generated
+	 * by the annotation processor if it is available or falls back to the 
+	 * reflection otherwise.
+	 * 
+	 * @param dtoClass The class to be extracted.
+	 * @param valueEncoders The registry of the encoders used by the binary format.
+	 * @return The new extractor.
+	 * @throws DTOSignerException In case of error.
+	 */
+	public static SignedPropertyExtractor create(Class<?> dtoClass, ValueEncoderRegistry valueEncoders) 
+			throws DTOSignerException {
+		
+		GeneratedExtractor generated = GeneratedExtractor.find(dtoClass);
+		if (generated != null) {
+			return new SignedPropertyExtractor(generated, valueEncoders);
+		} else {
+			return new SignedPropertyExtractor(dtoClass, valueEncoders);
+		}
+	}
+
+	/**
+	 * Returns the DTO class that determines the signed properties of the given
+	 * class. It is the class itself or its nearest superclass that declares 
+	 * methods annotated with SignedProperty or is annotated with ImmutableDTO.
+	 * Classes without such superclasses are resolved to themselves.
+	 * 
+	 * <p>Since the annotations of the overridden methods are not inherited, a
+	 * subclass that overrides only some of the signed properties has its own 
+	 * set of signed properties, thus it is also resolved to itself and keeps
+	 * its canonical form. Subclasses that override all of them, such as the 
+	 * proxies, have no signed properties of their own and are resolved to the
+	 * superclass.</p>
+	 * 
+	 * <p>The result is computed only once for each class.</p>
+	 * 
+	 * @param type The class.
+	 * @return The DTO class.
+	 */
+	static Class<?> resolveDTOClass(Class<?> type) {
+		return DTO_CLASSES.get(type);
+	}
+	
+	private static Class<?> findDTOClass(Class<?> type) {
+		for (Class<?> c = type; (c != null) && (c != Object.class); c = c.getSuperclass()) {
+			if (declaresDTO(c)) {
+				if (c != type) {
+					Set<String> properties = getSignedPropertyNames(type);
+					if (!properties.isEmpty() && !properties.equals(getSignedPropertyNames(c))) {
+						return type;
+					}
+				}
+				return c;
+			}
+		}
+		return type;
+	}
+	
+	/**
+	 * Returns the names and types of the public methods of the class that are
+	 * annotated with SignedProperty, as they are found by findSignedProperties().
+	 */
+	private static Set<String> getSignedPropertyNames(Class<?> c) {
+		Set<String> names = new HashSet<String>();
+		for (Method m: c.getMethods()) {
+			if (m.getAnnotation(SignedProperty.class) != null) {
+				names.add(m.getName() + ':' + m.getReturnType().getName());
+			}
+		}
+		return names;
+	}
+	
+	private static boolean declaresDTO(Class<?> c) {
+		if (c.getDeclaredAnnotation(ImmutableDTO.class) != null) {
+			return true;
+		}
+		for (Method m: c.getDeclaredMethods()) {
+			if (Modifier.isPublic(m.getModifiers()) && (m.getAnnotation(SignedProperty.class) != null)) {
+				return true;
+			}
+		}
+		return false;
 	}
 
 	private void checkMethodSuitablility(Method method) throws DTOSignerException {
@@ -114,7 +296,7 @@ class SignedPropertyExtractor {
 	 * <p>This method extracts the values from the properties using the lexicographic
 	 * order of the method names and concatenate them. The concatenation is performed
 	 * using the Object.toString() method, using the character 0x01 as the separator of
-	 * the fields and 0x02 to represent null values.</p>
+	 * the fields and 0x02 to represent null values. The result is encoded in UTF-8.</p>
 	 * 
 	 * @param dto The DTO to be extracted. It must match the type used to create
 	 * this extractor.
@@ -122,39 +304,203 @@ class SignedPropertyExtractor {
 	 * @throws DTOSignerException In case of error.
 	 */
 	public byte[] extract(Object dto) throws DTOSignerException {
+		return extract(dto, CanonicalFormat.TEXT);
+	}
+
+	/**
+	 * Extracts the value of all signed properties using the given format.
+	 * 
+	 * @param dto The DTO to be extracted. It must match the type used to create
+	 * this extractor.
+	 * @param format The canonical format.
+	 * @return The extracted value of the properties.
+	 * @throws DTOSignerException In case of error.
+	 */
+	public byte[] extract(Object dto, CanonicalFormat format) throws DTOSignerException {
+		
+		CanonicalWriter writer = acquireWriter(null);
+		try {
+			this.extract(dto, writer, format);
+			return writer.toByteArray();
+		} finally {
+			writer.release();
+		}
+	}
+
+	/**
+	 * Extracts the value of all signed properties directly into the given Mac. The
+	 * bytes sent to the Mac are the same returned by extract(Object) but they are
+	 * never fully materialized in memory.
+	 * 
+	 * <p>This method calls only Mac.update(), thus the caller is responsible to
+	 * finish the computation of the MAC.</p>
+	 * 
+	 * @param dto The DTO to be extracted. It must match the type used to create
+	 * this extractor.
+	 * @param mac The Mac that will receive the extracted value.
+	 * @throws DTOSignerException In case of error.
+	 */
+	public void extract(Object dto, Mac mac) throws DTOSignerException {
+		extract(dto, mac, CanonicalFormat.TEXT);
+	}
+
+	/**
+	 * Extracts the value of all signed properties directly into the given Mac
+	 * using the given format.
+	 * 
+	 * @param dto The DTO to be extracted. It must match the type used to create
+	 * this extractor.
+	 * @param mac The Mac that will receive the extracted value.
+	 * @param format The canonical format.
+	 * @throws DTOSignerException In case of error.
+	 */
+	public void extract(Object dto, Mac mac, CanonicalFormat format) throws DTOSignerException {
+		
+		CanonicalWriter writer = acquireWriter(mac);
+		try {
+			this.extract(dto, writer, format);
+			writer.flush();
+		} finally {
+			writer.release();
+		}
+	}
+
+	/**
+	 * Acquires a CanonicalWriter presized for this extractor.
+	 * 
+	 * @param mac The Mac that will receive the output or null to collect it
+	 * in memory.
+	 * @return The writer. It must be released by the caller.
+	 */
+	CanonicalWriter acquireWriter(Mac mac) {
+		return CanonicalWriter.acquire(mac, this.sizeHint);
+	}
+
+	/**
+	 * Extracts the value of all signed properties into the given writer.
+	 * 
+	 * @param dto The DTO to be extracted.
+	 * @param writer The writer.
+	 * @param format The canonical format.
+	 * @throws DTOSignerException In case of error.
+	 */
+	void extract(Object dto, CanonicalWriter writer, CanonicalFormat format) throws DTOSignerException {
 		
 		if (!canExtract(dto)) {
 			throw new IllegalArgumentException(
-					String.format("This extractor handles %1$s but the argument has the class %2$d.", 
+					String.format("This extractor handles %1$s but the argument has the class %2$s.", 
 					this.getDTOClass().getName(), dto.getClass().getName()));
 		}
-		return this.extract(dto, this.methodList);
+		if (format == CanonicalFormat.BINARY) {
+			extractBinary(dto, writer, CanonicalFormat.BINARY, getEncoders());
+		} else if (format == CanonicalFormat.STREAMING) {
+			extractBinary(dto, writer, CanonicalFormat.STREAMING, getStreamEncoders());
+		} else if (format == CanonicalFormat.DIGEST_TREE) {
+			writeDigestTree(new PropertyDigestTree(this, dto).getRoot(), writer);
+		} else {
+			extractText(dto, writer);
+		}
+		updateSizeHint(writer.size());
 	}
-
-	private byte[] extract(Object dto, List<Method> methods) throws DTOSignerException {
-		StringBuffer sb = new StringBuffer();
-		for (Method method: methods) {
+	
+	private void extractText(Object dto, CanonicalWriter writer) throws DTOSignerException {
+		for (PropertyAccessor accessor: this.accessors) {
 			Object ret;
 			try {
-				ret = method.invoke(dto);
+				ret = accessor.get(dto);
 			} catch (Exception e) {
-				throw new DTOSignerException(
-						String.format("Unable to invoke the method %1$s.%2$s().", dto.getClass().getName(), method.getName()));
+				throw invocationFailed(dto, accessor, e);
 			}
 			if (ret != null) {
-				sb.append(ret.toString());
+				writer.write(ret.toString());
 			} else {
-				sb.append(NULL_MARKER);
+				writer.writeASCII(NULL_MARKER);
 			}
-			sb.append(PROPERTY_SEPARATOR);
+			writer.writeASCII(PROPERTY_SEPARATOR);
+		}
+	}
+	
+	private void extractBinary(Object dto, CanonicalWriter writer, CanonicalFormat format, 
+			PropertyEncoder [] encoders) throws DTOSignerException {
+		writer.writeByte(format.getVersion());
+		for (PropertyEncoder encoder: encoders) {
+			try {
+				encoder.encode(dto, writer);
+			} catch (Exception e) {
+				throw invocationFailed(dto, encoder.getAccessor(), e);
+			}
+		}
+	}
+	
+	/**
+	 * Writes the output of the format DIGEST_TREE.
+	 * 
+	 * @param root The root of the PropertyDigestTree.
+	 * @param writer The writer.
+	 */
+	static void writeDigestTree(byte [] root, CanonicalWriter writer) {
+		writer.writeByte(CanonicalFormat.DIGEST_TREE.getVersion());
+		writer.writeBytes(root);
+	}
+	
+	static DTOSignerException invocationFailed(Object dto, PropertyAccessor accessor, Exception e) {
+		return new DTOSignerException(
+				String.format("Unable to invoke the method %1$s.%2$s().", dto.getClass().getName(), 
+				accessor.getName()), e);
+	}
+	
+	/**
+	 * Returns the encoders of the binary format. They are created on the first
+	 * call. Concurrent calls may create more than one set of encoders but all
+	 * of them are equivalent.
+	 * 
+	 * @return The encoders in the canonical order.
+	 */
+	PropertyEncoder [] getEncoders() {
+		PropertyEncoder [] ret = this.encoders;
+		if (ret == null) {
+			ret = new PropertyEncoder[this.accessors.length];
+			for (int i = 0; i < ret.length; i++) {
+				ret[i] = PropertyEncoder.create(this.accessors[i], this.valueEncoders);
+			}
+			this.encoders = ret;
+		}
+		return ret;
+	}
+	
+	/**
+	 * Returns the encoders of the streaming format. They are created on the 
+	 * first call, like the ones returned by getEncoders().
+	 * 
+	 * @return The encoders in the canonical order.
+	 */
+	PropertyEncoder [] getStreamEncoders() {
+		PropertyEncoder [] ret = this.streamEncoders;
+		if (ret == null) {
+			ret = new PropertyEncoder[this.accessors.length];
+			for (int i = 0; i < ret.length; i++) {
+				ret[i] = PropertyEncoder.create(this.accessors[i], this.valueEncoders, true);
+			}
+			this.streamEncoders = ret;
 		}
-		
-		ByteBuffer bin = DEFAULT_CHARSET.encode(CharBuffer.wrap(sb.toString()));
-		byte [] ret = new byte[bin.remaining()];
-		bin.get(ret);
 		return ret;
 	}
 	
+	private void updateSizeHint(long size) {
+		if (size > this.sizeHint) {
+			this.sizeHint = (int)Math.min(size, CanonicalWriter.MAX_BUFFER_SIZE);
+		}
+	}
+	
+	/**
+	 * Returns the accessors of the signed properties in the canonical order.
+	 * 
+	 * @return The accessors.
+	 */
+	PropertyAccessor [] getAccessors() {
+		return this.accessors;
+	}
+	
 	/**
 	 * Returns the class associated with this extractor.
 	 * 
@@ -165,12 +511,36 @@ class SignedPropertyExtractor {
 	}
 
 	/**
-	 * Verifies if a given object can be extracted using this extractor.
+	 * Returns true if the DTO class is marked with ImmutableDTO.
+	 * 
+	 * @return true if the DTOs are immutable or false otherwise.
+	 */
+	public boolean isImmutable() {
+		return this.immutable;
+	}
+	
+	/**
+	 * Returns true if the given DTO is immutable. The annotation ImmutableDTO
+	 * is not inherited, thus the instances of the subclasses resolved to the
+	 * DTO class are never immutable.
+	 * 
+	 * @param dto The DTO.
+	 * @return true if the DTO is immutable or false otherwise.
+	 */
+	boolean isImmutable(Object dto) {
+		return this.immutable && (dto.getClass() == this.dtoClass);
+	}
+
+	/**
+	 * Verifies if a given object can be extracted using this extractor. It
+	 * accepts instances of the DTO class and of the subclasses resolved to it,
+	 * such as proxies.
 	 * 
 	 * @param dtoClass
 	 * @return true if it can or false otherwise.
 	 */
 	public boolean canExtract(Object dtoClass) {
-		return this.dtoClass.equals(dtoClass.getClass());
+		Class<?> type = dtoClass.getClass();
+		return (this.dtoClass == type) || (this.dtoClass == resolveDTOClass(type));
 	}
 }
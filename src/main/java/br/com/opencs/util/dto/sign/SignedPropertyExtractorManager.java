@@ -31,16 +31,26 @@
  */
 package br.com.opencs.util.dto.sign;
 
-import java.util.HashMap;
-
 /**
  * This class implements a cache for the SignedPropertyExtractor instances.
  * 
+ * <p>It is a facade for the global SignedPropertyExtractorRegistry, used by
+ * all DTOSigner instances that do not have their own registry.</p>
+ * 
  * @author Fabio Jun Takada Chino
  */
 class SignedPropertyExtractorManager {
 	
-	private static final HashMap<String, SignedPropertyExtractor> cache = new HashMap<String, SignedPropertyExtractor>();
+	private static final SignedPropertyExtractorRegistry DEFAULT_REGISTRY = new SignedPropertyExtractorRegistry();
+	
+	/**
+	 * Returns the global registry.
+	 * 
+	 * @return The global registry.
+	 */
+	public static SignedPropertyExtractorRegistry getDefaultRegistry() {
+		return DEFAULT_REGISTRY;
+	}
 	
 	/**
 	 * Gets a extractor for a given class. If the extractor does not exist, it will try to create a suitable one.
@@ -49,20 +59,23 @@ class SignedPropertyExtractorManager {
 	 * @return The appropriate extractor.
 	 * @throws DTOSignerException In case of error.
 	 */
-	public static synchronized SignedPropertyExtractor getExtractor(Class<?> dtoClass) throws DTOSignerException {
+	public static SignedPropertyExtractor getExtractor(Class<?> dtoClass) throws DTOSignerException {
+		return DEFAULT_REGISTRY.getExtractor(dtoClass);
+	}
 
-		SignedPropertyExtractor extractor = cache.get(dtoClass.getName());
-		if (extractor == null) {
-			extractor = new SignedPropertyExtractor(dtoClass);
-			cache.put(dtoClass.getName(), extractor);
-		}
-		return extractor;
+	/**
+	 * Sets the metrics that will receive the lookups of the global registry.
+	 * 
+	 * @param metrics The metrics or null to disable them.
+	 */
+	public static void setMetrics(DTOSignerMetrics metrics) {
+		DEFAULT_REGISTRY.setMetrics(metrics);
 	}
 
 	/**
 	 * Clears all the extractors registered in this instance.
 	 */
-	public static synchronized void clear() {
-		cache.clear();
+	public static void clear() {
+		DEFAULT_REGISTRY.clear();
 	}
 }
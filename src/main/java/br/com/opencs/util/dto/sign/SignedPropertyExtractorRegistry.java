@@ -0,0 +1,333 @@
+/*
+ * BSD 3-Clause License
+ * 
+ * Copyright (c) 2019, Open Communications Security
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package br.com.opencs.util.dto.sign;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class implements a lock free registry of SignedPropertyExtractor
+ * instances. The extractors are indexed by the class itself instead of its
+ * name, thus classes with the same name loaded by distinct class loaders
+ * will never share the same extractor.
+ * 
+ * <p>Subclasses that do not declare signed properties of their own, such as
+ * the proxies generated by Hibernate or CGLIB, share the extractor of their
+ * DTO class. The classes that cannot be extracted are remembered as well, 
+ * thus they are not scanned again by each lookup.</p>
+ * 
+ * <p>The results are held by a ClassValue, thus the registry never prevents
+ * the unloading of the classes and their class loaders. The number of 
+ * classes in the registry is bounded. Once the bound is reached, the oldest
+ * classes are removed and resolved again when needed.</p>
+ * 
+ * <p>Each DTOSigner may use its own registry. Signers that do not specify
+ * one will share the global registry.</p>
+ * 
+ * <p>All instances of this class are expected to be thread safe.</p>
+ * 
+ * @author Fabio Jun Takada Chino
+ */
+public final class SignedPropertyExtractorRegistry {
+	
+	public static final int DEFAULT_MAXIMUM_SIZE = 4096;
+
+	private final ClassValue<Resolution> resolutions = new ClassValue<Resolution>() {
+		@Override
+		protected Resolution computeValue(Class<?> type) {
+			return resolve(type);
+		}
+	};
+	
+	/**
+	 * Classes in the registry in the order of their resolution. It is used 
+	 * only to enforce the bound, thus it is never touched by the lookups.
+	 */
+	private final LinkedHashMap<ClassKey, Boolean> classes = new LinkedHashMap<ClassKey, Boolean>();
+	
+	private final ReferenceQueue<Class<?>> queue = new ReferenceQueue<Class<?>>();
+
+	private final ValueEncoderRegistry valueEncoders;
+	
+	private final int maximumSize;
+	
+	private volatile DTOSignerMetrics metrics;
+
+	/**
+	 * Creates a new empty registry that uses the default ValueEncoderRegistry.
+	 */
+	public SignedPropertyExtractorRegistry() {
+		this(ValueEncoderRegistry.getDefault());
+	}
+
+	/**
+	 * Creates a new empty registry.
+	 * 
+	 * @param valueEncoders The registry of the encoders used by the binary format.
+	 */
+	public SignedPropertyExtractorRegistry(ValueEncoderRegistry valueEncoders) {
+		this(valueEncoders, DEFAULT_MAXIMUM_SIZE);
+	}
+
+	/**
+	 * Creates a new empty registry.
+	 * 
+	 * @param valueEncoders The registry of the encoders used by the binary format.
+	 * @param maximumSize The maximum number of classes held by this registry,
+	 * including the subclasses and the classes that cannot be extracted.
+	 */
+	public SignedPropertyExtractorRegistry(ValueEncoderRegistry valueEncoders, int maximumSize) {
+		if (maximumSize <= 0) {
+			throw new IllegalArgumentException("The maximum size must be positive.");
+		}
+		this.valueEncoders = valueEncoders;
+		this.maximumSize = maximumSize;
+	}
+
+	/**
+	 * Returns the registry of the encoders used by the binary format.
+	 * 
+	 * @return The registry of encoders.
+	 */
+	public ValueEncoderRegistry getValueEncoderRegistry() {
+		return this.valueEncoders;
+	}
+	
+	/**
+	 * Returns the maximum number of classes held by this registry.
+	 * 
+	 * @return The maximum size.
+	 */
+	public int getMaximumSize() {
+		return this.maximumSize;
+	}
+
+	/**
+	 * Gets a extractor for a given class. If the extractor does not exist, it will try to create a suitable one.
+	 * 
+	 * <p>The creation of the extractor is performed without any lock. If two threads
+	 * create the extractor for the same class at the same time, only the first one to
+	 * be registered will be used.</p>
+	 * 
+	 * @param dtoClass The DTO class.
+	 * @return The appropriate extractor.
+	 * @throws DTOSignerException In case of error.
+	 */
+	SignedPropertyExtractor getExtractor(Class<?> dtoClass) throws DTOSignerException {
+
+		Resolution resolution = this.resolutions.get(dtoClass);
+		DTOSignerMetrics metrics = this.metrics;
+		if (metrics != null) {
+			metrics.extractorLookup(dtoClass, !resolution.isFirstLookup());
+		}
+		if (resolution.extractor == null) {
+			throw new DTOSignerException(resolution.failure.getMessage(), resolution.failure);
+		}
+		return resolution.extractor;
+	}
+	
+	/**
+	 * Resolves the extractor of the given class. Subclasses share the extractor
+	 * of their DTO class.
+	 */
+	private Resolution resolve(Class<?> type) {
+		
+		Class<?> dtoClass = SignedPropertyExtractor.resolveDTOClass(type);
+		Resolution resolution;
+		if (dtoClass != type) {
+			Resolution base = this.resolutions.get(dtoClass);
+			resolution = new Resolution(base.extractor, base.failure);
+		} else {
+			DTOSignerMetrics metrics = this.metrics;
+			long start = (metrics != null) ? System.nanoTime() : 0;
+			try {
+				resolution = new Resolution(SignedPropertyExtractor.create(type, this.valueEncoders), null);
+			} catch (DTOSignerException e) {
+				resolution = new Resolution(null, e);
+			}
+			if (metrics != null) {
+				metrics.extractorCreated(type, System.nanoTime() - start, resolution.extractor != null);
+			}
+		}
+		add(type, resolution.extractor != null);
+		return resolution;
+	}
+	
+	/**
+	 * Adds a class to the list of classes, removing the oldest ones if the
+	 * bound is exceeded.
+	 */
+	private synchronized void add(Class<?> type, boolean extractable) {
+		purge();
+		this.classes.put(new ClassKey(type, this.queue), extractable);
+		while (this.classes.size() > this.maximumSize) {
+			ClassKey eldest = this.classes.keySet().iterator().next();
+			this.classes.remove(eldest);
+			Class<?> c = eldest.get();
+			if (c != null) {
+				this.resolutions.remove(c);
+			}
+		}
+	}
+	
+	/**
+	 * Removes the classes that were unloaded.
+	 */
+	private void purge() {
+		Reference<?> ref;
+		while ((ref = this.queue.poll()) != null) {
+			this.classes.remove(ref);
+		}
+	}
+
+	/**
+	 * Sets the metrics that will receive the lookups of this registry.
+	 * 
+	 * @param metrics The metrics or null to disable them.
+	 */
+	public void setMetrics(DTOSignerMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Returns the metrics that receive the lookups of this registry.
+	 * 
+	 * @return The metrics or null if they are disabled.
+	 */
+	public DTOSignerMetrics getMetrics() {
+		return this.metrics;
+	}
+
+	/**
+	 * Returns the number of classes with extractors registered in this instance.
+	 * 
+	 * @return The number of classes.
+	 */
+	public synchronized int size() {
+		return count(true);
+	}
+	
+	/**
+	 * Returns the number of classes registered in this instance that cannot be
+	 * extracted.
+	 * 
+	 * @return The number of classes.
+	 */
+	public synchronized int getFailureCount() {
+		return count(false);
+	}
+	
+	/**
+	 * Counts the classes that are still loaded. The keys of the unloaded 
+	 * classes are cleared before they are enqueued, thus they are skipped
+	 * explicitly.
+	 */
+	private int count(boolean extractable) {
+		purge();
+		int count = 0;
+		for (Map.Entry<ClassKey, Boolean> e: this.classes.entrySet()) {
+			if ((e.getValue() == extractable) && (e.getKey().get() != null)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Clears all the extractors registered in this instance.
+	 */
+	public synchronized void clear() {
+		for (ClassKey key: this.classes.keySet()) {
+			Class<?> c = key.get();
+			if (c != null) {
+				this.resolutions.remove(c);
+			}
+		}
+		this.classes.clear();
+	}
+	
+	/**
+	 * Result of the resolution of a class. Either the extractor or the failure
+	 * is set.
+	 */
+	private static final class Resolution {
+		
+		private final SignedPropertyExtractor extractor;
+		
+		private final DTOSignerException failure;
+		
+		private final AtomicBoolean firstLookup = new AtomicBoolean(true);
+		
+		public Resolution(SignedPropertyExtractor extractor, DTOSignerException failure) {
+			this.extractor = extractor;
+			this.failure = failure;
+		}
+		
+		/**
+		 * Returns true only for the first lookup that used this resolution.
+		 */
+		public boolean isFirstLookup() {
+			return this.firstLookup.get() && this.firstLookup.compareAndSet(true, false);
+		}
+	}
+	
+	/**
+	 * Weak reference to a class that is compared by the identity of the class.
+	 */
+	private static final class ClassKey extends WeakReference<Class<?>> {
+		
+		private final int hash;
+		
+		public ClassKey(Class<?> type, ReferenceQueue<Class<?>> queue) {
+			super(type, queue);
+			this.hash = System.identityHashCode(type);
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			Class<?> type = get();
+			return (type != null) && (obj instanceof ClassKey) && (((ClassKey)obj).get() == type);
+		}
+	}
+}
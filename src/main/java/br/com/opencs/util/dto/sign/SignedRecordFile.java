@@ -0,0 +1,435 @@
+/*
+ * BSD 3-Clause License
+ * 
+ * Copyright (c) 2019, Open Communications Security
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package br.com.opencs.util.dto.sign;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import javax.crypto.Mac;
+
+/**
+ * This class implements the bulk signature and verification of record files.
+ * Each record holds the canonical form of a DTO, as produced by the format of
+ * the signer, followed by its signature, thus the records can be verified 
+ * without the deserialization of the DTOs. The signatures are the same ones
+ * produced by the DTOSigner for the original DTOs.
+ * 
+ * <p>The file starts with a header with the magic number "DTOS" (4 bytes), 
+ * the version (1 byte), the algorithm identifier of the SignedDTOCodec (1 
+ * byte) and the length of the MAC (2 bytes). Each record has the length of
+ * the canonical form (4 bytes), the canonical form and the signature. All
+ * integers are big endian.</p>
+ * 
+ * <p>Since the header identifies the algorithm only by its identifier, the 
+ * signers whose algorithms have no identifier in the SignedDTOCodec cannot
+ * write or verify record files.</p>
+ * 
+ * <p>The verification maps the file into memory and verifies chunks of 
+ * records in parallel. The canonical forms are fed into the Mac directly from
+ * the mapped buffers, without copies to the heap.</p>
+ * 
+ * <p>All instances of this class are expected to be thread safe.</p>
+ * 
+ * @author Fabio Jun Takada Chino
+ */
+public final class SignedRecordFile {
+	
+	public static final int MAGIC = 0x44544F53;
+	
+	public static final int VERSION = 1;
+	
+	public static final int HEADER_LENGTH = 8;
+	
+	/**
+	 * Default approximate size of each chunk verified in parallel.
+	 */
+	static final int DEFAULT_CHUNK_SIZE = 16 * 1024 * 1024;
+	
+	/**
+	 * Size of the windows mapped while the chunks are located.
+	 */
+	private static final int SCAN_WINDOW_SIZE = 256 * 1024 * 1024;
+	
+	private final DTOSigner signer;
+	
+	private final int chunkSize;
+	
+	/**
+	 * Creates a new instance of this class.
+	 * 
+	 * @param signer The signer.
+	 */
+	public SignedRecordFile(DTOSigner signer) {
+		this(signer, DEFAULT_CHUNK_SIZE);
+	}
+	
+	/**
+	 * Creates a new instance of this class.
+	 * 
+	 * @param signer The signer.
+	 * @param chunkSize The approximate size of each chunk verified in parallel.
+	 */
+	SignedRecordFile(DTOSigner signer, int chunkSize) {
+		this.signer = signer;
+		this.chunkSize = chunkSize;
+	}
+	
+	/**
+	 * Creates a new record file. Existing files are replaced.
+	 * 
+	 * @param file The file.
+	 * @return The writer of the records. It must be closed by the caller.
+	 * @throws DTOSignerException If the file cannot be created.
+	 */
+	public RecordWriter create(Path file) throws DTOSignerException {
+		int algorithmId = getAlgorithmId();
+		try {
+			return new RecordWriter(file, algorithmId);
+		} catch (IOException e) {
+			throw new DTOSignerException(e.getMessage(), e);
+		}
+	}
+	
+	/**
+	 * Signs all DTOs and writes them into a new record file.
+	 * 
+	 * @param file The file.
+	 * @param dtos The DTOs.
+	 * @return The number of records written.
+	 * @throws DTOSignerException In case of error.
+	 */
+	public long write(Path file, Iterable<?> dtos) throws DTOSignerException {
+		try (RecordWriter writer = create(file)) {
+			for (Object dto: dtos) {
+				writer.append(dto);
+			}
+			return writer.getRecordCount();
+		} catch (IOException e) {
+			throw new DTOSignerException(e.getMessage(), e);
+		}
+	}
+	
+	/**
+	 * Verifies all records of the file using the common ForkJoinPool.
+	 * 
+	 * @param file The file.
+	 * @return The result of the verification.
+	 * @throws DTOSignerException If the file cannot be read or it is malformed.
+	 */
+	public Result verify(Path file) throws DTOSignerException {
+		return verify(file, ForkJoinPool.commonPool());
+	}
+	
+	/**
+	 * Verifies all records of the file.
+	 * 
+	 * @param file The file.
+	 * @param pool The pool that will verify the chunks.
+	 * @return The result of the verification.
+	 * @throws DTOSignerException If the file cannot be read or it is malformed.
+	 */
+	public Result verify(Path file, ForkJoinPool pool) throws DTOSignerException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			int macLength = readHeader(channel);
+			List<long[]> chunks = findChunks(channel, macLength);
+			List<Future<long[]>> futures = new ArrayList<Future<long[]>>(chunks.size());
+			for (long [] chunk: chunks) {
+				futures.add(pool.submit(() -> verifyChunk(channel, chunk[0], chunk[1], macLength)));
+			}
+			long recordCount = 0;
+			long [] invalid = new long[0];
+			for (int i = 0; i < chunks.size(); i++) {
+				long [] chunkInvalid = get(futures.get(i));
+				recordCount += chunks.get(i)[2];
+				if (chunkInvalid.length > 0) {
+					int length = invalid.length;
+					invalid = Arrays.copyOf(invalid, length + chunkInvalid.length);
+					System.arraycopy(chunkInvalid, 0, invalid, length, chunkInvalid.length);
+				}
+			}
+			return new Result(recordCount, invalid);
+		} catch (IOException e) {
+			throw new DTOSignerException(e.getMessage(), e);
+		}
+	}
+	
+	private static long[] get(Future<long[]> future) throws DTOSignerException {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof DTOSignerException) {
+				throw (DTOSignerException)e.getCause();
+			}
+			throw new DTOSignerException(e.getCause().getMessage(), e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DTOSignerException(e.getMessage(), e);
+		}
+	}
+	
+	/**
+	 * Reads and validates the header of the file.
+	 * 
+	 * @return The MAC length.
+	 */
+	private int readHeader(FileChannel channel) throws IOException, DTOSignerException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+		while (header.hasRemaining() && (channel.read(header, header.position()) > 0)) {
+		}
+		if (header.hasRemaining() || (header.getInt(0) != MAGIC)) {
+			throw new DTOSignerException("Not a signed record file.");
+		}
+		if ((header.get(4) & 0xFF) != VERSION) {
+			throw new DTOSignerException("Unsupported signed record file version " + (header.get(4) & 0xFF) + ".");
+		}
+		int algorithmId = header.get(5) & 0xFF;
+		int macLength = header.getShort(6) & 0xFFFF;
+		if ((algorithmId != getAlgorithmId()) || 
+				(macLength != this.signer.getMacPool().getMacLength())) {
+			throw new DTOSignerException("The records were not signed with the algorithm of this signer.");
+		}
+		return macLength;
+	}
+	
+	/**
+	 * Returns the identifier of the algorithm of the signer.
+	 * 
+	 * @return The identifier.
+	 * @throws DTOSignerException If the algorithm has no identifier.
+	 */
+	private int getAlgorithmId() throws DTOSignerException {
+		String algorithm = this.signer.getMacPool().getAlgorithm();
+		int algorithmId = SignedDTOCodec.getAlgorithmId(algorithm);
+		if (algorithmId == 0) {
+			throw new DTOSignerException("The algorithm " + algorithm + 
+					" has no identifier, thus it cannot be used by record files.");
+		}
+		return algorithmId;
+	}
+	
+	/**
+	 * Locates the chunks of records. It reads only the length of each record.
+	 * 
+	 * @return The chunks as {start, end, record count}.
+	 */
+	private List<long[]> findChunks(FileChannel channel, int macLength) throws IOException, DTOSignerException {
+		List<long[]> chunks = new ArrayList<long[]>();
+		long size = channel.size();
+		long chunkStart = HEADER_LENGTH;
+		long chunkRecords = 0;
+		long offset = HEADER_LENGTH;
+		long windowStart = 0;
+		MappedByteBuffer window = null;
+		while (offset < size) {
+			if ((window == null) || (offset + 4 > windowStart + window.capacity())) {
+				windowStart = offset;
+				window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, Math.min(size - offset, SCAN_WINDOW_SIZE));
+			}
+			if (offset + 4 > size) {
+				throw new DTOSignerException("Truncated record at offset " + offset + ".");
+			}
+			long length = window.getInt((int)(offset - windowStart)) & 0xFFFFFFFFL;
+			long end = offset + 4 + length + macLength;
+			if ((length > Integer.MAX_VALUE - 4 - macLength) || (end > size)) {
+				throw new DTOSignerException("Truncated record at offset " + offset + ".");
+			}
+			if ((end - chunkStart > this.chunkSize) && (chunkRecords > 0)) {
+				chunks.add(new long[] {chunkStart, offset, chunkRecords});
+				chunkStart = offset;
+				chunkRecords = 0;
+			}
+			chunkRecords++;
+			offset = end;
+		}
+		if (chunkRecords > 0) {
+			chunks.add(new long[] {chunkStart, offset, chunkRecords});
+		}
+		return chunks;
+	}
+	
+	/**
+	 * Verifies the records of a chunk.
+	 * 
+	 * @return The offsets of the invalid records.
+	 */
+	private long[] verifyChunk(FileChannel channel, long start, long end, int macLength) 
+			throws IOException, DTOSignerException {
+		MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+		MacPool pool = this.signer.getMacPool();
+		Mac mac = pool.acquire();
+		byte [] expected = new byte[macLength];
+		long [] invalid = new long[0];
+		int invalidCount = 0;
+		int position = 0;
+		int capacity = buffer.capacity();
+		try {
+			while (position < capacity) {
+				int length = buffer.getInt(position);
+				int signature = position + 4 + length;
+				((Buffer)buffer).limit(signature).position(position + 4);
+				mac.update(buffer);
+				((Buffer)buffer).limit(capacity);
+				mac.doFinal(expected, 0);
+				int diff = 0;
+				for (int i = 0; i < macLength; i++) {
+					diff |= expected[i] ^ buffer.get(signature + i);
+				}
+				if (diff != 0) {
+					if (invalidCount == invalid.length) {
+						invalid = Arrays.copyOf(invalid, Math.max(16, invalidCount * 2));
+					}
+					invalid[invalidCount++] = start + position;
+				}
+				position = signature + macLength;
+			}
+		} catch (Exception e) {
+			// The state of the Mac is unknown, so it is not returned to the pool.
+			throw new DTOSignerException(e.getMessage(), e);
+		}
+		pool.release(mac);
+		return Arrays.copyOf(invalid, invalidCount);
+	}
+	
+	/**
+	 * This class implements the writer of a record file.
+	 */
+	public final class RecordWriter implements Closeable {
+		
+		private final DataOutputStream out;
+		
+		private long recordCount;
+		
+		RecordWriter(Path file, int algorithmId) throws IOException {
+			this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024));
+			MacPool pool = SignedRecordFile.this.signer.getMacPool();
+			this.out.writeInt(MAGIC);
+			this.out.writeByte(VERSION);
+			this.out.writeByte(algorithmId);
+			this.out.writeShort(pool.getMacLength());
+		}
+		
+		/**
+		 * Signs the DTO and appends it to the file.
+		 * 
+		 * @param dto The DTO.
+		 * @throws DTOSignerException In case of error.
+		 */
+		public void append(Object dto) throws DTOSignerException {
+			DTOSigner signer = SignedRecordFile.this.signer;
+			byte [] canonical = signer.getExtractorRegistry().getExtractor(dto.getClass())
+					.extract(dto, signer.getFormat());
+			MacPool pool = signer.getMacPool();
+			Mac mac = pool.acquire();
+			byte [] signature = mac.doFinal(canonical);
+			pool.release(mac);
+			try {
+				this.out.writeInt(canonical.length);
+				this.out.write(canonical);
+				this.out.write(signature);
+			} catch (IOException e) {
+				throw new DTOSignerException(e.getMessage(), e);
+			}
+			this.recordCount++;
+		}
+		
+		/**
+		 * Returns the number of records written.
+		 * 
+		 * @return The number of records.
+		 */
+		public long getRecordCount() {
+			return this.recordCount;
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.out.close();
+		}
+	}
+	
+	/**
+	 * This class implements the result of the verification of a record file.
+	 */
+	public static final class Result {
+		
+		private final long recordCount;
+		
+		private final long [] invalidOffsets;
+		
+		Result(long recordCount, long [] invalidOffsets) {
+			this.recordCount = recordCount;
+			this.invalidOffsets = invalidOffsets;
+		}
+		
+		/**
+		 * Returns the number of records verified.
+		 * 
+		 * @return The number of records.
+		 */
+		public long getRecordCount() {
+			return this.recordCount;
+		}
+		
+		/**
+		 * Returns the file offsets of the records with invalid signatures.
+		 * 
+		 * @return The offsets in ascending order.
+		 */
+		public long[] getInvalidOffsets() {
+			return this.invalidOffsets.clone();
+		}
+		
+		/**
+		 * Verifies if all records are valid.
+		 * 
+		 * @return true if all signatures are valid or false otherwise.
+		 */
+		public boolean isValid() {
+			return this.invalidOffsets.length == 0;
+		}
+	}
+}
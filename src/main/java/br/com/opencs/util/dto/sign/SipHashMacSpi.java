@@ -0,0 +1,250 @@
+/*
+ * BSD 3-Clause License
+ * 
+ * Copyright (c) 2019, Open Communications Security
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package br.com.opencs.util.dto.sign;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.spec.AlgorithmParameterSpec;
+
+import javax.crypto.MacSpi;
+
+/**
+ * This class implements the SipHash-2-4 keyed hash with a 128 bit output, as
+ * defined by Aumasson and Bernstein. It requires a 16 byte key.
+ * 
+ * <p>The message is processed in 8 byte words as it arrives, including the
+ * direct buffers, thus no memory is allocated except for the result returned
+ * by engineDoFinal(). The package may also use it directly, without a Mac,
+ * through init() and doFinal(long[]).</p>
+ * 
+ * @author Fabio Jun Takada Chino
+ */
+final class SipHashMacSpi extends MacSpi implements Cloneable {
+	
+	public static final int KEY_LENGTH = 16;
+	
+	public static final int MAC_LENGTH = 16;
+	
+	private long k0;
+	
+	private long k1;
+	
+	private long v0;
+	
+	private long v1;
+	
+	private long v2;
+	
+	private long v3;
+	
+	/**
+	 * Pending bytes of the current word, little endian.
+	 */
+	private long word;
+	
+	private long length;
+
+	@Override
+	protected int engineGetMacLength() {
+		return MAC_LENGTH;
+	}
+
+	@Override
+	protected void engineInit(Key key, AlgorithmParameterSpec params)
+			throws InvalidKeyException, InvalidAlgorithmParameterException {
+		if (params != null) {
+			throw new InvalidAlgorithmParameterException("SipHash has no parameters.");
+		}
+		byte [] encoded = key.getEncoded();
+		if ((encoded == null) || (encoded.length != KEY_LENGTH)) {
+			throw new InvalidKeyException("SipHash requires a " + KEY_LENGTH + " byte key.");
+		}
+		init(encoded);
+	}
+	
+	/**
+	 * Initializes this instance with the given key.
+	 * 
+	 * @param key The key. It must have KEY_LENGTH bytes.
+	 */
+	void init(byte [] key) {
+		this.k0 = readLong(key, 0);
+		this.k1 = readLong(key, 8);
+		engineReset();
+	}
+	
+	private static long readLong(byte [] b, int off) {
+		long v = 0;
+		for (int i = 7; i >= 0; i--) {
+			v = (v << 8) | (b[off + i] & 0xFF);
+		}
+		return v;
+	}
+
+	@Override
+	protected void engineUpdate(byte input) {
+		int shift = ((int)this.length & 7) << 3;
+		this.word |= (input & 0xFFL) << shift;
+		this.length++;
+		if (shift == 56) {
+			compress(this.word);
+			this.word = 0;
+		}
+	}
+
+	@Override
+	protected void engineUpdate(byte[] input, int offset, int len) {
+		int end = offset + len;
+		// Completes the pending word
+		while ((offset < end) && ((this.length & 7) != 0)) {
+			engineUpdate(input[offset++]);
+		}
+		while (end - offset >= 8) {
+			compress(readLong(input, offset));
+			offset += 8;
+			this.length += 8;
+		}
+		while (offset < end) {
+			engineUpdate(input[offset++]);
+		}
+	}
+	
+	@Override
+	protected void engineUpdate(ByteBuffer input) {
+		while (input.hasRemaining() && ((this.length & 7) != 0)) {
+			engineUpdate(input.get());
+		}
+		int position = input.position();
+		int limit = input.limit();
+		while (limit - position >= 8) {
+			long m = 0;
+			for (int i = 7; i >= 0; i--) {
+				m = (m << 8) | (input.get(position + i) & 0xFF);
+			}
+			compress(m);
+			position += 8;
+			this.length += 8;
+		}
+		((Buffer)input).position(position);
+		while (input.hasRemaining()) {
+			engineUpdate(input.get());
+		}
+	}
+	
+	private void compress(long m) {
+		this.v3 ^= m;
+		rounds(2);
+		this.v0 ^= m;
+	}
+	
+	private void rounds(int count) {
+		long v0 = this.v0;
+		long v1 = this.v1;
+		long v2 = this.v2;
+		long v3 = this.v3;
+		for (int i = 0; i < count; i++) {
+			v0 += v1;
+			v1 = Long.rotateLeft(v1, 13);
+			v1 ^= v0;
+			v0 = Long.rotateLeft(v0, 32);
+			v2 += v3;
+			v3 = Long.rotateLeft(v3, 16);
+			v3 ^= v2;
+			v0 += v3;
+			v3 = Long.rotateLeft(v3, 21);
+			v3 ^= v0;
+			v2 += v1;
+			v1 = Long.rotateLeft(v1, 17);
+			v1 ^= v2;
+			v2 = Long.rotateLeft(v2, 32);
+		}
+		this.v0 = v0;
+		this.v1 = v1;
+		this.v2 = v2;
+		this.v3 = v3;
+	}
+
+	@Override
+	protected byte[] engineDoFinal() {
+		long out0 = finalizeFirst();
+		long out1 = finalizeSecond();
+		byte [] mac = new byte[MAC_LENGTH];
+		for (int i = 0; i < 8; i++) {
+			mac[i] = (byte)(out0 >>> (i << 3));
+			mac[i + 8] = (byte)(out1 >>> (i << 3));
+		}
+		engineReset();
+		return mac;
+	}
+	
+	/**
+	 * Completes the computation and resets this instance. 
+	 * 
+	 * @param out The array that receives both halves of the result.
+	 */
+	void doFinal(long [] out) {
+		out[0] = finalizeFirst();
+		out[1] = finalizeSecond();
+		engineReset();
+	}
+	
+	private long finalizeFirst() {
+		compress(this.word | (this.length << 56));
+		this.v2 ^= 0xEE;
+		rounds(4);
+		return this.v0 ^ this.v1 ^ this.v2 ^ this.v3;
+	}
+	
+	private long finalizeSecond() {
+		this.v1 ^= 0xDD;
+		rounds(4);
+		return this.v0 ^ this.v1 ^ this.v2 ^ this.v3;
+	}
+
+	@Override
+	protected void engineReset() {
+		this.v0 = this.k0 ^ 0x736f6d6570736575L;
+		this.v1 = this.k1 ^ 0x646f72616e646f6dL ^ 0xEE;
+		this.v2 = this.k0 ^ 0x6c7967656e657261L;
+		this.v3 = this.k1 ^ 0x7465646279746573L;
+		this.word = 0;
+		this.length = 0;
+	}
+
+	@Override
+	public Object clone() throws CloneNotSupportedException {
+		return super.clone();
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ * BSD 3-Clause License
+ * 
+ * Copyright (c) 2019, Open Communications Security
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package br.com.opencs.util.dto.sign;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * This class implements a lock free MacPool. The instances are kept in an
+ * array of slots and each thread starts its search from the slot selected
+ * by its id, reducing the contention among threads.
+ *
+ * <p>If no instance is available, a new one is created. If the pool is full
+ * when an instance is released, the instance is simply discarded.</p>
+ *
+ * @author Fabio Jun Takada Chino
+ */
+final class StripedMacPool extends MacPool {
+
+	private final AtomicReferenceArray<Mac> slots;
+
+	private final int mask;
+
+	public StripedMacPool(String algorithm, SecretKeySpec macKey) throws DTOSignerException {
+		this(algorithm, macKey, Runtime.getRuntime().availableProcessors());
+	}
+
+	public StripedMacPool(String algorithm, SecretKeySpec macKey, int size) throws DTOSignerException {
+		super(algorithm, macKey);
+		int slotCount = 1;
+		while (slotCount < size) {
+			slotCount <<= 1;
+		}
+		this.slots = new AtomicReferenceArray<Mac>(slotCount);
+		this.mask = slotCount - 1;
+	}
+
+	private static int probe() {
+		long id = Thread.currentThread().getId();
+		return (int)((id * 0x9E3779B97F4A7C15L) >>> 32);
+	}
+
+	@Override
+	public Mac acquire() throws DTOSignerException {
+		int start = probe();
+		for (int i = 0; i <= this.mask; i++) {
+			int idx = (start + i) & this.mask;
+			Mac mac = this.slots.get(idx);
+			if ((mac != null) && this.slots.compareAndSet(idx, mac, null)) {
+				hit();
+				return mac;
+			}
+		}
+		miss();
+		return newMac();
+	}
+
+	@Override
+	public void release(Mac mac) {
+		int start = probe();
+		for (int i = 0; i <= this.mask; i++) {
+			int idx = (start + i) & this.mask;
+			if ((this.slots.get(idx) == null) && this.slots.compareAndSet(idx, null, mac)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of slots of this pool.
+	 *
+	 * @return The number of slots.
+	 */
+	public int getSize() {
+		return this.slots.length();
+	}
+
+	@Override
+	public MacPoolStrategy getStrategy() {
+		return MacPoolStrategy.STRIPED;
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ * BSD 3-Clause License
+ * 
+ * Copyright (c) 2019, Open Communications Security
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package br.com.opencs.util.dto.sign;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * This class implements a MacPool that keeps one instance per thread.
+ *
+ * <p>The instance is removed from the thread while in use, thus a nested
+ * acquisition in the same thread will receive a new instance instead of
+ * sharing the one in use.</p>
+ *
+ * @author Fabio Jun Takada Chino
+ */
+final class ThreadLocalMacPool extends MacPool {
+
+	private static final class Holder {
+		private Mac mac;
+	}
+
+	private final ThreadLocal<Holder> local = new ThreadLocal<Holder>() {
+		@Override
+		protected Holder initialValue() {
+			return new Holder();
+		}
+	};
+
+	public ThreadLocalMacPool(String algorithm, SecretKeySpec macKey) throws DTOSignerException {
+		super(algorithm, macKey);
+	}
+
+	@Override
+	public Mac acquire() throws DTOSignerException {
+		Holder holder = this.local.get();
+		Mac mac = holder.mac;
+		if (mac != null) {
+			holder.mac = null;
+			hit();
+			return mac;
+		} else {
+			miss();
+			return newMac();
+		}
+	}
+
+	@Override
+	public void release(Mac mac) {
+		Holder holder = this.local.get();
+		if (holder.mac == null) {
+			holder.mac = mac;
+		}
+	}
+
+	@Override
+	public MacPoolStrategy getStrategy() {
+		return MacPoolStrategy.THREAD_LOCAL;
+	}
+}
@@ -0,0 +1,214 @@
+/*
+ * BSD 3-Clause License
+ * 
+ * Copyright (c) 2019, Open Communications Security
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package br.com.opencs.util.dto.sign;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class implements the registry of ValueEncoder instances used by the
+ * binary canonical format. 
+ * 
+ * <p>The encoder of each property is resolved once, when the extractor 
+ * first uses the binary format, based on the declared return type of its
+ * getter. Values of other classes returned by getters whose declared types
+ * are not final are written by the encoders of their own classes (see 
+ * PropertyEncoder). The resolution looks for an encoder registered for the type itself
+ * followed by the encoders of its superclasses that were registered as 
+ * covering their subclasses. An encoder is not inherited by default, since
+ * a subclass may hold more state than its superclass encodes (e.g. the nanos
+ * of java.sql.Timestamp) and distinct values must produce distinct outputs.
+ * Arrays and Iterable values not registered
+ * explicitly are reduced to the root of a Merkle tree of their elements, 
+ * enumerations are encoded by their names and all other types fall back to
+ * the string returned by Object.toString().</p>
+ * 
+ * <p>The following types are supported by default: the wrappers of the 
+ * primitive types, String, BigDecimal (scale followed by the unscaled value),
+ * BigInteger, byte[], Date, java.sql.Timestamp (milliseconds followed by the
+ * nanos), Instant, LocalDate and UUID.</p>
+ * 
+ * <p>All instances of this class are expected to be thread safe. Encoders 
+ * must be registered before the first use of the registry, since the 
+ * extractors will not see changes made after their encoders are resolved.</p>
+ * 
+ * @author Fabio Jun Takada Chino
+ */
+public final class ValueEncoderRegistry {
+	
+	private static final ValueEncoderRegistry DEFAULT = new ValueEncoderRegistry();
+
+	private static final ValueEncoder<Enum<?>> ENUM_ENCODER = (v, out) -> out.writeString(v.name());
+
+	private static final ValueEncoder<Object> STRING_ENCODER = (v, out) -> out.writeString(v.toString());
+	
+	private final ConcurrentHashMap<Class<?>, ValueEncoder<?>> encoders = 
+			new ConcurrentHashMap<Class<?>, ValueEncoder<?>>();
+	
+	/**
+	 * Encoders that also cover the subclasses of their types.
+	 */
+	private final ConcurrentHashMap<Class<?>, ValueEncoder<?>> inheritedEncoders = 
+			new ConcurrentHashMap<Class<?>, ValueEncoder<?>>();
+	
+	/**
+	 * Creates a new registry with the default encoders.
+	 */
+	public ValueEncoderRegistry() {
+		register(Boolean.class, (v, out) -> out.writeByte(v ? 1 : 0));
+		register(Byte.class, (v, out) -> out.writeByte(v));
+		register(Short.class, (v, out) -> out.writeShort(v));
+		register(Character.class, (v, out) -> out.writeShort(v));
+		register(Integer.class, (v, out) -> out.writeInt(v));
+		register(Long.class, (v, out) -> out.writeLong(v));
+		register(Float.class, (v, out) -> out.writeInt(Float.floatToIntBits(v)));
+		register(Double.class, (v, out) -> out.writeLong(Double.doubleToLongBits(v)));
+		register(String.class, (v, out) -> out.writeString(v));
+		register(byte[].class, (v, out) -> out.writeBytes(v));
+		register(BigInteger.class, (v, out) -> out.writeBytes(v.toByteArray()));
+		register(BigDecimal.class, (v, out) -> {
+			out.writeInt(v.scale());
+			out.writeBytes(v.unscaledValue().toByteArray());
+		});
+		register(Date.class, (v, out) -> out.writeLong(v.getTime()));
+		register(Timestamp.class, (v, out) -> {
+			out.writeLong(v.getTime());
+			out.writeInt(v.getNanos());
+		});
+		register(Instant.class, (v, out) -> {
+			out.writeLong(v.getEpochSecond());
+			out.writeInt(v.getNano());
+		});
+		register(LocalDate.class, (v, out) -> out.writeLong(v.toEpochDay()));
+		register(UUID.class, (v, out) -> {
+			out.writeLong(v.getMostSignificantBits());
+			out.writeLong(v.getLeastSignificantBits());
+		});
+	}
+	
+	/**
+	 * Returns the registry shared by all extractor registries that do not
+	 * specify their own.
+	 * 
+	 * @return The default registry.
+	 */
+	public static ValueEncoderRegistry getDefault() {
+		return DEFAULT;
+	}
+	
+	/**
+	 * Registers the encoder of a given type. It replaces the current encoder
+	 * of the type, if any. The encoder does not cover the subclasses of the
+	 * type.
+	 * 
+	 * @param <T> The type of the values.
+	 * @param type The type of the values.
+	 * @param encoder The encoder.
+	 */
+	public <T> void register(Class<T> type, ValueEncoder<? super T> encoder) {
+		register(type, encoder, false);
+	}
+	
+	/**
+	 * Registers the encoder of a given type. It replaces the current encoder
+	 * of the type, if any.
+	 * 
+	 * @param <T> The type of the values.
+	 * @param type The type of the values.
+	 * @param encoder The encoder.
+	 * @param includeSubclasses If true, the encoder is also used by the 
+	 * subclasses of the type without an encoder of their own. It must produce
+	 * distinct outputs for all distinct values of the subclasses.
+	 */
+	public <T> void register(Class<T> type, ValueEncoder<? super T> encoder, boolean includeSubclasses) {
+		if (type.isPrimitive()) {
+			throw new IllegalArgumentException("Primitive types are always encoded by the library itself.");
+		}
+		this.encoders.put(type, encoder);
+		if (includeSubclasses) {
+			this.inheritedEncoders.put(type, encoder);
+		} else {
+			this.inheritedEncoders.remove(type);
+		}
+	}
+
+	/**
+	 * Resolves the encoder of the given type. 
+	 * 
+	 * @param type The declared type. It cannot be a primitive type.
+	 * @return The encoder. It is never null.
+	 */
+	@SuppressWarnings("unchecked")
+	ValueEncoder<Object> getEncoder(Class<?> type) {
+		
+		ValueEncoder<Object> encoder = getRegisteredEncoder(type);
+		if (encoder != null) {
+			return encoder;
+		}
+		if (MerkleEncoder.supports(type)) {
+			return new MerkleEncoder(type, this);
+		} else if (Enum.class.isAssignableFrom(type)) {
+			return (ValueEncoder<Object>)(ValueEncoder<?>)ENUM_ENCODER;
+		} else {
+			return STRING_ENCODER;
+		}
+	}
+	
+	/**
+	 * Returns the encoder registered for the given type or for one of its
+	 * superclasses registered as covering their subclasses.
+	 * 
+	 * @param type The type.
+	 * @return The encoder or null if there is none.
+	 */
+	@SuppressWarnings("unchecked")
+	ValueEncoder<Object> getRegisteredEncoder(Class<?> type) {
+		
+		ValueEncoder<?> encoder = this.encoders.get(type);
+		if (encoder != null) {
+			return (ValueEncoder<Object>)encoder;
+		}
+		for (Class<?> c = type.getSuperclass(); c != null; c = c.getSuperclass()) {
+			encoder = this.inheritedEncoders.get(c);
+			if (encoder != null) {
+				return (ValueEncoder<Object>)encoder;
+			}
+		}
+		return null;
+	}
+}
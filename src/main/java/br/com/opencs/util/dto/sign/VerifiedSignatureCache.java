@@ -0,0 +1,346 @@
+/*
+ * BSD 3-Clause License
+ * 
+ * Copyright (c) 2019, Open Communications Security
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package br.com.opencs.util.dto.sign;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class implements an off-heap cache of verified signatures. Each entry
+ * records that a given signature was found valid for a given canonical form,
+ * thus the DTOSigner may skip the MAC computation when the same DTO and the 
+ * same signature are verified again.
+ * 
+ * <p>The entries are identified by a SipHash-2-4-128 tag of the canonical 
+ * form followed by the signature, computed with a random key generated by 
+ * each instance. Since the canonical form is extracted on every verification,
+ * a DTO modified after its verification produces another tag and is verified
+ * again. The secret key prevents the creation of colliding tags.</p>
+ * 
+ * <p>The entries are stored in a direct buffer, organized as a 4-way set 
+ * associative table with a CLOCK eviction inside each set and a fixed time 
+ * to live. The readers and writers do not use locks. Instead, each entry 
+ * carries a keyed checksum, thus entries torn by concurrent writers are
+ * simply discarded as misses.</p>
+ * 
+ * <p>An instance must not be shared by signers with distinct keys, 
+ * algorithms or formats. All instances of this class are expected to be 
+ * thread safe.</p>
+ * 
+ * @author Fabio Jun Takada Chino
+ */
+public final class VerifiedSignatureCache {
+	
+	public static final int DEFAULT_MAXIMUM_SIZE = 1024 * 1024;
+	
+	public static final long DEFAULT_TIME_TO_LIVE_MINUTES = 5;
+	
+	private static final int WAYS = 4;
+	
+	/**
+	 * Layout of each entry: tag (2 longs), expiration, checksum.
+	 */
+	private static final int ENTRY_SIZE = 32;
+	
+	/**
+	 * The largest power of 2 whose table fits in a single direct buffer.
+	 */
+	private static final int MAX_CAPACITY = 1 << 25;
+	
+	private final ByteBuffer entries;
+	
+	private final ByteBuffer references;
+	
+	private final int setMask;
+	
+	private final long timeToLive;
+	
+	private final byte [] key = new byte[SipHashMacSpi.KEY_LENGTH];
+	
+	private final long checksumKey;
+	
+	private final ThreadLocal<Hasher> hashers = new ThreadLocal<Hasher>() {
+		@Override
+		protected Hasher initialValue() {
+			return new Hasher(key);
+		}
+	};
+	
+	private final LongAdder hits = new LongAdder();
+	
+	private final LongAdder misses = new LongAdder();
+	
+	private final LongAdder evictions = new LongAdder();
+	
+	/**
+	 * Creates a new instance of this class with the default parameters.
+	 */
+	public VerifiedSignatureCache() {
+		this(DEFAULT_MAXIMUM_SIZE, DEFAULT_TIME_TO_LIVE_MINUTES, TimeUnit.MINUTES);
+	}
+	
+	/**
+	 * Creates a new instance of this class. The off-heap memory is allocated
+	 * immediately and uses 33 bytes per entry.
+	 * 
+	 * @param maximumSize The maximum number of entries, up to 2^25. It is rounded up to a power of 2.
+	 * @param timeToLive The time to live of each entry.
+	 * @param unit The unit of the time to live.
+	 */
+	public VerifiedSignatureCache(int maximumSize, long timeToLive, TimeUnit unit) {
+		if ((maximumSize <= 0) || (maximumSize > MAX_CAPACITY)) {
+			throw new IllegalArgumentException("Invalid maximum size " + maximumSize + ".");
+		}
+		int capacity = WAYS;
+		while (capacity < maximumSize) {
+			capacity <<= 1;
+		}
+		this.entries = ByteBuffer.allocateDirect(capacity * ENTRY_SIZE);
+		this.references = ByteBuffer.allocateDirect(capacity);
+		this.setMask = capacity / WAYS - 1;
+		this.timeToLive = unit.toNanos(timeToLive);
+		SecureRandom random = new SecureRandom();
+		random.nextBytes(this.key);
+		this.checksumKey = random.nextLong();
+	}
+	
+	/**
+	 * Returns the number of entries of this cache.
+	 * 
+	 * @return The capacity.
+	 */
+	public int getCapacity() {
+		return this.references.capacity();
+	}
+	
+	/**
+	 * Returns the buffer of the entries. It is used by the tests.
+	 * 
+	 * @return The buffer.
+	 */
+	ByteBuffer entries() {
+		return this.entries;
+	}
+	
+	/**
+	 * Computes the tag of a canonical form and its signature. The result is 
+	 * stored in an array owned by the current thread, which is overwritten by
+	 * the next call.
+	 * 
+	 * @param canonical The buffer that holds the canonical form.
+	 * @param canonicalLength The length of the canonical form.
+	 * @param signature The buffer that contains the signature.
+	 * @param offset The offset of the signature.
+	 * @param length The length of the signature.
+	 * @return The tag.
+	 */
+	long[] tag(byte [] canonical, int canonicalLength, byte [] signature, int offset, int length) {
+		Hasher hasher = this.hashers.get();
+		hasher.hash.engineUpdate(canonical, 0, canonicalLength);
+		hasher.hash.engineUpdate(signature, offset, length);
+		hasher.hash.doFinal(hasher.tag);
+		return hasher.tag;
+	}
+	
+	/**
+	 * Computes the tag of a canonical form and the remaining bytes of the 
+	 * given buffer. The position of the buffer is not changed.
+	 * 
+	 * @param canonical The buffer that holds the canonical form.
+	 * @param canonicalLength The length of the canonical form.
+	 * @param signature The buffer that contains the signature.
+	 * @return The tag.
+	 */
+	long[] tag(byte [] canonical, int canonicalLength, ByteBuffer signature) {
+		Hasher hasher = this.hashers.get();
+		hasher.hash.engineUpdate(canonical, 0, canonicalLength);
+		for (int i = signature.position(); i < signature.limit(); i++) {
+			hasher.hash.engineUpdate(signature.get(i));
+		}
+		hasher.hash.doFinal(hasher.tag);
+		return hasher.tag;
+	}
+	
+	private long checksum(long tag0, long tag1, long expiration) {
+		long h = (tag0 ^ this.checksumKey) * 0x9E3779B97F4A7C15L;
+		h = (Long.rotateLeft(h, 31) ^ tag1) * 0xC2B2AE3D27D4EB4FL;
+		h = (Long.rotateLeft(h, 29) ^ expiration) * 0x165667B19E3779F9L;
+		return h ^ (h >>> 32);
+	}
+	
+	private int firstSlot(long [] tag) {
+		return ((int)tag[0] & this.setMask) * WAYS;
+	}
+	
+	/**
+	 * Verifies if the given tag was recorded and has not expired.
+	 * 
+	 * @param tag The tag.
+	 * @return true if it is present or false otherwise.
+	 */
+	boolean contains(long [] tag) {
+		int first = firstSlot(tag);
+		long now = System.nanoTime();
+		for (int slot = first; slot < first + WAYS; slot++) {
+			int position = slot * ENTRY_SIZE;
+			long tag0 = this.entries.getLong(position);
+			long tag1 = this.entries.getLong(position + 8);
+			if ((tag0 == tag[0]) && (tag1 == tag[1])) {
+				long expiration = this.entries.getLong(position + 16);
+				if ((this.entries.getLong(position + 24) == checksum(tag0, tag1, expiration)) && 
+						(expiration - now > 0)) {
+					this.references.put(slot, (byte)1);
+					this.hits.increment();
+					return true;
+				}
+			}
+		}
+		this.misses.increment();
+		return false;
+	}
+	
+	/**
+	 * Records the given tag.
+	 * 
+	 * @param tag The tag.
+	 */
+	void put(long [] tag) {
+		int first = firstSlot(tag);
+		long now = System.nanoTime();
+		int victim = -1;
+		for (int slot = first; (slot < first + WAYS) && (victim < 0); slot++) {
+			if (!isLive(slot, now)) {
+				victim = slot;
+			}
+		}
+		if (victim < 0) {
+			// CLOCK: the first entry not referenced since the last pass is replaced.
+			int hand = (int)(tag[1] & (WAYS - 1));
+			for (int i = 0; victim < 0; i++) {
+				int slot = first + ((hand + i) & (WAYS - 1));
+				if (this.references.get(slot) == 0) {
+					victim = slot;
+				} else {
+					this.references.put(slot, (byte)0);
+				}
+			}
+			this.evictions.increment();
+		}
+		int position = victim * ENTRY_SIZE;
+		long expiration = now + this.timeToLive;
+		this.entries.putLong(position, tag[0]);
+		this.entries.putLong(position + 8, tag[1]);
+		this.entries.putLong(position + 16, expiration);
+		this.entries.putLong(position + 24, checksum(tag[0], tag[1], expiration));
+		this.references.put(victim, (byte)0);
+	}
+	
+	private boolean isLive(int slot, long now) {
+		int position = slot * ENTRY_SIZE;
+		long tag0 = this.entries.getLong(position);
+		long tag1 = this.entries.getLong(position + 8);
+		long expiration = this.entries.getLong(position + 16);
+		return (this.entries.getLong(position + 24) == checksum(tag0, tag1, expiration)) && 
+				(expiration - now > 0);
+	}
+	
+	/**
+	 * Returns the number of successful lookups.
+	 * 
+	 * @return The number of hits.
+	 */
+	public long getHits() {
+		return this.hits.sum();
+	}
+	
+	/**
+	 * Returns the number of failed lookups.
+	 * 
+	 * @return The number of misses.
+	 */
+	public long getMisses() {
+		return this.misses.sum();
+	}
+	
+	/**
+	 * Returns the number of live entries replaced by new ones.
+	 * 
+	 * @return The number of evictions.
+	 */
+	public long getEvictions() {
+		return this.evictions.sum();
+	}
+	
+	/**
+	 * Returns the number of live entries. It scans the whole cache.
+	 * 
+	 * @return The number of entries.
+	 */
+	public int size() {
+		long now = System.nanoTime();
+		int size = 0;
+		for (int slot = 0; slot < getCapacity(); slot++) {
+			if (isLive(slot, now)) {
+				size++;
+			}
+		}
+		return size;
+	}
+	
+	/**
+	 * Removes all entries.
+	 */
+	public void clear() {
+		for (int position = 0; position < this.entries.capacity(); position += 8) {
+			this.entries.putLong(position, 0);
+		}
+		for (int slot = 0; slot < getCapacity(); slot++) {
+			this.references.put(slot, (byte)0);
+		}
+	}
+	
+	/**
+	 * State of the tag computation owned by each thread.
+	 */
+	private static final class Hasher {
+		
+		final SipHashMacSpi hash = new SipHashMacSpi();
+		
+		final long [] tag = new long[2];
+		
+		Hasher(byte [] key) {
+			this.hash.init(key);
+		}
+	}
+}
@@ -0,0 +1,348 @@
+/*
+ * BSD 3-Clause License
+ * 
+ * Copyright (c) 2019, Open Communications Security
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package br.com.opencs.util.dto.sign.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+
+import br.com.opencs.util.dto.sign.DTOSignerWarmup;
+import br.com.opencs.util.dto.sign.GeneratedExtractor;
+import br.com.opencs.util.dto.sign.SignedProperty;
+
+/**
+ * This class implements the annotation processor that generates the 
+ * extractors of the DTO classes at build time. It is optional and must be
+ * explicitly enabled in the compiler configuration.
+ * 
+ * <p>For each concrete class with at least one public method annotated with
+ * SignedProperty, including the inherited ones, it generates a subclass of
+ * GeneratedExtractor that reads the properties directly, without reflection.
+ * It also reports the methods that are not suitable to be signed as
+ * compilation errors, using the same rules applied by the runtime.</p>
+ * 
+ * <p>Classes that are not accessible from their own package (e.g. private
+ * nested classes) are skipped and will be handled by the reflective
+ * extractor at runtime.</p>
+ * 
+ * <p>The binary names of all DTO classes found, including the skipped ones,
+ * are written to the index DTOSignerWarmup.INDEX_RESOURCE, allowing them to
+ * be warmed up at startup.</p>
+ * 
+ * @author Fabio Jun Takada Chino
+ */
+@SupportedAnnotationTypes("*")
+public class SignedPropertyProcessor extends AbstractProcessor {
+	
+	private static final Comparator<Property> NAME_COMPARATOR = new Comparator<Property>() {
+		@Override
+		public int compare(Property p1, Property p2) {
+			int ret = p1.method.getSimpleName().toString().compareTo(p2.method.getSimpleName().toString());
+			if (ret == 0) {
+				ret = Boolean.compare(p1.bridge, p2.bridge);
+			}
+			if (ret == 0) {
+				ret = p1.type.toString().compareTo(p2.type.toString());
+			}
+			return ret;
+		}
+	};
+	
+	private final Set<String> indexedClasses = new TreeSet<String>();
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		
+		boolean valid = true;
+		for (Element e: roundEnv.getElementsAnnotatedWith(SignedProperty.class)) {
+			if (e.getKind() == ElementKind.METHOD) {
+				valid &= checkMethodSuitability((ExecutableElement)e);
+			}
+		}
+		if (valid) {
+			for (TypeElement type: ElementFilter.typesIn(roundEnv.getRootElements())) {
+				processType(type);
+			}
+		}
+		if (roundEnv.processingOver() && !this.indexedClasses.isEmpty()) {
+			writeIndex();
+		}
+		return false;
+	}
+	
+	private void writeIndex() {
+		try {
+			FileObject file = this.processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", 
+					DTOSignerWarmup.INDEX_RESOURCE);
+			try (Writer out = file.openWriter()) {
+				for (String name: this.indexedClasses) {
+					out.write(name);
+					out.write('\n');
+				}
+			}
+		} catch (IOException e) {
+			this.processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, String.format(
+					"Unable to write the index %1$s: %2$s", DTOSignerWarmup.INDEX_RESOURCE, e.getMessage()));
+		}
+	}
+	
+	private boolean checkMethodSuitability(ExecutableElement method) {
+		Messager messager = this.processingEnv.getMessager();
+		String className = this.processingEnv.getElementUtils().getBinaryName(
+				(TypeElement)method.getEnclosingElement()).toString();
+		
+		if (!method.getParameters().isEmpty()) {
+			messager.printMessage(Diagnostic.Kind.ERROR, String.format(
+					"The method %1$s.%2$s() cannot have parameters.", className, method.getSimpleName()), method);
+			return false;
+		}
+		if (method.getReturnType().getKind() == TypeKind.VOID) {
+			messager.printMessage(Diagnostic.Kind.ERROR, String.format(
+					"The method %1$s.%2$s() must have a return value.", className, method.getSimpleName()), method);
+			return false;
+		}
+		if (!method.getModifiers().contains(Modifier.PUBLIC)) {
+			messager.printMessage(Diagnostic.Kind.WARNING, String.format(
+					"The method %1$s.%2$s() is not public and will be ignored.", className, method.getSimpleName()), method);
+		}
+		return true;
+	}
+
+	private void processType(TypeElement type) {
+		
+		for (TypeElement nested: ElementFilter.typesIn(type.getEnclosedElements())) {
+			processType(nested);
+		}
+		if ((type.getKind() != ElementKind.CLASS) || type.getModifiers().contains(Modifier.ABSTRACT)) {
+			return;
+		}
+		List<Property> properties = findSignedProperties(type);
+		if (properties.isEmpty()) {
+			return;
+		}
+		this.indexedClasses.add(this.processingEnv.getElementUtils().getBinaryName(type).toString());
+		if (!isAccessible(type)) {
+			this.processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE, String.format(
+					"The class %1$s is not accessible from its package. No extractor was generated.", 
+					type.getQualifiedName()), type);
+			return;
+		}
+		try {
+			generate(type, properties);
+		} catch (IOException e) {
+			this.processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, String.format(
+					"Unable to generate the extractor of %1$s: %2$s", type.getQualifiedName(), e.getMessage()), type);
+		}
+	}
+	
+	/**
+	 * Finds all public methods annotated with SignedProperty, including the 
+	 * inherited ones, sorted in the canonical order.
+	 * 
+	 * <p>Class.getMethods() also returns the bridge methods generated by the
+	 * compiler when a method overrides another one with a distinct erased
+	 * return type, and they carry the annotations of the overriding method. 
+	 * Thus, as in the reflective extractor, each bridge method is an 
+	 * additional property with the return type of the overridden method.</p>
+	 * 
+	 * @param type The type.
+	 * @return The list of properties.
+	 */
+	private List<Property> findSignedProperties(TypeElement type) {
+		Types types = this.processingEnv.getTypeUtils();
+		List<Property> properties = new ArrayList<Property>();
+		
+		for (ExecutableElement m: ElementFilter.methodsIn(this.processingEnv.getElementUtils().getAllMembers(type))) {
+			if ((m.getAnnotation(SignedProperty.class) != null) && m.getModifiers().contains(Modifier.PUBLIC)) {
+				TypeMirror returnType = types.erasure(m.getReturnType());
+				properties.add(new Property(m, returnType, false));
+				if (!m.getModifiers().contains(Modifier.STATIC)) {
+					Set<String> bridges = new TreeSet<String>();
+					for (TypeMirror bridgeType: findOverriddenReturnTypes(type, m, type.asType(), 
+							new HashSet<String>())) {
+						if (!types.isSameType(returnType, bridgeType) && bridges.add(bridgeType.toString())) {
+							properties.add(new Property(m, bridgeType, true));
+						}
+					}
+				}
+			}
+		}
+		Collections.sort(properties, NAME_COMPARATOR);
+		return properties;
+	}
+	
+	/**
+	 * Finds the erased return types of the methods overridden by the given
+	 * method in all supertypes of the given type.
+	 * 
+	 * @param type The type that owns the method.
+	 * @param method The method.
+	 * @param current The supertype being visited.
+	 * @param visited The names of the supertypes already visited.
+	 * @return The erased return types.
+	 */
+	private List<TypeMirror> findOverriddenReturnTypes(TypeElement type, ExecutableElement method, 
+			TypeMirror current, Set<String> visited) {
+		Types types = this.processingEnv.getTypeUtils();
+		Elements elements = this.processingEnv.getElementUtils();
+		List<TypeMirror> ret = new ArrayList<TypeMirror>();
+		
+		for (TypeMirror superType: types.directSupertypes(current)) {
+			TypeElement superElement = (TypeElement)types.asElement(superType);
+			if ((superElement == null) || !visited.add(superElement.getQualifiedName().toString())) {
+				continue;
+			}
+			for (ExecutableElement m: ElementFilter.methodsIn(superElement.getEnclosedElements())) {
+				if (m.getSimpleName().equals(method.getSimpleName()) && m.getParameters().isEmpty() && 
+						elements.overrides(method, m, type)) {
+					ret.add(types.erasure(m.getReturnType()));
+				}
+			}
+			ret.addAll(findOverriddenReturnTypes(type, method, superType, visited));
+		}
+		return ret;
+	}
+	
+	private static boolean isAccessible(TypeElement type) {
+		Element e = type;
+		while (e.getKind().isClass() || e.getKind().isInterface()) {
+			if (e.getModifiers().contains(Modifier.PRIVATE)) {
+				return false;
+			}
+			e = e.getEnclosingElement();
+		}
+		return true;
+	}
+	
+	private void generate(TypeElement type, List<Property> properties) throws IOException {
+		Elements elements = this.processingEnv.getElementUtils();
+		String packageName = elements.getPackageOf(type).getQualifiedName().toString();
+		String binaryName = elements.getBinaryName(type).toString();
+		String simpleName = (packageName.isEmpty() ? binaryName : binaryName.substring(packageName.length() + 1)) 
+				+ GeneratedExtractor.SUFFIX;
+		String typeName = type.getQualifiedName().toString();
+		
+		JavaFileObject file = this.processingEnv.getFiler().createSourceFile(
+				packageName.isEmpty() ? simpleName : packageName + "." + simpleName, type);
+		try (Writer out = file.openWriter()) {
+			if (!packageName.isEmpty()) {
+				out.write("package " + packageName + ";\n\n");
+			}
+			out.write("/**\n");
+			out.write(" * Signed property extractor of " + typeName + ".\n");
+			out.write(" * Generated by " + SignedPropertyProcessor.class.getName() + ". Do not edit.\n");
+			out.write(" */\n");
+			out.write("@SuppressWarnings({\"rawtypes\", \"unchecked\"})\n");
+			out.write("public final class " + simpleName + " extends " + GeneratedExtractor.class.getName() + " {\n\n");
+			out.write("\tpublic " + simpleName + "() {\n");
+			out.write("\t\tsuper(" + typeName + ".class,\n");
+			out.write("\t\t\t\tnew String[] {");
+			for (int i = 0; i < properties.size(); i++) {
+				out.write((i > 0 ? ", \"" : "\"") + properties.get(i).method.getSimpleName() + "\"");
+			}
+			out.write("},\n");
+			out.write("\t\t\t\tnew Class<?>[] {");
+			for (int i = 0; i < properties.size(); i++) {
+				out.write((i > 0 ? ", " : "") + properties.get(i).type + ".class");
+			}
+			out.write("});\n");
+			out.write("\t}\n\n");
+			out.write("\t@Override\n");
+			out.write("\tpublic Object get(Object dto, int index) {\n");
+			out.write("\t\t" + typeName + " d = (" + typeName + ")dto;\n");
+			out.write("\t\tswitch (index) {\n");
+			int index = 0;
+			for (Property p: properties) {
+				ExecutableElement m = p.method;
+				String target = m.getModifiers().contains(Modifier.STATIC) ? typeName : "d";
+				out.write("\t\tcase " + index + ":\n");
+				out.write("\t\t\treturn " + target + "." + m.getSimpleName() + "();\n");
+				index++;
+			}
+			out.write("\t\tdefault:\n");
+			out.write("\t\t\tthrow new IndexOutOfBoundsException(String.valueOf(index));\n");
+			out.write("\t\t}\n");
+			out.write("\t}\n");
+			out.write("}\n");
+		}
+	}
+	
+	/**
+	 * A signed property. Bridge properties read the value of their method and
+	 * have the return type of the overridden method.
+	 */
+	private static final class Property {
+		
+		final ExecutableElement method;
+		
+		final TypeMirror type;
+		
+		final boolean bridge;
+		
+		Property(ExecutableElement method, TypeMirror type, boolean bridge) {
+			this.method = method;
+			this.type = type;
+			this.bridge = bridge;
+		}
+	}
+}
@@ -0,0 +1,261 @@
+/*
+ * BSD 3-Clause License
+ * 
+ * Copyright (c) 2019, Open Communications Security
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package br.com.opencs.util.dto.sign;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class AsyncDTOSignerTest {
+
+	@Test
+	public void testCreateSignature() throws Exception {
+		DTOSigner s = new DTOSigner(new byte[16]);
+		AsyncDTOSigner a = new AsyncDTOSigner(s);
+		assertSame(s, a.getSigner());
+		
+		Sample4 d = new Sample4();
+		d.setFixed("fixed");
+		d.setVariable("variable");
+		assertArrayEquals(s.createSignature(d), a.createSignature(d).get());
+	}
+
+	@Test
+	public void testSignAndCheck() throws Exception {
+		DTOSigner s = new DTOSigner(new byte[16], DTOSigner.DEFAULT_ALGORITHM, MacPoolStrategy.STRIPED, 
+				SignedPropertyExtractorManager.getDefaultRegistry());
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			AsyncDTOSigner a = new AsyncDTOSigner(s, executor, 8, 2);
+			List<SignedDTO<Sample4>> batch = new ArrayList<SignedDTO<Sample4>>();
+			List<CompletableFuture<SignedDTO<Sample4>>> futures = new ArrayList<CompletableFuture<SignedDTO<Sample4>>>();
+			for (int i = 0; i < 1000; i++) {
+				Sample4 d = new Sample4();
+				d.setFixed("fixed" + i);
+				d.setVariable("variable");
+				SignedDTO<Sample4> signed = new SignedDTO<Sample4>(d);
+				batch.add(signed);
+				futures.add(a.sign(signed));
+			}
+			for (int i = 0; i < batch.size(); i++) {
+				assertSame(batch.get(i), futures.get(i).get());
+				assertArrayEquals(s.createSignature(batch.get(i).get()), batch.get(i).getSignature());
+			}
+			
+			batch.get(10).get().setFixed("changed");
+			List<CompletableFuture<Boolean>> results = new ArrayList<CompletableFuture<Boolean>>();
+			for (SignedDTO<Sample4> signed: batch) {
+				results.add(a.checkSignature(signed));
+			}
+			for (int i = 0; i < results.size(); i++) {
+				assertEquals(i != 10, results.get(i).get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testBatch() throws Exception {
+		DTOSigner s = new DTOSigner(new byte[16]);
+		AsyncDTOSigner a = new AsyncDTOSigner(s);
+		
+		List<SignedDTO<Sample4>> batch = new ArrayList<SignedDTO<Sample4>>();
+		for (int i = 0; i < 100; i++) {
+			Sample4 d = new Sample4();
+			d.setFixed("fixed" + i);
+			batch.add(new SignedDTO<Sample4>(d));
+		}
+		assertNull(a.signAll(batch).get());
+		batch.get(5).get().setFixed("changed");
+		BitSet result = a.verifyAll(batch, false).get();
+		assertEquals(99, result.cardinality());
+		assertFalse(result.get(5));
+	}
+
+	@Test
+	public void testFailure() throws Exception {
+		DTOSigner s = new DTOSigner(new byte[16]);
+		AsyncDTOSigner a = new AsyncDTOSigner(s);
+		
+		try {
+			a.createSignature(new Sample2()).get();
+			fail();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof DTOSignerException);
+		}
+		
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		executor.shutdown();
+		a = new AsyncDTOSigner(s, executor);
+		try {
+			a.createSignature(new Sample4()).get();
+			fail();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof RejectedExecutionException);
+		}
+		
+		try {
+			new AsyncDTOSigner(s, executor, 0, 1);
+			fail();
+		} catch (IllegalArgumentException e) {}
+	}
+
+	@Test
+	public void testRejectedWhileDraining() throws Exception {
+		DTOSigner s = new DTOSigner(new byte[16]);
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger executions = new AtomicInteger();
+		// Runs the first task in a new thread and rejects all others
+		Executor executor = (task) -> {
+			if (executions.getAndIncrement() > 0) {
+				throw new RejectedExecutionException();
+			}
+			new Thread(() -> {
+				started.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				task.run();
+			}).start();
+		};
+		AsyncDTOSigner a = new AsyncDTOSigner(s, executor, 8, 2);
+		Sample4 d1 = new Sample4();
+		d1.setFixed("fixed1");
+		Sample4 d2 = new Sample4();
+		d2.setFixed("fixed2");
+		CompletableFuture<byte[]> f1 = a.createSignature(d1);
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+		CompletableFuture<byte[]> f2 = a.createSignature(d2);
+		assertFalse(f2.isDone());
+		release.countDown();
+		assertArrayEquals(s.createSignature(d1), f1.get(10, TimeUnit.SECONDS));
+		assertArrayEquals(s.createSignature(d2), f2.get(10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testMicroBatch() throws Exception {
+		SignedPropertyExtractorRegistry registry = new SignedPropertyExtractorRegistry();
+		AtomicInteger lookups = new AtomicInteger();
+		registry.setMetrics(new DTOSignerMetrics() {
+			@Override
+			public void signed(Class<?> dtoClass, long extractionNanos, long macNanos) {
+			}
+
+			@Override
+			public void verified(Class<?> dtoClass, long extractionNanos, long macNanos, 
+					VerificationFailure failure) {
+			}
+
+			@Override
+			public void extractorLookup(Class<?> dtoClass, boolean hit) {
+				lookups.incrementAndGet();
+			}
+		});
+		DTOSigner s = new DTOSigner(new byte[16], DTOSigner.DEFAULT_ALGORITHM, MacPoolStrategy.STRIPED, registry);
+		// Holds the drain task until all requests are queued
+		List<Runnable> tasks = new ArrayList<Runnable>();
+		AsyncDTOSigner a = new AsyncDTOSigner(s, tasks::add, 64, 1);
+		
+		List<SignedDTO<Sample4>> batch = new ArrayList<SignedDTO<Sample4>>();
+		List<CompletableFuture<SignedDTO<Sample4>>> signed = new ArrayList<CompletableFuture<SignedDTO<Sample4>>>();
+		for (int i = 0; i < 10; i++) {
+			Sample4 d = new Sample4();
+			d.setFixed("fixed" + i);
+			batch.add(new SignedDTO<Sample4>(d));
+			signed.add(a.sign(batch.get(i)));
+		}
+		CompletableFuture<SignedDTO<Sample2>> invalid = a.sign(new SignedDTO<Sample2>(new Sample2()));
+		CompletableFuture<SignedDTO<Sample4>> last = a.sign(batch.get(0));
+		List<CompletableFuture<Boolean>> checked = new ArrayList<CompletableFuture<Boolean>>();
+		for (SignedDTO<Sample4> item: batch) {
+			checked.add(a.checkSignature(item));
+		}
+		assertEquals(1, tasks.size());
+		tasks.remove(0).run();
+		assertTrue(tasks.isEmpty());
+		// The extractors are resolved once per class of each group
+		int resolved = lookups.get();
+		
+		// The failure of a request does not affect the others
+		for (int i = 0; i < batch.size(); i++) {
+			assertSame(batch.get(i), signed.get(i).get());
+			assertArrayEquals(s.createSignature(batch.get(i).get()), batch.get(i).getSignature());
+			assertTrue(checked.get(i).get());
+		}
+		assertSame(batch.get(0), last.get());
+		try {
+			invalid.get();
+			fail();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof DTOSignerException);
+		}
+		assertEquals(3, resolved);
+	}
+
+	@Test
+	public void testVirtualThreads() throws Exception {
+		if (AsyncDTOSigner.isVirtualThreadSupported()) {
+			ExecutorService executor = AsyncDTOSigner.newVirtualThreadExecutor();
+			try {
+				DTOSigner s = new DTOSigner(new byte[16], DTOSigner.DEFAULT_ALGORITHM, MacPoolStrategy.STRIPED, 
+						SignedPropertyExtractorManager.getDefaultRegistry());
+				Sample4 d = new Sample4();
+				d.setFixed("fixed");
+				assertArrayEquals(s.createSignature(d), new AsyncDTOSigner(s, executor).createSignature(d).get());
+			} finally {
+				executor.shutdown();
+			}
+		} else {
+			try {
+				AsyncDTOSigner.newVirtualThreadExecutor();
+				fail();
+			} catch (UnsupportedOperationException e) {}
+		}
+	}
+}
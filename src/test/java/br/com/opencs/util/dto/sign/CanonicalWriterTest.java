@@ -0,0 +1,328 @@
+/*
+ * BSD 3-Clause License
+ * 
+ * Copyright (c) 2019, Open Communications Security
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package br.com.opencs.util.dto.sign;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.Test;
+
+public class CanonicalWriterTest {
+
+	private static final String [] SAMPLES = {
+			"",
+			"ascii only",
+			"acentuação",
+			"日本語",
+			"pair 😀 pair",
+			"lone high \ud83d",
+			"\ude00 lone low",
+			"ends with high \ud83d",
+	};
+
+	private static byte [] reference(String s) {
+		ByteBuffer bin = CanonicalWriter.DEFAULT_CHARSET.encode(CharBuffer.wrap(s));
+		byte [] ret = new byte[bin.remaining()];
+		bin.get(ret);
+		return ret;
+	}
+
+	private static String repeat(String s, int count) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			sb.append(s);
+		}
+		return sb.toString();
+	}
+
+	private static byte [] write(String s) {
+		CanonicalWriter w = CanonicalWriter.acquire(null, 0);
+		try {
+			w.write(s);
+			assertEquals(w.size(), w.toByteArray().length);
+			return w.toByteArray();
+		} finally {
+			w.release();
+		}
+	}
+
+	@Test
+	public void testWrite() {
+		for (String s: SAMPLES) {
+			assertArrayEquals(s, reference(s), write(s));
+		}
+	}
+
+	@Test
+	public void testWriteLarge() {
+		for (String s: SAMPLES) {
+			// Crosses the boundaries of the internal buffers in all possible alignments
+			String large = repeat(s + "😀x", 1500);
+			assertArrayEquals(reference(large), write(large));
+		}
+		String ascii = repeat("0123456789", 10000);
+		assertArrayEquals(reference(ascii), write(ascii));
+	}
+
+	@Test
+	public void testEncodedLength() {
+		for (String s: SAMPLES) {
+			assertEquals(s, reference(s).length, CanonicalWriter.encodedLength(s));
+			String large = repeat(s + "😀x", 100);
+			assertEquals(reference(large).length, CanonicalWriter.encodedLength(large));
+		}
+	}
+
+	@Test
+	public void testWritePrimitives() throws Exception {
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(expected);
+		CanonicalWriter w = CanonicalWriter.acquire(null, 0);
+		try {
+			for (int i = 0; i < 100; i++) {
+				w.writeByte(i - 50);
+				out.writeByte(i - 50);
+				w.writeShort(i * -1000);
+				out.writeShort(i * -1000);
+				w.writeInt(i * 0x12345678);
+				out.writeInt(i * 0x12345678);
+				w.writeLong(i * 0x123456789ABCDEFL);
+				out.writeLong(i * 0x123456789ABCDEFL);
+				byte [] b = new byte[i * 7];
+				Arrays.fill(b, (byte)i);
+				w.writeBytes(b);
+				out.writeInt(b.length);
+				out.write(b);
+				String s = SAMPLES[i % SAMPLES.length];
+				w.writeString(s);
+				out.writeInt(reference(s).length);
+				out.write(reference(s));
+			}
+			assertArrayEquals(expected.toByteArray(), w.toByteArray());
+		} finally {
+			w.release();
+		}
+	}
+
+	@Test
+	public void testWriteASCII() {
+		CanonicalWriter w = CanonicalWriter.acquire(null, 0);
+		try {
+			for (int i = 0; i < 1000; i++) {
+				w.writeASCII((char)(i & 0x7F));
+			}
+			byte [] ret = w.toByteArray();
+			assertEquals(1000, ret.length);
+			for (int i = 0; i < 1000; i++) {
+				assertEquals(i & 0x7F, ret[i]);
+			}
+		} finally {
+			w.release();
+		}
+	}
+
+	@Test
+	public void testWriteMac() throws Exception {
+		Mac expected = Mac.getInstance("HmacSHA256");
+		expected.init(new SecretKeySpec(new byte[16], "HmacSHA256"));
+		Mac mac = Mac.getInstance("HmacSHA256");
+		mac.init(new SecretKeySpec(new byte[16], "HmacSHA256"));
+
+		// Each string is encoded separately, as done by the extractor, thus lone
+		// surrogates never merge with the next string.
+		ByteArrayOutputStream all = new ByteArrayOutputStream();
+		CanonicalWriter w = CanonicalWriter.acquire(mac, 0);
+		try {
+			for (int i = 0; i < 200; i++) {
+				String s = repeat(SAMPLES[i % SAMPLES.length], i);
+				all.write(reference(s));
+				w.write(s);
+			}
+			w.flush();
+			byte [] ref = all.toByteArray();
+			assertEquals(ref.length, w.size());
+			assertArrayEquals(expected.doFinal(ref), mac.doFinal());
+		} finally {
+			w.release();
+		}
+	}
+
+	@Test
+	public void testAcquireNested() {
+		CanonicalWriter w1 = CanonicalWriter.acquire(null, 0);
+		CanonicalWriter w2 = CanonicalWriter.acquire(null, 0);
+		assertNotSame(w1, w2);
+		w1.write("a");
+		w2.write("b");
+		assertArrayEquals(new byte[] {'a'}, w1.toByteArray());
+		assertArrayEquals(new byte[] {'b'}, w2.toByteArray());
+		w2.release();
+		w1.release();
+
+		CanonicalWriter w3 = CanonicalWriter.acquire(null, 0);
+		assertSame(w1, w3);
+		assertEquals(0, w3.size());
+		w3.release();
+	}
+
+	@Test
+	public void testSizeHint() {
+		CanonicalWriter w = CanonicalWriter.acquire(null, 100000);
+		try {
+			byte [] data = new byte[CanonicalWriter.MAX_BUFFER_SIZE];
+			Arrays.fill(data, (byte)'a');
+			w.write(new String(data));
+			assertEquals(data.length, w.size());
+		} finally {
+			w.release();
+		}
+	}
+
+	/**
+	 * Reference implementation of the chunked encoding of the streamed values.
+	 */
+	static byte [] referenceStream(byte [] value) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		DataOutputStream dOut = new DataOutputStream(out);
+		int offset = 0;
+		while (value.length - offset >= CanonicalWriter.STREAM_CHUNK_SIZE) {
+			dOut.writeInt(CanonicalWriter.STREAM_CHUNK_SIZE);
+			dOut.write(value, offset, CanonicalWriter.STREAM_CHUNK_SIZE);
+			offset += CanonicalWriter.STREAM_CHUNK_SIZE;
+		}
+		dOut.writeInt(value.length - offset);
+		dOut.write(value, offset, value.length - offset);
+		dOut.flush();
+		return out.toByteArray();
+	}
+	
+	private static byte [] random(int size) {
+		byte [] ret = new byte[size];
+		new java.util.Random(size).nextBytes(ret);
+		return ret;
+	}
+
+	private interface StreamWriter {
+		void write(CanonicalWriter w) throws IOException;
+	}
+	
+	private static byte [] writeStream(StreamWriter writer) throws IOException {
+		CanonicalWriter w = CanonicalWriter.acquire(null, 0);
+		try {
+			writer.write(w);
+			return w.toByteArray();
+		} finally {
+			w.release();
+		}
+	}
+
+	@Test
+	public void testWriteStreamBytes() throws Exception {
+		int chunk = CanonicalWriter.STREAM_CHUNK_SIZE;
+		int [] sizes = {0, 1, chunk - 1, chunk, chunk + 1, 3 * chunk + 17};
+		for (int size: sizes) {
+			byte [] data = random(size);
+			byte [] expected = referenceStream(data);
+			
+			assertArrayEquals(expected, writeStream(w -> w.writeStream(data)));
+			
+			byte [] padded = new byte[size + 10];
+			System.arraycopy(data, 0, padded, 5, size);
+			ByteBuffer heap = ByteBuffer.wrap(padded, 5, size).slice();
+			assertArrayEquals(expected, writeStream(w -> w.writeStream(heap)));
+			
+			ByteBuffer direct = ByteBuffer.allocateDirect(size + 3);
+			direct.position(3);
+			direct.put(data);
+			direct.position(3);
+			assertArrayEquals(expected, writeStream(w -> w.writeStream(direct)));
+			assertEquals(3, direct.position());
+			
+			// Short reads do not change the output
+			assertArrayEquals(expected, writeStream(w -> w.writeStream(new ByteArrayInputStream(data) {
+				@Override
+				public synchronized int read(byte[] b, int off, int len) {
+					return super.read(b, off, Math.min(len, 7));
+				}
+			})));
+		}
+	}
+
+	@Test
+	public void testWriteStreamChars() throws Exception {
+		for (String s: SAMPLES) {
+			assertArrayEquals(s, referenceStream(reference(s)), writeStream(w -> w.writeStream(s)));
+		}
+		// Encoded characters that cross the chunk boundaries
+		String [] large = {
+				repeat("a", CanonicalWriter.STREAM_CHUNK_SIZE * 2),
+				repeat("acentuação 日本語 😀 ", 2000),
+				"a" + repeat("😀", 5000),
+				repeat("ab", 3000) + "\ud83d" + repeat("日本語", 3000),
+		};
+		for (String s: large) {
+			byte [] expected = referenceStream(reference(s));
+			assertArrayEquals(expected, writeStream(w -> w.writeStream(s)));
+			assertArrayEquals(expected, writeStream(w -> w.writeStream(new StringBuilder(s))));
+		}
+	}
+
+	@Test
+	public void testWriteStreamMac() throws Exception {
+		byte [] data = random(CanonicalWriter.STREAM_CHUNK_SIZE * 20 + 5);
+		Mac mac = Mac.getInstance("HmacSHA256");
+		mac.init(new SecretKeySpec(new byte[32], "HmacSHA256"));
+		byte [] expected = mac.doFinal(referenceStream(data));
+		
+		CanonicalWriter w = CanonicalWriter.acquire(mac, 0);
+		try {
+			w.writeStream(new ByteArrayInputStream(data));
+			w.flush();
+			assertEquals(data.length + 21 * 4, w.size());
+			// The buffer of the writer is never larger than the maximum
+			assertTrue(w.getBuffer().length <= CanonicalWriter.MAX_BUFFER_SIZE);
+		} finally {
+			w.release();
+		}
+		assertArrayEquals(expected, mac.doFinal());
+	}
+}
@@ -33,7 +33,18 @@ package br.com.opencs.util.dto.sign;
 
 import static org.junit.Assert.*;
 
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
 
 import org.junit.Test;
 
@@ -101,4 +112,419 @@ public class DTOSignerTest {
 		d.setFixed("");
 		assertFalse(s.checkSignature(signed));		
 	}
+
+	@Test
+	public void testCheckSignatureBuffer() throws Exception {
+		DTOSigner s = new DTOSigner(new byte[16]);
+		
+		Sample4 d = new Sample4();
+		d.setFixed("fixed");
+		byte [] sig = s.createSignature(d);
+
+		byte [] buff = new byte[sig.length + 10];
+		System.arraycopy(sig, 0, buff, 5, sig.length);
+		assertTrue(s.checkSignature(d, buff, 5, sig.length));
+		assertFalse(s.checkSignature(d, buff, 4, sig.length));
+		assertFalse(s.checkSignature(d, buff, 5, sig.length - 1));
+		assertFalse(s.checkSignature(d, buff, 5, sig.length + 1));
+
+		ByteBuffer heap = ByteBuffer.wrap(buff, 5, sig.length).slice();
+		assertTrue(s.checkSignature(d, heap));
+		assertEquals(0, heap.position());
+		ByteBuffer direct = ByteBuffer.allocateDirect(sig.length + 3);
+		direct.position(3);
+		direct.put(sig);
+		direct.position(3);
+		assertTrue(s.checkSignature(d, direct));
+		assertEquals(3, direct.position());
+		direct.put(10, (byte)(direct.get(10) ^ 1));
+		assertFalse(s.checkSignature(d, direct));
+		direct.limit(direct.limit() - 1);
+		assertFalse(s.checkSignature(d, direct));
+
+		d.setFixed("changed");
+		assertFalse(s.checkSignature(d, buff, 5, sig.length));
+		assertFalse(s.checkSignature(d, heap));
+	}
+
+	@Test
+	public void testCheckSignatureWrongLength() throws Exception {
+		DTOSigner s = new DTOSigner(new byte[16]);
+		
+		// The DTO is never extracted, otherwise the getter would fail
+		assertFalse(s.checkSignature(new PropertyAccessorTest.Failing(), new byte[16], 0, 16));
+		assertFalse(s.checkSignature(new PropertyAccessorTest.Failing(), ByteBuffer.allocate(33)));
+		try {
+			s.checkSignature(new PropertyAccessorTest.Failing(), new byte[32], 0, 32);
+			fail();
+		} catch (DTOSignerException e) {
+		}
+	}
+
+	@Test
+	public void testMacPoolStrategies() throws Exception {
+		Sample4 d = new Sample4();
+		d.setFixed("fixed");
+		d.setAnotherFixed(1234);
+
+		byte [] sig = new DTOSigner(new byte[16]).createSignature(d);
+		for (MacPoolStrategy strategy: MacPoolStrategy.values()) {
+			DTOSigner s = new DTOSigner(new byte[16], DTOSigner.DEFAULT_ALGORITHM, strategy);
+			assertEquals(strategy, s.getMacPool().getStrategy());
+			for (int i = 0; i < 3; i++) {
+				assertArrayEquals(sig, s.createSignature(d));
+			}
+			assertEquals(3, s.getMacPool().getHits() + s.getMacPool().getMisses());
+		}
+	}
+
+	@Test
+	public void testExtractorRegistry() throws Exception {
+		DTOSigner s1 = new DTOSigner(new byte[16]);
+		assertSame(SignedPropertyExtractorManager.getDefaultRegistry(), s1.getExtractorRegistry());
+
+		SignedPropertyExtractorRegistry r = new SignedPropertyExtractorRegistry();
+		DTOSigner s2 = new DTOSigner(new byte[16], DTOSigner.DEFAULT_ALGORITHM, MacPoolStrategy.STRIPED, r);
+		assertSame(r, s2.getExtractorRegistry());
+
+		Sample4 d = new Sample4();
+		d.setFixed("fixed");
+		assertArrayEquals(s1.createSignature(d), s2.createSignature(d));
+		assertEquals(1, r.size());
+	}
+
+	@Test
+	public void testBinaryFormat() throws Exception {
+		DTOSigner text = new DTOSigner(new byte[16]);
+		assertSame(CanonicalFormat.TEXT, text.getFormat());
+		DTOSigner binary = new DTOSigner(new byte[16], DTOSigner.DEFAULT_ALGORITHM, MacPoolStrategy.STRIPED, 
+				new SignedPropertyExtractorRegistry(), CanonicalFormat.BINARY);
+		assertSame(CanonicalFormat.BINARY, binary.getFormat());
+
+		Sample1 d = new Sample1();
+		d.setI(10);
+		d.setS("test");
+		SignedDTO<Sample1> signed = new SignedDTO<Sample1>(d);
+		binary.sign(signed);
+		assertTrue(binary.checkSignature(signed));
+		assertFalse(text.checkSignature(signed));
+		assertTrue(binary.checkSignature(d, ByteBuffer.wrap(signed.getSignature())));
+
+		Mac mac = Mac.getInstance(DTOSigner.DEFAULT_ALGORITHM);
+		mac.init(new SecretKeySpec(new byte[16], DTOSigner.DEFAULT_ALGORITHM));
+		assertArrayEquals(mac.doFinal(new SignedPropertyExtractor(Sample1.class).extract(d, CanonicalFormat.BINARY)), 
+				signed.getSignature());
+
+		d.setI(11);
+		assertFalse(binary.checkSignature(signed));
+
+		List<SignedDTO<?>> batch = createBatch(500);
+		binary.signAll(batch);
+		assertEquals(500, binary.verifyAll(batch).cardinality());
+		assertEquals(0, text.verifyAll(batch).cardinality());
+	}
+
+	@Test
+	public void testDigestTreeFormat() throws Exception {
+		DTOSigner s = new DTOSigner(new byte[16], DTOSigner.DEFAULT_ALGORITHM, MacPoolStrategy.STRIPED, 
+				new SignedPropertyExtractorRegistry(), CanonicalFormat.DIGEST_TREE);
+
+		Sample1 d = new Sample1();
+		d.setS("test");
+		SignedDTO<Sample1> signed = new SignedDTO<Sample1>(d);
+		s.sign(signed);
+		assertNotNull(signed.getDigestTree());
+		assertArrayEquals(s.createSignature(d), signed.getSignature());
+		assertTrue(s.checkSignature(signed));
+
+		// Incremental signature with automatic detection
+		d.setI(10);
+		assertFalse(s.checkSignature(signed));
+		s.sign(signed);
+		assertArrayEquals(s.createSignature(d), signed.getSignature());
+		assertTrue(s.checkSignature(signed));
+
+		// Incremental signature with explicit properties
+		d.setL(20);
+		d.setS("changed");
+		s.sign(signed, "getL", "getS");
+		assertArrayEquals(s.createSignature(d), signed.getSignature());
+		assertTrue(s.checkSignature(signed));
+		
+		// Incremental signatures are reported to the metrics
+		CountingMetrics metrics = new CountingMetrics();
+		s.setMetrics(metrics);
+		s.sign(signed);
+		s.sign(signed, "getI");
+		assertEquals(2, metrics.signed.get());
+		s.setMetrics(null);
+
+		// Other formats always sign the whole DTO
+		DTOSigner text = new DTOSigner(new byte[16]);
+		SignedDTO<Sample1> signed2 = new SignedDTO<Sample1>(d);
+		text.sign(signed2, "getI");
+		assertNull(signed2.getDigestTree());
+		assertTrue(text.checkSignature(signed2));
+	}
+
+	@ImmutableDTO
+	public static final class Immutable {
+		private final String value;
+		
+		public Immutable(String value) {
+			this.value = value;
+		}
+		
+		@SignedProperty
+		public String getValue() {
+			return value;
+		}
+	}
+
+	@ImmutableDTO
+	public static class ImmutableBase {
+		private final String value;
+		
+		public ImmutableBase(String value) {
+			this.value = value;
+		}
+		
+		@SignedProperty
+		public String getValue() {
+			return value;
+		}
+	}
+	
+	public static class MutableChild extends ImmutableBase {
+		public MutableChild(String value) {
+			super(value);
+		}
+	}
+
+	@Test
+	public void testSignatureCacheSubclass() throws Exception {
+		DTOSigner s = new DTOSigner(new byte[16]);
+		SignatureCache c = s.getSignatureCache();
+		
+		// The subclass is signed by the extractor of its superclass but it is 
+		// not immutable
+		MutableChild child = new MutableChild("value");
+		assertArrayEquals(s.createSignature(new ImmutableBase("value")), s.createSignature(child));
+		assertEquals(1, c.getMisses());
+		s.createSignature(child);
+		SignedDTO<MutableChild> signed = new SignedDTO<MutableChild>(child);
+		s.sign(signed);
+		assertTrue(s.checkSignature(signed));
+		assertEquals(1, c.getMisses());
+		assertEquals(0, c.getHits());
+	}
+
+	@Test
+	public void testSignatureCache() throws Exception {
+		DTOSigner s = new DTOSigner(new byte[16]);
+		SignatureCache c = s.getSignatureCache();
+		assertNotNull(c);
+
+		// Mutable DTOs are never cached
+		s.createSignature(new Sample1());
+		assertEquals(0, c.getHits() + c.getMisses());
+
+		Immutable d = new Immutable("value");
+		byte [] signature = s.createSignature(d);
+		assertEquals(1, c.getMisses());
+		assertArrayEquals(signature, s.createSignature(d));
+		assertEquals(1, c.getHits());
+		// The returned signatures are copies
+		signature[0]++;
+		assertFalse(s.checkSignature(d, signature, 0, signature.length));
+		signature[0]--;
+		assertTrue(s.checkSignature(d, signature, 0, signature.length));
+		assertTrue(s.checkSignature(d, (ByteBuffer) ByteBuffer.allocateDirect(signature.length).put(signature).flip()));
+		assertEquals(4, c.getHits());
+
+		// A verification also populates the cache
+		Immutable d2 = new Immutable("value");
+		assertTrue(s.checkSignature(d2, signature, 0, signature.length));
+		assertTrue(s.checkSignature(d2, signature, 0, signature.length));
+		assertEquals(5, c.getHits());
+		assertEquals(2, c.size());
+		
+		// Also through a direct buffer, with and without the verified signature cache
+		ByteBuffer direct = ByteBuffer.allocateDirect(signature.length);
+		direct.put(signature);
+		((Buffer)direct).flip();
+		Immutable d3 = new Immutable("value");
+		assertTrue(s.checkSignature(d3, direct));
+		assertTrue(s.checkSignature(d3, direct));
+		assertEquals(0, direct.position());
+		assertEquals(6, c.getHits());
+		s.setVerifiedSignatureCache(new VerifiedSignatureCache(16, 1, TimeUnit.MINUTES));
+		Immutable d4 = new Immutable("value");
+		assertTrue(s.checkSignature(d4, direct));
+		assertTrue(s.checkSignature(d4, direct));
+		assertEquals(7, c.getHits());
+		assertEquals(4, c.size());
+
+		DTOSigner noCache = new DTOSigner(new byte[16], DTOSigner.DEFAULT_ALGORITHM, MacPoolStrategy.STRIPED, 
+				new SignedPropertyExtractorRegistry(), CanonicalFormat.TEXT, null);
+		assertNull(noCache.getSignatureCache());
+		assertArrayEquals(signature, noCache.createSignature(d));
+	}
+
+	private static List<SignedDTO<?>> createBatch(int size) {
+		List<SignedDTO<?>> batch = new ArrayList<SignedDTO<?>>();
+		for (int i = 0; i < size; i++) {
+			if (i % 2 == 0) {
+				Sample1 d = new Sample1();
+				d.setI(i);
+				d.setS("item " + i);
+				batch.add(new SignedDTO<Sample1>(d));
+			} else {
+				Sample4 d = new Sample4();
+				d.setFixed("item " + i);
+				d.setAnotherFixed(i);
+				batch.add(new SignedDTO<Sample4>(d));
+			}
+		}
+		return batch;
+	}
+
+	@Test
+	public void testSignAll() throws Exception {
+		DTOSigner s = new DTOSigner(new byte[16]);
+
+		for (int size: new int[] {0, 1, 10, 5000}) {
+			List<SignedDTO<?>> batch = createBatch(size);
+			s.signAll(batch);
+			for (SignedDTO<?> signed: batch) {
+				assertArrayEquals(s.createSignature(signed.get()), signed.getSignature());
+			}
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(3);
+		try {
+			List<SignedDTO<?>> batch = createBatch(1000);
+			s.signAll(batch, pool);
+			for (SignedDTO<?> signed: batch) {
+				assertTrue(s.checkSignature(signed));
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test(expected = DTOSignerException.class)
+	public void testSignAllFailed() throws Exception {
+		DTOSigner s = new DTOSigner(new byte[16]);
+
+		List<SignedDTO<?>> batch = createBatch(5000);
+		batch.add(new SignedDTO<Sample2>(new Sample2()));
+		s.signAll(batch);
+	}
+
+	@Test
+	public void testVerifyAll() throws Exception {
+		DTOSigner s = new DTOSigner(new byte[16]);
+
+		List<SignedDTO<?>> batch = createBatch(5000);
+		s.signAll(batch);
+		BitSet result = s.verifyAll(batch);
+		assertEquals(5000, result.cardinality());
+
+		((Sample1)batch.get(10).get()).setI(-1);
+		((Sample4)batch.get(4001).get()).setFixed("changed");
+		batch.get(4999).setSignature(null);
+		result = s.verifyAll(batch);
+		assertEquals(4997, result.cardinality());
+		assertFalse(result.get(10));
+		assertFalse(result.get(4001));
+		assertFalse(result.get(4999));
+
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			result = s.verifyAll(batch, pool, false);
+			assertEquals(4997, result.cardinality());
+
+			result = s.verifyAll(batch, pool, true);
+			assertFalse(result.get(10));
+			assertTrue(result.cardinality() < 5000);
+
+			result = s.verifyAll(createBatch(10), pool, true);
+			assertEquals(0, result.cardinality());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Metrics that count the reported operations.
+	 */
+	static final class CountingMetrics implements DTOSignerMetrics {
+		
+		final AtomicInteger signed = new AtomicInteger();
+		
+		final AtomicInteger verified = new AtomicInteger();
+		
+		final AtomicInteger missing = new AtomicInteger();
+
+		@Override
+		public void signed(Class<?> dtoClass, long extractionNanos, long macNanos) {
+			this.signed.incrementAndGet();
+		}
+
+		@Override
+		public void verified(Class<?> dtoClass, long extractionNanos, long macNanos, 
+				VerificationFailure failure) {
+			this.verified.incrementAndGet();
+			if (failure == VerificationFailure.MISSING_SIGNATURE) {
+				this.missing.incrementAndGet();
+			}
+		}
+
+		@Override
+		public void extractorLookup(Class<?> dtoClass, boolean hit) {
+		}
+	}
+
+	@Test
+	public void testBatchAsSingle() throws Exception {
+		DTOSigner s = new DTOSigner(new byte[16]);
+		CountingMetrics metrics = new CountingMetrics();
+		s.setMetrics(metrics);
+		
+		List<SignedDTO<?>> batch = createBatch(1000);
+		s.signAll(batch);
+		assertEquals(1000, metrics.signed.get());
+		batch.get(3).setSignature(null);
+		assertEquals(999, s.verifyAll(batch).cardinality());
+		assertEquals(1000, metrics.verified.get());
+		assertEquals(1, metrics.missing.get());
+		
+		// Immutable DTOs are memoized
+		SignatureCache c = s.getSignatureCache();
+		List<SignedDTO<?>> immutables = new ArrayList<SignedDTO<?>>();
+		for (int i = 0; i < 100; i++) {
+			immutables.add(new SignedDTO<Immutable>(new Immutable("value" + i)));
+		}
+		s.signAll(immutables);
+		assertEquals(100, c.size());
+		assertEquals(100, s.verifyAll(immutables).cardinality());
+		assertEquals(100, c.getHits());
+		
+		// Verified signatures are remembered
+		VerifiedSignatureCache verified = new VerifiedSignatureCache(1024, 1, TimeUnit.MINUTES);
+		s.setVerifiedSignatureCache(verified);
+		assertEquals(999, s.verifyAll(batch).cardinality());
+		assertTrue(verified.size() > 0);
+		
+		// The trees of property digests are attached
+		DTOSigner tree = new DTOSigner(new byte[16], DTOSigner.DEFAULT_ALGORITHM, MacPoolStrategy.STRIPED, 
+				new SignedPropertyExtractorRegistry(), CanonicalFormat.DIGEST_TREE);
+		batch = createBatch(1000);
+		tree.signAll(batch);
+		for (SignedDTO<?> signed: batch) {
+			assertNotNull(signed.getDigestTree());
+			assertArrayEquals(tree.createSignature(signed.get()), signed.getSignature());
+		}
+	}
 }
@@ -0,0 +1,102 @@
+/*
+ * BSD 3-Clause License
+ * 
+ * Copyright (c) 2019, Open Communications Security
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package br.com.opencs.util.dto.sign;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class DTOSignerWarmupTest {
+
+	@Test
+	public void testRun() throws Exception {
+		SignedPropertyExtractorRegistry registry = new SignedPropertyExtractorRegistry();
+		DTOSigner s = new DTOSigner(new byte[16], DTOSigner.DEFAULT_ALGORITHM, MacPoolStrategy.STRIPED, registry);
+		DTOSignerWarmup.Report report = new DTOSignerWarmup(s)
+				.addClasses(Sample1.class, Sample4.class, Sample2.class)
+				.setIterations(100)
+				.run();
+		assertEquals(3, report.getClassCount());
+		assertEquals(1, report.getExercisedCount());
+		assertEquals(1, report.getFailures().size());
+		assertTrue(report.getFailures().get(Sample2.class.getName()) instanceof DTOSignerException);
+		assertEquals(2, registry.size());
+		assertTrue(s.getMacPool().getMisses() >= Runtime.getRuntime().availableProcessors());
+		assertTrue(report.getTotalNanos() > 0);
+		assertTrue(report.getExtractorNanos() > 0);
+		assertTrue(report.getJitNanos() > 0);
+		assertTrue(report.toString().startsWith("DTOSigner warm-up: 3 classes (1 exercised, 1 failed)"));
+		
+		try {
+			new DTOSignerWarmup(s).setIterations(-1);
+			fail();
+		} catch (IllegalArgumentException e) {}
+	}
+
+	@Test
+	public void testIndex() throws Exception {
+		File dir = Files.createTempDirectory("warmup").toFile();
+		File index = new File(dir, DTOSignerWarmup.INDEX_RESOURCE);
+		index.getParentFile().mkdirs();
+		Files.write(index.toPath(), Arrays.asList("# Comment", Sample4.class.getName(), "", "test.Unknown"), 
+				StandardCharsets.UTF_8);
+		try (URLClassLoader loader = new URLClassLoader(new URL[] {dir.toURI().toURL()}, getClass().getClassLoader())) {
+			DTOSignerWarmup.Report report = new DTOSignerWarmup(new DTOSigner(new byte[16]))
+					.addIndex(loader)
+					.setIterations(0)
+					.run();
+			assertEquals(1, report.getClassCount());
+			assertEquals(0, report.getExercisedCount());
+			assertTrue(report.getFailures().get("test.Unknown") instanceof ClassNotFoundException);
+		} finally {
+			index.delete();
+		}
+	}
+	
+	@Test(expected = DTOSignerException.class)
+	public void testIndexError() throws Exception {
+		new DTOSignerWarmup(new DTOSigner(new byte[16])).addIndex(new ClassLoader() {
+			@Override
+			public java.util.Enumeration<URL> getResources(String name) throws IOException {
+				throw new IOException("error");
+			}
+		});
+	}
+}
@@ -0,0 +1,192 @@
+/*
+ * BSD 3-Clause License
+ * 
+ * Copyright (c) 2019, Open Communications Security
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package br.com.opencs.util.dto.sign;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class DetachedSignedDTOTest {
+	
+	private static Sample1 createSample() {
+		Sample1 d = new Sample1();
+		d.setB(true);
+		d.setI(1234);
+		d.setL(-5678);
+		d.setS("value");
+		d.setX((short)9);
+		return d;
+	}
+
+	@Test
+	public void testDetach() throws Exception {
+		for (CanonicalFormat format: CanonicalFormat.values()) {
+			DTOSigner s = new DTOSigner(new byte[32], DTOSigner.DEFAULT_ALGORITHM, 
+					DTOSigner.DEFAULT_MAC_POOL_STRATEGY, SignedPropertyExtractorManager.getDefaultRegistry(), 
+					format);
+			Sample1 d = createSample();
+			DetachedSignedDTO detached = s.detach(d);
+			assertSame(format, detached.getFormat());
+			assertArrayEquals(s.createSignature(d), detached.getSignature());
+			assertArrayEquals(SignedPropertyExtractorManager.getDefaultRegistry().getExtractor(Sample1.class)
+					.extract(d, format), detached.getCanonicalForm());
+			assertTrue(s.checkSignature(detached));
+			assertTrue(s.matches(detached, d));
+			assertTrue(s.matches(detached, createSample()));
+			
+			d.setI(4321);
+			assertFalse(s.matches(detached, d));
+			assertTrue(s.checkSignature(detached));
+		}
+	}
+
+	@Test
+	public void testCheckSignature() throws Exception {
+		DTOSigner s = new DTOSigner(new byte[32]);
+		DetachedSignedDTO detached = s.detach(createSample());
+		
+		byte [] canonical = detached.getCanonicalForm().clone();
+		canonical[0] ^= 1;
+		assertFalse(s.checkSignature(new DetachedSignedDTO(detached.getFormat(), canonical, 
+				detached.getSignature())));
+		
+		byte [] signature = detached.getSignature().clone();
+		signature[signature.length - 1] ^= 1;
+		assertFalse(s.checkSignature(new DetachedSignedDTO(detached.getFormat(), 
+				detached.getCanonicalForm(), signature)));
+		assertFalse(s.checkSignature(new DetachedSignedDTO(detached.getFormat(), 
+				detached.getCanonicalForm(), new byte[3])));
+		
+		// Other format
+		DetachedSignedDTO other = new DetachedSignedDTO(CanonicalFormat.BINARY, detached.getCanonicalForm(), 
+				detached.getSignature());
+		assertFalse(s.checkSignature(other));
+		assertFalse(s.matches(other, createSample()));
+		
+		// Other key
+		byte [] key = new byte[32];
+		key[0] = 1;
+		assertFalse(new DTOSigner(key).checkSignature(detached));
+	}
+
+	@Test
+	public void testVerifiedCache() throws Exception {
+		DTOSigner s = new DTOSigner(new byte[32]);
+		VerifiedSignatureCache cache = new VerifiedSignatureCache(1024, 1, TimeUnit.MINUTES);
+		s.setVerifiedSignatureCache(cache);
+		DetachedSignedDTO detached = s.detach(createSample());
+		
+		assertTrue(s.checkSignature(detached));
+		assertEquals(1, cache.getMisses());
+		assertTrue(s.checkSignature(detached));
+		assertEquals(1, cache.getHits());
+		// The same canonical form and signature of a DTO
+		assertTrue(s.checkSignature(createSample(), detached.getSignature(), 0, detached.getSignature().length));
+		assertEquals(2, cache.getHits());
+		
+		byte [] signature = detached.getSignature().clone();
+		signature[0] ^= 1;
+		assertFalse(s.checkSignature(new DetachedSignedDTO(detached.getFormat(), 
+				detached.getCanonicalForm(), signature)));
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void testEncode() throws Exception {
+		DTOSigner s = new DTOSigner(new byte[32], DTOSigner.DEFAULT_ALGORITHM, 
+				DTOSigner.DEFAULT_MAC_POOL_STRATEGY, SignedPropertyExtractorManager.getDefaultRegistry(), 
+				CanonicalFormat.BINARY);
+		DetachedSignedDTO detached = s.detach(createSample());
+		byte [] encoded = detached.encode();
+		assertEquals(detached.getEncodedLength(), encoded.length);
+		assertEquals(DetachedSignedDTO.VERSION, encoded[0]);
+		assertEquals(CanonicalFormat.BINARY.getVersion(), encoded[1]);
+		assertEquals(32, encoded[2]);
+		
+		DetachedSignedDTO decoded = DetachedSignedDTO.decode(encoded);
+		assertSame(CanonicalFormat.BINARY, decoded.getFormat());
+		assertArrayEquals(detached.getCanonicalForm(), decoded.getCanonicalForm());
+		assertArrayEquals(detached.getSignature(), decoded.getSignature());
+		assertTrue(s.checkSignature(decoded));
+		
+		ByteBuffer buffer = ByteBuffer.allocate(encoded.length * 2 + 1);
+		buffer.put((byte)0);
+		detached.encode(buffer);
+		detached.encode(buffer);
+		assertEquals(buffer.capacity(), buffer.position());
+		buffer.flip();
+		buffer.get();
+		assertTrue(s.checkSignature(DetachedSignedDTO.decode(buffer)));
+		assertTrue(s.checkSignature(DetachedSignedDTO.decode(buffer)));
+		assertFalse(buffer.hasRemaining());
+		
+		try {
+			detached.encode(ByteBuffer.allocate(encoded.length - 1));
+			fail();
+		} catch (java.nio.BufferOverflowException e) {}
+	}
+
+	@Test
+	public void testDecodeInvalid() throws Exception {
+		DetachedSignedDTO detached = new DTOSigner(new byte[32]).detach(createSample());
+		byte [] encoded = detached.encode();
+		for (int length = 0; length < encoded.length; length++) {
+			ByteBuffer buffer = ByteBuffer.wrap(encoded, 0, length);
+			try {
+				DetachedSignedDTO.decode(buffer);
+				fail();
+			} catch (DTOSignerException e) {
+				assertEquals(0, buffer.position());
+			}
+		}
+		byte [] invalid = encoded.clone();
+		invalid[0] = 2;
+		try {
+			DetachedSignedDTO.decode(invalid);
+			fail();
+		} catch (DTOSignerException e) {}
+		invalid = encoded.clone();
+		invalid[1] = 99;
+		try {
+			DetachedSignedDTO.decode(invalid);
+			fail();
+		} catch (DTOSignerException e) {}
+		
+		try {
+			new DetachedSignedDTO(CanonicalFormat.TEXT, new byte[0], new byte[256]);
+			fail();
+		} catch (IllegalArgumentException e) {}
+	}
+}
@@ -0,0 +1,128 @@
+/*
+ * BSD 3-Clause License
+ * 
+ * Copyright (c) 2019, Open Communications Security
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package br.com.opencs.util.dto.sign;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Constructor;
+import java.math.BigDecimal;
+
+import org.junit.Test;
+
+import br.com.opencs.util.dto.sign.processor.ProcessorTestCompiler;
+import br.com.opencs.util.dto.sign.processor.SignedPropertyProcessorTest;
+
+public class GeneratedExtractorTest {
+
+	@Test
+	public void testFind() throws Exception {
+		assertNull(GeneratedExtractor.find(Sample1.class));
+		assertNull(GeneratedExtractor.find(String.class));
+
+		ProcessorTestCompiler c = new ProcessorTestCompiler()
+				.add("test.dto.Order", SignedPropertyProcessorTest.ORDER);
+		assertTrue(c.compile());
+		Class<?> orderClass = c.createClassLoader().loadClass("test.dto.Order");
+		GeneratedExtractor g = GeneratedExtractor.find(orderClass);
+		assertNotNull(g);
+		assertSame(orderClass, g.getDTOClass());
+	}
+
+	@Test
+	public void testExtract() throws Exception {
+		ProcessorTestCompiler c = new ProcessorTestCompiler()
+				.add("test.dto.Order", SignedPropertyProcessorTest.ORDER)
+				.add("test.dto.SpecialOrder", SignedPropertyProcessorTest.SPECIAL_ORDER);
+		assertTrue(c.compile());
+		ClassLoader loader = c.createClassLoader();
+
+		for (String name: new String[] {"test.dto.Order", "test.dto.SpecialOrder"}) {
+			Class<?> dtoClass = loader.loadClass(name);
+			Constructor<?> constructor = dtoClass.getDeclaredConstructor();
+			constructor.setAccessible(true);
+			Object dto = constructor.newInstance();
+
+			SignedPropertyExtractor generated = SignedPropertyExtractor.create(dtoClass);
+			SignedPropertyExtractor reflective = new SignedPropertyExtractor(dtoClass);
+			for (PropertyAccessor a: generated.getAccessors()) {
+				assertFalse(a.isReflective());
+			}
+			assertArrayEquals(reflective.extract(dto), generated.extract(dto));
+
+			dtoClass.getMethod("setId", int.class).invoke(dto, 1234);
+			dtoClass.getMethod("setName", String.class).invoke(dto, "Ação");
+			dtoClass.getMethod("setTotal", BigDecimal.class).invoke(dto, new BigDecimal("12.34"));
+			assertArrayEquals(reflective.extract(dto), generated.extract(dto));
+			assertArrayEquals(reflective.extract(dto, CanonicalFormat.BINARY), 
+					generated.extract(dto, CanonicalFormat.BINARY));
+			for (int i = 0; i < generated.getAccessors().length; i++) {
+				assertSame(reflective.getAccessors()[i].getType(), generated.getAccessors()[i].getType());
+			}
+		}
+	}
+
+	@Test
+	public void testBridgeMethods() throws Exception {
+		ProcessorTestCompiler c = new ProcessorTestCompiler()
+				.add("test.dto.Covariant", SignedPropertyProcessorTest.COVARIANT);
+		assertTrue(c.compile());
+		ClassLoader loader = c.createClassLoader();
+		
+		for (String name: new String[] {"test.dto.Covariant$Base", "test.dto.Covariant$Middle", 
+				"test.dto.Covariant$Sub"}) {
+			Class<?> dtoClass = loader.loadClass(name);
+			Object dto = dtoClass.getConstructor().newInstance();
+			SignedPropertyExtractor generated = SignedPropertyExtractor.create(dtoClass);
+			SignedPropertyExtractor reflective = new SignedPropertyExtractor(dtoClass);
+			assertFalse(generated.getAccessors()[0].isReflective());
+			assertEquals(reflective.getAccessors().length, generated.getAccessors().length);
+			for (int i = 0; i < generated.getAccessors().length; i++) {
+				assertSame(reflective.getAccessors()[i].getType(), generated.getAccessors()[i].getType());
+			}
+			for (CanonicalFormat format: CanonicalFormat.values()) {
+				assertArrayEquals(reflective.extract(dto, format), generated.extract(dto, format));
+			}
+		}
+		
+		// getItem() and its bridge, getValue() and its bridges to Number and Object
+		Class<?> subClass = loader.loadClass("test.dto.Covariant$Sub");
+		SignedPropertyExtractor generated = SignedPropertyExtractor.create(subClass);
+		assertEquals(5, generated.getAccessors().length);
+		assertSame(String.class, generated.getAccessors()[0].getType());
+		assertSame(Object.class, generated.getAccessors()[1].getType());
+		assertSame(Integer.class, generated.getAccessors()[2].getType());
+		assertSame(Number.class, generated.getAccessors()[3].getType());
+		assertSame(Object.class, generated.getAccessors()[4].getType());
+		Object dto = subClass.getConstructor().newInstance();
+		assertArrayEquals("sub\u0001sub\u00012\u00012\u00012\u0001".getBytes("UTF-8"), generated.extract(dto));
+	}
+}
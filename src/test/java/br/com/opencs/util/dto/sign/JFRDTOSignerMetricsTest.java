@@ -0,0 +1,161 @@
+/*
+ * BSD 3-Clause License
+ * 
+ * Copyright (c) 2019, Open Communications Security
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package br.com.opencs.util.dto.sign;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.Test;
+
+public class JFRDTOSignerMetricsTest {
+	
+	private static List<RecordedEvent> record(String threshold, DTOSigner s) throws Exception {
+		Path file = Files.createTempFile("dto-signer", ".jfr");
+		try (Recording recording = new Recording()) {
+			recording.enable(JFRDTOSignerMetrics.SIGN_EVENT).with("latencyThreshold", threshold);
+			recording.enable(JFRDTOSignerMetrics.VERIFY_EVENT).with("latencyThreshold", threshold);
+			recording.enable(JFRDTOSignerMetrics.EXTRACTOR_EVENT).with("latencyThreshold", threshold);
+			recording.start();
+			
+			Sample1 d = new Sample1();
+			SignedDTO<Sample1> signed = new SignedDTO<Sample1>(d);
+			s.sign(signed);
+			assertTrue(s.checkSignature(signed));
+			d.setI(1);
+			assertFalse(s.checkSignature(signed));
+			assertFalse(s.checkSignature(d, new byte[1], 0, 1));
+			try {
+				s.createSignature(new Sample2());
+				fail();
+			} catch (DTOSignerException e) {}
+			
+			recording.stop();
+			recording.dump(file);
+			return RecordingFile.readAllEvents(file);
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+	
+	private static List<RecordedEvent> filter(List<RecordedEvent> events, String name) {
+		return events.stream().filter(e -> e.getEventType().getName().equals(name)).collect(Collectors.toList());
+	}
+
+	@Test
+	public void testEvents() throws Exception {
+		SignedPropertyExtractorRegistry r = new SignedPropertyExtractorRegistry();
+		DTOSigner s = new DTOSigner(new byte[16], DTOSigner.DEFAULT_ALGORITHM, MacPoolStrategy.STRIPED, r);
+		JFRDTOSignerMetrics m = JFRDTOSignerMetrics.install(s);
+		assertSame(m, s.getMetrics());
+		assertSame(m, r.getMetrics());
+		
+		List<RecordedEvent> events = record("0 ns", s);
+		int length = new SignedPropertyExtractor(Sample1.class).extract(new Sample1()).length;
+		
+		List<RecordedEvent> signs = filter(events, JFRDTOSignerMetrics.SIGN_EVENT);
+		assertEquals(1, signs.size());
+		RecordedEvent sign = signs.get(0);
+		assertEquals(Sample1.class.getName(), sign.getClass("dtoClass").getName());
+		assertEquals(length, sign.getLong("canonicalLength"));
+		assertTrue(sign.getLong("extractionTime") >= 0);
+		assertTrue(sign.getLong("macTime") > 0);
+		
+		List<RecordedEvent> verifications = filter(events, JFRDTOSignerMetrics.VERIFY_EVENT);
+		assertEquals(3, verifications.size());
+		assertEquals(JFRDTOSignerMetrics.VALID, verifications.get(0).getString("outcome"));
+		assertEquals(length, verifications.get(0).getLong("canonicalLength"));
+		assertEquals(VerificationFailure.MISMATCH.name(), verifications.get(1).getString("outcome"));
+		assertEquals(VerificationFailure.WRONG_LENGTH.name(), verifications.get(2).getString("outcome"));
+		assertEquals(0, verifications.get(2).getLong("canonicalLength"));
+		
+		List<RecordedEvent> extractors = filter(events, JFRDTOSignerMetrics.EXTRACTOR_EVENT);
+		assertEquals(2, extractors.size());
+		assertEquals(Sample1.class.getName(), extractors.get(0).getClass("dtoClass").getName());
+		assertTrue(extractors.get(0).getBoolean("success"));
+		assertEquals(Sample2.class.getName(), extractors.get(1).getClass("dtoClass").getName());
+		assertFalse(extractors.get(1).getBoolean("success"));
+	}
+
+	@Test
+	public void testThreshold() throws Exception {
+		DTOSigner s = new DTOSigner(new byte[16], DTOSigner.DEFAULT_ALGORITHM, MacPoolStrategy.STRIPED, 
+				new SignedPropertyExtractorRegistry());
+		JFRDTOSignerMetrics.install(s);
+		
+		List<RecordedEvent> events = record("1 h", s);
+		assertTrue(filter(events, JFRDTOSignerMetrics.SIGN_EVENT).isEmpty());
+		assertTrue(filter(events, JFRDTOSignerMetrics.EXTRACTOR_EVENT).isEmpty());
+		// The failures without extraction have no latency
+		assertTrue(filter(events, JFRDTOSignerMetrics.VERIFY_EVENT).isEmpty());
+	}
+	
+	@Test
+	public void testThresholdSetting() {
+		assertEquals(0, JFRDTOSignerMetrics.ThresholdSetting.parse("0"));
+		assertEquals(0, JFRDTOSignerMetrics.ThresholdSetting.parse("0 ns"));
+		assertEquals(20000, JFRDTOSignerMetrics.ThresholdSetting.parse("20 us"));
+		assertEquals(10000000, JFRDTOSignerMetrics.ThresholdSetting.parse("10 ms"));
+		assertEquals(2000000000L, JFRDTOSignerMetrics.ThresholdSetting.parse("2s"));
+		assertEquals(-1, JFRDTOSignerMetrics.ThresholdSetting.parse("10"));
+		assertEquals(-1, JFRDTOSignerMetrics.ThresholdSetting.parse("ms"));
+		assertEquals(-1, JFRDTOSignerMetrics.ThresholdSetting.parse("10 weeks"));
+		
+		JFRDTOSignerMetrics.ThresholdSetting setting = new JFRDTOSignerMetrics.ThresholdSetting();
+		assertEquals("1 ms", setting.combine(new HashSet<String>(Arrays.asList("1 s", "1 ms", "invalid"))));
+		setting.setValue("1 ms");
+		assertEquals("1 ms", setting.getValue());
+		assertTrue(setting.accept(1000000));
+		assertFalse(setting.accept(999999));
+		setting.setValue("invalid");
+		assertEquals("1 ms", setting.getValue());
+	}
+	
+	@Test
+	public void testConfiguration() throws Exception {
+		Configuration c = JFRDTOSignerMetrics.getConfiguration();
+		assertEquals("DTO Signer", c.getLabel());
+		assertEquals("true", c.getSettings().get(JFRDTOSignerMetrics.SIGN_EVENT + "#enabled"));
+		assertEquals("1 ms", c.getSettings().get(JFRDTOSignerMetrics.VERIFY_EVENT + "#latencyThreshold"));
+		assertEquals("0 ns", c.getSettings().get(JFRDTOSignerMetrics.EXTRACTOR_EVENT + "#latencyThreshold"));
+	}
+}
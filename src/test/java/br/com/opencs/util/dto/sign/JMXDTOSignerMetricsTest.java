@@ -0,0 +1,159 @@
+/*
+ * BSD 3-Clause License
+ * 
+ * Copyright (c) 2019, Open Communications Security
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package br.com.opencs.util.dto.sign;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+
+import org.junit.Test;
+
+public class JMXDTOSignerMetricsTest {
+
+	private static long sum(long [] histogram) {
+		long ret = 0;
+		for (long v: histogram) {
+			ret += v;
+		}
+		return ret;
+	}
+
+	@Test
+	public void testClassNames() throws Exception {
+		JMXDTOSignerMetrics m = new JMXDTOSignerMetrics(null, 2);
+		DTOSigner s = new DTOSigner(new byte[16]);
+		s.setMetrics(m);
+		
+		// Subclasses without signed properties are reported as their DTO class
+		s.createSignature(new Sample1());
+		s.createSignature(new Sample1() {});
+		assertEquals(1, m.getExtractionNanosByClass().size());
+		assertTrue(m.getExtractionNanosByClass().containsKey(Sample1.class.getName()));
+		
+		Sample4 d = new Sample4();
+		d.setFixed("fixed");
+		s.createSignature(d);
+		s.createSignature(new DTOSignerTest.Immutable("value"));
+		s.createSignature(new DTOSignerTest.Immutable("other"));
+		Map<String, Long> classes = m.getMacNanosByClass();
+		assertEquals(3, classes.size());
+		assertTrue(classes.containsKey(Sample4.class.getName()));
+		assertTrue(classes.containsKey(JMXDTOSignerMetrics.OTHER_CLASSES));
+		assertFalse(classes.containsKey(DTOSignerTest.Immutable.class.getName()));
+	}
+
+	@Test
+	public void testMetrics() throws Exception {
+		SignedPropertyExtractorRegistry r = new SignedPropertyExtractorRegistry();
+		DTOSigner s = new DTOSigner(new byte[16], DTOSigner.DEFAULT_ALGORITHM, MacPoolStrategy.STRIPED, r);
+		JMXDTOSignerMetrics m = new JMXDTOSignerMetrics(r);
+		assertNull(s.getMetrics());
+		s.setMetrics(m);
+		r.setMetrics(m);
+		assertSame(m, s.getMetrics());
+		assertSame(m, r.getMetrics());
+
+		Sample1 d = new Sample1();
+		SignedDTO<Sample1> signed = new SignedDTO<Sample1>(d);
+		assertFalse(s.checkSignature(signed));
+		s.sign(signed);
+		assertTrue(s.checkSignature(signed));
+		d.setI(1);
+		assertFalse(s.checkSignature(signed));
+		assertFalse(s.checkSignature(d, new byte[1], 0, 1));
+
+		assertEquals(1, m.getSignCount());
+		assertEquals(4, m.getVerifyCount());
+		assertEquals(1, sum(m.getSignLatencyHistogram()));
+		assertEquals(4, sum(m.getVerifyLatencyHistogram()));
+		assertEquals(JMXDTOSignerMetrics.HISTOGRAM_SIZE, m.getSignLatencyHistogram().length);
+		Map<String, Long> failures = m.getVerificationFailures();
+		assertEquals(Long.valueOf(1), failures.get("MISSING_SIGNATURE"));
+		assertEquals(Long.valueOf(1), failures.get("WRONG_LENGTH"));
+		assertEquals(Long.valueOf(1), failures.get("MISMATCH"));
+		assertTrue(m.getExtractionNanosByClass().get(Sample1.class.getName()) > 0);
+		assertTrue(m.getMacNanosByClass().get(Sample1.class.getName()) > 0);
+		assertEquals(1, m.getExtractorLookupMisses());
+		assertEquals(2, m.getExtractorLookupHits());
+		assertEquals(1, m.getExtractorCacheSize());
+
+		m.reset();
+		assertEquals(0, m.getSignCount());
+		assertEquals(0, m.getExtractorLookupHits());
+		assertTrue(m.getExtractionNanosByClass().isEmpty());
+
+		s.setMetrics(null);
+		s.sign(signed);
+		assertEquals(0, m.getSignCount());
+		assertEquals(-1, new JMXDTOSignerMetrics(null).getExtractorCacheSize());
+	}
+
+	@Test
+	public void testInstall() throws Exception {
+		DTOSigner s = new DTOSigner(new byte[16], DTOSigner.DEFAULT_ALGORITHM, MacPoolStrategy.STRIPED, 
+				new SignedPropertyExtractorRegistry());
+		JMXDTOSignerMetrics m = JMXDTOSignerMetrics.install(s, "test signer");
+		try {
+			assertSame(m, s.getMetrics());
+			assertSame(m, s.getExtractorRegistry().getMetrics());
+			s.createSignature(new Sample1());
+
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(JMXDTOSignerMetrics.DOMAIN 
+					+ ":type=DTOSignerMetrics,name=\"test signer\"");
+			assertTrue(server.isRegistered(name));
+			assertEquals(Long.valueOf(1), server.getAttribute(name, "SignCount"));
+			assertTrue(server.getAttribute(name, "ExtractionNanosByClass") instanceof TabularData);
+		} finally {
+			m.unregister();
+		}
+		assertFalse(ManagementFactory.getPlatformMBeanServer().queryNames(
+				new ObjectName(JMXDTOSignerMetrics.DOMAIN + ":*"), null).size() > 0);
+		m.unregister();
+	}
+
+	@Test(expected = DTOSignerException.class)
+	public void testRegisterTwice() throws Exception {
+		JMXDTOSignerMetrics m = new JMXDTOSignerMetrics(null);
+		m.register("twice");
+		try {
+			new JMXDTOSignerMetrics(null).register("twice");
+		} finally {
+			m.unregister();
+		}
+	}
+}
@@ -0,0 +1,191 @@
+/*
+ * BSD 3-Clause License
+ * 
+ * Copyright (c) 2019, Open Communications Security
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package br.com.opencs.util.dto.sign;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class KeyRingDTOSignerTest {
+
+	private static byte[] key(int v) {
+		byte [] key = new byte[16];
+		Arrays.fill(key, (byte)v);
+		return key;
+	}
+	
+	@Test
+	public void testKeys() throws Exception {
+		KeyRingDTOSigner s = new KeyRingDTOSigner();
+		assertEquals(-1, s.getActiveKeyId());
+		assertEquals(0, s.getKeyIds().length);
+		try {
+			s.createSignature(new Sample4());
+			fail();
+		} catch (DTOSignerException e) {}
+		
+		s.addKey(1, key(1), true);
+		s.addKey(7, key(7));
+		assertEquals(1, s.getActiveKeyId());
+		assertArrayEquals(new int[] {1, 7}, s.getKeyIds());
+		assertNotNull(s.getSigner(7));
+		assertNull(s.getSigner(2));
+		
+		try {
+			s.addKey(7, key(8));
+			fail();
+		} catch (IllegalArgumentException e) {}
+		try {
+			s.addKey(256, key(8));
+			fail();
+		} catch (IllegalArgumentException e) {}
+		try {
+			s.setActiveKey(2);
+			fail();
+		} catch (IllegalArgumentException e) {}
+		try {
+			s.retireKey(1);
+			fail();
+		} catch (IllegalStateException e) {}
+		
+		s.setActiveKey(7);
+		assertEquals(7, s.getActiveKeyId());
+		assertTrue(s.retireKey(1));
+		assertFalse(s.retireKey(1));
+		assertArrayEquals(new int[] {7}, s.getKeyIds());
+	}
+
+	@Test
+	public void testRotation() throws Exception {
+		KeyRingDTOSigner s = new KeyRingDTOSigner();
+		s.addKey(1, key(1), true);
+		
+		Sample4 d = new Sample4();
+		d.setFixed("fixed");
+		d.setVariable("variable");
+		SignedDTO<Sample4> old = new SignedDTO<Sample4>(d);
+		s.sign(old);
+		assertEquals(33, old.getSignature().length);
+		assertEquals(1, KeyRingDTOSigner.getKeyId(old.getSignature()));
+		assertArrayEquals(new DTOSigner(key(1)).createSignature(d), 
+				Arrays.copyOfRange(old.getSignature(), 1, 33));
+		
+		s.addKey(2, key(2), true);
+		SignedDTO<Sample4> current = new SignedDTO<Sample4>(d);
+		s.sign(current);
+		assertEquals(2, KeyRingDTOSigner.getKeyId(current.getSignature()));
+		assertArrayEquals(current.getSignature(), s.createSignature(d));
+		assertFalse(Arrays.equals(old.getSignature(), current.getSignature()));
+		
+		assertTrue(s.checkSignature(old));
+		assertTrue(s.checkSignature(current));
+		
+		// Wrong key identifier
+		byte [] forged = current.getSignature().clone();
+		forged[0] = 1;
+		assertFalse(s.checkSignature(d, forged, 0, forged.length));
+		
+		s.retireKey(1);
+		assertFalse(s.checkSignature(old));
+		assertTrue(s.checkSignature(current));
+		
+		ByteBuffer direct = ByteBuffer.allocateDirect(33);
+		direct.put(current.getSignature());
+		direct.flip();
+		assertTrue(s.checkSignature(d, direct));
+		assertEquals(0, direct.position());
+		assertTrue(s.checkSignature(d, ByteBuffer.wrap(current.getSignature())));
+		assertFalse(s.checkSignature(d, ByteBuffer.allocateDirect(0)));
+		assertFalse(s.checkSignature(d, new byte[0], 0, 0));
+		
+		d.setFixed("changed");
+		assertFalse(s.checkSignature(current));
+	}
+
+	@Test
+	public void testDigestTree() throws Exception {
+		KeyRingDTOSigner s = new KeyRingDTOSigner(DTOSigner.DEFAULT_ALGORITHM, MacPoolStrategy.STRIPED, 
+				SignedPropertyExtractorManager.getDefaultRegistry(), CanonicalFormat.DIGEST_TREE);
+		s.addKey(3, key(3), true);
+		Sample4 d = new Sample4();
+		d.setFixed("fixed");
+		d.setVariable("variable");
+		SignedDTO<Sample4> signed = new SignedDTO<Sample4>(d);
+		s.sign(signed);
+		assertTrue(s.checkSignature(signed));
+		d.setFixed("changed");
+		s.sign(signed, "getFixed");
+		assertTrue(s.checkSignature(signed));
+		assertArrayEquals(s.createSignature(d), signed.getSignature());
+	}
+
+	@Test
+	public void testMetrics() throws Exception {
+		final AtomicReference<VerificationFailure> last = new AtomicReference<VerificationFailure>();
+		DTOSignerMetrics metrics = new DTOSignerMetrics() {
+			@Override
+			public void signed(Class<?> dtoClass, long extractionNanos, long macNanos) {
+			}
+
+			@Override
+			public void verified(Class<?> dtoClass, long extractionNanos, long macNanos,
+					VerificationFailure failure) {
+				last.set(failure);
+			}
+
+			@Override
+			public void extractorLookup(Class<?> dtoClass, boolean hit) {
+			}
+		};
+		KeyRingDTOSigner s = new KeyRingDTOSigner();
+		s.addKey(1, key(1), true);
+		s.setMetrics(metrics);
+		s.addKey(2, key(2));
+		assertSame(metrics, s.getMetrics());
+		assertSame(metrics, s.getSigner(1).getMetrics());
+		assertSame(metrics, s.getSigner(2).getMetrics());
+		
+		Sample4 d = new Sample4();
+		d.setFixed("fixed");
+		d.setVariable("variable");
+		assertFalse(s.checkSignature(new SignedDTO<Sample4>(d)));
+		assertEquals(VerificationFailure.MISSING_SIGNATURE, last.get());
+		assertFalse(s.checkSignature(d, new byte[] {9, 1, 2}, 0, 3));
+		assertEquals(VerificationFailure.UNKNOWN_KEY, last.get());
+		assertFalse(s.checkSignature(d, new byte[] {1, 1, 2}, 0, 3));
+		assertEquals(VerificationFailure.WRONG_LENGTH, last.get());
+	}
+}
@@ -0,0 +1,173 @@
+/*
+ * BSD 3-Clause License
+ * 
+ * Copyright (c) 2019, Open Communications Security
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package br.com.opencs.util.dto.sign;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.Test;
+
+public class MacEnginesTest {
+	
+	private static byte[] sequence(int length) {
+		byte [] b = new byte[length];
+		for (int i = 0; i < length; i++) {
+			b[i] = (byte)i;
+		}
+		return b;
+	}
+	
+	private static String toHex(byte [] b) {
+		StringBuilder sb = new StringBuilder();
+		for (byte v: b) {
+			sb.append(String.format("%02x", v & 0xFF));
+		}
+		return sb.toString();
+	}
+	
+	private static Mac create(String algorithm, byte [] key) throws Exception {
+		Mac mac = MacEngines.getInstance(algorithm);
+		mac.init(new SecretKeySpec(key, algorithm));
+		return mac;
+	}
+	
+	/**
+	 * Computes the MAC byte by byte, in chunks, after a clone and from a direct buffer.
+	 */
+	private static void assertMac(String expected, Mac mac, byte [] message) throws Exception {
+		assertEquals(expected, toHex(mac.doFinal(message)));
+		for (byte b: message) {
+			mac.update(b);
+		}
+		assertEquals(expected, toHex(mac.doFinal()));
+		for (int i = 0; i < message.length; i += 5) {
+			mac.update(message, i, Math.min(5, message.length - i));
+		}
+		Mac clone = (Mac)mac.clone();
+		assertEquals(expected, toHex(mac.doFinal()));
+		assertEquals(expected, toHex(clone.doFinal()));
+		ByteBuffer direct = ByteBuffer.allocateDirect(message.length + 3);
+		direct.put((byte)1);
+		direct.put(message);
+		direct.flip();
+		direct.get();
+		mac.update(direct);
+		assertFalse(direct.hasRemaining());
+		assertEquals(expected, toHex(mac.doFinal()));
+	}
+
+	@Test
+	public void testSipHash() throws Exception {
+		Mac mac = create(MacEngines.SIPHASH_2_4_128, sequence(16));
+		assertEquals(16, mac.getMacLength());
+		assertEquals(MacEngines.SIPHASH_2_4_128, mac.getAlgorithm());
+		assertMac("a3817f04ba25a8e66df67214c7550293", mac, sequence(0));
+		assertMac("da87c1d86b99af44347659119b22fc45", mac, sequence(1));
+		assertMac("a1f1ebbed8dbc153c0b84aa61ff08239", mac, sequence(7));
+		assertMac("3b62a9ba6258f5610f83e264f31497b4", mac, sequence(8));
+		assertMac("5493e99933b0a8117e08ec0f97cfc3d9", mac, sequence(15));
+		assertMac("5150d1772f50834a503e069a973fbd7c", mac, sequence(63));
+		
+		try {
+			create(MacEngines.SIPHASH_2_4_128, new byte[32]);
+			fail();
+		} catch (InvalidKeyException e) {}
+	}
+
+	@Test
+	public void testBlake2b() throws Exception {
+		Mac mac = create(MacEngines.BLAKE2B_512, sequence(64));
+		assertEquals(64, mac.getMacLength());
+		assertMac("10ebb67700b1868efb4417987acf4690ae9d972fb7a590c2f02871799aaa4786"
+				+ "b5e996e8f0f4eb981fc214b005f42d2ff4233499391653df7aefcbc13fc51568", mac, sequence(0));
+		assertMac("961f6dd1e4dd30f63901690c512e78e4b45e4742ed197c3c5e45c549fd25f2e4"
+				+ "187b0bc9fe30492b16b0d0bc4ef9b0f34c7003fac09a5ef1532e69430234cebd", mac, sequence(1));
+		assertMac("76d2d819c92bce55fa8e092ab1bf9b9eab237a25267986cacf2b8ee14d214d73"
+				+ "0dc9a5aa2d7b596e86a1fd8fa0804c77402d2fcd45083688b218b1cdfa0dcbcb", mac, sequence(127));
+		assertMac("72065ee4dd91c2d8509fa1fc28a37c7fc9fa7d5b3f8ad3d0d7a25626b57b1b44"
+				+ "788d4caf806290425f9890a3a2a35a905ab4b37acfd0da6e4517b2525c9651e4", mac, sequence(128));
+		assertMac("64475dfe7600d7171bea0b394e27c9b00d8e74dd1e416a79473682ad3dfdbb70"
+				+ "6631558055cfc8a40e07bd015a4540dcdea15883cbbf31412df1de1cd4152b91", mac, sequence(129));
+		assertMac("b72071e096277edebb8ee5134dd3714996307ba3a55aa4733d412abbe28e909e"
+				+ "10e57e6fbfb4ef53b3b960518294ff889a90829254412e2a60b85add07a3674f", mac, sequence(256));
+		
+		mac = create(MacEngines.BLAKE2B_256, sequence(32));
+		assertEquals(32, mac.getMacLength());
+		assertMac("d63a32d3e44738d7907f964316c241adaba0abfeabc32349677578a15a203f7f", mac, 
+				"abc".getBytes("US-ASCII"));
+		
+		try {
+			create(MacEngines.BLAKE2B_256, new byte[65]);
+			fail();
+		} catch (InvalidKeyException e) {}
+	}
+
+	@Test
+	public void testRegistry() throws Exception {
+		assertTrue(MacEngines.isRegistered("siphash-2-4-128"));
+		assertFalse(MacEngines.isRegistered("HmacSHA256"));
+		assertEquals("HmacSHA256", MacEngines.getInstance("HmacSHA256").getAlgorithm());
+		try {
+			MacEngines.getInstance("Unknown");
+			fail();
+		} catch (NoSuchAlgorithmException e) {}
+	}
+
+	@Test
+	public void testDTOSigner() throws Exception {
+		Sample4 d = new Sample4();
+		d.setFixed("fixed");
+		for (MacPoolStrategy strategy: MacPoolStrategy.values()) {
+			DTOSigner s = new DTOSigner(sequence(16), MacEngines.SIPHASH_2_4_128, strategy);
+			byte [] sig = s.createSignature(d);
+			assertEquals(16, sig.length);
+			assertArrayEquals(create(MacEngines.SIPHASH_2_4_128, sequence(16)).doFinal(
+					new SignedPropertyExtractor(Sample4.class).extract(d, CanonicalFormat.TEXT)), sig);
+			assertTrue(s.checkSignature(d, sig, 0, sig.length));
+			
+			s = new DTOSigner(sequence(32), MacEngines.BLAKE2B_256, strategy);
+			sig = s.createSignature(d);
+			assertEquals(32, sig.length);
+			assertTrue(s.checkSignature(d, sig, 0, sig.length));
+		}
+		try {
+			new DTOSigner(new byte[8], MacEngines.SIPHASH_2_4_128);
+			fail();
+		} catch (DTOSignerException e) {}
+	}
+}
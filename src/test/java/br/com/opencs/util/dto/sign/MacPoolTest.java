@@ -0,0 +1,172 @@
+/*
+ * BSD 3-Clause License
+ * 
+ * Copyright (c) 2019, Open Communications Security
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package br.com.opencs.util.dto.sign;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.Test;
+
+public class MacPoolTest {
+
+	private static final SecretKeySpec KEY = new SecretKeySpec(new byte[16], DTOSigner.DEFAULT_ALGORITHM);
+
+	private static final byte [] DATA = "data".getBytes();
+
+	private static byte [] expected() throws Exception {
+		Mac mac = Mac.getInstance(DTOSigner.DEFAULT_ALGORITHM);
+		mac.init(KEY);
+		return mac.doFinal(DATA);
+	}
+
+	@Test
+	public void testCreate() throws Exception {
+		for (MacPoolStrategy strategy: MacPoolStrategy.values()) {
+			MacPool pool = MacPool.create(strategy, DTOSigner.DEFAULT_ALGORITHM, KEY);
+			assertEquals(strategy, pool.getStrategy());
+			assertEquals(DTOSigner.DEFAULT_ALGORITHM, pool.getAlgorithm());
+			assertEquals(32, pool.getMacLength());
+			assertEquals(0, pool.getHits());
+			assertEquals(0, pool.getMisses());
+		}
+	}
+
+	@Test(expected = DTOSignerException.class)
+	public void testCreateInvalidAlgorithm() throws Exception {
+		MacPool.create(MacPoolStrategy.STRIPED, "Invalid", new SecretKeySpec(new byte[16], "Invalid"));
+	}
+
+	@Test
+	public void testAcquire() throws Exception {
+		byte [] exp = expected();
+		for (MacPoolStrategy strategy: MacPoolStrategy.values()) {
+			MacPool pool = MacPool.create(strategy, DTOSigner.DEFAULT_ALGORITHM, KEY);
+			for (int i = 0; i < 4; i++) {
+				Mac mac = pool.acquire();
+				assertArrayEquals(exp, mac.doFinal(DATA));
+				pool.release(mac);
+			}
+			assertEquals(4, pool.getHits() + pool.getMisses());
+		}
+	}
+
+	@Test
+	public void testThreadLocal() throws Exception {
+		MacPool pool = MacPool.create(MacPoolStrategy.THREAD_LOCAL, DTOSigner.DEFAULT_ALGORITHM, KEY);
+
+		Mac mac1 = pool.acquire();
+		// Nested acquisitions must not share the instance in use.
+		Mac mac2 = pool.acquire();
+		assertNotSame(mac1, mac2);
+		assertEquals(2, pool.getMisses());
+		pool.release(mac2);
+		pool.release(mac1);
+
+		assertSame(mac2, pool.acquire());
+		assertEquals(1, pool.getHits());
+	}
+
+	@Test
+	public void testStriped() throws Exception {
+		StripedMacPool pool = new StripedMacPool(DTOSigner.DEFAULT_ALGORITHM, KEY, 3);
+		assertEquals(4, pool.getSize());
+
+		Mac mac1 = pool.acquire();
+		assertEquals(1, pool.getMisses());
+		pool.release(mac1);
+		assertSame(mac1, pool.acquire());
+		assertEquals(1, pool.getHits());
+
+		// Fill the pool beyond its capacity.
+		List<Mac> macs = new ArrayList<Mac>();
+		for (int i = 0; i < 6; i++) {
+			macs.add(pool.acquire());
+		}
+		for (Mac mac: macs) {
+			pool.release(mac);
+		}
+		for (int i = 0; i < 4; i++) {
+			assertTrue(macs.contains(pool.acquire()));
+		}
+		assertEquals(5, pool.getHits());
+	}
+
+	@Test
+	public void testPrototype() throws Exception {
+		MacPool pool = MacPool.create(MacPoolStrategy.PROTOTYPE, DTOSigner.DEFAULT_ALGORITHM, KEY);
+
+		Mac mac1 = pool.acquire();
+		pool.release(mac1);
+		Mac mac2 = pool.acquire();
+		assertNotSame(mac1, mac2);
+		assertEquals(0, pool.getHits());
+		assertEquals(2, pool.getMisses());
+	}
+
+	@Test
+	public void testConcurrent() throws Exception {
+		final byte [] exp = expected();
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			for (MacPoolStrategy strategy: MacPoolStrategy.values()) {
+				final MacPool pool = MacPool.create(strategy, DTOSigner.DEFAULT_ALGORITHM, KEY);
+				List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+				for (int t = 0; t < 8; t++) {
+					results.add(executor.submit(() -> {
+						boolean ok = true;
+						for (int i = 0; i < 1000; i++) {
+							Mac mac = pool.acquire();
+							ok &= Arrays.equals(exp, mac.doFinal(DATA));
+							pool.release(mac);
+						}
+						return ok;
+					}));
+				}
+				for (Future<Boolean> result: results) {
+					assertTrue(result.get());
+				}
+				assertEquals(8000, pool.getHits() + pool.getMisses());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
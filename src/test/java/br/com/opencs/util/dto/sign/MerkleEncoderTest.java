@@ -0,0 +1,163 @@
+/*
+ * BSD 3-Clause License
+ * 
+ * Copyright (c) 2019, Open Communications Security
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package br.com.opencs.util.dto.sign;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class MerkleEncoderTest {
+
+	/**
+	 * Straightforward implementation of the Merkle tree hash of RFC 6962.
+	 */
+	private static byte [] referenceRoot(List<byte[]> leaves) throws Exception {
+		MessageDigest digest = MessageDigest.getInstance(MerkleEncoder.DIGEST_ALGORITHM);
+		if (leaves.isEmpty()) {
+			return digest.digest();
+		} else if (leaves.size() == 1) {
+			digest.update((byte)0);
+			return digest.digest(leaves.get(0));
+		} else {
+			int k = Integer.highestOneBit(leaves.size() - 1);
+			byte [] left = referenceRoot(leaves.subList(0, k));
+			byte [] right = referenceRoot(leaves.subList(k, leaves.size()));
+			digest.update((byte)1);
+			digest.update(left);
+			return digest.digest(right);
+		}
+	}
+
+	private static byte [] reference(int count, List<byte[]> leaves) throws Exception {
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bout);
+		out.writeLong(count);
+		out.writeInt(32);
+		out.write(referenceRoot(leaves));
+		return bout.toByteArray();
+	}
+
+	private static byte [] encode(Object value) {
+		CanonicalWriter w = CanonicalWriter.acquire(null, 0);
+		try {
+			ValueEncoderRegistry.getDefault().getEncoder(value.getClass()).encode(value, w);
+			return w.toByteArray();
+		} finally {
+			w.release();
+		}
+	}
+
+	private static List<byte[]> intLeaves(int count) {
+		List<byte[]> leaves = new ArrayList<byte[]>();
+		for (int i = 0; i < count; i++) {
+			leaves.add(new byte[] {(byte)(i >>> 24), (byte)(i >>> 16), (byte)(i >>> 8), (byte)i});
+		}
+		return leaves;
+	}
+
+	@Test
+	public void testSupports() {
+		assertTrue(MerkleEncoder.supports(int[].class));
+		assertTrue(MerkleEncoder.supports(String[].class));
+		assertTrue(MerkleEncoder.supports(List.class));
+		assertTrue(MerkleEncoder.supports(Iterable.class));
+		assertFalse(MerkleEncoder.supports(String.class));
+		assertTrue(ValueEncoderRegistry.getDefault().getEncoder(List.class) instanceof MerkleEncoder);
+		// byte[] keeps its own encoder
+		assertFalse(ValueEncoderRegistry.getDefault().getEncoder(byte[].class) instanceof MerkleEncoder);
+	}
+
+	@Test
+	public void testPrimitiveArray() throws Exception {
+		int [] sizes = {0, 1, 2, 3, 5, 7, 8, 9, 100, MerkleEncoder.PARALLEL_THRESHOLD + 1234};
+		for (int size: sizes) {
+			int [] array = new int[size];
+			for (int i = 0; i < size; i++) {
+				array[i] = i;
+			}
+			assertArrayEquals(String.valueOf(size), reference(size, intLeaves(size)), encode(array));
+		}
+	}
+
+	@Test
+	public void testObjects() throws Exception {
+		int [] sizes = {0, 1, 6, 100, MerkleEncoder.PARALLEL_THRESHOLD + 3 * MerkleEncoder.CHUNK_SIZE};
+		for (int size: sizes) {
+			List<byte[]> leaves = new ArrayList<byte[]>();
+			ArrayList<Integer> list = new ArrayList<Integer>();
+			for (byte [] leaf: intLeaves(size)) {
+				byte [] tmp = new byte[5];
+				tmp[0] = 1;
+				System.arraycopy(leaf, 0, tmp, 1, 4);
+				leaves.add(tmp);
+			}
+			for (int i = 0; i < size; i++) {
+				list.add(i);
+			}
+			byte [] expected = reference(size, leaves);
+			assertArrayEquals(expected, encode(list));
+			assertArrayEquals(expected, encode(new LinkedList<Integer>(list)));
+			assertArrayEquals(expected, encode(list.toArray(new Integer[size])));
+			assertArrayEquals(expected, encode(Collections.unmodifiableCollection(list)));
+		}
+	}
+
+	@Test
+	public void testNulls() throws Exception {
+		List<byte[]> leaves = Arrays.asList(
+				new byte[] {1, 0, 0, 0, 1, 'a'}, 
+				new byte[] {0}, 
+				new byte[] {1, 0, 0, 0, 1, 'b'});
+		assertArrayEquals(reference(3, leaves), encode(Arrays.asList("a", null, "b")));
+	}
+
+	@Test
+	public void testNested() throws Exception {
+		byte [] inner = encode(Arrays.asList(1, 2, 3));
+		byte [] leaf = new byte[inner.length + 1];
+		leaf[0] = 1;
+		System.arraycopy(inner, 0, leaf, 1, inner.length);
+		assertArrayEquals(reference(2, Arrays.asList(leaf, leaf)), 
+				encode(Arrays.asList(Arrays.asList(1, 2, 3), Arrays.asList(1, 2, 3))));
+		assertFalse(Arrays.equals(encode(Arrays.asList(Arrays.asList(1, 2), 3)), 
+				encode(Arrays.asList(1, Arrays.asList(2, 3)))));
+	}
+}
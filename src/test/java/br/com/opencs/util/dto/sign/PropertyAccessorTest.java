@@ -0,0 +1,149 @@
+/*
+ * BSD 3-Clause License
+ * 
+ * Copyright (c) 2019, Open Communications Security
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package br.com.opencs.util.dto.sign;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Method;
+
+import org.junit.Test;
+
+public class PropertyAccessorTest {
+
+	static class Failing {
+		@SignedProperty
+		public String getValue() {
+			throw new IllegalStateException("fail");
+		}
+	}
+
+	/**
+	 * Public DTO that is also loaded by an isolated class loader.
+	 */
+	public static class Isolated {
+		private String fixed;
+		
+		@SignedProperty
+		public String getFixed() {
+			return fixed;
+		}
+		
+		public void setFixed(String fixed) {
+			this.fixed = fixed;
+		}
+		
+		@SignedProperty
+		public long getAnotherFixed() {
+			return 0;
+		}
+	}
+
+	@Test
+	public void testCreate() throws Exception {
+		Method m = Sample1.class.getMethod("getI");
+		PropertyAccessor a = PropertyAccessor.create(m);
+		assertEquals("getI", a.getName());
+		assertFalse(a.isReflective());
+
+		Sample1 s = new Sample1();
+		s.setI(10);
+		assertEquals(Integer.valueOf(10), a.get(s));
+	}
+
+	@Test
+	public void testGet() throws Exception {
+		Sample1 s = new Sample1();
+		s.setB(true);
+		s.setL(20);
+		s.setS("test");
+
+		assertEquals(Boolean.TRUE, PropertyAccessor.create(Sample1.class.getMethod("isB")).get(s));
+		assertEquals(Long.valueOf(20), PropertyAccessor.create(Sample1.class.getMethod("getL")).get(s));
+		assertEquals("test", PropertyAccessor.create(Sample1.class.getMethod("getS")).get(s));
+		s.setS(null);
+		assertNull(PropertyAccessor.create(Sample1.class.getMethod("getS")).get(s));
+	}
+
+	@Test
+	public void testGetPrimitives() throws Exception {
+		Sample1 s = new Sample1();
+		s.setB(true);
+		s.setI(-10);
+		s.setL(Long.MAX_VALUE);
+		s.setX((short)-123);
+
+		PropertyAccessor b = PropertyAccessor.create(Sample1.class.getMethod("isB"));
+		assertSame(boolean.class, b.getType());
+		assertTrue(b.getBoolean(s));
+		PropertyAccessor i = PropertyAccessor.create(Sample1.class.getMethod("getI"));
+		assertSame(int.class, i.getType());
+		assertEquals(-10, i.getInt(s));
+		PropertyAccessor l = PropertyAccessor.create(Sample1.class.getMethod("getL"));
+		assertEquals(Long.MAX_VALUE, l.getLong(s));
+		PropertyAccessor x = PropertyAccessor.create(Sample1.class.getMethod("getX"));
+		assertEquals(-123, x.getInt(s));
+		assertEquals(-123.0, x.getDouble(s), 0.0);
+		assertSame(String.class, PropertyAccessor.create(Sample1.class.getMethod("getS")).getType());
+	}
+
+	@Test
+	public void testGetInherited() throws Exception {
+		Sample2 s = new Sample2();
+		s.setI(5);
+		PropertyAccessor a = PropertyAccessor.create(Sample2.class.getMethod("getI"));
+		assertEquals(Integer.valueOf(5), a.get(s));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testGetFailed() throws Exception {
+		PropertyAccessor a = PropertyAccessor.create(Failing.class.getMethod("getValue"));
+		a.get(new Failing());
+	}
+
+	@Test
+	public void testReflectionFallback() throws Exception {
+		// Classes that are not visible from the class loader of the library
+		// cannot be linked by the LambdaMetafactory.
+		Class<?> other = new SignedPropertyExtractorRegistryTest.IsolatedClassLoader(
+				Isolated.class.getName()).loadClass(Isolated.class.getName());
+		PropertyAccessor a = PropertyAccessor.create(other.getMethod("getFixed"));
+		assertTrue(a.isReflective());
+
+		Object dto = other.getConstructor().newInstance();
+		other.getMethod("setFixed", String.class).invoke(dto, "fixed");
+		assertEquals("fixed", a.get(dto));
+		
+		PropertyAccessor l = PropertyAccessor.create(other.getMethod("getAnotherFixed"));
+		assertTrue(l.isReflective());
+		assertEquals(0L, l.getLong(dto));
+	}
+}
@@ -0,0 +1,191 @@
+/*
+ * BSD 3-Clause License
+ * 
+ * Copyright (c) 2019, Open Communications Security
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package br.com.opencs.util.dto.sign;
+
+import static org.junit.Assert.*;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Test;
+
+public class PropertyDigestTreeTest {
+
+	public static class Wide {
+		private final int [] values = new int[11];
+		private final Date date = new Date(0);
+		@SignedProperty public int getV00() { return values[0]; }
+		@SignedProperty public int getV01() { return values[1]; }
+		@SignedProperty public int getV02() { return values[2]; }
+		@SignedProperty public int getV03() { return values[3]; }
+		@SignedProperty public int getV04() { return values[4]; }
+		@SignedProperty public int getV05() { return values[5]; }
+		@SignedProperty public int getV06() { return values[6]; }
+		@SignedProperty public int getV07() { return values[7]; }
+		@SignedProperty public int getV08() { return values[8]; }
+		@SignedProperty public int getV09() { return values[9]; }
+		@SignedProperty public Integer getV10() { return values[10]; }
+		@SignedProperty public Date getDate() { return date; }
+	}
+
+	/**
+	 * Straightforward implementation of the Merkle tree hash of RFC 6962.
+	 */
+	private static byte [] referenceRoot(List<byte[]> leaves) throws Exception {
+		MessageDigest digest = MessageDigest.getInstance(MerkleEncoder.DIGEST_ALGORITHM);
+		if (leaves.size() == 1) {
+			digest.update((byte)0);
+			return digest.digest(leaves.get(0));
+		} else {
+			int k = Integer.highestOneBit(leaves.size() - 1);
+			byte [] left = referenceRoot(leaves.subList(0, k));
+			byte [] right = referenceRoot(leaves.subList(k, leaves.size()));
+			digest.update((byte)1);
+			digest.update(left);
+			return digest.digest(right);
+		}
+	}
+
+	private static byte [] expectedRoot(SignedPropertyExtractor e, Object dto) throws Exception {
+		List<byte[]> leaves = new ArrayList<byte[]>();
+		for (PropertyEncoder p: e.getEncoders()) {
+			CanonicalWriter w = CanonicalWriter.acquire(null, 0);
+			try {
+				p.encode(dto, w);
+				leaves.add(w.toByteArray());
+			} finally {
+				w.release();
+			}
+		}
+		return referenceRoot(leaves);
+	}
+
+	@Test
+	public void testRoot() throws Exception {
+		SignedPropertyExtractor e = new SignedPropertyExtractor(Wide.class);
+		Wide dto = new Wide();
+		PropertyDigestTree t = new PropertyDigestTree(e, dto);
+		assertArrayEquals(expectedRoot(e, dto), t.getRoot());
+		assertTrue(t.isCompatible(e));
+		assertFalse(t.isCompatible(new SignedPropertyExtractor(Wide.class)));
+
+		Sample1 s = new Sample1();
+		s.setS("test");
+		SignedPropertyExtractor e1 = new SignedPropertyExtractor(Sample1.class);
+		assertArrayEquals(expectedRoot(e1, s), new PropertyDigestTree(e1, s).getRoot());
+	}
+
+	@Test
+	public void testUpdate() throws Exception {
+		SignedPropertyExtractor e = new SignedPropertyExtractor(Wide.class);
+		Wide dto = new Wide();
+		PropertyDigestTree t = new PropertyDigestTree(e, dto);
+
+		// The Date is mutable, thus it is always hashed again
+		t = t.update(dto);
+		assertEquals(1, t.getHashedCount());
+		for (int i = 0; i < dto.values.length; i++) {
+			dto.values[i] = i + 100;
+			t = t.update(dto);
+			assertEquals(2, t.getHashedCount());
+			assertArrayEquals(new PropertyDigestTree(e, dto).getRoot(), t.getRoot());
+		}
+		dto.date.setTime(1000);
+		t = t.update(dto);
+		assertEquals(1, t.getHashedCount());
+		assertArrayEquals(new PropertyDigestTree(e, dto).getRoot(), t.getRoot());
+	}
+
+	@Test
+	public void testUpdateExplicit() throws Exception {
+		SignedPropertyExtractor e = new SignedPropertyExtractor(Wide.class);
+		Wide dto = new Wide();
+		PropertyDigestTree t = new PropertyDigestTree(e, dto);
+
+		dto.values[3] = 3;
+		dto.values[10] = 10;
+		t = t.update(dto, "getV03");
+		assertEquals(1, t.getHashedCount());
+		assertFalse(Arrays.equals(new PropertyDigestTree(e, dto).getRoot(), t.getRoot()));
+		t = t.update(dto, "getV10");
+		assertArrayEquals(new PropertyDigestTree(e, dto).getRoot(), t.getRoot());
+	}
+
+	@Test
+	public void testCopyOnWrite() throws Exception {
+		SignedPropertyExtractor e = new SignedPropertyExtractor(Wide.class);
+		Wide dto = new Wide();
+		PropertyDigestTree t = new PropertyDigestTree(e, dto);
+		byte [] root = t.getRoot().clone();
+
+		dto.values[0] = 1;
+		PropertyDigestTree t2 = t.update(dto);
+		assertNotSame(t, t2);
+		assertArrayEquals(root, t.getRoot());
+		assertFalse(Arrays.equals(root, t2.getRoot()));
+		PropertyDigestTree t3 = t.update(dto, "getV00");
+		assertArrayEquals(root, t.getRoot());
+		assertArrayEquals(t2.getRoot(), t3.getRoot());
+		
+		// The old tree still detects the change
+		assertArrayEquals(t2.getRoot(), t.update(dto).getRoot());
+	}
+
+	public static class Counted {
+		private int calls;
+		private Integer value = 1;
+		@SignedProperty public int getCalls() { return ++calls; }
+		@SignedProperty public Integer getValue() { calls++; return value; }
+	}
+
+	@Test
+	public void testGetterReadOnce() throws Exception {
+		SignedPropertyExtractor e = new SignedPropertyExtractor(Counted.class);
+		Counted dto = new Counted();
+		PropertyDigestTree t = new PropertyDigestTree(e, dto);
+		assertEquals(2, dto.calls);
+		t = t.update(dto);
+		assertEquals(4, dto.calls);
+		t = t.update(dto, "getCalls", "getValue");
+		assertEquals(6, dto.calls);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUpdateUnknown() throws Exception {
+		SignedPropertyExtractor e = new SignedPropertyExtractor(Wide.class);
+		Wide dto = new Wide();
+		new PropertyDigestTree(e, dto).update(dto, "getX");
+	}
+}
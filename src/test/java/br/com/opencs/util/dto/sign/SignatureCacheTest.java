@@ -0,0 +1,137 @@
+/*
+ * BSD 3-Clause License
+ * 
+ * Copyright (c) 2019, Open Communications Security
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package br.com.opencs.util.dto.sign;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class SignatureCacheTest {
+
+	/**
+	 * DTO whose instances are equal but distinct.
+	 */
+	private static final class Value {
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Value;
+		}
+
+		@Override
+		public int hashCode() {
+			return 1;
+		}
+	}
+
+	@Test
+	public void testGetPut() {
+		SignatureCache c = new SignatureCache();
+		Value v1 = new Value();
+		Value v2 = new Value();
+		byte [] s1 = new byte[] {1};
+		
+		assertNull(c.get(v1));
+		c.put(v1, s1);
+		assertSame(s1, c.get(v1));
+		// Equal instances are distinct keys
+		assertNull(c.get(v2));
+		assertEquals(1, c.size());
+		assertEquals(1, c.getHits());
+		assertEquals(2, c.getMisses());
+		
+		byte [] s2 = new byte[] {2};
+		c.put(v1, s2);
+		assertSame(s2, c.get(v1));
+		assertEquals(1, c.size());
+		
+		c.clear();
+		assertEquals(0, c.size());
+		assertNull(c.get(v1));
+		assertEquals(0, c.getEvictions());
+	}
+
+	@Test
+	public void testMaximumSize() {
+		SignatureCache c = new SignatureCache(1, 1, TimeUnit.MINUTES);
+		Value v1 = new Value();
+		Value v2 = new Value();
+		c.put(v1, new byte[1]);
+		c.put(v2, new byte[1]);
+		assertEquals(1, c.size());
+		assertNull(c.get(v1));
+		assertNotNull(c.get(v2));
+		assertEquals(1, c.getEvictions());
+
+		c = new SignatureCache(100, 1, TimeUnit.MINUTES);
+		Value [] values = new Value[1000];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = new Value();
+			c.put(values[i], new byte[1]);
+		}
+		assertTrue(c.size() <= 100 + 16);
+		assertEquals(1000 - c.size(), c.getEvictions());
+	}
+
+	@Test
+	public void testTimeToLive() throws Exception {
+		SignatureCache c = new SignatureCache(100, 1, TimeUnit.MILLISECONDS);
+		Value v = new Value();
+		c.put(v, new byte[1]);
+		Thread.sleep(10);
+		assertNull(c.get(v));
+		assertEquals(1, c.getEvictions());
+		assertEquals(0, c.size());
+	}
+
+	@Test
+	public void testWeakKeys() throws Exception {
+		SignatureCache c = new SignatureCache(100, 1, TimeUnit.MINUTES);
+		c.put(new Value(), new byte[1]);
+		Value v = new Value();
+		for (int i = 0; (i < 100) && (c.getEvictions() == 0); i++) {
+			System.gc();
+			Thread.sleep(10);
+			// Purges the collected entries
+			c.put(v, new byte[1]);
+		}
+		assertEquals(1, c.getEvictions());
+		assertEquals(1, c.size());
+		assertNotNull(c.get(v));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidSize() {
+		new SignatureCache(0, 1, TimeUnit.MINUTES);
+	}
+}
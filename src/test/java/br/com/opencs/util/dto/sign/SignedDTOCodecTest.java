@@ -0,0 +1,204 @@
+/*
+ * BSD 3-Clause License
+ * 
+ * Copyright (c) 2019, Open Communications Security
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package br.com.opencs.util.dto.sign;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class SignedDTOCodecTest {
+	
+	private static class Sample4Serializer implements PayloadSerializer<Sample4> {
+		
+		@Override
+		public byte[] serialize(Sample4 dto) throws IOException {
+			return (dto.getFixed() + "\n" + dto.getVariable()).getBytes(StandardCharsets.UTF_8);
+		}
+
+		@Override
+		public Sample4 deserialize(ByteBuffer payload) throws IOException {
+			byte [] tmp = new byte[payload.remaining()];
+			payload.get(tmp);
+			String [] s = new String(tmp, StandardCharsets.UTF_8).split("\n");
+			Sample4 dto = new Sample4();
+			dto.setFixed(s[0]);
+			dto.setVariable(s[1]);
+			return dto;
+		}
+	}
+
+	@Test
+	public void testAlgorithms() {
+		assertEquals(3, SignedDTOCodec.getAlgorithmId("HmacSHA256"));
+		assertEquals(3, SignedDTOCodec.getAlgorithmId("HMACSHA256"));
+		assertEquals(0, SignedDTOCodec.getAlgorithmId("Unknown"));
+		assertEquals("HmacSHA512", SignedDTOCodec.getAlgorithm(5));
+		assertNull(SignedDTOCodec.getAlgorithm(0));
+		assertNull(SignedDTOCodec.getAlgorithm(200));
+		
+		try {
+			new SignedDTOCodec<Sample4>("HmacSHA256", 256, new Sample4Serializer());
+			fail();
+		} catch (IllegalArgumentException e) {}
+	}
+
+	@Test
+	public void testEncodeDecode() throws Exception {
+		DTOSigner s = new DTOSigner(new byte[16]);
+		SignedDTOCodec<Sample4> codec = new SignedDTOCodec<Sample4>(s, new Sample4Serializer());
+		
+		Sample4 d = new Sample4();
+		d.setFixed("fixed");
+		d.setVariable("variable");
+		SignedDTO<Sample4> signed = new SignedDTO<Sample4>(d);
+		s.sign(signed);
+		
+		byte [] enc = codec.encode(signed);
+		assertEquals(8 + 32 + 14, enc.length);
+		assertEquals(SignedDTOCodec.VERSION, enc[0]);
+		assertEquals(3, enc[1]);
+		assertEquals(0, enc[2]);
+		assertEquals(32, enc[3]);
+		
+		SignedDTOHeader header = SignedDTOCodec.readHeader(ByteBuffer.wrap(enc));
+		assertEquals(SignedDTOCodec.VERSION, header.getVersion());
+		assertEquals(3, header.getAlgorithmId());
+		assertEquals("HmacSHA256", header.getAlgorithm());
+		assertEquals(0, header.getKeyId());
+		assertArrayEquals(signed.getSignature(), header.getSignature());
+		assertEquals(14, header.getPayloadLength());
+		assertEquals(40, header.getHeaderLength());
+		assertEquals(enc.length, header.getLength());
+		
+		SignedDTO<Sample4> decoded = codec.decode(enc);
+		assertArrayEquals(signed.getSignature(), decoded.getSignature());
+		assertEquals("fixed", decoded.get().getFixed());
+		assertEquals("variable", decoded.get().getVariable());
+		assertTrue(s.checkSignature(decoded));
+	}
+
+	@Test
+	public void testBuffer() throws Exception {
+		SignedDTOCodec<String> codec = new SignedDTOCodec<String>("HmacSHA512", 7, 
+				SignedDTOCodec.<String>javaSerializer());
+		
+		SignedDTO<String> signed1 = new SignedDTO<String>("first");
+		signed1.setSignature(new byte[] {1, 2, 3});
+		SignedDTO<String> signed2 = new SignedDTO<String>("second");
+		
+		ByteBuffer buff = ByteBuffer.allocateDirect(1024);
+		buff.position(5);
+		codec.encode(signed1, buff);
+		codec.encode(signed2, buff);
+		int end = buff.position();
+		
+		buff.flip();
+		buff.position(5);
+		SignedDTOHeader header = SignedDTOCodec.readHeader(buff);
+		assertEquals(5, buff.position());
+		assertEquals("HmacSHA512", header.getAlgorithm());
+		assertEquals(7, header.getKeyId());
+		assertArrayEquals(new byte[] {1, 2, 3}, header.getSignature());
+		
+		// Skip the first record without deserializing it
+		buff.position(buff.position() + header.getLength());
+		header = SignedDTOCodec.readHeader(buff);
+		assertNull(header.getSignature());
+		
+		buff.position(5);
+		SignedDTO<String> decoded = codec.decode(buff);
+		assertEquals("first", decoded.get());
+		assertArrayEquals(new byte[] {1, 2, 3}, decoded.getSignature());
+		decoded = codec.decode(buff);
+		assertEquals("second", decoded.get());
+		assertNull(decoded.getSignature());
+		assertEquals(end, buff.position());
+		
+		ByteBuffer small = ByteBuffer.allocate(10);
+		try {
+			codec.encode(signed1, small);
+			fail();
+		} catch (BufferOverflowException e) {}
+		assertEquals(0, small.position());
+	}
+
+	@Test
+	public void testInvalid() throws Exception {
+		SignedDTOCodec<String> codec = new SignedDTOCodec<String>("HmacSHA256", 0, 
+				SignedDTOCodec.<String>javaSerializer());
+		SignedDTO<String> signed = new SignedDTO<String>("dto");
+		signed.setSignature(new byte[32]);
+		byte [] enc = codec.encode(signed);
+		
+		for (int len: new int[] {0, 7, 39, enc.length - 1}) {
+			ByteBuffer buff = ByteBuffer.wrap(enc, 0, len);
+			try {
+				codec.decode(buff);
+				fail();
+			} catch (DTOSignerException e) {}
+			assertEquals(0, buff.position());
+		}
+		
+		enc[0] = 2;
+		try {
+			SignedDTOCodec.readHeader(ByteBuffer.wrap(enc));
+			fail();
+		} catch (DTOSignerException e) {}
+		
+		signed.setSignature(new byte[256]);
+		try {
+			codec.encode(signed);
+			fail();
+		} catch (DTOSignerException e) {}
+	}
+
+	@Test
+	public void testSmallerThanDefaultSerialization() throws Exception {
+		SignedDTOCodec<String> codec = new SignedDTOCodec<String>("HmacSHA256", 0, 
+				SignedDTOCodec.<String>javaSerializer());
+		SignedDTO<String> signed = new SignedDTO<String>("dto");
+		signed.setSignature(new byte[32]);
+		
+		ByteArrayOutputStream bOut = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bOut)) {
+			out.writeObject(signed);
+		}
+		assertTrue(codec.encode(signed).length < bOut.size());
+	}
+}
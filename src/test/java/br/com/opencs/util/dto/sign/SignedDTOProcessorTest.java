@@ -0,0 +1,318 @@
+/*
+ * BSD 3-Clause License
+ * 
+ * Copyright (c) 2019, Open Communications Security
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package br.com.opencs.util.dto.sign;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class SignedDTOProcessorTest {
+
+	/**
+	 * Subscriber that records the elements and requests them in steps.
+	 */
+	private static class Collector<T> implements Flow.Subscriber<T> {
+		
+		final List<T> items = Collections.synchronizedList(new ArrayList<T>());
+		
+		final CountDownLatch finished = new CountDownLatch(1);
+		
+		final long step;
+		
+		volatile Flow.Subscription subscription;
+		
+		volatile Throwable error;
+		
+		volatile boolean completed;
+		
+		long remaining;
+		
+		Collector(long step) {
+			this.step = step;
+		}
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+			if (step > 0) {
+				remaining = step;
+				subscription.request(step);
+			}
+		}
+
+		@Override
+		public void onNext(T item) {
+			items.add(item);
+			if ((step > 0) && (--remaining == 0)) {
+				remaining = step;
+				subscription.request(step);
+			}
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			error = throwable;
+			finished.countDown();
+		}
+
+		@Override
+		public void onComplete() {
+			completed = true;
+			finished.countDown();
+		}
+		
+		void await() throws InterruptedException {
+			assertTrue(finished.await(30, TimeUnit.SECONDS));
+		}
+	}
+	
+	/**
+	 * Publisher that records the demand and publishes only what was requested.
+	 */
+	private static class CountingPublisher implements Flow.Publisher<SignedDTO<Sample4>> {
+		
+		final AtomicLong requested = new AtomicLong();
+		
+		final AtomicBoolean cancelled = new AtomicBoolean();
+		
+		Flow.Subscriber<? super SignedDTO<Sample4>> subscriber;
+		
+		int published;
+
+		@Override
+		public void subscribe(Flow.Subscriber<? super SignedDTO<Sample4>> subscriber) {
+			this.subscriber = subscriber;
+			subscriber.onSubscribe(new Flow.Subscription() {
+				@Override
+				public void request(long n) {
+					requested.addAndGet(n);
+				}
+
+				@Override
+				public void cancel() {
+					cancelled.set(true);
+				}
+			});
+		}
+		
+		void publish(SignedDTO<Sample4> item) {
+			assertTrue(published < requested.get());
+			published++;
+			subscriber.onNext(item);
+		}
+	}
+
+	@Test
+	public void testSigning() throws Exception {
+		DTOSigner s = new DTOSigner(new byte[16]);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			SignedDTOProcessor<Sample4> p = SignedDTOProcessor.signing(s, executor, 16, 4);
+			assertEquals(128, p.getCapacity());
+			Collector<SignedDTO<Sample4>> c = new Collector<SignedDTO<Sample4>>(100);
+			p.subscribe(c);
+			List<SignedDTO<Sample4>> sent = new ArrayList<SignedDTO<Sample4>>();
+			try (SubmissionPublisher<SignedDTO<Sample4>> publisher = new SubmissionPublisher<SignedDTO<Sample4>>()) {
+				publisher.subscribe(p);
+				for (int i = 0; i < 10000; i++) {
+					Sample4 d = new Sample4();
+					d.setFixed("fixed" + i);
+					d.setVariable("variable");
+					SignedDTO<Sample4> signed = new SignedDTO<Sample4>(d);
+					sent.add(signed);
+					publisher.submit(signed);
+				}
+			}
+			c.await();
+			assertTrue(c.completed);
+			assertNull(c.error);
+			assertEquals(sent.size(), c.items.size());
+			for (int i = 0; i < sent.size(); i++) {
+				SignedDTO<Sample4> signed = c.items.get(i);
+				assertSame(sent.get(i), signed);
+				assertArrayEquals(s.createSignature(signed.get()), signed.getSignature());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testVerifying() throws Exception {
+		DTOSigner s = new DTOSigner(new byte[16]);
+		List<SignedDTO<Sample4>> sent = new ArrayList<SignedDTO<Sample4>>();
+		for (int i = 0; i < 1000; i++) {
+			Sample4 d = new Sample4();
+			d.setFixed("fixed" + i);
+			d.setVariable("variable");
+			SignedDTO<Sample4> signed = new SignedDTO<Sample4>(d);
+			s.sign(signed);
+			sent.add(signed);
+		}
+		sent.get(7).get().setFixed("changed");
+		sent.get(500).setSignature(new byte[3]);
+		sent.get(999).setSignature(null);
+		
+		List<SignedDTO<Sample4>> invalid = Collections.synchronizedList(new ArrayList<SignedDTO<Sample4>>());
+		SignedDTOProcessor<Sample4> p = SignedDTOProcessor.verifying(s, invalid::add);
+		Collector<SignedDTO<Sample4>> c = new Collector<SignedDTO<Sample4>>(Long.MAX_VALUE);
+		p.subscribe(c);
+		try (SubmissionPublisher<SignedDTO<Sample4>> publisher = new SubmissionPublisher<SignedDTO<Sample4>>()) {
+			publisher.subscribe(p);
+			for (SignedDTO<Sample4> signed: sent) {
+				publisher.submit(signed);
+			}
+		}
+		c.await();
+		assertTrue(c.completed);
+		assertEquals(997, c.items.size());
+		assertEquals(3, invalid.size());
+		assertSame(sent.get(7), invalid.get(0));
+		assertSame(sent.get(500), invalid.get(1));
+		assertSame(sent.get(999), invalid.get(2));
+		assertSame(sent.get(0), c.items.get(0));
+		assertSame(sent.get(998), c.items.get(996));
+	}
+
+	@Test
+	public void testBackpressure() throws Exception {
+		DTOSigner s = new DTOSigner(new byte[16]);
+		SignedDTOProcessor<Sample4> p = SignedDTOProcessor.signing(s, Runnable::run, 4, 2);
+		Collector<SignedDTO<Sample4>> c = new Collector<SignedDTO<Sample4>>(0);
+		CountingPublisher publisher = new CountingPublisher();
+		publisher.subscribe(p);
+		// Nothing is requested before the subscriber arrives
+		assertEquals(0, publisher.requested.get());
+		p.subscribe(c);
+		assertEquals(p.getCapacity(), publisher.requested.get());
+		
+		for (int i = 0; i < p.getCapacity(); i++) {
+			Sample4 d = new Sample4();
+			d.setFixed("fixed" + i);
+			publisher.publish(new SignedDTO<Sample4>(d));
+		}
+		assertTrue(c.items.isEmpty());
+		assertEquals(p.getCapacity(), publisher.requested.get());
+		
+		c.subscription.request(3);
+		assertEquals(3, c.items.size());
+		assertEquals(p.getCapacity(), publisher.requested.get());
+		c.subscription.request(5);
+		assertEquals(8, c.items.size());
+		// Half of the capacity was consumed
+		assertEquals(p.getCapacity() + 8, publisher.requested.get());
+		
+		c.subscription.request(Long.MAX_VALUE);
+		c.subscription.request(Long.MAX_VALUE);
+		assertEquals(p.getCapacity(), c.items.size());
+		publisher.subscriber.onComplete();
+		assertTrue(c.completed);
+	}
+
+	@Test
+	public void testInvalidRequest() throws Exception {
+		DTOSigner s = new DTOSigner(new byte[16]);
+		SignedDTOProcessor<Sample4> p = SignedDTOProcessor.signing(s, Runnable::run, 4, 2);
+		CountingPublisher publisher = new CountingPublisher();
+		publisher.subscribe(p);
+		Collector<SignedDTO<Sample4>> c = new Collector<SignedDTO<Sample4>>(0);
+		p.subscribe(c);
+		c.subscription.request(0);
+		assertTrue(c.error instanceof IllegalArgumentException);
+		assertTrue(publisher.cancelled.get());
+	}
+
+	@Test
+	public void testSingleSubscriber() throws Exception {
+		DTOSigner s = new DTOSigner(new byte[16]);
+		SignedDTOProcessor<Sample4> p = SignedDTOProcessor.signing(s);
+		p.subscribe(new Collector<SignedDTO<Sample4>>(1));
+		Collector<SignedDTO<Sample4>> c = new Collector<SignedDTO<Sample4>>(1);
+		p.subscribe(c);
+		assertTrue(c.error instanceof IllegalStateException);
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+		DTOSigner s = new DTOSigner(new byte[16]);
+		SignedDTOProcessor<Sample4> p = SignedDTOProcessor.signing(s, Runnable::run, 4, 2);
+		CountingPublisher publisher = new CountingPublisher();
+		publisher.subscribe(p);
+		Collector<SignedDTO<Sample4>> c = new Collector<SignedDTO<Sample4>>(1);
+		p.subscribe(c);
+		Sample4 d = new Sample4();
+		d.setFixed("fixed");
+		publisher.publish(new SignedDTO<Sample4>(d));
+		assertEquals(1, c.items.size());
+		c.subscription.cancel();
+		assertTrue(publisher.cancelled.get());
+		publisher.publish(new SignedDTO<Sample4>(d));
+		assertEquals(1, c.items.size());
+		assertFalse(c.completed);
+		assertNull(c.error);
+	}
+
+	@Test
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public void testSigningFailure() throws Exception {
+		DTOSigner s = new DTOSigner(new byte[16]);
+		SignedDTOProcessor p = SignedDTOProcessor.signing(s, Runnable::run, 4, 2);
+		CountingPublisher publisher = new CountingPublisher();
+		publisher.subscribe(p);
+		Collector c = new Collector(Long.MAX_VALUE);
+		p.subscribe(c);
+		Sample4 d = new Sample4();
+		d.setFixed("fixed");
+		publisher.publish(new SignedDTO<Sample4>(d));
+		p.onNext(new SignedDTO<Sample2>(new Sample2()));
+		assertEquals(1, c.items.size());
+		assertTrue(c.error instanceof DTOSignerException);
+		assertTrue(publisher.cancelled.get());
+		
+		try {
+			SignedDTOProcessor.signing(s, Runnable::run, 0, 2);
+			fail();
+		} catch (IllegalArgumentException e) {}
+	}
+}
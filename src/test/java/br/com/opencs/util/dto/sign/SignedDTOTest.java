@@ -0,0 +1,98 @@
+/*
+ * BSD 3-Clause License
+ * 
+ * Copyright (c) 2019, Open Communications Security
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package br.com.opencs.util.dto.sign;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Base64;
+
+import org.junit.Test;
+
+public class SignedDTOTest {
+	
+	@SuppressWarnings("unchecked")
+	private static <T> SignedDTO<T> roundTrip(SignedDTO<T> signed) throws Exception {
+		ByteArrayOutputStream bOut = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bOut)) {
+			out.writeObject(signed);
+		}
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bOut.toByteArray()))) {
+			return (SignedDTO<T>)in.readObject();
+		}
+	}
+
+	@Test
+	public void testSerializable() throws Exception {
+		SignedDTO<String> signed = new SignedDTO<String>("dto");
+		signed.setSignature(new byte[] {1, 2, 3});
+		SignedDTO<String> copy = roundTrip(signed);
+		assertEquals("dto", copy.get());
+		assertArrayEquals(new byte[] {1, 2, 3}, copy.getSignature());
+		assertNull(copy.getDigestTree());
+		
+		copy = roundTrip(new SignedDTO<String>(null));
+		assertNull(copy.get());
+		assertNull(copy.getSignature());
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testCompatibility() throws Exception {
+		// Serialized by the previous release, without the digest tree
+		byte [] serialized = Base64.getDecoder().decode(
+				"rO0ABXNyACVici5jb20ub3BlbmNzLnV0aWwuZHRvLnNpZ24uU2lnbmVkRFRPAAAAAAAAAAECAAJMAANkdG90ABJMamF2YS9s" +
+				"YW5nL09iamVjdDtbAAlzaWduYXR1cmV0AAJbQnhwdAADZHRvdXIAAltCrPMX+AYIVOACAAB4cAAAAAMBAgM=");
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized))) {
+			SignedDTO<String> signed = (SignedDTO<String>)in.readObject();
+			assertEquals("dto", signed.get());
+			assertArrayEquals(new byte[] {1, 2, 3}, signed.getSignature());
+		}
+	}
+
+	@Test
+	public void testSignatureTooLong() throws Exception {
+		SignedDTO<String> signed = new SignedDTO<String>("dto");
+		signed.setSignature(new byte[SignedDTOCodec.MAX_SIGNATURE_LENGTH]);
+		assertEquals(SignedDTOCodec.MAX_SIGNATURE_LENGTH, roundTrip(signed).getSignature().length);
+		
+		signed.setSignature(new byte[SignedDTOCodec.MAX_SIGNATURE_LENGTH + 1]);
+		try {
+			roundTrip(signed);
+			fail();
+		} catch (InvalidObjectException e) {}
+	}
+}
@@ -0,0 +1,336 @@
+/*
+ * BSD 3-Clause License
+ * 
+ * Copyright (c) 2019, Open Communications Security
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package br.com.opencs.util.dto.sign;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class SignedPropertyExtractorRegistryTest {
+
+	/**
+	 * Class loader that defines its own copy of a given class.
+	 */
+	static class IsolatedClassLoader extends ClassLoader {
+
+		private final String isolated;
+
+		public IsolatedClassLoader(String isolated) {
+			super(IsolatedClassLoader.class.getClassLoader());
+			this.isolated = isolated;
+		}
+
+		@Override
+		protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+			if (!name.equals(this.isolated)) {
+				return super.loadClass(name, resolve);
+			}
+			synchronized (getClassLoadingLock(name)) {
+				Class<?> c = findLoadedClass(name);
+				if (c == null) {
+					try (InputStream in = getParent().getResourceAsStream(name.replace('.', '/') + ".class")) {
+						ByteArrayOutputStream out = new ByteArrayOutputStream();
+						byte [] buff = new byte[4096];
+						int r;
+						while ((r = in.read(buff)) > 0) {
+							out.write(buff, 0, r);
+						}
+						byte [] bin = out.toByteArray();
+						c = defineClass(name, bin, 0, bin.length);
+					} catch (Exception e) {
+						throw new ClassNotFoundException(name, e);
+					}
+				}
+				return c;
+			}
+		}
+	}
+
+	/**
+	 * Subclass that overrides the signed properties without annotations, as the
+	 * proxies generated at runtime.
+	 */
+	static class Sample1Proxy extends Sample1 {
+		@Override
+		public int getI() {
+			return super.getI() + 1;
+		}
+		
+		@Override
+		public long getL() {
+			return super.getL();
+		}
+		
+		@Override
+		public String getS() {
+			return super.getS();
+		}
+		
+		@Override
+		public boolean isB() {
+			return super.isB();
+		}
+	}
+	
+	/**
+	 * Subclass of a proxy.
+	 */
+	static class Sample1ProxyProxy extends Sample1Proxy {
+	}
+	
+	/**
+	 * Subclass that overrides only one of the signed properties, thus it has
+	 * its own set of signed properties.
+	 */
+	static class Sample1Override extends Sample1 {
+		@Override
+		public long getL() {
+			return 5;
+		}
+	}
+	
+	private static Object newInstance(Class<?> type) throws Exception {
+		Constructor<?> c = type.getDeclaredConstructor();
+		c.setAccessible(true);
+		return c.newInstance();
+	}
+
+	@Test
+	public void testGetExtractor() throws Exception {
+		SignedPropertyExtractorRegistry r = new SignedPropertyExtractorRegistry();
+		assertEquals(0, r.size());
+
+		SignedPropertyExtractor e1 = r.getExtractor(Sample1.class);
+		assertEquals(Sample1.class, e1.getDTOClass());
+		assertSame(e1, r.getExtractor(Sample1.class));
+		assertEquals(1, r.size());
+
+		SignedPropertyExtractor e2 = r.getExtractor(Sample4.class);
+		assertEquals(Sample4.class, e2.getDTOClass());
+		assertEquals(2, r.size());
+	}
+
+	@Test(expected = DTOSignerException.class)
+	public void testGetExtractorFailed() throws Exception {
+		new SignedPropertyExtractorRegistry().getExtractor(Sample2.class);
+	}
+
+	@Test
+	public void testIsolation() throws Exception {
+		SignedPropertyExtractorRegistry r1 = new SignedPropertyExtractorRegistry();
+		SignedPropertyExtractorRegistry r2 = new SignedPropertyExtractorRegistry();
+
+		assertNotSame(r1.getExtractor(Sample1.class), r2.getExtractor(Sample1.class));
+		r1.clear();
+		assertEquals(0, r1.size());
+		assertEquals(1, r2.size());
+	}
+
+	@Test
+	public void testClassLoaders() throws Exception {
+		SignedPropertyExtractorRegistry r = new SignedPropertyExtractorRegistry();
+
+		Class<?> other = new IsolatedClassLoader(Sample4.class.getName()).loadClass(Sample4.class.getName());
+		assertEquals(Sample4.class.getName(), other.getName());
+		assertNotSame(Sample4.class, other);
+
+		SignedPropertyExtractor e1 = r.getExtractor(Sample4.class);
+		SignedPropertyExtractor e2 = r.getExtractor(other);
+		assertNotSame(e1, e2);
+		assertEquals(Sample4.class, e1.getDTOClass());
+		assertEquals(other, e2.getDTOClass());
+		Object dto = newInstance(other);
+		assertTrue(e2.canExtract(dto));
+		assertFalse(e1.canExtract(dto));
+	}
+
+	@Test
+	public void testConcurrent() throws Exception {
+		final SignedPropertyExtractorRegistry r = new SignedPropertyExtractorRegistry();
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<SignedPropertyExtractor>> results = new ArrayList<Future<SignedPropertyExtractor>>();
+			for (int i = 0; i < 64; i++) {
+				results.add(executor.submit(() -> r.getExtractor(Sample1.class)));
+			}
+			SignedPropertyExtractor first = r.getExtractor(Sample1.class);
+			for (Future<SignedPropertyExtractor> result: results) {
+				assertSame(first, result.get());
+			}
+			assertEquals(1, r.size());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testSubclasses() throws Exception {
+		SignedPropertyExtractorRegistry r = new SignedPropertyExtractorRegistry();
+
+		SignedPropertyExtractor e = r.getExtractor(Sample1.class);
+		assertSame(e, r.getExtractor(Sample1Proxy.class));
+		assertSame(e, r.getExtractor(Sample1ProxyProxy.class));
+		assertEquals(3, r.size());
+		assertTrue(e.canExtract(new Sample1Proxy()));
+		assertTrue(e.canExtract(new Sample1ProxyProxy()));
+		
+		// The overridden methods are invoked
+		Sample1Proxy proxy = new Sample1Proxy();
+		proxy.setI(1);
+		Sample1 plain = new Sample1();
+		plain.setI(2);
+		assertArrayEquals(e.extract(plain), e.extract(proxy));
+		
+		// Subclasses that override only some signed properties are not resolved
+		SignedPropertyExtractor override = r.getExtractor(Sample1Override.class);
+		assertEquals(Sample1Override.class, override.getDTOClass());
+		assertFalse(e.canExtract(new Sample1Override()));
+		
+		// Subclasses with signed properties of their own are not resolved to the superclass
+		try {
+			r.getExtractor(Sample2.class);
+			fail();
+		} catch (DTOSignerException ex) {}
+	}
+
+	@Test
+	public void testSubclassFirst() throws Exception {
+		SignedPropertyExtractorRegistry r = new SignedPropertyExtractorRegistry();
+
+		SignedPropertyExtractor e = r.getExtractor(Sample1ProxyProxy.class);
+		assertEquals(Sample1.class, e.getDTOClass());
+		assertSame(e, r.getExtractor(Sample1.class));
+	}
+
+	@Test
+	public void testFailures() throws Exception {
+		SignedPropertyExtractorRegistry r = new SignedPropertyExtractorRegistry();
+		final List<Boolean> lookups = new ArrayList<Boolean>();
+		r.setMetrics(new DTOSignerMetrics() {
+			@Override
+			public void signed(Class<?> dtoClass, long extractionNanos, long macNanos) {
+			}
+
+			@Override
+			public void verified(Class<?> dtoClass, long extractionNanos, long macNanos, 
+					VerificationFailure failure) {
+			}
+
+			@Override
+			public void extractorLookup(Class<?> dtoClass, boolean hit) {
+				lookups.add(hit);
+			}
+		});
+
+		DTOSignerException first = null;
+		try {
+			r.getExtractor(Sample3.class);
+			fail();
+		} catch (DTOSignerException e) {
+			first = e;
+		}
+		// The failure is remembered
+		try {
+			r.getExtractor(Sample3.class);
+			fail();
+		} catch (DTOSignerException e) {
+			assertEquals(first.getMessage(), e.getMessage());
+			assertSame(first.getCause(), e.getCause());
+		}
+		assertEquals(0, r.size());
+		assertEquals(1, r.getFailureCount());
+		assertEquals(2, lookups.size());
+		assertFalse(lookups.get(0));
+		assertTrue(lookups.get(1));
+		
+		r.clear();
+		assertEquals(0, r.getFailureCount());
+	}
+
+	@Test
+	public void testMaximumSize() throws Exception {
+		try {
+			new SignedPropertyExtractorRegistry(ValueEncoderRegistry.getDefault(), 0);
+			fail();
+		} catch (IllegalArgumentException e) {}
+		
+		SignedPropertyExtractorRegistry r = new SignedPropertyExtractorRegistry(
+				ValueEncoderRegistry.getDefault(), 2);
+		assertEquals(2, r.getMaximumSize());
+		assertEquals(SignedPropertyExtractorRegistry.DEFAULT_MAXIMUM_SIZE, 
+				new SignedPropertyExtractorRegistry().getMaximumSize());
+		List<Class<?>> classes = new ArrayList<Class<?>>();
+		for (int i = 0; i < 5; i++) {
+			Class<?> c = new IsolatedClassLoader(Sample4.class.getName()).loadClass(Sample4.class.getName());
+			classes.add(c);
+			assertEquals(c, r.getExtractor(c).getDTOClass());
+			assertTrue(r.size() <= 2);
+		}
+		assertEquals(2, r.size());
+		
+		// The evicted classes are resolved again
+		SignedPropertyExtractor e = r.getExtractor(classes.get(0));
+		assertEquals(classes.get(0), e.getDTOClass());
+		assertSame(e, r.getExtractor(classes.get(0)));
+		assertEquals(2, r.size());
+	}
+
+	@Test
+	public void testClassUnloading() throws Exception {
+		SignedPropertyExtractorRegistry r = new SignedPropertyExtractorRegistry();
+		
+		ClassLoader loader = new IsolatedClassLoader(Sample4.class.getName());
+		Class<?> other = loader.loadClass(Sample4.class.getName());
+		r.getExtractor(other);
+		assertEquals(1, r.size());
+		WeakReference<ClassLoader> ref = new WeakReference<ClassLoader>(loader);
+		loader = null;
+		other = null;
+		
+		for (int i = 0; (i < 50) && (ref.get() != null); i++) {
+			System.gc();
+			Thread.sleep(10);
+		}
+		assertNull(ref.get());
+		assertEquals(0, r.size());
+	}
+}
@@ -33,9 +33,21 @@ package br.com.opencs.util.dto.sign;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
 import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
+import java.util.function.Supplier;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
 
 import org.junit.Test;
 
@@ -55,6 +67,23 @@ public class SignedPropertyExtractorTest {
 			(byte)0x74, (byte)0x72, (byte)0x75, (byte)0x65, (byte)0x01 // b
 	};
 	
+	private static final byte [] EXTRACTED_SAMPLE1_BINARY_DEFAULT = {
+			(byte)0x02, // version
+			(byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00, // i
+			(byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00, // l
+			(byte)0x00, // s
+			(byte)0x00 // b
+	};
+
+	private static final byte [] EXTRACTED_SAMPLE1_BINARY_FILLED = {
+			(byte)0x02, // version
+			(byte)0x00, (byte)0x00, (byte)0x00, (byte)0x0a, // i
+			(byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x14, // l
+			(byte)0x01, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x04, 
+			(byte)0x74, (byte)0x65, (byte)0x73, (byte)0x74, // s
+			(byte)0x01 // b
+	};
+	
 	@Test
 	public void testSignedPropertyExtractor() throws Exception {
 		
@@ -124,6 +153,220 @@ public class SignedPropertyExtractorTest {
 		assertArrayEquals(EXTRACTED_SAMPLE1_FILLED, bin3);
 	}
 
+	@Test
+	public void testExtractBinary() throws Exception {
+		SignedPropertyExtractor e = new SignedPropertyExtractor(Sample1.class);
+
+		Sample1 s = new Sample1();
+		assertArrayEquals(EXTRACTED_SAMPLE1_BINARY_DEFAULT, e.extract(s, CanonicalFormat.BINARY));
+		assertArrayEquals(EXTRACTED_SAMPLE1_DEFAULT, e.extract(s, CanonicalFormat.TEXT));
+		
+		s.setB(true);
+		s.setI(10);
+		s.setL(20);
+		s.setS("test");
+		s.setX((short)123);
+		assertArrayEquals(EXTRACTED_SAMPLE1_BINARY_FILLED, e.extract(s, CanonicalFormat.BINARY));
+		assertArrayEquals(EXTRACTED_SAMPLE1_FILLED, e.extract(s));
+		
+		Mac mac = Mac.getInstance("HmacSHA256");
+		mac.init(new SecretKeySpec(new byte[16], "HmacSHA256"));
+		byte [] expected = mac.doFinal(EXTRACTED_SAMPLE1_BINARY_FILLED);
+		e.extract(s, mac, CanonicalFormat.BINARY);
+		assertArrayEquals(expected, mac.doFinal());
+	}
+
+	@Test
+	public void testExtractBinaryCustomEncoder() throws Exception {
+		ValueEncoderRegistry encoders = new ValueEncoderRegistry();
+		encoders.register(String.class, (v, out) -> out.writeInt(v.length()));
+		SignedPropertyExtractor e = new SignedPropertyExtractor(Sample1.class, encoders);
+
+		Sample1 s = new Sample1();
+		s.setS("test");
+		byte [] bin = e.extract(s, CanonicalFormat.BINARY);
+		assertEquals(EXTRACTED_SAMPLE1_BINARY_DEFAULT.length + 4, bin.length);
+		assertArrayEquals(new byte[] {1, 0, 0, 0, 4, 0}, 
+				Arrays.copyOfRange(bin, 13, bin.length));
+	}
+
+	static class WithItems {
+		private List<String> items;
+		
+		@SignedProperty
+		public List<String> getItems() {
+			return items;
+		}
+	}
+
+	@Test
+	public void testExtractBinaryCollection() throws Exception {
+		SignedPropertyExtractor e = new SignedPropertyExtractor(WithItems.class);
+		WithItems s = new WithItems();
+		assertArrayEquals(new byte[] {2, 0}, e.extract(s, CanonicalFormat.BINARY));
+
+		s.items = new ArrayList<String>();
+		for (int i = 0; i < 1000; i++) {
+			s.items.add("item " + i);
+		}
+		byte [] bin = e.extract(s, CanonicalFormat.BINARY);
+		// version + presence + count + root
+		assertEquals(1 + 1 + 8 + 4 + 32, bin.length);
+		assertArrayEquals(bin, e.extract(s, CanonicalFormat.BINARY));
+		s.items.set(500, "changed");
+		assertFalse(Arrays.equals(bin, e.extract(s, CanonicalFormat.BINARY)));
+	}
+
+	static class WithSubclassValues {
+		private Date date;
+		private Number number;
+		private Object value;
+		
+		@SignedProperty
+		public Date getDate() {
+			return date;
+		}
+		
+		@SignedProperty
+		public Number getNumber() {
+			return number;
+		}
+		
+		@SignedProperty
+		public Object getValue() {
+			return value;
+		}
+	}
+
+	@Test
+	public void testExtractBinarySubclassValues() throws Exception {
+		SignedPropertyExtractor e = new SignedPropertyExtractor(WithSubclassValues.class);
+		WithSubclassValues s = new WithSubclassValues();
+		
+		// Values of the declared type keep their encoding
+		s.date = new Date(5);
+		byte [] bin = e.extract(s, CanonicalFormat.BINARY);
+		assertArrayEquals(new byte[] {2, 1, 0, 0, 0, 0, 0, 0, 0, 5, 0, 0}, bin);
+		
+		// The nanos of a timestamp returned as a date are signed
+		Timestamp t = new Timestamp(5);
+		s.date = t;
+		bin = e.extract(s, CanonicalFormat.BINARY);
+		t.setNanos(t.getNanos() + 1);
+		assertFalse(Arrays.equals(bin, e.extract(s, CanonicalFormat.BINARY)));
+		
+		// The class of the value is signed
+		s.date = null;
+		s.number = Integer.valueOf(1);
+		bin = e.extract(s, CanonicalFormat.BINARY);
+		s.number = Long.valueOf(1);
+		assertFalse(Arrays.equals(bin, e.extract(s, CanonicalFormat.BINARY)));
+		s.number = null;
+		s.value = Integer.valueOf(1);
+		bin = e.extract(s, CanonicalFormat.BINARY);
+		s.value = "1";
+		assertFalse(Arrays.equals(bin, e.extract(s, CanonicalFormat.BINARY)));
+		s.value = Long.valueOf(1);
+		assertFalse(Arrays.equals(bin, e.extract(s, CanonicalFormat.BINARY)));
+	}
+
+	static class WithStreams {
+		private byte [] data;
+		private ByteBuffer buffer;
+		private String text;
+		private Object source;
+		private boolean closed;
+		
+		@SignedProperty
+		public byte [] getData() {
+			return data;
+		}
+		
+		@SignedProperty
+		public ByteBuffer getBuffer() {
+			return buffer;
+		}
+		
+		@SignedProperty
+		public CharSequence getText() {
+			return text;
+		}
+		
+		@SignedProperty
+		public Supplier<Object> getSource() {
+			return () -> source;
+		}
+		
+		@SignedProperty
+		public InputStream getStream() {
+			return (data == null) ? null : new ByteArrayInputStream(data) {
+				@Override
+				public void close() {
+					closed = true;
+				}
+			};
+		}
+	}
+
+	@Test
+	public void testExtractStreaming() throws Exception {
+		SignedPropertyExtractor e = new SignedPropertyExtractor(WithStreams.class);
+		WithStreams s = new WithStreams();
+		// getBuffer, getData, getSource, getStream and getText
+		assertArrayEquals(new byte[] {4, 0, 0, 0, 0, 0}, e.extract(s, CanonicalFormat.STREAMING));
+		
+		s.data = new byte[CanonicalWriter.STREAM_CHUNK_SIZE * 3 + 100];
+		new java.util.Random(1).nextBytes(s.data);
+		s.buffer = ByteBuffer.allocateDirect(s.data.length);
+		s.buffer.put(s.data);
+		s.buffer.flip();
+		s.text = "acentuação 日本語";
+		s.source = s.text;
+		byte [] streamedData = CanonicalWriterTest.referenceStream(s.data);
+		byte [] streamedText = CanonicalWriterTest.referenceStream(s.text.getBytes("utf-8"));
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		expected.write(4);
+		for (byte [] value: new byte[][] {streamedData, streamedData, streamedText, streamedData, streamedText}) {
+			expected.write(1);
+			expected.write(value);
+		}
+		assertArrayEquals(expected.toByteArray(), e.extract(s, CanonicalFormat.STREAMING));
+		assertTrue(s.closed);
+		assertEquals(0, s.buffer.position());
+		
+		Mac mac = Mac.getInstance("HmacSHA256");
+		mac.init(new SecretKeySpec(new byte[16], "HmacSHA256"));
+		byte [] expectedMac = mac.doFinal(expected.toByteArray());
+		e.extract(s, mac, CanonicalFormat.STREAMING);
+		assertArrayEquals(expectedMac, mac.doFinal());
+		
+		// The binary format is not affected
+		byte [] bin = e.extract(s, CanonicalFormat.BINARY);
+		assertEquals(2, bin[0]);
+		assertFalse(Arrays.equals(bin, e.extract(s, CanonicalFormat.STREAMING)));
+		
+		s.source = 10;
+		try {
+			e.extract(s, CanonicalFormat.STREAMING);
+			fail();
+		} catch (DTOSignerException ex) {
+			assertTrue(ex.getCause() instanceof IllegalArgumentException);
+		}
+	}
+
+	@Test
+	public void testExtractMac() throws Exception {
+		SignedPropertyExtractor e = new SignedPropertyExtractor(Sample1.class);
+		Mac mac = Mac.getInstance("HmacSHA256");
+		mac.init(new SecretKeySpec(new byte[16], "HmacSHA256"));
+
+		Sample1 s = new Sample1();
+		s.setS("test \u00e7\u00e3o");
+		byte [] expected = mac.doFinal(e.extract(s));
+		e.extract(s, mac);
+		assertArrayEquals(expected, mac.doFinal());
+	}
+
 	@Test
 	public void testGetDTOClass() throws Exception {
 		SignedPropertyExtractor e = new SignedPropertyExtractor(Sample1.class);
@@ -138,5 +381,36 @@ public class SignedPropertyExtractorTest {
 		assertTrue(e.canExtract(new Sample1()));
 		assertFalse(e.canExtract(new Sample2()));
 		assertFalse(e.canExtract(new Sample3()));
+		assertTrue(e.canExtract(new SignedPropertyExtractorRegistryTest.Sample1Proxy()));
+	}
+
+	@Test
+	public void testExtractPartialOverride() throws Exception {
+		// The canonical form of a subclass that overrides a signed getter without
+		// the annotation does not include it, as it always did
+		SignedPropertyExtractor e = new SignedPropertyExtractorRegistry().getExtractor(
+				SignedPropertyExtractorRegistryTest.Sample1Override.class);
+		assertArrayEquals(new byte[] {
+				(byte)0x30, (byte)0x01, // i
+				(byte)0x02, (byte)0x01, // s
+				(byte)0x66, (byte)0x61, (byte)0x6c, (byte)0x73, (byte)0x65, (byte)0x01 // b
+			}, e.extract(new SignedPropertyExtractorRegistryTest.Sample1Override()));
+		assertArrayEquals(e.extract(new SignedPropertyExtractorRegistryTest.Sample1Override()), 
+				new SignedPropertyExtractor(SignedPropertyExtractorRegistryTest.Sample1Override.class)
+				.extract(new SignedPropertyExtractorRegistryTest.Sample1Override()));
+	}
+
+	@Test
+	public void testResolveDTOClass() throws Exception {
+		assertEquals(Sample1.class, SignedPropertyExtractor.resolveDTOClass(Sample1.class));
+		assertEquals(Sample1.class, SignedPropertyExtractor.resolveDTOClass(
+				SignedPropertyExtractorRegistryTest.Sample1Proxy.class));
+		assertEquals(Sample1.class, SignedPropertyExtractor.resolveDTOClass(
+				SignedPropertyExtractorRegistryTest.Sample1ProxyProxy.class));
+		assertEquals(SignedPropertyExtractorRegistryTest.Sample1Override.class, SignedPropertyExtractor.resolveDTOClass(
+				SignedPropertyExtractorRegistryTest.Sample1Override.class));
+		assertEquals(Sample2.class, SignedPropertyExtractor.resolveDTOClass(Sample2.class));
+		assertEquals(Sample3.class, SignedPropertyExtractor.resolveDTOClass(Sample3.class));
+		assertEquals(String.class, SignedPropertyExtractor.resolveDTOClass(String.class));
 	}
 }
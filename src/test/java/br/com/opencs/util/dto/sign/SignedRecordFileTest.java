@@ -0,0 +1,214 @@
+/*
+ * BSD 3-Clause License
+ * 
+ * Copyright (c) 2019, Open Communications Security
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package br.com.opencs.util.dto.sign;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SignedRecordFileTest {
+	
+	private Path file;
+	
+	@Before
+	public void setUp() throws Exception {
+		this.file = Files.createTempFile("records", ".dat");
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		Files.deleteIfExists(this.file);
+	}
+	
+	private static List<Sample4> createSamples(int count) {
+		List<Sample4> samples = new ArrayList<Sample4>();
+		for (int i = 0; i < count; i++) {
+			Sample4 d = new Sample4();
+			d.setFixed("fixed" + i);
+			d.setAnotherFixed(i);
+			samples.add(d);
+		}
+		return samples;
+	}
+
+	@Test
+	public void testWriteAndVerify() throws Exception {
+		DTOSigner s = new DTOSigner(new byte[16]);
+		SignedRecordFile f = new SignedRecordFile(s);
+		List<Sample4> samples = createSamples(100);
+		assertEquals(100, f.write(this.file, samples));
+		
+		byte [] data = Files.readAllBytes(this.file);
+		assertEquals(SignedRecordFile.MAGIC, ((data[0] & 0xFF) << 24) | ((data[1] & 0xFF) << 16) | 
+				((data[2] & 0xFF) << 8) | (data[3] & 0xFF));
+		assertEquals(SignedRecordFile.VERSION, data[4]);
+		assertEquals(SignedDTOCodec.getAlgorithmId(DTOSigner.DEFAULT_ALGORITHM), data[5]);
+		assertEquals(32, data[7]);
+		
+		// The first record holds the canonical form and the signature of the DTO
+		byte [] canonical = new SignedPropertyExtractor(Sample4.class).extract(samples.get(0));
+		int offset = SignedRecordFile.HEADER_LENGTH;
+		assertEquals(canonical.length, data[offset + 3]);
+		byte [] signature = s.createSignature(samples.get(0));
+		for (int i = 0; i < signature.length; i++) {
+			assertEquals(signature[i], data[offset + 4 + canonical.length + i]);
+		}
+		
+		SignedRecordFile.Result result = f.verify(this.file);
+		assertEquals(100, result.getRecordCount());
+		assertTrue(result.isValid());
+		assertEquals(0, result.getInvalidOffsets().length);
+	}
+
+	@Test
+	public void testInvalidRecords() throws Exception {
+		DTOSigner s = new DTOSigner(new byte[16], DTOSigner.DEFAULT_ALGORITHM, MacPoolStrategy.STRIPED, 
+				SignedPropertyExtractorManager.getDefaultRegistry(), CanonicalFormat.BINARY);
+		// Small chunks in order to verify them in parallel
+		SignedRecordFile f = new SignedRecordFile(s, 256);
+		try (SignedRecordFile.RecordWriter w = f.create(this.file)) {
+			for (Sample4 d: createSamples(1000)) {
+				w.append(d);
+			}
+			assertEquals(1000, w.getRecordCount());
+		}
+		// Corrupts the canonical form of the first and last records and the signature of the 501st
+		long offset = SignedRecordFile.HEADER_LENGTH;
+		long [] expected = new long[3];
+		try (RandomAccessFile raf = new RandomAccessFile(this.file.toFile(), "rw")) {
+			for (int i = 0; i < 1000; i++) {
+				raf.seek(offset);
+				int length = raf.readInt();
+				if ((i == 0) || (i == 500) || (i == 999)) {
+					long corrupted = (i == 500) ? offset + 4 + length : offset + 5;
+					raf.seek(corrupted);
+					int b = raf.read();
+					raf.seek(corrupted);
+					raf.write(b ^ 1);
+					expected[(i == 0) ? 0 : ((i == 500) ? 1 : 2)] = offset;
+				}
+				offset += 4 + length + 32;
+			}
+		}
+		SignedRecordFile.Result result = f.verify(this.file);
+		assertEquals(1000, result.getRecordCount());
+		assertFalse(result.isValid());
+		assertArrayEquals(expected, result.getInvalidOffsets());
+	}
+
+	@Test
+	public void testMalformed() throws Exception {
+		DTOSigner s = new DTOSigner(new byte[16]);
+		SignedRecordFile f = new SignedRecordFile(s);
+		f.write(this.file, createSamples(2));
+		
+		try {
+			new SignedRecordFile(new DTOSigner(new byte[16], "HmacSHA512")).verify(this.file);
+			fail();
+		} catch (DTOSignerException e) {}
+		
+		File raw = this.file.toFile();
+		try (RandomAccessFile raf = new RandomAccessFile(raw, "rw")) {
+			raf.setLength(raf.length() - 1);
+		}
+		try {
+			f.verify(this.file);
+			fail();
+		} catch (DTOSignerException e) {}
+		
+		Files.write(this.file, new byte[] {1, 2, 3});
+		try {
+			f.verify(this.file);
+			fail();
+		} catch (DTOSignerException e) {}
+		
+		Files.write(this.file, new byte[0]);
+		try {
+			f.verify(this.file);
+			fail();
+		} catch (DTOSignerException e) {}
+	}
+
+	@Test
+	public void testUnknownAlgorithm() throws Exception {
+		// HmacSHA512/256 has no identifier in the SignedDTOCodec
+		DTOSigner s = new DTOSigner(new byte[16], "HmacSHA512/256");
+		assertEquals(0, SignedDTOCodec.getAlgorithmId(s.getMacPool().getAlgorithm()));
+		SignedRecordFile f = new SignedRecordFile(s);
+		Files.write(this.file, new byte[] {1});
+		try {
+			f.write(this.file, createSamples(2));
+			fail();
+		} catch (DTOSignerException e) {}
+		// The existing file is not replaced
+		assertArrayEquals(new byte[] {1}, Files.readAllBytes(this.file));
+		
+		// Files with the identifier 0 are not accepted either
+		Files.write(this.file, new byte[] {'D', 'T', 'O', 'S', 1, 0, 0, 32});
+		try {
+			f.verify(this.file);
+			fail();
+		} catch (DTOSignerException e) {}
+		try {
+			new SignedRecordFile(new DTOSigner(new byte[16], "HmacSHA512/224")).verify(this.file);
+			fail();
+		} catch (DTOSignerException e) {}
+	}
+
+	@Test
+	public void testEmptyAndEngines() throws Exception {
+		DTOSigner s = new DTOSigner(new byte[16], MacEngines.SIPHASH_2_4_128);
+		SignedRecordFile f = new SignedRecordFile(s, 128);
+		assertEquals(0, f.write(this.file, new ArrayList<Object>()));
+		assertEquals(0, f.verify(this.file).getRecordCount());
+		
+		f.write(this.file, createSamples(50));
+		assertTrue(f.verify(this.file).isValid());
+		
+		Mac mac = MacEngines.getInstance(MacEngines.SIPHASH_2_4_128);
+		mac.init(new SecretKeySpec(new byte[16], MacEngines.SIPHASH_2_4_128));
+		assertArrayEquals(s.createSignature(createSamples(1).get(0)), mac.doFinal(
+				new SignedPropertyExtractor(Sample4.class).extract(createSamples(1).get(0))));
+	}
+}
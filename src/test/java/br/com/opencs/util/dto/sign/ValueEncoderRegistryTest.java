@@ -0,0 +1,176 @@
+/*
+ * BSD 3-Clause License
+ * 
+ * Copyright (c) 2019, Open Communications Security
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package br.com.opencs.util.dto.sign;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ValueEncoderRegistryTest {
+
+	private static byte [] encode(ValueEncoderRegistry r, Class<?> type, Object value) {
+		CanonicalWriter w = CanonicalWriter.acquire(null, 0);
+		try {
+			r.getEncoder(type).encode(value, w);
+			return w.toByteArray();
+		} finally {
+			w.release();
+		}
+	}
+
+	@Test
+	public void testGetDefault() {
+		assertNotNull(ValueEncoderRegistry.getDefault());
+		assertSame(ValueEncoderRegistry.getDefault(), ValueEncoderRegistry.getDefault());
+	}
+
+	@Test
+	public void testDefaultEncoders() throws Exception {
+		ValueEncoderRegistry r = new ValueEncoderRegistry();
+
+		assertArrayEquals(new byte[] {1}, encode(r, Boolean.class, true));
+		assertArrayEquals(new byte[] {(byte)0xFE}, encode(r, Byte.class, (byte)-2));
+		assertArrayEquals(new byte[] {0x00, 0x41}, encode(r, Character.class, 'A'));
+		assertArrayEquals(new byte[] {0, 0, 0, 10}, encode(r, Integer.class, 10));
+		assertArrayEquals(new byte[] {0, 0, 0, 0, 0, 0, 1, 0}, encode(r, Long.class, 256L));
+		assertArrayEquals(new byte[] {0x3F, (byte)0x80, 0, 0}, encode(r, Float.class, 1.0f));
+		assertArrayEquals(new byte[] {0, 0, 0, 2, (byte)0xC3, (byte)0xA7}, encode(r, String.class, "ç"));
+		assertArrayEquals(new byte[] {0, 0, 0, 2, 1, 2}, encode(r, byte[].class, new byte[] {1, 2}));
+		assertArrayEquals(new byte[] {0, 0, 0, 1, (byte)0xFF}, encode(r, BigInteger.class, BigInteger.ONE.negate()));
+		assertArrayEquals(new byte[] {0, 0, 0, 2, 0, 0, 0, 2, 0x04, (byte)0xD2}, 
+				encode(r, BigDecimal.class, new BigDecimal("12.34")));
+		// The scale is part of the value
+		assertFalse(Arrays.equals(encode(r, BigDecimal.class, new BigDecimal("1.0")), 
+				encode(r, BigDecimal.class, new BigDecimal("1.00"))));
+		assertArrayEquals(new byte[] {0, 0, 0, 0, 0, 0, 0, 5}, encode(r, LocalDate.class, LocalDate.ofEpochDay(5)));
+
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(expected);
+		out.writeLong(123456789L);
+		assertArrayEquals(expected.toByteArray(), encode(r, Date.class, new Date(123456789L)));
+		
+		// The nanos are part of the value
+		Timestamp t1 = new Timestamp(123456789L);
+		Timestamp t2 = new Timestamp(123456789L);
+		t2.setNanos(t1.getNanos() + 1);
+		out.writeInt(t1.getNanos());
+		assertArrayEquals(expected.toByteArray(), encode(r, Timestamp.class, t1));
+		assertFalse(Arrays.equals(encode(r, Timestamp.class, t1), encode(r, Timestamp.class, t2)));
+		
+		expected.reset();
+		out.writeLong(1000);
+		out.writeInt(5);
+		assertArrayEquals(expected.toByteArray(), encode(r, Instant.class, Instant.ofEpochSecond(1000, 5)));
+
+		UUID uuid = UUID.randomUUID();
+		expected.reset();
+		out.writeLong(uuid.getMostSignificantBits());
+		out.writeLong(uuid.getLeastSignificantBits());
+		assertArrayEquals(expected.toByteArray(), encode(r, UUID.class, uuid));
+	}
+
+	@Test
+	public void testFallbackEncoders() throws Exception {
+		ValueEncoderRegistry r = new ValueEncoderRegistry();
+		
+		assertArrayEquals(new byte[] {0, 0, 0, 7, 'S', 'E', 'C', 'O', 'N', 'D', 'S'}, 
+				encode(r, TimeUnit.class, TimeUnit.SECONDS));
+		StringBuilder sb = new StringBuilder("abc");
+		assertArrayEquals(new byte[] {0, 0, 0, 3, 'a', 'b', 'c'}, encode(r, StringBuilder.class, sb));
+		assertArrayEquals(new byte[] {0, 0, 0, 2, '1', '0'}, encode(r, Object.class, 10));
+	}
+
+	@Test
+	public void testRegister() throws Exception {
+		ValueEncoderRegistry r = new ValueEncoderRegistry();
+		r.register(StringBuilder.class, (v, out) -> out.writeByte(v.length()));
+		assertArrayEquals(new byte[] {3}, encode(r, StringBuilder.class, new StringBuilder("abc")));
+		r.register(TimeUnit.class, (v, out) -> out.writeByte(v.ordinal()));
+		assertArrayEquals(new byte[] {3}, encode(r, TimeUnit.class, TimeUnit.SECONDS));
+		
+		// Does not affect other registries
+		assertArrayEquals(new byte[] {0, 0, 0, 3, 'a', 'b', 'c'}, 
+				encode(ValueEncoderRegistry.getDefault(), StringBuilder.class, new StringBuilder("abc")));
+	}
+
+	@SuppressWarnings("serial")
+	private static class Ticket extends Date {
+		
+		private final int sequence;
+		
+		Ticket(long time, int sequence) {
+			super(time);
+			this.sequence = sequence;
+		}
+		
+		@Override
+		public String toString() {
+			return getTime() + "#" + this.sequence;
+		}
+	}
+	
+	@Test
+	public void testSubclasses() throws Exception {
+		ValueEncoderRegistry r = new ValueEncoderRegistry();
+		
+		// Encoders are not inherited by default
+		assertArrayEquals(new byte[] {0, 0, 0, 3, '5', '#', '1'}, encode(r, Ticket.class, new Ticket(5, 1)));
+		assertFalse(Arrays.equals(encode(r, Ticket.class, new Ticket(5, 1)), 
+				encode(r, Ticket.class, new Ticket(5, 2))));
+		
+		r.register(Date.class, (v, out) -> out.writeByte((int)v.getTime()), true);
+		assertArrayEquals(new byte[] {5}, encode(r, Ticket.class, new Ticket(5, 1)));
+		// Explicit encoders take precedence
+		assertArrayEquals(encode(new ValueEncoderRegistry(), Timestamp.class, new Timestamp(5)), 
+				encode(r, Timestamp.class, new Timestamp(5)));
+		
+		r.register(Date.class, (v, out) -> out.writeByte((int)v.getTime()));
+		assertArrayEquals(new byte[] {0, 0, 0, 3, '5', '#', '1'}, encode(r, Ticket.class, new Ticket(5, 1)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRegisterPrimitive() throws Exception {
+		new ValueEncoderRegistry().register(int.class, (v, out) -> out.writeInt(v));
+	}
+}
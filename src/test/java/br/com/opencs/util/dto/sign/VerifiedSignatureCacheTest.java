@@ -0,0 +1,208 @@
+/*
+ * BSD 3-Clause License
+ * 
+ * Copyright (c) 2019, Open Communications Security
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package br.com.opencs.util.dto.sign;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class VerifiedSignatureCacheTest {
+	
+	@Test
+	public void testConstructor() {
+		assertEquals(VerifiedSignatureCache.DEFAULT_MAXIMUM_SIZE, new VerifiedSignatureCache().getCapacity());
+		assertEquals(4, new VerifiedSignatureCache(1, 1, TimeUnit.MINUTES).getCapacity());
+		assertEquals(1024, new VerifiedSignatureCache(1000, 1, TimeUnit.MINUTES).getCapacity());
+		
+		try {
+			new VerifiedSignatureCache(0, 1, TimeUnit.MINUTES);
+			fail();
+		} catch (IllegalArgumentException e) {}
+		// Rounded up to 2^26 entries, the table would not fit in a direct buffer
+		try {
+			new VerifiedSignatureCache((1 << 25) + 1, 1, TimeUnit.MINUTES);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage().startsWith("Invalid maximum size"));
+		}
+	}
+	
+	@Test
+	public void testTag() {
+		VerifiedSignatureCache c = new VerifiedSignatureCache(16, 1, TimeUnit.MINUTES);
+		byte [] canonical = {1, 2, 3, 4};
+		byte [] signature = {0, 5, 6, 7};
+		
+		long [] tag = c.tag(canonical, 4, signature, 1, 3).clone();
+		assertArrayEquals(tag, c.tag(canonical, 4, ByteBuffer.wrap(signature, 1, 3)));
+		ByteBuffer direct = ByteBuffer.allocateDirect(4);
+		direct.put(signature);
+		direct.position(1);
+		assertArrayEquals(tag, c.tag(canonical, 4, direct));
+		assertEquals(1, direct.position());
+		
+		assertFalse(tag[0] == c.tag(canonical, 3, signature, 1, 3)[0]);
+		assertFalse(tag[0] == c.tag(canonical, 4, signature, 0, 3)[0]);
+		
+		// Each instance has its own key
+		VerifiedSignatureCache c2 = new VerifiedSignatureCache(16, 1, TimeUnit.MINUTES);
+		assertFalse(tag[0] == c2.tag(canonical, 4, signature, 1, 3)[0]);
+	}
+	
+	@Test
+	public void testContainsPut() {
+		VerifiedSignatureCache c = new VerifiedSignatureCache(16, 1, TimeUnit.MINUTES);
+		long [] tag = {1234, 5678};
+		
+		assertFalse(c.contains(tag));
+		assertEquals(0, c.size());
+		c.put(tag);
+		assertTrue(c.contains(tag));
+		assertFalse(c.contains(new long[] {1234, 5679}));
+		assertEquals(1, c.size());
+		assertEquals(1, c.getHits());
+		assertEquals(2, c.getMisses());
+		
+		c.clear();
+		assertFalse(c.contains(tag));
+		assertEquals(0, c.size());
+	}
+	
+	@Test
+	public void testTimeToLive() throws Exception {
+		VerifiedSignatureCache c = new VerifiedSignatureCache(16, 1, TimeUnit.MILLISECONDS);
+		long [] tag = {1234, 5678};
+		
+		c.put(tag);
+		Thread.sleep(10);
+		assertFalse(c.contains(tag));
+		assertEquals(0, c.size());
+	}
+	
+	@Test
+	public void testEviction() {
+		// A single set with 4 entries
+		VerifiedSignatureCache c = new VerifiedSignatureCache(4, 1, TimeUnit.MINUTES);
+		for (int i = 0; i < 4; i++) {
+			c.put(new long[] {i, i});
+		}
+		assertEquals(4, c.size());
+		assertEquals(0, c.getEvictions());
+		
+		// Referenced entries survive the next eviction
+		for (int i = 0; i < 3; i++) {
+			assertTrue(c.contains(new long[] {i, i}));
+		}
+		c.put(new long[] {4, 4});
+		assertEquals(1, c.getEvictions());
+		assertEquals(4, c.size());
+		assertFalse(c.contains(new long[] {3, 3}));
+		for (int i = 0; i < 3; i++) {
+			assertTrue(c.contains(new long[] {i, i}));
+		}
+		assertTrue(c.contains(new long[] {4, 4}));
+	}
+	
+	@Test
+	public void testTornEntry() {
+		VerifiedSignatureCache c = new VerifiedSignatureCache(4, 1, TimeUnit.MINUTES);
+		long [] tag = {1234, 5678};
+		c.put(tag);
+		
+		// Corrupt the expiration of the entry as a concurrent writer would
+		for (int slot = 0; slot < 4; slot++) {
+			c.entries().putLong(slot * 32 + 16, Long.MAX_VALUE);
+		}
+		assertFalse(c.contains(tag));
+		assertEquals(0, c.size());
+	}
+	
+	@Test
+	public void testDTOSigner() throws Exception {
+		DTOSigner s = new DTOSigner(new byte[32]);
+		VerifiedSignatureCache c = new VerifiedSignatureCache(1024, 1, TimeUnit.MINUTES);
+		assertNull(s.getVerifiedSignatureCache());
+		s.setVerifiedSignatureCache(c);
+		assertSame(c, s.getVerifiedSignatureCache());
+		
+		Sample4 d = new Sample4();
+		d.setFixed("fixed1");
+		d.setAnotherFixed(1);
+		SignedDTO<Sample4> signed = new SignedDTO<Sample4>(d);
+		s.sign(signed);
+		
+		assertTrue(s.checkSignature(signed));
+		assertEquals(0, c.getHits());
+		assertEquals(1, c.size());
+		assertTrue(s.checkSignature(signed));
+		assertEquals(1, c.getHits());
+		
+		// Direct buffers
+		ByteBuffer direct = ByteBuffer.allocateDirect(32);
+		direct.put(signed.getSignature());
+		direct.flip();
+		assertTrue(s.checkSignature(d, direct));
+		assertEquals(2, c.getHits());
+		assertEquals(0, direct.position());
+		
+		// A mutated DTO is not fooled by the cache
+		d.setAnotherFixed(2);
+		assertFalse(s.checkSignature(signed));
+		assertFalse(s.checkSignature(d, direct));
+		assertEquals(2, c.getHits());
+		d.setAnotherFixed(1);
+		assertTrue(s.checkSignature(signed));
+		assertEquals(3, c.getHits());
+		
+		// Invalid signatures are never recorded
+		byte [] wrong = signed.getSignature().clone();
+		wrong[0] ^= 1;
+		assertFalse(s.checkSignature(d, wrong, 0, wrong.length));
+		assertFalse(s.checkSignature(d, wrong, 0, wrong.length));
+		assertEquals(1, c.size());
+		
+		// Distinct DTOs
+		for (int i = 2; i < 10; i++) {
+			Sample4 d2 = new Sample4();
+			d2.setFixed("fixed" + i);
+			d2.setAnotherFixed(i);
+			byte [] signature = s.createSignature(d2);
+			assertTrue(s.checkSignature(d2, signature, 0, signature.length));
+			assertTrue(s.checkSignature(d2, signature, 0, signature.length));
+		}
+		assertEquals(9, c.size());
+		assertEquals(11, c.getHits());
+	}
+}
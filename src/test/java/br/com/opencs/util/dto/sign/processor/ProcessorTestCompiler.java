@@ -0,0 +1,120 @@
+/*
+ * BSD 3-Clause License
+ * 
+ * Copyright (c) 2019, Open Communications Security
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package br.com.opencs.util.dto.sign.processor;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+/**
+ * Compiles test sources with the SignedPropertyProcessor enabled.
+ */
+public class ProcessorTestCompiler {
+
+	private static class Source extends SimpleJavaFileObject {
+
+		private final String code;
+
+		public Source(String className, String code) {
+			super(URI.create("string:///" + className.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
+			this.code = code;
+		}
+
+		@Override
+		public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+			return this.code;
+		}
+	}
+
+	private final File output;
+
+	private final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+
+	private final List<JavaFileObject> sources = new ArrayList<JavaFileObject>();
+
+	public ProcessorTestCompiler() throws IOException {
+		this.output = Files.createTempDirectory("processor").toFile();
+		this.output.deleteOnExit();
+	}
+
+	public ProcessorTestCompiler add(String className, String code) {
+		this.sources.add(new Source(className, code));
+		return this;
+	}
+
+	public boolean compile() throws IOException {
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		try (StandardJavaFileManager fm = compiler.getStandardFileManager(this.diagnostics, Locale.ROOT, null)) {
+			fm.setLocation(StandardLocation.CLASS_OUTPUT, Collections.singletonList(this.output));
+			fm.setLocation(StandardLocation.SOURCE_OUTPUT, Collections.singletonList(this.output));
+			JavaCompiler.CompilationTask task = compiler.getTask(null, fm, this.diagnostics, 
+					Arrays.asList("-classpath", System.getProperty("java.class.path")), null, this.sources);
+			task.setProcessors(Collections.singletonList(new SignedPropertyProcessor()));
+			return task.call();
+		}
+	}
+
+	public List<String> getMessages(Diagnostic.Kind kind) {
+		List<String> messages = new ArrayList<String>();
+		for (Diagnostic<? extends JavaFileObject> d: this.diagnostics.getDiagnostics()) {
+			if (d.getKind() == kind) {
+				messages.add(d.getMessage(Locale.ROOT));
+			}
+		}
+		return messages;
+	}
+
+	public File getOutput() {
+		return this.output;
+	}
+
+	public ClassLoader createClassLoader() throws IOException {
+		return new URLClassLoader(new URL[] {this.output.toURI().toURL()}, getClass().getClassLoader());
+	}
+}
@@ -0,0 +1,175 @@
+/*
+ * BSD 3-Clause License
+ * 
+ * Copyright (c) 2019, Open Communications Security
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package br.com.opencs.util.dto.sign.processor;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.tools.Diagnostic;
+
+import org.junit.Test;
+
+import br.com.opencs.util.dto.sign.DTOSigner;
+import br.com.opencs.util.dto.sign.DTOSignerWarmup;
+import br.com.opencs.util.dto.sign.GeneratedExtractor;
+
+public class SignedPropertyProcessorTest {
+
+	public static final String ORDER = 
+			"package test.dto;\n" +
+			"import br.com.opencs.util.dto.sign.SignedProperty;\n" +
+			"public class Order {\n" +
+			"  private int id; private String name; private java.math.BigDecimal total;\n" +
+			"  @SignedProperty public int getId() { return id; }\n" +
+			"  public void setId(int id) { this.id = id; }\n" +
+			"  @SignedProperty public String getName() { return name; }\n" +
+			"  public void setName(String name) { this.name = name; }\n" +
+			"  @SignedProperty public java.math.BigDecimal getTotal() { return total; }\n" +
+			"  public void setTotal(java.math.BigDecimal total) { this.total = total; }\n" +
+			"  public String getIgnored() { return \"ignored\"; }\n" +
+			"  public static class Line {\n" +
+			"    @SignedProperty public String getCode() { return \"code\"; }\n" +
+			"  }\n" +
+			"  private static class Hidden {\n" +
+			"    @SignedProperty public String getCode() { return \"code\"; }\n" +
+			"  }\n" +
+			"}\n";
+
+	public static final String COVARIANT = 
+			"package test.dto;\n" +
+			"import br.com.opencs.util.dto.sign.SignedProperty;\n" +
+			"public class Covariant {\n" +
+			"  public static class Base<T> {\n" +
+			"    @SignedProperty public Object getValue() { return \"base\"; }\n" +
+			"    @SignedProperty public T getItem() { return null; }\n" +
+			"  }\n" +
+			"  public static class Middle extends Base<String> {\n" +
+			"    @SignedProperty public Number getValue() { return 1; }\n" +
+			"  }\n" +
+			"  public static class Sub extends Middle {\n" +
+			"    private String item = \"sub\";\n" +
+			"    @SignedProperty public Integer getValue() { return 2; }\n" +
+			"    @SignedProperty public String getItem() { return item; }\n" +
+			"    public void setItem(String item) { this.item = item; }\n" +
+			"  }\n" +
+			"}\n";
+	
+	public static final String SPECIAL_ORDER = 
+			"package test.dto;\n" +
+			"import br.com.opencs.util.dto.sign.SignedProperty;\n" +
+			"public class SpecialOrder extends Order {\n" +
+			"  private boolean urgent;\n" +
+			"  @SignedProperty public boolean isUrgent() { return urgent; }\n" +
+			"  public void setUrgent(boolean urgent) { this.urgent = urgent; }\n" +
+			"}\n";
+
+	public static final String BAD = 
+			"package test.dto;\n" +
+			"import br.com.opencs.util.dto.sign.SignedProperty;\n" +
+			"public class Bad {\n" +
+			"  @SignedProperty public void getNothing() { }\n" +
+			"  @SignedProperty public int getWrong(int x) { return x; }\n" +
+			"}\n";
+
+	@Test
+	public void testGenerate() throws Exception {
+		ProcessorTestCompiler c = new ProcessorTestCompiler()
+				.add("test.dto.Order", ORDER)
+				.add("test.dto.SpecialOrder", SPECIAL_ORDER);
+		assertTrue(c.compile());
+		assertTrue(c.getMessages(Diagnostic.Kind.ERROR).isEmpty());
+
+		assertTrue(new File(c.getOutput(), "test/dto/Order" + GeneratedExtractor.SUFFIX + ".java").isFile());
+		assertTrue(new File(c.getOutput(), "test/dto/SpecialOrder" + GeneratedExtractor.SUFFIX + ".java").isFile());
+		assertTrue(new File(c.getOutput(), "test/dto/Order$Line" + GeneratedExtractor.SUFFIX + ".java").isFile());
+		assertFalse(new File(c.getOutput(), "test/dto/Order$Hidden" + GeneratedExtractor.SUFFIX + ".java").exists());
+
+		ClassLoader loader = c.createClassLoader();
+		Class<?> orderClass = loader.loadClass("test.dto.Order");
+		GeneratedExtractor g = (GeneratedExtractor)loader.loadClass(
+				"test.dto.Order" + GeneratedExtractor.SUFFIX).getConstructor().newInstance();
+		assertSame(orderClass, g.getDTOClass());
+		assertEquals(3, g.getPropertyCount());
+		assertEquals("getId", g.getPropertyName(0));
+		assertEquals("getName", g.getPropertyName(1));
+		assertEquals("getTotal", g.getPropertyName(2));
+
+		Object order = orderClass.getConstructor().newInstance();
+		orderClass.getMethod("setId", int.class).invoke(order, 10);
+		orderClass.getMethod("setName", String.class).invoke(order, "name");
+		assertEquals(10, g.get(order, 0));
+		assertEquals("name", g.get(order, 1));
+		assertNull(g.get(order, 2));
+
+		GeneratedExtractor s = (GeneratedExtractor)loader.loadClass(
+				"test.dto.SpecialOrder" + GeneratedExtractor.SUFFIX).getConstructor().newInstance();
+		assertEquals(4, s.getPropertyCount());
+		assertEquals("isUrgent", s.getPropertyName(3));
+	}
+
+	@Test
+	public void testIndex() throws Exception {
+		ProcessorTestCompiler c = new ProcessorTestCompiler()
+				.add("test.dto.Order", ORDER)
+				.add("test.dto.SpecialOrder", SPECIAL_ORDER);
+		assertTrue(c.compile());
+		
+		File index = new File(c.getOutput(), DTOSignerWarmup.INDEX_RESOURCE);
+		assertEquals(Arrays.asList("test.dto.Order", "test.dto.Order$Hidden", "test.dto.Order$Line", 
+				"test.dto.SpecialOrder"), Files.readAllLines(index.toPath(), StandardCharsets.UTF_8));
+		
+		DTOSignerWarmup.Report report = new DTOSignerWarmup(new DTOSigner(new byte[16]))
+				.addIndex(c.createClassLoader())
+				.setIterations(10)
+				.run();
+		assertEquals(4, report.getClassCount());
+		assertEquals(3, report.getExercisedCount());
+		assertTrue(report.getFailures().isEmpty());
+	}
+
+	@Test
+	public void testUnsuitableMethods() throws Exception {
+		ProcessorTestCompiler c = new ProcessorTestCompiler().add("test.dto.Bad", BAD);
+		assertFalse(c.compile());
+
+		List<String> errors = c.getMessages(Diagnostic.Kind.ERROR);
+		assertEquals(2, errors.size());
+		assertTrue(errors.contains("The method test.dto.Bad.getNothing() must have a return value."));
+		assertTrue(errors.contains("The method test.dto.Bad.getWrong() cannot have parameters."));
+		assertFalse(new File(c.getOutput(), "test/dto/Bad" + GeneratedExtractor.SUFFIX + ".java").exists());
+	}
+}